@@ -0,0 +1,99 @@
+package com.example.qrattendance.ui.instructor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.qrattendance.R;
+import com.example.qrattendance.data.model.AttendanceRecord;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts row binds when the live roster receives a new scan
+ */
+@RunWith(AndroidJUnit4.class)
+public class AttendanceRecordsAdapterBindTest {
+    private static final int INITIAL_SCANS = 10;
+
+    @Test
+    public void newScan_bindsOnlyTheInsertedRow() throws Exception {
+        CountingAdapter adapter = new CountingAdapter();
+        RecyclerView[] recyclerView = new RecyclerView[1];
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            Context context = new ContextThemeWrapper(
+                    InstrumentationRegistry.getInstrumentation().getTargetContext(), R.style.Theme_QRAttendance);
+            recyclerView[0] = new RecyclerView(context);
+            recyclerView[0].setLayoutManager(new LinearLayoutManager(context));
+            recyclerView[0].setAdapter(adapter);
+        });
+
+        submitAndWait(adapter, roster(INITIAL_SCANS));
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> layout(recyclerView[0]));
+        assertEquals(INITIAL_SCANS, adapter.bindCount);
+
+        // The snapshot after one more scan carries the whole list again, as new objects
+        adapter.bindCount = 0;
+        submitAndWait(adapter, roster(INITIAL_SCANS + 1));
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> layout(recyclerView[0]));
+
+        assertEquals(1, adapter.bindCount);
+        assertEquals(INITIAL_SCANS + 1, adapter.getItemCount());
+    }
+
+    private static void submitAndWait(CountingAdapter adapter, List<SessionAttendanceActivity.AttendanceModel> models)
+            throws InterruptedException {
+        CountDownLatch committed = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> adapter.submitList(models, committed::countDown));
+        assertTrue("Diff did not finish", committed.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        recyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(4000, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1080, 4000);
+    }
+
+    private static List<SessionAttendanceActivity.AttendanceModel> roster(int scans) {
+        List<SessionAttendanceActivity.AttendanceModel> models = new ArrayList<>();
+        for (int i = 0; i < scans; i++) {
+            AttendanceRecord record = new AttendanceRecord("session1", "course1", "student" + i, "qr1");
+            record.setRecordId("session1_student" + i);
+            record.setTimestamp(new Date(1700000000000L + i * 1000L));
+            models.add(new SessionAttendanceActivity.AttendanceModel(record, "Student " + i, "R" + i, i + 1));
+        }
+        return models;
+    }
+
+    private static class CountingAdapter extends AttendanceRecordsAdapter {
+        private int bindCount;
+
+        CountingAdapter() {
+            super(new ArrayList<>());
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull AttendanceViewHolder holder, int position) {
+            bindCount++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.qrattendance.ui.student;
+
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.qrattendance.R;
+import com.example.qrattendance.data.model.Course;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frame timing of scrolling a 200-course list.
+ * Each scroll step is one frame: the RecyclerView binds the rows that come into view and lays
+ * them out on the main thread. A frame over the 16 ms budget counts as dropped.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MyCourseAdapterFrameTimingTest {
+    private static final String TAG = "FrameTimingTest";
+    private static final int COURSE_COUNT = 200;
+    private static final int SCROLL_STEP_PX = 120;
+    private static final long FRAME_BUDGET_NS = 16_000_000L;
+    private static final int WARMUP_FRAMES = 10;
+
+    @Test
+    public void scrollingCourseList_staysWithinFrameBudget() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            Context context = new ContextThemeWrapper(
+                    InstrumentationRegistry.getInstrumentation().getTargetContext(), R.style.Theme_QRAttendance);
+
+            RecyclerView recyclerView = new RecyclerView(context);
+            recyclerView.setLayoutManager(new LinearLayoutManager(context));
+            recyclerView.setAdapter(new MyCourseAdapter(courseItems()));
+            layout(recyclerView);
+
+            int frames = 0;
+            int droppedFrames = 0;
+            long worstFrameNs = 0;
+            while (recyclerView.canScrollVertically(1)) {
+                long start = System.nanoTime();
+                recyclerView.scrollBy(0, SCROLL_STEP_PX);
+                layout(recyclerView);
+                long frameNs = System.nanoTime() - start;
+
+                // The first frames inflate the view holder pool
+                if (frames++ < WARMUP_FRAMES) {
+                    continue;
+                }
+                worstFrameNs = Math.max(worstFrameNs, frameNs);
+                if (frameNs > FRAME_BUDGET_NS) {
+                    droppedFrames++;
+                }
+            }
+
+            int measured = frames - WARMUP_FRAMES;
+            Log.i(TAG, "Scrolled " + COURSE_COUNT + " courses: " + measured + " frames, " + droppedFrames
+                    + " dropped, worst " + worstFrameNs / 1_000_000.0 + " ms");
+
+            assertTrue("Too few frames measured", measured > 0);
+            assertTrue("Dropped " + droppedFrames + " of " + measured + " frames", droppedFrames * 20 <= measured);
+        });
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        recyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1080, 1920);
+    }
+
+    private static List<CourseListItem> courseItems() {
+        List<CourseListItem> items = new ArrayList<>(COURSE_COUNT);
+        for (int i = 0; i < COURSE_COUNT; i++) {
+            Course course = new Course();
+            course.setCourseId("course" + i);
+            course.setCourseCode("CS" + (100 + i));
+            course.setCourseName("Course " + i);
+            course.setDepartment("Computer Science");
+            course.setSemester("Fall");
+            course.setCredits(3);
+            items.add(CourseListItem.from(course, i % 3 == 0 ? null : "Instructor " + (i % 7)));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.qrattendance.data.local;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.qrattendance.data.repository.AttendanceAggregateReconciler;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nightly check of the attendance aggregates of every active course.
+ * Each course is rebuilt from its records by {@link AttendanceAggregateReconciler}; drift is logged
+ * and corrected, and the number of corrected aggregates is returned in the output data.
+ */
+public class AggregateReconcileWorker extends Worker {
+    private static final String TAG = "AggregateReconcile";
+    private static final String UNIQUE_WORK_NAME = "attendance_aggregate_reconcile";
+    private static final long COURSE_TIMEOUT_SECONDS = 120;
+
+    public static final String KEY_COURSES_CHECKED = "coursesChecked";
+    public static final String KEY_DRIFT_COUNT = "driftCount";
+
+    public AggregateReconcileWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Schedule the daily reconciliation, keeps an already scheduled run
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(AggregateReconcileWorker.class, 1, TimeUnit.DAYS)
+                .setConstraints(constraints)
+                .build();
+
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(UNIQUE_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AttendanceAggregateReconciler reconciler = new AttendanceAggregateReconciler(executor);
+
+        int coursesChecked = 0;
+        int driftCount = 0;
+        boolean failed = false;
+        try {
+            QuerySnapshot courses = Tasks.await(FirebaseFirestore.getInstance()
+                    .collection("courses")
+                    .whereEqualTo("isActive", true)
+                    .get());
+
+            for (DocumentSnapshot course : courses.getDocuments()) {
+                if (isStopped()) {
+                    break;
+                }
+                try {
+                    AttendanceAggregateReconciler.Report report = Tasks.await(
+                            reconciler.reconcileCourse(course.getId()), COURSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    coursesChecked++;
+                    driftCount += report.getDrift().size();
+                } catch (Exception e) {
+                    // Carry on with the other courses, this one is checked again on the next run
+                    Log.e(TAG, "Failed to reconcile course " + course.getId(), e);
+                    failed = true;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to load courses", e);
+            return Result.retry();
+        } finally {
+            executor.shutdown();
+        }
+
+        Log.i(TAG, "Reconciled " + coursesChecked + " courses, corrected " + driftCount + " aggregates"
+                + (failed ? ", some courses failed" : ""));
+        Data output = new Data.Builder()
+                .putInt(KEY_COURSES_CHECKED, coursesChecked)
+                .putInt(KEY_DRIFT_COUNT, driftCount)
+                .build();
+        return Result.success(output);
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.qrattendance.data.local;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.qrattendance.data.model.Session;
+import com.example.qrattendance.data.repository.ExpirySweep;
+import com.example.qrattendance.data.repository.ServerClock;
+import com.example.qrattendance.data.repository.SessionStatusWriter;
+import com.example.qrattendance.data.repository.SyncFields;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweep of expired documents with {@link ExpirySweep}, every 15 minutes: QR codes still marked
+ * active after they expired are switched off, sessions whose end time has passed are stored as
+ * COMPLETED and sessions whose start time has passed as IN_PROGRESS, so the stored status of a
+ * session is at most one run behind even if no instructor screen shows it. Sessions are re-read in
+ * a transaction before they are moved on, so one cancelled since the query stays cancelled. Tombstones older than
+ * {@link SyncFields#TOMBSTONE_TTL_MS} are deleted.
+ * Every staff device schedules the sweep; a run first takes the lease document in a transaction and
+ * is skipped while another device holds a fresh lease, see {@link ExpirySweep#mayTakeLease}.
+ * The number of closed documents, batches and the duration are returned in the output data.
+ */
+public class ExpirySweepWorker extends Worker {
+    private static final String TAG = "ExpirySweepWorker";
+    private static final String UNIQUE_WORK_NAME = "expiry_sweep";
+    private static final String PREF_NAME = "expiry_sweep";
+    private static final String PREF_DEVICE_ID = "deviceId";
+    private static final String LEASES_COLLECTION = "sweep_leases";
+    private static final long TIMEOUT_SECONDS = 60;
+
+    public static final String KEY_CODES_SWEPT = "codesSwept";
+    public static final String KEY_SESSIONS_COMPLETED = "sessionsCompleted";
+    public static final String KEY_SESSIONS_STARTED = "sessionsStarted";
+    public static final String KEY_TOMBSTONES_PRUNED = "tombstonesPruned";
+    public static final String KEY_BATCHES = "batches";
+    public static final String KEY_DURATION_MS = "durationMs";
+    public static final String KEY_SKIPPED = "skipped";
+
+    public ExpirySweepWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Schedule the sweep, keeps an already scheduled run
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(ExpirySweepWorker.class,
+                PeriodicWorkRequest.MIN_PERIODIC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+                .setConstraints(constraints)
+                .build();
+
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(UNIQUE_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+        SharedPreferences checkpoints = getApplicationContext().getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        ExpirySweep sweep = new ExpirySweep(System::currentTimeMillis);
+
+        try {
+            if (!takeLease(firestore, checkpoints)) {
+                Log.i(TAG, "Another device swept recently, skipping this run");
+                return Result.success(new Data.Builder().putBoolean(KEY_SKIPPED, true).build());
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to take the sweep lease", e);
+            return Result.retry();
+        }
+
+        ExpirySweep.Result codes;
+        ExpirySweep.Result sessions;
+        ExpirySweep.Result started;
+        ExpirySweep.Result tombstones;
+        try {
+            codes = sweep.sweep(new QRCodes(firestore, checkpoints), this::isStopped);
+            // Ended sessions first, a session that started and ended since the last run is only completed
+            sessions = sweep.sweep(new EndedSessions(firestore, checkpoints), this::isStopped);
+            started = sweep.sweep(new StartedSessions(firestore, checkpoints), this::isStopped);
+            tombstones = sweep.sweep(new Tombstones(firestore, checkpoints), this::isStopped);
+        } catch (Exception e) {
+            // Closed pages are checkpointed, the retry carries on from there
+            Log.e(TAG, "Expiry sweep failed", e);
+            return Result.retry();
+        }
+
+        Log.i(TAG, codes + "; " + sessions + "; " + started + "; " + tombstones);
+        Data output = new Data.Builder()
+                .putInt(KEY_CODES_SWEPT, codes.getClosed())
+                .putInt(KEY_SESSIONS_COMPLETED, sessions.getClosed())
+                .putInt(KEY_SESSIONS_STARTED, started.getClosed())
+                .putInt(KEY_TOMBSTONES_PRUNED, tombstones.getClosed())
+                .putInt(KEY_BATCHES, codes.getBatches() + sessions.getBatches() + started.getBatches()
+                        + tombstones.getBatches())
+                .putLong(KEY_DURATION_MS, codes.getDurationMillis() + sessions.getDurationMillis()
+                        + started.getDurationMillis() + tombstones.getDurationMillis())
+                .build();
+        return Result.success(output);
+    }
+
+    // Take the sweep lease for this device unless another device holds a fresh one
+    private boolean takeLease(FirebaseFirestore firestore, SharedPreferences preferences) throws Exception {
+        String deviceId = preferences.getString(PREF_DEVICE_ID, null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            preferences.edit().putString(PREF_DEVICE_ID, deviceId).apply();
+        }
+        String device = deviceId;
+        // Compared with the server time the lease was taken at, device clocks may disagree
+        long now = Tasks.await(ServerClock.getInstance().now(), TIMEOUT_SECONDS, TimeUnit.SECONDS).getTime();
+
+        DocumentReference leaseRef = firestore.collection(LEASES_COLLECTION).document(UNIQUE_WORK_NAME);
+        return Tasks.await(firestore.runTransaction(transaction -> {
+            DocumentSnapshot lease = transaction.get(leaseRef);
+            Date takenAt = lease.getDate("takenAt");
+            if (!ExpirySweep.mayTakeLease(lease.getString("holder"), takenAt != null ? takenAt.getTime() : null,
+                    device, now)) {
+                return false;
+            }
+            Map<String, Object> data = new HashMap<>();
+            data.put("holder", device);
+            data.put("takenAt", FieldValue.serverTimestamp());
+            transaction.set(leaseRef, data);
+            return true;
+        }), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Documents of one collection that are open until a date field passes
+    private abstract static class FirestoreTarget implements ExpirySweep.Target {
+        final FirebaseFirestore firestore;
+        private final SharedPreferences checkpoints;
+        private final String name;
+        final String collection;
+        private final String expiryField;
+        private final long lifetimeMillis;
+
+        /**
+         * @param name           Name of the target in logs, and key of its checkpoint
+         * @param collection     Collection the documents are in
+         * @param expiryField    Date field the documents are closed after
+         * @param lifetimeMillis How long after the date in expiryField the documents expire
+         */
+        FirestoreTarget(FirebaseFirestore firestore, SharedPreferences checkpoints, String name, String collection,
+                        String expiryField, long lifetimeMillis) {
+            this.firestore = firestore;
+            this.checkpoints = checkpoints;
+            this.name = name;
+            this.collection = collection;
+            this.expiryField = expiryField;
+            this.lifetimeMillis = lifetimeMillis;
+        }
+
+        // Documents of the collection that are still open
+        abstract Query open(Query collection);
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Long getCheckpoint() {
+            return checkpoints.contains(name) ? checkpoints.getLong(name, 0) : null;
+        }
+
+        @Override
+        public void saveCheckpoint(long expiresAt) {
+            checkpoints.edit().putLong(name, expiresAt).apply();
+        }
+
+        @Override
+        public List<ExpirySweep.Expired> findExpired(Long fromMillis, long untilMillis, ExpirySweep.Expired after,
+                                                     int limit) throws Exception {
+            Query query = open(firestore.collection(collection))
+                    .whereLessThan(expiryField, new Date(untilMillis - lifetimeMillis));
+            if (fromMillis != null) {
+                query = query.whereGreaterThanOrEqualTo(expiryField, new Date(fromMillis - lifetimeMillis));
+            }
+            query = query.orderBy(expiryField).orderBy(FieldPath.documentId());
+            if (after != null) {
+                query = query.startAfter(new Date(after.expiresAt - lifetimeMillis), after.id);
+            }
+
+            List<DocumentSnapshot> documents = Tasks.await(query.limit(limit).get(),
+                    TIMEOUT_SECONDS, TimeUnit.SECONDS).getDocuments();
+            List<ExpirySweep.Expired> expired = new ArrayList<>(documents.size());
+            for (DocumentSnapshot document : documents) {
+                Date expiresAt = document.getDate(expiryField);
+                expired.add(new ExpirySweep.Expired(document.getId(),
+                        expiresAt != null ? expiresAt.getTime() + lifetimeMillis : 0));
+            }
+            return expired;
+        }
+    }
+
+    // Documents closed by setting fields or deleting them in one batch
+    private abstract static class BatchTarget extends FirestoreTarget {
+
+        BatchTarget(FirebaseFirestore firestore, SharedPreferences checkpoints, String name, String collection,
+                    String expiryField, long lifetimeMillis) {
+            super(firestore, checkpoints, name, collection, expiryField, lifetimeMillis);
+        }
+
+        // Fields set to close one document, null to delete it
+        abstract Map<String, Object> closingFields();
+
+        @Override
+        public void close(List<ExpirySweep.Expired> documents) throws Exception {
+            WriteBatch batch = firestore.batch();
+            Map<String, Object> fields = closingFields();
+            for (ExpirySweep.Expired document : documents) {
+                DocumentReference reference = firestore.collection(collection).document(document.id);
+                if (fields != null) {
+                    batch.update(reference, fields);
+                } else {
+                    batch.delete(reference);
+                }
+            }
+            Tasks.await(batch.commit(), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // Sessions whose stored status is behind, moved on by SessionStatusWriter
+    private abstract static class SessionTarget extends FirestoreTarget {
+
+        SessionTarget(FirebaseFirestore firestore, SharedPreferences checkpoints, String name, String expiryField) {
+            super(firestore, checkpoints, name, "sessions", expiryField, 0);
+        }
+
+        @Override
+        public void close(List<ExpirySweep.Expired> documents) throws Exception {
+            // Each session is re-read in its own transaction, so one cancelled since the query stays cancelled
+            List<Task<Void>> writes = new ArrayList<>(documents.size());
+            for (ExpirySweep.Expired document : documents) {
+                writes.add(SessionStatusWriter.getInstance().writeDue(document.id));
+            }
+            Tasks.await(Tasks.whenAll(writes), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // Codes that are still active after they expired
+    private static class QRCodes extends BatchTarget {
+
+        QRCodes(FirebaseFirestore firestore, SharedPreferences checkpoints) {
+            super(firestore, checkpoints, "qr_codes", "qr_codes", "expiresAt", 0);
+        }
+
+        @Override
+        Query open(Query collection) {
+            return collection.whereEqualTo("isActive", true);
+        }
+
+        @Override
+        Map<String, Object> closingFields() {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("isActive", false);
+            return fields;
+        }
+    }
+
+    // Sessions that ended but are not stored as completed or cancelled
+    private static class EndedSessions extends SessionTarget {
+
+        EndedSessions(FirebaseFirestore firestore, SharedPreferences checkpoints) {
+            super(firestore, checkpoints, "sessions", "endTime");
+        }
+
+        @Override
+        Query open(Query collection) {
+            return collection.whereIn("status", Arrays.asList(
+                    Session.SessionStatus.SCHEDULED.getValue(), Session.SessionStatus.IN_PROGRESS.getValue()));
+        }
+
+    }
+
+    // Sessions that started but are still stored as scheduled
+    private static class StartedSessions extends SessionTarget {
+
+        StartedSessions(FirebaseFirestore firestore, SharedPreferences checkpoints) {
+            super(firestore, checkpoints, "sessions_started", "startTime");
+        }
+
+        @Override
+        Query open(Query collection) {
+            return collection.whereEqualTo("status", Session.SessionStatus.SCHEDULED.getValue());
+        }
+
+    }
+
+    // Tombstones no delta sync reads any more, devices that last synced before them read in full
+    private static class Tombstones extends BatchTarget {
+
+        Tombstones(FirebaseFirestore firestore, SharedPreferences checkpoints) {
+            super(firestore, checkpoints, "tombstones", SyncFields.TOMBSTONES_COLLECTION, SyncFields.DELETED_AT,
+                    SyncFields.TOMBSTONE_TTL_MS);
+        }
+
+        @Override
+        Query open(Query collection) {
+            return collection;
+        }
+
+        @Override
+        Map<String, Object> closingFields() {
+            return null;
+        }
+    }
+}
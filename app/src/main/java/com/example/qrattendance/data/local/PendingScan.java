@@ -0,0 +1,97 @@
+package com.example.qrattendance.data.local;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+
+import java.util.Date;
+
+/**
+ * A scan waiting in the local outbox to be committed to Firestore
+ */
+public class PendingScan {
+    private long id;
+    private String sessionId;
+    private String studentId;
+    private String payload;
+    private Date scannedAt;
+    private AttendanceRecord.LocationData location;
+    private int attempts;
+    private String lastError;
+
+    public PendingScan() {
+    }
+
+    public PendingScan(String sessionId, String studentId, String payload, Date scannedAt,
+                       AttendanceRecord.LocationData location) {
+        this.sessionId = sessionId;
+        this.studentId = studentId;
+        this.payload = payload;
+        this.scannedAt = scannedAt;
+        this.location = location;
+        this.attempts = 0;
+    }
+
+    // Getters and setters
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getStudentId() {
+        return studentId;
+    }
+
+    public void setStudentId(String studentId) {
+        this.studentId = studentId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Date getScannedAt() {
+        return scannedAt;
+    }
+
+    public void setScannedAt(Date scannedAt) {
+        this.scannedAt = scannedAt;
+    }
+
+    public AttendanceRecord.LocationData getLocation() {
+        return location;
+    }
+
+    public void setLocation(AttendanceRecord.LocationData location) {
+        this.location = location;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+}
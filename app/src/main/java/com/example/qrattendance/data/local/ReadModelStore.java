@@ -0,0 +1,217 @@
+package com.example.qrattendance.data.local;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import com.google.gson.ToNumberPolicy;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-device copy of the Firestore documents screens open with, so they can show the last known
+ * data straight from disk and refresh it in the background.
+ * Documents are stored per collection and scope (e.g. the courses of one student) as JSON of their
+ * model class, along with the updatedAt they were read at and one watermark per scope.
+ *
+ * Holds data of the signed-in user only, {@link #clear()} on logout.
+ */
+public class ReadModelStore extends SQLiteOpenHelper {
+    private static final String TAG = "ReadModelStore";
+    private static final String DATABASE_NAME = "read_model.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_DOCUMENTS = "documents";
+    private static final String TABLE_WATERMARKS = "watermarks";
+    private static final String COLUMN_COLLECTION = "collection";
+    private static final String COLUMN_SCOPE = "scope";
+    private static final String COLUMN_DOC_ID = "doc_id";
+    private static final String COLUMN_DATA = "data";
+    private static final String COLUMN_UPDATED_AT = "updated_at";
+    private static final String COLUMN_SYNCED_AT = "synced_at";
+
+    private static final String SCOPE_SELECTION = COLUMN_COLLECTION + " = ? AND " + COLUMN_SCOPE + " = ?";
+
+    // Dates as epoch milliseconds, the default format drops milliseconds and depends on the locale.
+    // Numbers in documents stored as maps come back as Long or Double, like Firestore hands them out
+    private static final Gson GSON = new GsonBuilder()
+            .setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE)
+            .registerTypeAdapter(Date.class,
+                    (JsonSerializer<Date>) (date, type, context) -> new JsonPrimitive(date.getTime()))
+            .registerTypeAdapter(Date.class,
+                    (JsonDeserializer<Date>) (json, type, context) -> new Date(json.getAsLong()))
+            .create();
+
+    private static ReadModelStore instance;
+
+    // Private constructor for singleton pattern
+    private ReadModelStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    // Get singleton instance
+    public static synchronized ReadModelStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReadModelStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_DOCUMENTS + " ("
+                + COLUMN_COLLECTION + " TEXT NOT NULL, "
+                + COLUMN_SCOPE + " TEXT NOT NULL, "
+                + COLUMN_DOC_ID + " TEXT NOT NULL, "
+                + COLUMN_DATA + " TEXT NOT NULL, "
+                + COLUMN_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + COLUMN_COLLECTION + ", " + COLUMN_SCOPE + ", " + COLUMN_DOC_ID + "))");
+        db.execSQL("CREATE TABLE " + TABLE_WATERMARKS + " ("
+                + COLUMN_COLLECTION + " TEXT NOT NULL, "
+                + COLUMN_SCOPE + " TEXT NOT NULL, "
+                + COLUMN_UPDATED_AT + " INTEGER NOT NULL, "
+                + COLUMN_SYNCED_AT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_COLLECTION + ", " + COLUMN_SCOPE + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // No schema changes yet
+    }
+
+    /**
+     * A document to store
+     */
+    public static class Row {
+        final String id;
+        final Object value;
+        final long updatedAt;
+
+        /**
+         * @param id        Document ID
+         * @param value     Model object, stored as JSON
+         * @param updatedAt Server time of the document's last write, 0 if unknown
+         */
+        public Row(String id, Object value, long updatedAt) {
+            this.id = id;
+            this.value = value;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    /**
+     * Store documents of a scope and move its watermark, in one transaction
+     *
+     * @param rows       Documents to insert or replace
+     * @param removedIds Documents to delete
+     * @param watermark  New watermark of the scope, null to leave it as it is
+     */
+    public void write(String collection, String scope, List<Row> rows, Collection<String> removedIds, Long watermark) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Row row : rows) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_COLLECTION, collection);
+                values.put(COLUMN_SCOPE, scope);
+                values.put(COLUMN_DOC_ID, row.id);
+                values.put(COLUMN_DATA, GSON.toJson(row.value));
+                values.put(COLUMN_UPDATED_AT, row.updatedAt);
+                db.insertWithOnConflict(TABLE_DOCUMENTS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            for (String id : removedIds) {
+                db.delete(TABLE_DOCUMENTS, SCOPE_SELECTION + " AND " + COLUMN_DOC_ID + " = ?",
+                        new String[]{collection, scope, id});
+            }
+            if (watermark != null) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_COLLECTION, collection);
+                values.put(COLUMN_SCOPE, scope);
+                values.put(COLUMN_UPDATED_AT, watermark);
+                values.put(COLUMN_SYNCED_AT, System.currentTimeMillis());
+                db.insertWithOnConflict(TABLE_WATERMARKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Load the documents of a scope
+     *
+     * @param type Model class the documents were stored as
+     * @return Document ID to document, documents that no longer parse are skipped
+     */
+    public <T> Map<String, T> load(String collection, String scope, Class<T> type) {
+        Map<String, T> documents = new LinkedHashMap<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOCUMENTS,
+                new String[]{COLUMN_DOC_ID, COLUMN_DATA}, SCOPE_SELECTION, new String[]{collection, scope},
+                null, null, null)) {
+            while (cursor.moveToNext()) {
+                try {
+                    documents.put(cursor.getString(0), GSON.fromJson(cursor.getString(1), type));
+                } catch (JsonParseException e) {
+                    Log.w(TAG, "Skipping unreadable " + collection + " document " + cursor.getString(0), e);
+                }
+            }
+        }
+        return documents;
+    }
+
+    // Stored documents of a scope and the updatedAt they were read at
+    public Map<String, Long> getVersions(String collection, String scope) {
+        Map<String, Long> versions = new HashMap<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOCUMENTS,
+                new String[]{COLUMN_DOC_ID, COLUMN_UPDATED_AT}, SCOPE_SELECTION, new String[]{collection, scope},
+                null, null, null)) {
+            while (cursor.moveToNext()) {
+                versions.put(cursor.getString(0), cursor.getLong(1));
+            }
+        }
+        return versions;
+    }
+
+    // Highest updatedAt the scope was synced to, null if it never was
+    public Long getWatermark(String collection, String scope) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_WATERMARKS, new String[]{COLUMN_UPDATED_AT},
+                SCOPE_SELECTION, new String[]{collection, scope}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        }
+    }
+
+    // Device time of the scope's last completed sync, null if it never was
+    public Long getSyncedAt(String collection, String scope) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_WATERMARKS, new String[]{COLUMN_SYNCED_AT},
+                SCOPE_SELECTION, new String[]{collection, scope}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        }
+    }
+
+    // Drop everything, e.g. when the user logs out
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_DOCUMENTS, null, null);
+            db.delete(TABLE_WATERMARKS, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
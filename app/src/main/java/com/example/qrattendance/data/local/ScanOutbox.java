@@ -0,0 +1,189 @@
+package com.example.qrattendance.data.local;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Durable local outbox for attendance scans taken while Firestore could not be reached.
+ * Scans are stored in SQLite until {@link ScanSyncWorker} commits them. There is at most one
+ * queued scan per student and session, matching the deterministic attendance record ID.
+ */
+public class ScanOutbox extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "scan_outbox.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_PENDING_SCANS = "pending_scans";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_SESSION_ID = "session_id";
+    private static final String COLUMN_STUDENT_ID = "student_id";
+    private static final String COLUMN_PAYLOAD = "payload";
+    private static final String COLUMN_SCANNED_AT = "scanned_at";
+    private static final String COLUMN_LATITUDE = "latitude";
+    private static final String COLUMN_LONGITUDE = "longitude";
+    private static final String COLUMN_LOCATION_NAME = "location_name";
+    private static final String COLUMN_STATE = "state";
+    private static final String COLUMN_ATTEMPTS = "attempts";
+    private static final String COLUMN_NEXT_ATTEMPT_AT = "next_attempt_at";
+    private static final String COLUMN_LAST_ERROR = "last_error";
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_REJECTED = 1;
+
+    private static ScanOutbox instance;
+
+    // Private constructor for singleton pattern
+    private ScanOutbox(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    // Get singleton instance
+    public static synchronized ScanOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new ScanOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PENDING_SCANS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_SESSION_ID + " TEXT NOT NULL, "
+                + COLUMN_STUDENT_ID + " TEXT NOT NULL, "
+                + COLUMN_PAYLOAD + " TEXT NOT NULL, "
+                + COLUMN_SCANNED_AT + " INTEGER NOT NULL, "
+                + COLUMN_LATITUDE + " REAL, "
+                + COLUMN_LONGITUDE + " REAL, "
+                + COLUMN_LOCATION_NAME + " TEXT, "
+                + COLUMN_STATE + " INTEGER NOT NULL DEFAULT " + STATE_PENDING + ", "
+                + COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_NEXT_ATTEMPT_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_LAST_ERROR + " TEXT, "
+                + "UNIQUE (" + COLUMN_SESSION_ID + ", " + COLUMN_STUDENT_ID + "))");
+        db.execSQL("CREATE INDEX idx_pending_scans_due ON " + TABLE_PENDING_SCANS
+                + " (" + COLUMN_STATE + ", " + COLUMN_NEXT_ATTEMPT_AT + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // No schema changes yet
+    }
+
+    /**
+     * Store a scan for later sync
+     *
+     * @return false if a scan for the same student and session is already queued
+     */
+    public boolean enqueue(PendingScan scan) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SESSION_ID, scan.getSessionId());
+        values.put(COLUMN_STUDENT_ID, scan.getStudentId());
+        values.put(COLUMN_PAYLOAD, scan.getPayload());
+        values.put(COLUMN_SCANNED_AT, scan.getScannedAt().getTime());
+        if (scan.getLocation() != null) {
+            values.put(COLUMN_LATITUDE, scan.getLocation().getLatitude());
+            values.put(COLUMN_LONGITUDE, scan.getLocation().getLongitude());
+            values.put(COLUMN_LOCATION_NAME, scan.getLocation().getLocationName());
+        }
+
+        long id = getWritableDatabase().insertWithOnConflict(
+                TABLE_PENDING_SCANS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        if (id == -1) {
+            return false;
+        }
+        scan.setId(id);
+        return true;
+    }
+
+    /**
+     * Load queued scans whose retry time has passed, oldest scan first
+     */
+    public List<PendingScan> loadDue(long now, int limit) {
+        return query(COLUMN_STATE + " = ? AND " + COLUMN_NEXT_ATTEMPT_AT + " <= ?",
+                new String[]{String.valueOf(STATE_PENDING), String.valueOf(now)}, String.valueOf(limit));
+    }
+
+    /**
+     * Remove and return the scans that were refused during sync, so the student can be told
+     */
+    public List<PendingScan> takeRejected(String studentId) {
+        String selection = COLUMN_STATE + " = ? AND " + COLUMN_STUDENT_ID + " = ?";
+        String[] args = {String.valueOf(STATE_REJECTED), studentId};
+
+        List<PendingScan> rejected = query(selection, args, null);
+        if (!rejected.isEmpty()) {
+            getWritableDatabase().delete(TABLE_PENDING_SCANS, selection, args);
+        }
+        return rejected;
+    }
+
+    // Scan was committed (or had already been committed), drop it from the outbox
+    public void markSynced(long id) {
+        getWritableDatabase().delete(TABLE_PENDING_SCANS, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    // Sync failed for a transient reason, try again after the given time
+    public void scheduleRetry(long id, int attempts, long nextAttemptAt, String error) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ATTEMPTS, attempts);
+        values.put(COLUMN_NEXT_ATTEMPT_AT, nextAttemptAt);
+        values.put(COLUMN_LAST_ERROR, error);
+        getWritableDatabase().update(TABLE_PENDING_SCANS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    // Scan was refused by validation and will not be retried
+    public void markRejected(long id, String error) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATE, STATE_REJECTED);
+        values.put(COLUMN_LAST_ERROR, error);
+        getWritableDatabase().update(TABLE_PENDING_SCANS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    // Number of scans still waiting to be synced
+    public long countPending() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_PENDING_SCANS,
+                COLUMN_STATE + " = ?", new String[]{String.valueOf(STATE_PENDING)});
+    }
+
+    private List<PendingScan> query(String selection, String[] args, String limit) {
+        List<PendingScan> scans = new ArrayList<>();
+
+        try (Cursor cursor = getReadableDatabase().query(TABLE_PENDING_SCANS, null, selection, args,
+                null, null, COLUMN_SCANNED_AT + " ASC", limit)) {
+            while (cursor.moveToNext()) {
+                scans.add(fromCursor(cursor));
+            }
+        }
+        return scans;
+    }
+
+    private PendingScan fromCursor(Cursor cursor) {
+        PendingScan scan = new PendingScan();
+        scan.setId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)));
+        scan.setSessionId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SESSION_ID)));
+        scan.setStudentId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_STUDENT_ID)));
+        scan.setPayload(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PAYLOAD)));
+        scan.setScannedAt(new Date(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_SCANNED_AT))));
+        scan.setAttempts(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ATTEMPTS)));
+        scan.setLastError(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LAST_ERROR)));
+
+        int latitudeIndex = cursor.getColumnIndexOrThrow(COLUMN_LATITUDE);
+        if (!cursor.isNull(latitudeIndex)) {
+            scan.setLocation(new AttendanceRecord.LocationData(
+                    cursor.getDouble(latitudeIndex),
+                    cursor.getDouble(cursor.getColumnIndexOrThrow(COLUMN_LONGITUDE)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LOCATION_NAME))));
+        }
+        return scan;
+    }
+}
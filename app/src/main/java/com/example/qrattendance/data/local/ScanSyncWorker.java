@@ -0,0 +1,149 @@
+package com.example.qrattendance.data.local;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.repository.AttendanceRepository;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Drains the {@link ScanOutbox} once the device is online.
+ * Due scans are committed in batches through {@link AttendanceRepository#replayQueuedScan}; a scan
+ * that fails for a transient reason is retried with exponential backoff, and a scan that was
+ * already committed on an earlier attempt is simply removed.
+ */
+public class ScanSyncWorker extends Worker {
+    private static final String TAG = "ScanSyncWorker";
+    private static final String UNIQUE_WORK_NAME = "scan_outbox_sync";
+
+    private static final int BATCH_SIZE = 20;
+    private static final int MAX_ATTEMPTS = 12;
+    private static final long BASE_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final long BATCH_TIMEOUT_SECONDS = 60;
+
+    private static final int OUTCOME_SYNCED = 0;
+    private static final int OUTCOME_RETRY = 1;
+    private static final int OUTCOME_REJECTED = 2;
+
+    public ScanSyncWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Schedule a sync for when the device has a network connection
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(ScanSyncWorker.class)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BASE_BACKOFF_MS, TimeUnit.MILLISECONDS)
+                .build();
+
+        // Append so a scan queued while a sync is finishing still gets picked up
+        WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        ScanOutbox outbox = ScanOutbox.getInstance(getApplicationContext());
+        AttendanceRepository attendanceRepository = AttendanceRepository.getInstance();
+
+        int synced = 0;
+        while (!isStopped()) {
+            List<PendingScan> batch = outbox.loadDue(System.currentTimeMillis(), BATCH_SIZE);
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            // Commit the whole batch concurrently, then settle each scan
+            List<Task<AttendanceRecord>> commits = new ArrayList<>();
+            for (PendingScan scan : batch) {
+                commits.add(attendanceRepository.replayQueuedScan(
+                        scan.getPayload(), scan.getStudentId(), scan.getLocation(), scan.getScannedAt()));
+            }
+
+            try {
+                Tasks.await(Tasks.whenAllComplete(commits), BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                Log.w(TAG, "Batch did not finish in time, unfinished scans will be retried");
+            } catch (Exception e) {
+                Log.e(TAG, "Error waiting for batch", e);
+            }
+
+            boolean transientFailure = false;
+            for (int i = 0; i < batch.size(); i++) {
+                int outcome = settle(outbox, batch.get(i), commits.get(i));
+                if (outcome == OUTCOME_SYNCED) {
+                    synced++;
+                } else if (outcome == OUTCOME_RETRY) {
+                    transientFailure = true;
+                }
+            }
+
+            // Backend is struggling, leave the rest of the queue for the next run
+            if (transientFailure) {
+                break;
+            }
+        }
+
+        long remaining = outbox.countPending();
+        Log.d(TAG, "Synced " + synced + " queued scans, " + remaining + " still pending");
+        return remaining > 0 ? Result.retry() : Result.success();
+    }
+
+    // Apply the outcome of one commit to the outbox
+    private int settle(ScanOutbox outbox, PendingScan scan, Task<AttendanceRecord> commit) {
+        if (commit.isComplete() && commit.isSuccessful()) {
+            outbox.markSynced(scan.getId());
+            return OUTCOME_SYNCED;
+        }
+
+        Exception error = commit.isComplete() ? commit.getException() : new TimeoutException("Commit timed out");
+        if (AttendanceRepository.isAlreadyMarked(error)) {
+            // Committed on an earlier attempt whose result never reached us
+            outbox.markSynced(scan.getId());
+            return OUTCOME_SYNCED;
+        }
+
+        String message = error != null ? error.getMessage() : "Unknown error";
+        int attempts = scan.getAttempts() + 1;
+        if (AttendanceRepository.isRejected(error) || attempts >= MAX_ATTEMPTS) {
+            Log.w(TAG, "Queued scan for session " + scan.getSessionId() + " rejected: " + message);
+            outbox.markRejected(scan.getId(), message);
+            return OUTCOME_REJECTED;
+        }
+
+        outbox.scheduleRetry(scan.getId(), attempts, System.currentTimeMillis() + backoffFor(attempts), message);
+        return OUTCOME_RETRY;
+    }
+
+    // Exponential backoff with jitter so queued devices in one hall do not retry in lockstep
+    private long backoffFor(int attempts) {
+        long delay = Math.min(BASE_BACKOFF_MS << Math.min(attempts - 1, 16), MAX_BACKOFF_MS);
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    }
+}
@@ -72,6 +72,16 @@ public class AttendanceRecord {
         public String getValue() {
             return value;
         }
+
+        // Parse a stored status, records written before statuses existed count as present
+        public static AttendanceStatus fromValue(String value) {
+            for (AttendanceStatus status : values()) {
+                if (status.value.equals(value)) {
+                    return status;
+                }
+            }
+            return PRESENT;
+        }
     }
 
     // Default constructor for Firestore
@@ -0,0 +1,168 @@
+package com.example.qrattendance.data.model;
+
+import com.google.firebase.firestore.ServerTimestamp;
+
+import java.util.Date;
+
+/**
+ * Compact per-student, per-course attendance summary.
+ * Replaces the unbounded attendanceRecordIds lists that used to live on
+ * session and student documents; the records themselves are found by query.
+ * Present and late counts are maintained in the attendance commit; absences are
+ * the sessions held that the student did not attend.
+ */
+public class AttendanceSummary {
+    private String summaryId;
+    private String studentId;
+    private String courseId;
+    private int attendedCount;
+    private int presentCount;
+    private int lateCount;
+    private String lastSessionId;
+    private Date lastAttendedAt;
+    // Set by the server on every write, used as the sync watermark
+    @ServerTimestamp
+    private Date updatedAt;
+
+    // Default constructor for Firestore
+    public AttendanceSummary() {
+        this.attendedCount = 0;
+    }
+
+    // Constructor with required fields
+    public AttendanceSummary(String studentId, String courseId) {
+        this.summaryId = idFor(studentId, courseId);
+        this.studentId = studentId;
+        this.courseId = courseId;
+        this.attendedCount = 0;
+    }
+
+    // Document ID of the summary for a student in a course
+    public static String idFor(String studentId, String courseId) {
+        return studentId + "_" + courseId;
+    }
+
+    // Getters and setters
+    public String getSummaryId() {
+        return summaryId;
+    }
+
+    public void setSummaryId(String summaryId) {
+        this.summaryId = summaryId;
+    }
+
+    public String getStudentId() {
+        return studentId;
+    }
+
+    public void setStudentId(String studentId) {
+        this.studentId = studentId;
+    }
+
+    public String getCourseId() {
+        return courseId;
+    }
+
+    public void setCourseId(String courseId) {
+        this.courseId = courseId;
+    }
+
+    public int getAttendedCount() {
+        return attendedCount;
+    }
+
+    public void setAttendedCount(int attendedCount) {
+        this.attendedCount = attendedCount;
+    }
+
+    // Sessions attended on time
+    public int getPresentCount() {
+        return presentCount;
+    }
+
+    public void setPresentCount(int presentCount) {
+        this.presentCount = presentCount;
+    }
+
+    // Sessions attended after the late threshold
+    public int getLateCount() {
+        return lateCount;
+    }
+
+    public void setLateCount(int lateCount) {
+        this.lateCount = lateCount;
+    }
+
+    public String getLastSessionId() {
+        return lastSessionId;
+    }
+
+    public void setLastSessionId(String lastSessionId) {
+        this.lastSessionId = lastSessionId;
+    }
+
+    public Date getLastAttendedAt() {
+        return lastAttendedAt;
+    }
+
+    public void setLastAttendedAt(Date lastAttendedAt) {
+        this.lastAttendedAt = lastAttendedAt;
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    // Sessions a course has held so far, sessions are created when the instructor starts one
+    public static int sessionsHeld(Course course) {
+        return course.getSessionIds() != null ? course.getSessionIds().size() : 0;
+    }
+
+    // Sessions of the course the student missed
+    public int getAbsentCount(int sessionsHeld) {
+        return Math.max(0, sessionsHeld - attendedCount);
+    }
+
+    // Share of the sessions held that the student attended, on time or late
+    public double getAttendancePercentage(int sessionsHeld) {
+        if (sessionsHeld <= 0) {
+            return 0.0;
+        }
+        return Math.min(100.0, attendedCount * 100.0 / sessionsHeld);
+    }
+
+    // Check if attendance is below a course's threshold percentage
+    public boolean isBelowThreshold(int sessionsHeld, int thresholdPercentage) {
+        return sessionsHeld > 0 && getAttendancePercentage(sessionsHeld) < thresholdPercentage;
+    }
+
+    // Fewest sessions a student must attend to meet a threshold, the inverse of isBelowThreshold
+    public static int minimumAttended(int sessionsHeld, int thresholdPercentage) {
+        if (sessionsHeld <= 0 || thresholdPercentage <= 0) {
+            return 0;
+        }
+        return (sessionsHeld * thresholdPercentage + 99) / 100;
+    }
+
+    // Record one more session, records of missed or excused sessions are not counted
+    public void recordAttendance(String sessionId, Date attendedAt, AttendanceRecord.AttendanceStatus status) {
+        if (status == AttendanceRecord.AttendanceStatus.ABSENT || status == AttendanceRecord.AttendanceStatus.EXCUSED) {
+            return;
+        }
+
+        this.attendedCount++;
+        if (status == AttendanceRecord.AttendanceStatus.LATE) {
+            this.lateCount++;
+        } else {
+            this.presentCount++;
+        }
+        if (lastAttendedAt == null || (attendedAt != null && attendedAt.after(lastAttendedAt))) {
+            this.lastSessionId = sessionId;
+            this.lastAttendedAt = attendedAt;
+        }
+    }
+}
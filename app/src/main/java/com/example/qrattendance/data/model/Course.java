@@ -1,5 +1,7 @@
 package com.example.qrattendance.data.model;
 
+import com.google.firebase.firestore.ServerTimestamp;
+
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -23,6 +25,9 @@ public class Course {
     private List<String> sessionIds;
     private int attendanceThreshold; // Minimum attendance percentage required (e.g., 75)
     private boolean isActive;
+    // Set by the server on every write, used as the sync watermark
+    @ServerTimestamp
+    private Date updatedAt;
 
     // Default constructor
     public Course() {
@@ -165,6 +170,14 @@ public class Course {
         isActive = active;
     }
 
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     /**
      * Adds a student to the course
      * @param studentId The ID of the student to enroll
@@ -205,4 +218,4 @@ public class Course {
     public boolean removeSession(String sessionId) {
         return this.sessionIds.remove(sessionId);
     }
-}
\ No newline at end of file
+}
@@ -10,12 +10,12 @@ public class QRCode {
     private Date generatedAt;
     private Date expiresAt;
     private boolean isActive;
-    private int scanCount; // Number of times this QR code has been scanned
     private QRCodeType type;
 
     private String courseId;
     private String instructorId;
-
+    private String publicKey; // Verifies the signature of the QR code's content, see QRPayloadCodec
+    private int rotationSeconds; // Seconds between steps of a rotating code, 0 for a static one
 
     public enum QRCodeType {
         SESSION_ATTENDANCE("SESSION_ATTENDANCE"),
@@ -37,7 +37,6 @@ public class QRCode {
     public QRCode() {
         this.generatedAt = new Date();
         this.isActive = true;
-        this.scanCount = 0;
         this.type = QRCodeType.SESSION_ATTENDANCE;
     }
 
@@ -49,7 +48,6 @@ public class QRCode {
         this.generatedAt = new Date();
         this.expiresAt = expiresAt;
         this.isActive = true;
-        this.scanCount = 0;
         this.type = type;
     }
 
@@ -110,14 +108,6 @@ public class QRCode {
         isActive = active;
     }
 
-    public int getScanCount() {
-        return scanCount;
-    }
-
-    public void setScanCount(int scanCount) {
-        this.scanCount = scanCount;
-    }
-
     public QRCodeType getType() {
         return type;
     }
@@ -142,9 +132,20 @@ public class QRCode {
         this.instructorId = instructorId;
     }
 
-    // Increment scan count
-    public void incrementScanCount() {
-        this.scanCount++;
+    public String getPublicKey() {
+        return publicKey;
+    }
+
+    public void setPublicKey(String publicKey) {
+        this.publicKey = publicKey;
+    }
+
+    public int getRotationSeconds() {
+        return rotationSeconds;
+    }
+
+    public void setRotationSeconds(int rotationSeconds) {
+        this.rotationSeconds = rotationSeconds;
     }
 
     // Check if QR code is valid (not expired and active)
@@ -157,6 +158,16 @@ public class QRCode {
         return now.before(expiresAt);
     }
 
+    // Check if the QR code was valid at a given time, as of now.
+    // Codes switched off by the expiry cleanup still count, manually deactivated ones do not.
+    public boolean wasValidAt(Date time, Date now) {
+        if (expiresAt == null || !time.before(expiresAt)) {
+            return false;
+        }
+
+        return isActive || !now.before(expiresAt);
+    }
+
     // Deactivate the QR code
     public void deactivate() {
         this.isActive = false;
@@ -1,8 +1,8 @@
 package com.example.qrattendance.data.model;
 
-import java.util.ArrayList;
+import com.google.firebase.firestore.ServerTimestamp;
+
 import java.util.Date;
-import java.util.List;
 
 public class Session {
     private String sessionId;
@@ -13,10 +13,14 @@ public class Session {
     private Date endTime;
     private String location;
     private String instructorId;
-    private List<String> attendanceRecordIds;
     private String qrCodeId;
+    private String qrPublicKey; // Public key of the signed QR code qrCodeId, so scans can be verified without reading it
+    private int qrRotationSeconds; // Seconds between steps of that code, 0 for a static one
     private SessionStatus status;
     private int lateThresholdMinutes; // Minutes after startTime to mark attendance as "late"
+    // Set by the server on every write, used as the sync watermark
+    @ServerTimestamp
+    private Date updatedAt;
 
     // Session status enum
     public enum SessionStatus {
@@ -38,7 +42,6 @@ public class Session {
 
     // Default constructor for Firestore
     public Session() {
-        this.attendanceRecordIds = new ArrayList<>();
         this.status = SessionStatus.SCHEDULED;
         this.lateThresholdMinutes = 10; // Default: 10 minutes late threshold
     }
@@ -51,7 +54,6 @@ public class Session {
         this.endTime = endTime;
         this.location = location;
         this.instructorId = instructorId;
-        this.attendanceRecordIds = new ArrayList<>();
         this.status = SessionStatus.SCHEDULED;
         this.lateThresholdMinutes = 10; // Default: 10 minutes late threshold
     }
@@ -121,14 +123,6 @@ public class Session {
         this.instructorId = instructorId;
     }
 
-    public List<String> getAttendanceRecordIds() {
-        return attendanceRecordIds;
-    }
-
-    public void setAttendanceRecordIds(List<String> attendanceRecordIds) {
-        this.attendanceRecordIds = attendanceRecordIds;
-    }
-
     public String getQrCodeId() {
         return qrCodeId;
     }
@@ -137,6 +131,22 @@ public class Session {
         this.qrCodeId = qrCodeId;
     }
 
+    public String getQrPublicKey() {
+        return qrPublicKey;
+    }
+
+    public void setQrPublicKey(String qrPublicKey) {
+        this.qrPublicKey = qrPublicKey;
+    }
+
+    public int getQrRotationSeconds() {
+        return qrRotationSeconds;
+    }
+
+    public void setQrRotationSeconds(int qrRotationSeconds) {
+        this.qrRotationSeconds = qrRotationSeconds;
+    }
+
     public SessionStatus getStatus() {
         return status;
     }
@@ -153,24 +163,15 @@ public class Session {
         this.lateThresholdMinutes = lateThresholdMinutes;
     }
 
-    // Utility methods
-    public void addAttendanceRecord(String recordId) {
-        if (this.attendanceRecordIds == null) {
-            this.attendanceRecordIds = new ArrayList<>();
-        }
-
-        if (!this.attendanceRecordIds.contains(recordId)) {
-            this.attendanceRecordIds.add(recordId);
-        }
+    public Date getUpdatedAt() {
+        return updatedAt;
     }
 
-    public boolean removeAttendanceRecord(String recordId) {
-        if (this.attendanceRecordIds != null) {
-            return this.attendanceRecordIds.remove(recordId);
-        }
-        return false;
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
     }
 
+    // Utility methods
     // Check if session is active (can mark attendance)
     public boolean isActive() {
         if (this.status == SessionStatus.CANCELLED) {
@@ -183,20 +184,32 @@ public class Session {
         return now.after(startTime) && now.before(endTime);
     }
 
-    // Update status based on current time
-    public void updateStatus() {
-        Date now = new Date();
+    // Check if the session was running at a given time
+    public boolean wasActiveAt(Date time) {
+        if (this.status == SessionStatus.CANCELLED) {
+            return false;
+        }
+
+        return time.after(startTime) && time.before(endTime);
+    }
 
+    // Status the session should have at a given time, cancelled sessions stay cancelled
+    public SessionStatus statusAt(Date time) {
         if (this.status == SessionStatus.CANCELLED) {
-            return;
+            return SessionStatus.CANCELLED;
         }
 
-        if (now.before(startTime)) {
-            this.status = SessionStatus.SCHEDULED;
-        } else if (now.after(endTime)) {
-            this.status = SessionStatus.COMPLETED;
+        if (time.before(startTime)) {
+            return SessionStatus.SCHEDULED;
+        } else if (time.after(endTime)) {
+            return SessionStatus.COMPLETED;
         } else {
-            this.status = SessionStatus.IN_PROGRESS;
+            return SessionStatus.IN_PROGRESS;
         }
     }
-}
\ No newline at end of file
+
+    // Update status based on current time
+    public void updateStatus() {
+        this.status = statusAt(new Date());
+    }
+}
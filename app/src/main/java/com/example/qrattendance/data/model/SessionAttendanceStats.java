@@ -0,0 +1,51 @@
+package com.example.qrattendance.data.model;
+
+/**
+ * Attendance totals of one session, read from the session's counters instead of its records.
+ */
+public class SessionAttendanceStats {
+    private final String sessionId;
+    private final int attendedCount;
+    private final int lateCount;
+    private final int enrolledCount;
+
+    public SessionAttendanceStats(String sessionId, int attendedCount, int lateCount, int enrolledCount) {
+        this.sessionId = sessionId;
+        this.attendedCount = attendedCount;
+        this.lateCount = lateCount;
+        this.enrolledCount = enrolledCount;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    // Students who attended, on time or late
+    public int getAttendedCount() {
+        return attendedCount;
+    }
+
+    public int getPresentCount() {
+        return Math.max(0, attendedCount - lateCount);
+    }
+
+    public int getLateCount() {
+        return lateCount;
+    }
+
+    public int getAbsentCount() {
+        return Math.max(0, enrolledCount - attendedCount);
+    }
+
+    public int getEnrolledCount() {
+        return enrolledCount;
+    }
+
+    // Share of enrolled students who attended, rounded to one decimal place
+    public double getAttendancePercentage() {
+        if (enrolledCount <= 0) {
+            return 0.0;
+        }
+        return Math.round(Math.min(100.0, attendedCount * 100.0 / enrolledCount) * 10) / 10.0;
+    }
+}
@@ -9,14 +9,12 @@ public class Student extends User {
     private String semester;
     private String batch;
     private List<String> enrolledCourseIds;
-    private List<String> attendanceRecordIds;
 
     // Default constructor
     public Student() {
         super();
         setRole(UserRole.STUDENT);
         this.enrolledCourseIds = new ArrayList<>();
-        this.attendanceRecordIds = new ArrayList<>();
     }
 
     // Constructor with parameters
@@ -28,7 +26,6 @@ public class Student extends User {
         this.semester = semester;
         this.batch = batch;
         this.enrolledCourseIds = new ArrayList<>();
-        this.attendanceRecordIds = new ArrayList<>();
     }
 
     // Getters and setters
@@ -72,14 +69,6 @@ public class Student extends User {
         this.enrolledCourseIds = enrolledCourseIds;
     }
 
-    public List<String> getAttendanceRecordIds() {
-        return attendanceRecordIds;
-    }
-
-    public void setAttendanceRecordIds(List<String> attendanceRecordIds) {
-        this.attendanceRecordIds = attendanceRecordIds;
-    }
-
     // Enroll in a course
     public void enrollInCourse(String courseId) {
         if (!this.enrolledCourseIds.contains(courseId)) {
@@ -92,13 +81,6 @@ public class Student extends User {
         return this.enrolledCourseIds.remove(courseId);
     }
 
-    // Add an attendance record
-    public void addAttendanceRecord(String attendanceId) {
-        if (!this.attendanceRecordIds.contains(attendanceId)) {
-            this.attendanceRecordIds.add(attendanceId);
-        }
-    }
-
     @Override
     public void accessDashboard() {
         // Student-specific dashboard logic
@@ -0,0 +1,364 @@
+package com.example.qrattendance.data.repository;
+
+import android.util.Log;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.AttendanceSummary;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Rebuilds the attendance aggregates of a course from its raw records and reports drift.
+ * Student summaries and session counters are read first and the records after them, so a record
+ * committed in between is counted while its aggregate update is not. Each aggregate that looks off
+ * is then corrected in a transaction that reads it again: if it still holds what was read, no scan
+ * touched it since, the recount is consistent with it and is written as absolute values. If it
+ * changed, it is left for the next run. Sessions that have not ended yet are skipped, their
+ * counters move while they are read.
+ */
+public class AttendanceAggregateReconciler {
+    private static final String TAG = "AggregateReconciler";
+    private static final String ATTENDANCE_COLLECTION = "attendance_records";
+    private static final String SESSIONS_COLLECTION = "sessions";
+    private static final String SUMMARIES_COLLECTION = "attendance_summaries";
+
+    private final FirebaseFirestore firestore;
+    private final ShardedCounter shardedCounter;
+    private final Executor executor;
+
+    /**
+     * @param executor Executor for rebuilding the counts, keeps large courses off the main thread
+     */
+    public AttendanceAggregateReconciler(Executor executor) {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.shardedCounter = ShardedCounter.getInstance();
+        this.executor = executor;
+    }
+
+    /**
+     * Reconcile the summaries and session counters of one course
+     *
+     * @param courseId Course to reconcile
+     * @return Task with what was checked and the drift that was corrected
+     */
+    public Task<Report> reconcileCourse(String courseId) {
+        Task<QuerySnapshot> summaries = firestore.collection(SUMMARIES_COLLECTION)
+                .whereEqualTo("courseId", courseId).get();
+        Task<QuerySnapshot> sessions = firestore.collection(SESSIONS_COLLECTION)
+                .whereEqualTo("courseId", courseId).get();
+
+        return Tasks.whenAll(summaries, sessions).continueWithTask(executor, loaded -> {
+            if (!loaded.isSuccessful()) {
+                throw loaded.getException();
+            }
+
+            // Read the counters of every ended session
+            Report report = new Report(courseId);
+            Date now = new Date();
+            List<DocumentReference> sessionRefs = new ArrayList<>();
+            List<Task<Map<String, Long>>> counts = new ArrayList<>();
+            for (DocumentSnapshot session : sessions.getResult().getDocuments()) {
+                Date endTime = session.getDate("endTime");
+                if (endTime == null || endTime.after(now)) {
+                    report.sessionsSkipped++;
+                    continue;
+                }
+                sessionRefs.add(session.getReference());
+                counts.add(shardedCounter.getCounts(session.getReference()));
+            }
+
+            return Tasks.whenAll(counts)
+                    .continueWithTask(executor, countsLoaded -> {
+                        if (!countsLoaded.isSuccessful()) {
+                            throw countsLoaded.getException();
+                        }
+                        // The records last, see the class comment
+                        return firestore.collection(ATTENDANCE_COLLECTION).whereEqualTo("courseId", courseId).get();
+                    })
+                    .continueWithTask(executor, records -> {
+                        if (!records.isSuccessful()) {
+                            throw records.getException();
+                        }
+
+                        CourseCounts expected = CourseCounts.fromRecords(courseId, records.getResult().getDocuments());
+                        List<Correction> corrections = new ArrayList<>();
+                        reconcileSummaries(expected, summaries.getResult().getDocuments(), report, corrections);
+                        for (int i = 0; i < sessionRefs.size(); i++) {
+                            reconcileSession(sessionRefs.get(i), expected, counts.get(i).getResult(), report, corrections);
+                        }
+                        return applyCorrections(corrections, report);
+                    });
+        });
+    }
+
+    private Task<Report> applyCorrections(List<Correction> corrections, Report report) {
+        List<Task<Boolean>> applied = new ArrayList<>();
+        for (Correction correction : corrections) {
+            applied.add(correction.applied);
+        }
+
+        return Tasks.whenAllComplete(applied).continueWith(executor, done -> {
+            Exception failure = null;
+            for (Correction correction : corrections) {
+                if (!correction.applied.isSuccessful()) {
+                    failure = correction.applied.getException();
+                } else if (Boolean.TRUE.equals(correction.applied.getResult())) {
+                    report.drift.add(correction.drift);
+                } else {
+                    report.changedWhileReading++;
+                }
+            }
+            Log.i(TAG, report.toString());
+            if (failure != null) {
+                throw failure;
+            }
+            return report;
+        });
+    }
+
+    private void reconcileSummaries(CourseCounts expected, List<DocumentSnapshot> storedSummaries,
+                                    Report report, List<Correction> corrections) {
+        Map<String, AttendanceSummary> stored = new HashMap<>();
+        for (DocumentSnapshot document : storedSummaries) {
+            AttendanceSummary summary = document.toObject(AttendanceSummary.class);
+            if (summary != null && summary.getStudentId() != null) {
+                stored.put(summary.getStudentId(), summary);
+            }
+        }
+
+        Set<String> studentIds = new LinkedHashSet<>(expected.summaries.keySet());
+        studentIds.addAll(stored.keySet());
+        for (String studentId : studentIds) {
+            AttendanceSummary want = expected.summaries.get(studentId);
+            if (want == null) {
+                want = new AttendanceSummary(studentId, expected.courseId);
+            }
+            AttendanceSummary have = stored.get(studentId);
+            if (have == null) {
+                have = new AttendanceSummary(studentId, expected.courseId);
+            }
+            report.summariesChecked++;
+
+            if (sameCounts(want, have)) {
+                continue;
+            }
+            corrections.add(new Correction("summary " + want.getSummaryId() + ": attended " + have.getAttendedCount()
+                    + " -> " + want.getAttendedCount() + ", present " + have.getPresentCount() + " -> "
+                    + want.getPresentCount() + ", late " + have.getLateCount() + " -> " + want.getLateCount(),
+                    correctSummary(have, want)));
+        }
+    }
+
+    // Overwrite a summary with its recount if it still holds what was read before the records
+    private Task<Boolean> correctSummary(AttendanceSummary have, AttendanceSummary want) {
+        DocumentReference summaryRef = firestore.collection(SUMMARIES_COLLECTION).document(want.getSummaryId());
+        return firestore.runTransaction(transaction -> {
+            DocumentSnapshot current = transaction.get(summaryRef);
+            AttendanceSummary now = current.exists() ? current.toObject(AttendanceSummary.class) : null;
+            if (!sameCounts(now != null ? now : new AttendanceSummary(want.getStudentId(), want.getCourseId()), have)) {
+                return false;
+            }
+
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("summaryId", want.getSummaryId());
+            summary.put("studentId", want.getStudentId());
+            summary.put("courseId", want.getCourseId());
+            summary.put("attendedCount", want.getAttendedCount());
+            summary.put("presentCount", want.getPresentCount());
+            summary.put("lateCount", want.getLateCount());
+            summary.put("lastSessionId", want.getLastSessionId());
+            summary.put("lastAttendedAt", want.getLastAttendedAt());
+            transaction.set(summaryRef, SyncFields.touch(summary), SetOptions.merge());
+            return true;
+        });
+    }
+
+    private static boolean sameCounts(AttendanceSummary a, AttendanceSummary b) {
+        return a.getAttendedCount() == b.getAttendedCount() && a.getPresentCount() == b.getPresentCount()
+                && a.getLateCount() == b.getLateCount();
+    }
+
+    private void reconcileSession(DocumentReference sessionRef, CourseCounts expected, Map<String, Long> stored,
+                                  Report report, List<Correction> corrections) {
+        int[] want = expected.sessions.get(sessionRef.getId());
+        long wantAttended = want != null ? want[0] : 0;
+        long wantLate = want != null ? want[1] : 0;
+        long haveAttended = valueOf(stored, ShardedCounter.PRESENT_COUNT);
+        long haveLate = valueOf(stored, ShardedCounter.LATE_COUNT);
+        report.sessionsChecked++;
+
+        if (wantAttended == haveAttended && wantLate == haveLate) {
+            return;
+        }
+        corrections.add(new Correction("session " + sessionRef.getId() + ": attended " + haveAttended + " -> "
+                + wantAttended + ", late " + haveLate + " -> " + wantLate,
+                correctSession(sessionRef, haveAttended, haveLate, wantAttended, wantLate)));
+    }
+
+    // Bring a session's counters to their recount if their shards still add up to what was read
+    private Task<Boolean> correctSession(DocumentReference sessionRef, long haveAttended, long haveLate,
+                                         long wantAttended, long wantLate) {
+        return firestore.runTransaction(transaction -> {
+            long attended = shardTotal(transaction, sessionRef, ShardedCounter.PRESENT_COUNT);
+            long late = shardTotal(transaction, sessionRef, ShardedCounter.LATE_COUNT);
+            if (attended != haveAttended || late != haveLate) {
+                return false;
+            }
+
+            if (wantAttended != attended) {
+                shardedCounter.increment(transaction, sessionRef, ShardedCounter.PRESENT_COUNT, wantAttended - attended);
+            }
+            if (wantLate != late) {
+                shardedCounter.increment(transaction, sessionRef, ShardedCounter.LATE_COUNT, wantLate - late);
+            }
+            return true;
+        });
+    }
+
+    private static long shardTotal(Transaction transaction, DocumentReference owner, String counterName)
+            throws FirebaseFirestoreException {
+        long total = 0;
+        for (String shardId : ShardedCounter.shardIds(counterName)) {
+            Long count = transaction.get(owner.collection(ShardedCounter.SHARDS_COLLECTION).document(shardId))
+                    .getLong("count");
+            if (count != null) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    private static long valueOf(Map<String, Long> counts, String counterName) {
+        Long count = counts.get(counterName);
+        return count != null ? count : 0;
+    }
+
+    // Counts rebuilt from the records of one course
+    private static class CourseCounts {
+        private final String courseId;
+        private final Map<String, AttendanceSummary> summaries = new HashMap<>();
+        // Session ID to {attended, late}
+        private final Map<String, int[]> sessions = new HashMap<>();
+
+        private CourseCounts(String courseId) {
+            this.courseId = courseId;
+        }
+
+        static CourseCounts fromRecords(String courseId, List<DocumentSnapshot> records) {
+            CourseCounts counts = new CourseCounts(courseId);
+            for (DocumentSnapshot record : records) {
+                String studentId = record.getString("studentId");
+                String sessionId = record.getString("sessionId");
+                if (studentId == null || sessionId == null) {
+                    continue;
+                }
+
+                AttendanceRecord.AttendanceStatus status =
+                        AttendanceRecord.AttendanceStatus.fromValue(record.getString("status"));
+                AttendanceSummary summary = counts.summaries.get(studentId);
+                if (summary == null) {
+                    summary = new AttendanceSummary(studentId, courseId);
+                    counts.summaries.put(studentId, summary);
+                }
+                summary.recordAttendance(sessionId, record.getDate("timestamp"), status);
+
+                if (status == AttendanceRecord.AttendanceStatus.PRESENT || status == AttendanceRecord.AttendanceStatus.LATE) {
+                    int[] session = counts.sessions.get(sessionId);
+                    if (session == null) {
+                        session = new int[2];
+                        counts.sessions.put(sessionId, session);
+                    }
+                    session[0]++;
+                    if (status == AttendanceRecord.AttendanceStatus.LATE) {
+                        session[1]++;
+                    }
+                }
+            }
+            return counts;
+        }
+    }
+
+    // A drifted aggregate and the transaction correcting it
+    private static class Correction {
+        private final String drift;
+        // False if the aggregate changed after it was read and was left alone
+        private final Task<Boolean> applied;
+
+        Correction(String drift, Task<Boolean> applied) {
+            this.drift = drift;
+            this.applied = applied;
+        }
+    }
+
+    /**
+     * Outcome of reconciling one course
+     */
+    public static class Report {
+        private final String courseId;
+        private final List<String> drift = new ArrayList<>();
+        private int summariesChecked;
+        private int sessionsChecked;
+        private int sessionsSkipped;
+        private int changedWhileReading;
+
+        Report(String courseId) {
+            this.courseId = courseId;
+        }
+
+        public String getCourseId() {
+            return courseId;
+        }
+
+        // One line per corrected aggregate, empty if everything matched
+        public List<String> getDrift() {
+            return Collections.unmodifiableList(drift);
+        }
+
+        public boolean hasDrift() {
+            return !drift.isEmpty();
+        }
+
+        public int getSummariesChecked() {
+            return summariesChecked;
+        }
+
+        public int getSessionsChecked() {
+            return sessionsChecked;
+        }
+
+        // Sessions not ended yet
+        public int getSessionsSkipped() {
+            return sessionsSkipped;
+        }
+
+        // Aggregates that looked off but changed before they could be corrected, checked on the next run
+        public int getChangedWhileReading() {
+            return changedWhileReading;
+        }
+
+        @Override
+        public String toString() {
+            return "Course " + courseId + ": " + summariesChecked + " summaries and " + sessionsChecked
+                    + " sessions checked, " + sessionsSkipped + " running sessions skipped, "
+                    + changedWhileReading + " changed while reading, "
+                    + drift.size() + " corrected" + (drift.isEmpty() ? "" : " " + drift);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.qrattendance.data.repository;
+
+import android.util.Log;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.AttendanceSummary;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Validates a scan and writes the resulting attendance record in a single Firestore transaction.
+ * The record ID is derived from the session and student, so a second scan by the same student
+ * finds the existing document and is rejected without running a query. What the transaction reads
+ * and writes is in {@link CommitAttempt}, the checks themselves in {@link ScanValidator}. Scan and
+ * present counts go to {@link ShardedCounter} shards and the student's per-course
+ * {@link AttendanceSummary} is bumped with a server-side increment, so nothing is
+ * read-modify-written and no scan writes the QR code or session documents. Both keep present and
+ * late counts apart, so dashboards read percentages without touching the records.
+ */
+class AttendanceCommitEngine {
+    private static final String TAG = "AttendanceCommitEngine";
+
+    private final FirebaseFirestore firestore;
+    private final ShardedCounter shardedCounter;
+    private final ServerClock serverClock;
+
+    AttendanceCommitEngine(FirebaseFirestore firestore, ShardedCounter shardedCounter, ServerClock serverClock) {
+        this.firestore = firestore;
+        this.shardedCounter = shardedCounter;
+        this.serverClock = serverClock;
+    }
+
+    /**
+     * Commit a scan, checked by {@link ScanValidator} against the session and course read in the
+     * transaction. Signed codes are verified against the public key their session publishes, so the
+     * QR code document is only read for legacy codes and codes the session no longer lists.
+     * Cancelling a session takes effect straight away for signed codes as well.
+     *
+     * @param scan Scan to commit; validity and late status are checked at server time, or at the
+     *             time a queued scan was taken, see {@link ScanValidator#effectiveTime}
+     * @return Task resolving to the committed record; fails with a
+     *         {@link ScanValidator.ScanRejectedException} carrying a user-readable message otherwise
+     */
+    Task<AttendanceRecord> commit(ScanValidator.Scan scan) {
+        String recordId = ScanValidator.recordIdFor(scan.sessionId, scan.studentId);
+        long startedAt = System.currentTimeMillis();
+
+        // Usually answered from the last probe without a round trip
+        return serverClock.now().continueWithTask(now -> {
+            if (!now.isSuccessful()) {
+                return Tasks.<AttendanceRecord>forException(now.getException());
+            }
+            Date serverNow = now.getResult();
+
+            return firestore.runTransaction(transaction -> {
+                TransactionAccess access = new TransactionAccess(transaction);
+                return CommitAttempt.run(scan, serverNow, access, access);
+            });
+        }).addOnCompleteListener(task -> logLatency(recordId, startedAt, task.isSuccessful()));
+    }
+
+    private static void logLatency(String recordId, long startedAt, boolean success) {
+        Log.d(TAG, "Commit for " + recordId + " finished in "
+                + (System.currentTimeMillis() - startedAt) + " ms (success=" + success + ")");
+    }
+
+    // Reads and writes of a commit attempt on a Firestore transaction
+    private class TransactionAccess implements CommitAttempt.Reads, CommitAttempt.Writes {
+        private final Transaction transaction;
+
+        TransactionAccess(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public boolean exists(String collection, String id) throws FirebaseFirestoreException {
+            return transaction.get(ref(collection, id)).exists();
+        }
+
+        @Override
+        public <T> T get(String collection, String id, Class<T> type) throws FirebaseFirestoreException {
+            DocumentSnapshot snapshot = transaction.get(ref(collection, id));
+            return snapshot.toObject(type);
+        }
+
+        @Override
+        public void set(String collection, String id, Map<String, Object> data) {
+            transaction.set(ref(collection, id), data);
+        }
+
+        @Override
+        public void merge(String collection, String id, Map<String, Object> data) {
+            transaction.set(ref(collection, id), data, SetOptions.merge());
+        }
+
+        @Override
+        public void increment(String collection, String ownerId, String counterName) {
+            shardedCounter.increment(transaction, ref(collection, ownerId), counterName, 1);
+        }
+
+        private DocumentReference ref(String collection, String id) {
+            return firestore.collection(collection).document(id);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.qrattendance.data.repository;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.util.CsvWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Exports attendance records to a CSV sheet, one row per record with its student, session and
+ * course spelled out. Records are read a page at a time in timestamp order, the next page is
+ * requested while the current one is resolved and written. Students, sessions and courses missing
+ * from the page are loaded with whereIn queries of up to 30 IDs and kept in bounded caches, so
+ * memory stays at one page plus the caches however many records are exported.
+ *
+ * {@link #run} blocks until the export is done and must not be called on the main thread.
+ */
+public class AttendanceExporter {
+    static final String ATTENDANCE_COLLECTION = "attendance_records";
+    static final String USERS_COLLECTION = "users";
+    static final String SESSIONS_COLLECTION = "sessions";
+    static final String COURSES_COLLECTION = "courses";
+
+    static final int PAGE_SIZE = 500;
+    // Entries kept per cache, a registrar export touches far more students than fit
+    static final int MAX_CACHED = 2000;
+    private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+
+    static final String[] HEADER = {
+            "Date", "Time", "Course Code", "Course Name", "Session", "Session Start",
+            "Student Name", "Roll Number", "Email", "Status", "Verified", "Record ID"};
+
+    // Cached for IDs with no document, so they are not looked up again
+    private static final Map<String, Object> MISSING = Collections.emptyMap();
+
+    private final Store store;
+    private final ProgressListener progressListener;
+    private final Semaphore lookups = new Semaphore(BatchDocumentLoader.MAX_IN_FLIGHT);
+    private final Map<String, Map<String, Object>> students = new BoundedCache();
+    private final Map<String, Map<String, Object>> sessions = new BoundedCache();
+    private final Map<String, Map<String, Object>> courses = new BoundedCache();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.US);
+    private final SimpleDateFormat startFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US);
+    private volatile boolean cancelled;
+
+    AttendanceExporter(Store store, ProgressListener progressListener) {
+        this.store = store;
+        this.progressListener = progressListener;
+    }
+
+    // Stop after the page being written
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Export the records matching a filter
+     *
+     * @param filter Course, session and date range to export
+     * @param output Where the sheet is written, closed when the export ends
+     * @return What was written, a failed or cancelled export leaves a partial sheet
+     */
+    Result run(Filter filter, Writer output) {
+        Result result = new Result();
+        try (CsvWriter csv = new CsvWriter(new BufferedWriter(output, WRITE_BUFFER_CHARS))) {
+            csv.writeRecord(HEADER);
+
+            Pending<Page> next = requestPage(filter, null);
+            while (next != null && !cancelled) {
+                Page page = next.await();
+                result.pages++;
+                // Fetch ahead while this page is resolved and written
+                next = page.records.size() == PAGE_SIZE ? requestPage(filter, page.cursor) : null;
+
+                resolve(page.records, result);
+                for (Map<String, Object> record : page.records) {
+                    csv.writeRecord(toRow(record));
+                }
+                result.rows += page.records.size();
+                if (progressListener != null) {
+                    progressListener.onProgress(result.rows, result.getRowsPerSecond());
+                }
+            }
+            if (next != null) {
+                // Let the page fetched ahead finish before the caller moves on
+                next.awaitQuietly();
+            }
+        } catch (IOException e) {
+            result.fatalError = "Could not write the file: " + e.getMessage();
+        } catch (ExportException e) {
+            result.fatalError = e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.fatalError = "Export interrupted";
+        }
+        result.finish(cancelled);
+        return result;
+    }
+
+    private Pending<Page> requestPage(Filter filter, Object cursor) {
+        Pending<Page> pending = new Pending<>("Failed to load attendance records");
+        store.queryPage(filter, cursor, PAGE_SIZE, pending);
+        return pending;
+    }
+
+    // Load the students, sessions and courses of a page that are not cached yet
+    private void resolve(List<Map<String, Object>> records, Result result) throws ExportException, InterruptedException {
+        Set<String> studentIds = new LinkedHashSet<>();
+        Set<String> sessionIds = new LinkedHashSet<>();
+        Set<String> courseIds = new LinkedHashSet<>();
+        for (Map<String, Object> record : records) {
+            addIfMissing(studentIds, students, record.get("studentId"));
+            addIfMissing(sessionIds, sessions, record.get("sessionId"));
+            addIfMissing(courseIds, courses, record.get("courseId"));
+        }
+
+        List<Lookup> pending = new ArrayList<>();
+        pending.addAll(lookup(USERS_COLLECTION, studentIds, students));
+        pending.addAll(lookup(SESSIONS_COLLECTION, sessionIds, sessions));
+        pending.addAll(lookup(COURSES_COLLECTION, courseIds, courses));
+        result.lookupQueries += pending.size();
+
+        ExportException failure = null;
+        for (Lookup lookup : pending) {
+            try {
+                Map<String, Map<String, Object>> found = lookup.await();
+                for (String id : lookup.ids) {
+                    Map<String, Object> document = found.get(id);
+                    lookup.cache.put(id, document != null ? document : MISSING);
+                }
+            } catch (ExportException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private List<Lookup> lookup(String collection, Set<String> ids, Map<String, Map<String, Object>> cache)
+            throws InterruptedException {
+        List<Lookup> pending = new ArrayList<>();
+        for (List<String> chunk : BatchDocumentLoader.partition(new ArrayList<>(ids), BatchDocumentLoader.MAX_IDS_PER_QUERY)) {
+            lookups.acquire();
+            Lookup lookup = new Lookup(collection, chunk, cache);
+            store.findByIds(collection, chunk, (found, error) -> {
+                lookups.release();
+                lookup.onComplete(found, error);
+            });
+            pending.add(lookup);
+        }
+        return pending;
+    }
+
+    private static void addIfMissing(Set<String> ids, Map<String, Map<String, Object>> cache, Object id) {
+        if (id instanceof String && !cache.containsKey(id)) {
+            ids.add((String) id);
+        }
+    }
+
+    private String[] toRow(Map<String, Object> record) {
+        Map<String, Object> student = cached(students, record.get("studentId"));
+        Map<String, Object> session = cached(sessions, record.get("sessionId"));
+        Map<String, Object> course = cached(courses, record.get("courseId"));
+        Object timestamp = record.get("timestamp");
+        Object startTime = session.get("startTime");
+        Object status = record.get("status");
+
+        return new String[]{
+                timestamp instanceof Date ? dateFormat.format((Date) timestamp) : "",
+                timestamp instanceof Date ? timeFormat.format((Date) timestamp) : "",
+                text(course.get("courseCode")),
+                text(course.get("courseName")),
+                text(session.get("title")),
+                startTime instanceof Date ? startFormat.format((Date) startTime) : "",
+                text(student.get("name")),
+                text(student.get("rollNumber")),
+                text(student.get("email")),
+                AttendanceRecord.AttendanceStatus.fromValue(status != null ? status.toString() : null).getValue(),
+                Boolean.TRUE.equals(record.get("verified")) ? "Yes" : "No",
+                text(record.get("recordId"))};
+    }
+
+    private static Map<String, Object> cached(Map<String, Map<String, Object>> cache, Object id) {
+        Map<String, Object> document = id instanceof String ? cache.get(id) : null;
+        return document != null ? document : MISSING;
+    }
+
+    private static String text(Object value) {
+        return value != null ? value.toString() : "";
+    }
+
+    /**
+     * Records to export. A session filter takes precedence over a course; dates bound the record
+     * timestamp, from inclusive and to exclusive, and either may be left open.
+     */
+    public static class Filter {
+        final String courseId;
+        final String sessionId;
+        final Date from;
+        final Date to;
+
+        private Filter(String courseId, String sessionId, Date from, Date to) {
+            this.courseId = courseId;
+            this.sessionId = sessionId;
+            this.from = from;
+            this.to = to;
+        }
+
+        // Records of a course, all courses if courseId is null
+        public static Filter forCourse(String courseId, Date from, Date to) {
+            return new Filter(courseId, null, from, to);
+        }
+
+        public static Filter forSession(String sessionId) {
+            return new Filter(null, sessionId, null, null);
+        }
+    }
+
+    /**
+     * One page of records in timestamp order. Each record is the document's data with its ID
+     * under "recordId" and timestamps as Dates; the cursor is passed back to read the next page.
+     */
+    static class Page {
+        final List<Map<String, Object>> records;
+        final Object cursor;
+
+        Page(List<Map<String, Object>> records, Object cursor) {
+            this.records = records;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * Outcome of an export, read once {@link #run} has returned
+     */
+    public static class Result {
+        private final long startedAt = System.nanoTime();
+        private long elapsedNanos = -1;
+        private int rows;
+        private int pages;
+        private int lookupQueries;
+        private String fatalError;
+        private boolean cancelled;
+
+        void finish(boolean cancelled) {
+            this.cancelled = cancelled;
+            elapsedNanos = System.nanoTime() - startedAt;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        // whereIn queries for students, sessions and courses
+        public int getLookupQueries() {
+            return lookupQueries;
+        }
+
+        // Problem that stopped the export, null if every record was written
+        public String getFatalError() {
+            return fatalError;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isComplete() {
+            return fatalError == null && !cancelled;
+        }
+
+        public long getElapsedMillis() {
+            return (elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startedAt) / 1_000_000;
+        }
+
+        public double getRowsPerSecond() {
+            long nanos = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startedAt;
+            return nanos > 0 ? rows * 1_000_000_000.0 / nanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return rows + " rows in " + getElapsedMillis() + " ms (" + Math.round(getRowsPerSecond()) + " rows/s), "
+                    + pages + " pages, " + lookupQueries + " lookups"
+                    + (fatalError != null ? ", stopped: " + fatalError : "")
+                    + (cancelled ? ", cancelled" : "");
+        }
+    }
+
+    // Least recently used entries go first once the cache is full
+    private static class BoundedCache extends LinkedHashMap<String, Map<String, Object>> {
+        BoundedCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+            return size() > MAX_CACHED;
+        }
+    }
+
+    // Result of a store call that run() waits for
+    private static class Pending<T> implements Callback<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final String failureMessage;
+        private volatile T result;
+        private volatile Exception error;
+
+        Pending(String failureMessage) {
+            this.failureMessage = failureMessage;
+        }
+
+        @Override
+        public void onComplete(T result, Exception error) {
+            this.result = result;
+            this.error = error;
+            done.countDown();
+        }
+
+        T await() throws ExportException, InterruptedException {
+            done.await();
+            if (error != null || result == null) {
+                throw new ExportException(failureMessage + ": " + (error != null ? error.getMessage() : "no result"));
+            }
+            return result;
+        }
+
+        void awaitQuietly() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Lookup extends Pending<Map<String, Map<String, Object>>> {
+        final List<String> ids;
+        final Map<String, Map<String, Object>> cache;
+
+        Lookup(String collection, List<String> ids, Map<String, Map<String, Object>> cache) {
+            super("Failed to load " + collection);
+            this.ids = ids;
+            this.cache = cache;
+        }
+    }
+
+    private static class ExportException extends Exception {
+        ExportException(String message) {
+            super(message);
+        }
+    }
+
+    // Callback interfaces
+    public interface ProgressListener {
+        void onProgress(int rowsWritten, double rowsPerSecond);
+    }
+
+    interface Callback<T> {
+        void onComplete(T result, Exception error);
+    }
+
+    /**
+     * Document storage the export reads from
+     */
+    interface Store {
+        // Records matching the filter ordered by timestamp, starting after the cursor of the previous page
+        void queryPage(Filter filter, Object cursor, int limit, Callback<Page> callback);
+
+        // Documents of a collection by ID, at most 30, keyed by ID; dates as Dates
+        void findByIds(String collection, List<String> ids, Callback<Map<String, Map<String, Object>>> callback);
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.qrattendance.data.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.AttendanceSummary;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * One-off backfill that moves existing data to the query-based attendance layout:
+ * - Builds an attendance_summaries document for every (student, course) pair from the raw records
+ * - Removes the legacy attendanceRecordIds arrays from session and user documents
+ *
+ * Every step overwrites or deletes, so the migration can safely be run again if interrupted.
+ */
+public class AttendanceLayoutMigration {
+    private static final String TAG = "AttendanceMigration";
+    private static final String ATTENDANCE_COLLECTION = "attendance_records";
+    private static final String SUMMARIES_COLLECTION = "attendance_summaries";
+    private static final String SESSIONS_COLLECTION = "sessions";
+    private static final String USERS_COLLECTION = "users";
+    private static final String LEGACY_FIELD = "attendanceRecordIds";
+
+    private static final int PAGE_SIZE = 250;
+    private static final int MAX_BATCH_WRITES = 500;
+
+    private final FirebaseFirestore firestore;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public AttendanceLayoutMigration() {
+        firestore = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * Run the full migration on a background thread
+     *
+     * @param listener callback for progress and result, invoked on the main thread
+     */
+    public void run(OnMigrationListener listener) {
+        executor.execute(() -> {
+            try {
+                int summaries = rebuildSummaries(listener);
+                int sessions = stripLegacyField(SESSIONS_COLLECTION, listener);
+                int users = stripLegacyField(USERS_COLLECTION, listener);
+
+                Log.d(TAG, "Migration finished: " + summaries + " summaries, "
+                        + sessions + " sessions and " + users + " users cleaned");
+                mainHandler.post(() -> listener.onComplete(summaries, sessions, users));
+            } catch (Exception e) {
+                Log.e(TAG, "Migration failed", e);
+                mainHandler.post(() -> listener.onFailure("Migration failed: " + e.getMessage()));
+            }
+        });
+    }
+
+    // Aggregate raw records page by page and write one summary per (student, course)
+    private int rebuildSummaries(OnMigrationListener listener) throws Exception {
+        Map<String, AttendanceSummary> summaries = new HashMap<>();
+        DocumentSnapshot lastDoc = null;
+        int scanned = 0;
+
+        while (true) {
+            QuerySnapshot page = Tasks.await(nextPage(ATTENDANCE_COLLECTION, lastDoc));
+            List<DocumentSnapshot> docs = page.getDocuments();
+            if (docs.isEmpty()) {
+                break;
+            }
+
+            for (DocumentSnapshot doc : docs) {
+                String studentId = doc.getString("studentId");
+                String courseId = doc.getString("courseId");
+                if (studentId == null || courseId == null) {
+                    continue;
+                }
+
+                String summaryId = AttendanceSummary.idFor(studentId, courseId);
+                AttendanceSummary summary = summaries.get(summaryId);
+                if (summary == null) {
+                    summary = new AttendanceSummary(studentId, courseId);
+                    summaries.put(summaryId, summary);
+                }
+                summary.recordAttendance(doc.getString("sessionId"), doc.getDate("timestamp"),
+                        AttendanceRecord.AttendanceStatus.fromValue(doc.getString("status")));
+            }
+
+            scanned += docs.size();
+            lastDoc = docs.get(docs.size() - 1);
+            int progress = scanned;
+            mainHandler.post(() -> listener.onProgress("Scanned " + progress + " attendance records"));
+        }
+
+        WriteBatch batch = firestore.batch();
+        int pending = 0;
+        for (AttendanceSummary summary : summaries.values()) {
+            batch.set(firestore.collection(SUMMARIES_COLLECTION).document(summary.getSummaryId()), summary);
+            if (++pending == MAX_BATCH_WRITES) {
+                Tasks.await(batch.commit());
+                batch = firestore.batch();
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            Tasks.await(batch.commit());
+        }
+
+        return summaries.size();
+    }
+
+    // Delete the legacy list field from every document in a collection that still has it
+    private int stripLegacyField(String collection, OnMigrationListener listener) throws Exception {
+        DocumentSnapshot lastDoc = null;
+        int cleaned = 0;
+
+        while (true) {
+            QuerySnapshot page = Tasks.await(nextPage(collection, lastDoc));
+            List<DocumentSnapshot> docs = page.getDocuments();
+            if (docs.isEmpty()) {
+                break;
+            }
+
+            WriteBatch batch = firestore.batch();
+            int pending = 0;
+            for (DocumentSnapshot doc : docs) {
+                if (doc.contains(LEGACY_FIELD)) {
+                    batch.update(doc.getReference(), LEGACY_FIELD, FieldValue.delete());
+                    pending++;
+                }
+            }
+            if (pending > 0) {
+                Tasks.await(batch.commit());
+                cleaned += pending;
+            }
+
+            lastDoc = docs.get(docs.size() - 1);
+            int progress = cleaned;
+            mainHandler.post(() -> listener.onProgress("Cleaned " + progress + " " + collection + " documents"));
+        }
+
+        return cleaned;
+    }
+
+    private com.google.android.gms.tasks.Task<QuerySnapshot> nextPage(String collection, DocumentSnapshot lastDoc) {
+        Query query = firestore.collection(collection)
+                .orderBy(FieldPath.documentId())
+                .limit(PAGE_SIZE);
+        if (lastDoc != null) {
+            query = query.startAfter(lastDoc);
+        }
+        return query.get();
+    }
+
+    // Callback interface
+    public interface OnMigrationListener {
+        void onProgress(String message);
+        void onComplete(int summariesWritten, int sessionsCleaned, int usersCleaned);
+        void onFailure(String errorMessage);
+    }
+}
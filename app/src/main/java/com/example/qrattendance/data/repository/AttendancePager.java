@@ -0,0 +1,98 @@
+package com.example.qrattendance.data.repository;
+
+import android.util.Log;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cursor-based pages of a student's attendance history, newest first.
+ * Each page is one query ordered by timestamp that starts after the last document of the previous
+ * page, served by the (studentId, timestamp desc) index in firestore.indexes.json. Records without a
+ * timestamp are not part of the ordering and are not returned.
+ *
+ * Not thread-safe, use from the main thread.
+ */
+public class AttendancePager {
+    private static final String TAG = "AttendancePager";
+
+    private final Query query;
+    private final int pageSize;
+    private final List<AttendanceRecord> records = new ArrayList<>();
+    private DocumentSnapshot lastDocument;
+    private boolean loading;
+    private boolean endReached;
+
+    /**
+     * @param query    Query filtered to one student, ordering and limits are added per page
+     * @param pageSize Number of records per page
+     */
+    AttendancePager(Query query, int pageSize) {
+        this.query = query.orderBy("timestamp", Query.Direction.DESCENDING);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Load the page after the last loaded one. Ignored while a page is loading or once the end is reached.
+     */
+    public void loadNextPage(OnPageLoadListener listener) {
+        if (loading || endReached) {
+            return;
+        }
+        loading = true;
+
+        Query page = lastDocument != null ? query.startAfter(lastDocument) : query;
+        page.limit(pageSize)
+                .get()
+                .addOnSuccessListener(queryDocumentSnapshots -> {
+                    List<AttendanceRecord> pageRecords = new ArrayList<>();
+                    for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
+                        AttendanceRecord record = document.toObject(AttendanceRecord.class);
+                        if (record != null) {
+                            record.setRecordId(document.getId());
+                            pageRecords.add(record);
+                        }
+                    }
+
+                    List<DocumentSnapshot> documents = queryDocumentSnapshots.getDocuments();
+                    if (!documents.isEmpty()) {
+                        lastDocument = documents.get(documents.size() - 1);
+                    }
+                    // A short page is the last one
+                    endReached = documents.size() < pageSize;
+                    records.addAll(pageRecords);
+                    loading = false;
+
+                    listener.onPageLoaded(pageRecords, getRecords(), endReached);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to load attendance page", e);
+                    loading = false;
+                    listener.onFailure("Failed to load attendance records: " + e.getMessage());
+                });
+    }
+
+    // Every record loaded so far, newest first
+    public List<AttendanceRecord> getRecords() {
+        return Collections.unmodifiableList(new ArrayList<>(records));
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public boolean isEndReached() {
+        return endReached;
+    }
+
+    // Callback interfaces
+    public interface OnPageLoadListener {
+        void onPageLoaded(List<AttendanceRecord> page, List<AttendanceRecord> allRecords, boolean endReached);
+        void onFailure(String errorMessage);
+    }
+}
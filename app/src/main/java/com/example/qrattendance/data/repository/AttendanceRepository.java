@@ -1,30 +1,50 @@
 package com.example.qrattendance.data.repository;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.AttendanceSummary;
 import com.example.qrattendance.data.model.Course;
 import com.example.qrattendance.data.model.QRCode;
 import com.example.qrattendance.data.model.Session;
+import com.example.qrattendance.data.model.SessionAttendanceStats;
 import com.example.qrattendance.data.model.Student;
+import com.example.qrattendance.util.QRPayloadCodec;
+import com.example.qrattendance.util.RotatingQRCode;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.AggregateSource;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.Transaction;
 
 import org.json.JSONObject;
 
+import java.io.Writer;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AttendanceRepository {
@@ -34,11 +54,23 @@ public class AttendanceRepository {
     private static final String USERS_COLLECTION = "users";
     private static final String QRCODES_COLLECTION = "qr_codes";
     private static final String COURSES_COLLECTION = "courses";
+    private static final String SUMMARIES_COLLECTION = "attendance_summaries";
+    private static final int DEFAULT_PAGE_SIZE = 25;
 
     private static AttendanceRepository instance;
     private final FirebaseFirestore firestore;
+    private final AttendanceCommitEngine commitEngine;
+    private final BatchDocumentLoader studentLoader;
+    private final EntityCache entityCache;
+    private final ListenerRegistry listenerRegistry;
+    private final SecureRandom nonceGenerator = new SecureRandom();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Exports write their file on one thread, their Firestore callbacks run on the other
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService exportCallbackExecutor = Executors.newSingleThreadExecutor();
+    private AttendancePager studentPager;
     private final MutableLiveData<List<AttendanceRecord>> attendanceRecordsLiveData = new MutableLiveData<>();
-    private final MutableLiveData<List<Session>> sessionsLiveData = new MutableLiveData<>();
+    private final MutableLiveData<LiveRoster.Update> rosterUpdatesLiveData = new MutableLiveData<>();
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
     private final MutableLiveData<Boolean> isLoading = new MutableLiveData<>(false);
     private final MutableLiveData<Map<String, Object>> courseDetailsLiveData = new MutableLiveData<>();
@@ -47,6 +79,10 @@ public class AttendanceRepository {
     // Private constructor for singleton pattern
     private AttendanceRepository() {
         firestore = FirebaseFirestore.getInstance();
+        commitEngine = new AttendanceCommitEngine(firestore, ShardedCounter.getInstance(), ServerClock.getInstance());
+        studentLoader = new BatchDocumentLoader(firestore.collection(USERS_COLLECTION));
+        entityCache = EntityCache.getInstance();
+        listenerRegistry = ListenerRegistry.getInstance();
     }
 
     // Get singleton instance
@@ -62,9 +98,9 @@ public class AttendanceRepository {
         return attendanceRecordsLiveData;
     }
 
-    // Get sessions
-    public LiveData<List<Session>> getSessions() {
-        return sessionsLiveData;
+    // Get live roster updates of the session passed to fetchAttendanceBySession, with the changes since the last one
+    public LiveData<LiveRoster.Update> getRosterUpdates() {
+        return rosterUpdatesLiveData;
     }
 
     // Get error message
@@ -87,101 +123,120 @@ public class AttendanceRepository {
         return sessionDetailsLiveData;
     }
 
-    // Fetch sessions by course ID
-    public void fetchSessionsByCourse(String courseId) {
-        isLoading.setValue(true);
-
+    /**
+     * Fetch the sessions running right now with one indexed query on the stored status.
+     * A session moves to IN_PROGRESS when an instructor screen or the expiry sweep sees it start,
+     * sessions that already ended but were not swept yet are left out by their end time.
+     */
+    public void fetchInProgressSessions(OnSessionsListener listener) {
         firestore.collection(SESSIONS_COLLECTION)
-                .whereEqualTo("courseId", courseId)
-                .orderBy("startTime", Query.Direction.DESCENDING)
-                .addSnapshotListener((snapshots, e) -> {
-                    if (e != null) {
-                        errorMessage.setValue("Failed to load sessions: " + e.getMessage());
-                        isLoading.setValue(false);
-                        return;
-                    }
-
-                    List<Session> sessions = new ArrayList<>();
-
-                    if (snapshots != null) {
-                        for (QueryDocumentSnapshot document : snapshots) {
-                            Session session = document.toObject(Session.class);
+                .whereEqualTo("status", Session.SessionStatus.IN_PROGRESS.getValue())
+                .whereGreaterThan("endTime", new Date())
+                .get()
+                .addOnSuccessListener(querySnapshot -> {
+                    List<Session> sessions = new ArrayList<>(querySnapshot.size());
+                    for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+                        Session session = document.toObject(Session.class);
+                        if (session != null) {
                             session.setSessionId(document.getId());
-                            // Update the status based on current time
-                            session.updateStatus();
                             sessions.add(session);
                         }
                     }
-
-                    sessionsLiveData.setValue(sessions);
-                    isLoading.setValue(false);
-                });
+                    listener.onSuccess(sessions);
+                })
+                .addOnFailureListener(e -> listener.onFailure("Failed to load running sessions: " + e.getMessage()));
     }
 
     // Fetch attendance records by session ID
-    public void fetchAttendanceBySession(String sessionId) {
+    public void fetchAttendanceBySession(LifecycleOwner owner, String sessionId) {
         isLoading.setValue(true);
 
-        firestore.collection(ATTENDANCE_COLLECTION)
+        Query query = firestore.collection(ATTENDANCE_COLLECTION)
                 .whereEqualTo("sessionId", sessionId)
-                .orderBy("timestamp", Query.Direction.ASCENDING)
-                .addSnapshotListener((snapshots, e) -> {
-                    if (e != null) {
-                        errorMessage.setValue("Failed to load attendance records: " + e.getMessage());
-                        isLoading.setValue(false);
-                        return;
-                    }
+                .orderBy("timestamp", Query.Direction.ASCENDING);
+        listenerRegistry.acquire(owner, "attendance", query, new LiveRosterListener());
+    }
 
-                    List<AttendanceRecord> records = new ArrayList<>();
+    // Applies each snapshot's document changes to the session's roster instead of rebuilding it
+    private class LiveRosterListener implements ListenerRegistry.SharedListener {
+        private final LiveRoster roster = new LiveRoster();
+        private LiveRoster.Update lastUpdate;
 
-                    if (snapshots != null) {
-                        for (QueryDocumentSnapshot document : snapshots) {
-                            AttendanceRecord record = document.toObject(AttendanceRecord.class);
-                            record.setRecordId(document.getId());
-                            records.add(record);
-                        }
-                    }
+        @Override
+        public void onEvent(QuerySnapshot snapshots, FirebaseFirestoreException e) {
+            if (e != null) {
+                errorMessage.setValue("Failed to load attendance records: " + e.getMessage());
+                isLoading.setValue(false);
+                return;
+            }
+            if (snapshots == null) {
+                return;
+            }
 
-                    attendanceRecordsLiveData.setValue(records);
-                    isLoading.setValue(false);
-                });
+            LiveRoster.Update update = roster.apply(LiveRoster.changesOf(snapshots));
+            if (update != null) {
+                lastUpdate = update;
+                rosterUpdatesLiveData.setValue(update);
+                attendanceRecordsLiveData.setValue(update.getRecords());
+            }
+            isLoading.setValue(false);
+        }
+
+        @Override
+        public void onShared() {
+            // Observers of another session may have replaced the live data, hand back the full roster
+            if (lastUpdate != null) {
+                rosterUpdatesLiveData.setValue(lastUpdate);
+                attendanceRecordsLiveData.setValue(lastUpdate.getRecords());
+                isLoading.setValue(false);
+            }
+        }
     }
 
-    // Fetch attendance records by student ID
+    // Fetch the first page of a student's attendance records, newest first
     public void fetchAttendanceByStudent(String studentId) {
         isLoading.setValue(true);
 
-        // Remove the orderBy to avoid composite index requirement
-        firestore.collection(ATTENDANCE_COLLECTION)
-                .whereEqualTo("studentId", studentId)
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<AttendanceRecord> records = new ArrayList<>();
+        studentPager = pageAttendanceByStudent(studentId, DEFAULT_PAGE_SIZE);
+        loadMoreAttendanceByStudent();
+    }
 
-                    for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
-                        AttendanceRecord record = document.toObject(AttendanceRecord.class);
-                        if (record != null) {
-                            record.setRecordId(document.getId());
-                            records.add(record);
-                        }
-                    }
+    // Load the next page of the student passed to fetchAttendanceByStudent, appended to the published records
+    public void loadMoreAttendanceByStudent() {
+        if (studentPager == null) {
+            return;
+        }
 
-                    // Sort locally instead of in the query
-                    Collections.sort(records, (r1, r2) -> {
-                        if (r1.getTimestamp() == null && r2.getTimestamp() == null) return 0;
-                        if (r1.getTimestamp() == null) return 1;
-                        if (r2.getTimestamp() == null) return -1;
-                        // Descending order (newest first)
-                        return r2.getTimestamp().compareTo(r1.getTimestamp());
-                    });
+        AttendancePager pager = studentPager;
+        pager.loadNextPage(new AttendancePager.OnPageLoadListener() {
+            @Override
+            public void onPageLoaded(List<AttendanceRecord> page, List<AttendanceRecord> allRecords, boolean endReached) {
+                // A newer fetch replaced the pager
+                if (pager != studentPager) {
+                    return;
+                }
+                attendanceRecordsLiveData.setValue(allRecords);
+                isLoading.setValue(false);
+            }
 
-                    attendanceRecordsLiveData.setValue(records);
-                    isLoading.setValue(false);
-                })
-                .addOnFailureListener(e -> {
-                    errorMessage.setValue("Failed to load attendance records: " + e.getMessage());
-                    isLoading.setValue(false);
-                });
+            @Override
+            public void onFailure(String message) {
+                errorMessage.setValue(message);
+                isLoading.setValue(false);
+            }
+        });
+    }
+
+    /**
+     * Page through a student's attendance history, newest first
+     *
+     * @param studentId Student whose records to load
+     * @param pageSize  Number of records per page
+     * @return Pager positioned before the first page
+     */
+    public AttendancePager pageAttendanceByStudent(String studentId, int pageSize) {
+        return new AttendancePager(firestore.collection(ATTENDANCE_COLLECTION)
+                .whereEqualTo("studentId", studentId), pageSize);
     }
 
     // Fetch course information by ID
@@ -191,8 +246,7 @@ public class AttendanceRepository {
             return;
         }
 
-        firestore.collection("courses").document(courseId)
-                .get()
+        entityCache.get(firestore.collection(COURSES_COLLECTION).document(courseId))
                 .addOnSuccessListener(documentSnapshot -> {
                     if (documentSnapshot.exists()) {
                         String courseCode = documentSnapshot.getString("courseCode");
@@ -225,8 +279,7 @@ public class AttendanceRepository {
             return;
         }
 
-        firestore.collection("sessions").document(sessionId)
-                .get()
+        entityCache.get(firestore.collection(SESSIONS_COLLECTION).document(sessionId))
                 .addOnSuccessListener(documentSnapshot -> {
                     if (documentSnapshot.exists()) {
                         String title = documentSnapshot.getString("title");
@@ -260,7 +313,7 @@ public class AttendanceRepository {
 
         try {
             // Parse QR code content
-            QRCodeData qrData = parseQRCodeContent(qrCodeContent);
+            QRCodeData qrData = parseScannedContent(qrCodeContent);
             if (qrData == null) {
                 isLoading.setValue(false);
                 listener.onFailure("Invalid QR code format");
@@ -275,135 +328,21 @@ public class AttendanceRepository {
             Log.d(TAG, "Session ID: " + sessionId);
             Log.d(TAG, "Course ID: " + (courseId != null ? courseId : "Not provided in QR"));
 
-            // 1. First check if attendance has already been marked
-            firestore.collection(ATTENDANCE_COLLECTION)
-                    .whereEqualTo("sessionId", sessionId)
-                    .whereEqualTo("studentId", studentId)
-                    .get()
-                    .addOnCompleteListener(task -> {
-                        if (task.isSuccessful()) {
-                            if (!task.getResult().isEmpty()) {
-                                // Attendance already marked
-                                isLoading.setValue(false);
-                                listener.onFailure("Attendance already marked for this session");
-                                return;
-                            }
-
-                            // 2. Verify QR code exists and is valid
-                            firestore.collection(QRCODES_COLLECTION).document(qrCodeId)
-                                    .get()
-                                    .addOnSuccessListener(qrCodeDoc -> {
-                                        if (!qrCodeDoc.exists()) {
-                                            isLoading.setValue(false);
-                                            listener.onFailure("QR code not found");
-                                            return;
-                                        }
-
-                                        QRCode qrCode = qrCodeDoc.toObject(QRCode.class);
-                                        if (qrCode == null || !qrCode.isValid()) {
-                                            isLoading.setValue(false);
-                                            listener.onFailure("QR code has expired or is inactive");
-                                            return;
-                                        }
-
-                                        // 3. Verify session exists and is active
-                                        firestore.collection(SESSIONS_COLLECTION).document(sessionId)
-                                                .get()
-                                                .addOnSuccessListener(sessionDoc -> {
-                                                    if (!sessionDoc.exists()) {
-                                                        isLoading.setValue(false);
-                                                        listener.onFailure("Session not found");
-                                                        return;
-                                                    }
-
-                                                    Session session = sessionDoc.toObject(Session.class);
-                                                    if (session == null) {
-                                                        isLoading.setValue(false);
-                                                        listener.onFailure("Invalid session data");
-                                                        return;
-                                                    }
-
-                                                    session.setSessionId(sessionId);
-                                                    session.updateStatus();
-
-                                                    if (!session.isActive()) {
-                                                        isLoading.setValue(false);
-                                                        listener.onFailure("Session is not active, can't mark attendance");
-                                                        return;
-                                                    }
-
-                                                    // If courseId is not in the QR code, get it from the session
-                                                    String finalCourseId = (courseId != null) ? courseId : session.getCourseId();
-
-                                                    // 4. Create new attendance record with a specific ID
-                                                    String attendanceId = firestore.collection(ATTENDANCE_COLLECTION).document().getId();
-                                                    AttendanceRecord record = new AttendanceRecord(sessionId, finalCourseId, studentId, qrCodeId);
-                                                    record.setRecordId(attendanceId);
-                                                    record.setLocation(location);
-                                                    record.setTimestamp(new Date());
-                                                    record.checkLateStatus(session.getStartTime(), session.getLateThresholdMinutes());
-
-                                                    Map<String, Object> recordMap = attendanceRecordToMap(record);
-
-                                                    // 5. Add attendance record to Firestore
-                                                    firestore.collection(ATTENDANCE_COLLECTION)
-                                                            .document(attendanceId)
-                                                            .set(recordMap)
-                                                            .addOnSuccessListener(aVoid -> {
-                                                                // 6. Update attendance count in QR code
-                                                                Log.d(TAG, "Attendance record added with ID: " + attendanceId);
-                                                                firestore.collection(QRCODES_COLLECTION).document(qrCodeId)
-                                                                        .update("scanCount", qrCode.getScanCount() + 1);
-
-                                                                // 7. Update session with new attendance record
-                                                                List<String> attendanceRecords = session.getAttendanceRecordIds();
-                                                                if (attendanceRecords == null) {
-                                                                    attendanceRecords = new ArrayList<>();
-                                                                }
-                                                                attendanceRecords.add(attendanceId);
-                                                                firestore.collection(SESSIONS_COLLECTION).document(sessionId)
-                                                                        .update("attendanceRecordIds", attendanceRecords);
-
-                                                                // 8. Update student with attendance record
-                                                                firestore.collection(USERS_COLLECTION).document(studentId)
-                                                                        .get()
-                                                                        .addOnSuccessListener(studentDoc -> {
-                                                                            if (studentDoc.exists()) {
-                                                                                List<String> studentAttendanceRecords = (List<String>) studentDoc.get("attendanceRecordIds");
-                                                                                if (studentAttendanceRecords == null) {
-                                                                                    studentAttendanceRecords = new ArrayList<>();
-                                                                                }
-                                                                                studentAttendanceRecords.add(attendanceId);
-                                                                                firestore.collection(USERS_COLLECTION).document(studentId)
-                                                                                        .update("attendanceRecordIds", studentAttendanceRecords);
-                                                                            }
-
-                                                                            isLoading.setValue(false);
-                                                                            listener.onSuccess("Attendance marked successfully");
-                                                                        })
-                                                                        .addOnFailureListener(e -> {
-                                                                            // If student update fails, still consider attendance successful
-                                                                            isLoading.setValue(false);
-                                                                            listener.onSuccess("Attendance marked, but student record update failed");
-                                                                        });
-                                                            })
-                                                            .addOnFailureListener(e -> {
-                                                                isLoading.setValue(false);
-                                                                listener.onFailure("Failed to create attendance record: " + e.getMessage());
-                                                            });
-                                                })
-                                                .addOnFailureListener(e -> {
-                                                    isLoading.setValue(false);
-                                                    listener.onFailure("Failed to verify session: " + e.getMessage());
-                                                });
-                                    })
-                                    .addOnFailureListener(e -> {
-                                        isLoading.setValue(false);
-                                        listener.onFailure("Failed to verify QR code: " + e.getMessage());
-                                    });
+            // Validate and write everything in a single transaction
+            commitScan(qrData, studentId, location, null)
+                    .addOnSuccessListener(record -> {
+                        Log.d(TAG, "Attendance record added with ID: " + record.getRecordId());
+                        isLoading.setValue(false);
+                        listener.onSuccess("Attendance marked successfully");
+                    })
+                    .addOnFailureListener(e -> {
+                        isLoading.setValue(false);
+                        if (e instanceof ScanValidator.ScanRejectedException) {
+                            listener.onFailure(e.getMessage());
+                        } else if (isTransientFailure(e)) {
+                            listener.onUnavailable("Could not reach the server: " + e.getMessage());
                         } else {
-                            isLoading.setValue(false);
-                            listener.onFailure("Failed to check existing attendance: " + task.getException().getMessage());
+                            listener.onFailure("Failed to create attendance record: " + e.getMessage());
                         }
                     });
         } catch (Exception e) {
@@ -413,10 +352,237 @@ public class AttendanceRepository {
 
     }
 
+    /**
+     * Commit a scan that was queued while offline.
+     * The record ID is derived from the session and student, so replaying the same scan twice
+     * fails with {@link #isAlreadyMarked(Exception)} instead of writing a duplicate.
+     *
+     * @param qrCodeContent Scanned QR code content
+     * @param studentId     ID of the student who scanned
+     * @param location      Location captured at scan time
+     * @param queuedAt      Server time estimated by {@link ServerClock#estimate()} when the scan was
+     *                      queued; counts only within {@link ScanValidator#OFFLINE_WINDOW_MS}
+     * @return Task resolving to the committed record
+     */
+    public Task<AttendanceRecord> replayQueuedScan(String qrCodeContent, String studentId,
+                                                   AttendanceRecord.LocationData location, Date queuedAt) {
+        QRCodeData qrData = parseScannedContent(qrCodeContent);
+        if (qrData == null) {
+            return Tasks.forException(new IllegalArgumentException("Invalid QR code format"));
+        }
+        return commitScan(qrData, studentId, location, queuedAt);
+    }
+
+    // Live scans pass a null queuedAt and are judged at server time
+    Task<AttendanceRecord> commitScan(QRCodeData qrData, String studentId,
+                                      AttendanceRecord.LocationData location, Date queuedAt) {
+        return commitEngine.commit(new ScanValidator.Scan(qrData.qrCodeId, qrData.sessionId, qrData.courseId,
+                studentId, location, queuedAt, qrData.signedPayload));
+    }
+
+    // Check if a commit failed because the student was already marked present
+    public static boolean isAlreadyMarked(Exception e) {
+        return e instanceof ScanValidator.ScanRejectedException
+                && ((ScanValidator.ScanRejectedException) e).getReason()
+                == ScanValidator.ScanRejectedException.Reason.ALREADY_MARKED;
+    }
+
+    // Check if a commit was refused by validation, retrying will not help
+    public static boolean isRejected(Exception e) {
+        return e instanceof ScanValidator.ScanRejectedException || e instanceof IllegalArgumentException;
+    }
+
+    // Check if a commit failed because the backend could not be reached, retrying later may succeed
+    public static boolean isTransientFailure(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case ABORTED:
+            case RESOURCE_EXHAUSTED:
+            case INTERNAL:
+            case UNKNOWN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Get the number of times a QR code has been scanned
+    public void getScanCount(String qrCodeId, ShardedCounter.OnCountListener listener) {
+        ShardedCounter.getInstance().getCount(
+                firestore.collection(QRCODES_COLLECTION).document(qrCodeId), ShardedCounter.SCAN_COUNT, listener);
+    }
+
+    // Get the number of students marked present in a session
+    public void getPresentCount(String sessionId, ShardedCounter.OnCountListener listener) {
+        ShardedCounter.getInstance().getCount(
+                firestore.collection(SESSIONS_COLLECTION).document(sessionId), ShardedCounter.PRESENT_COUNT, listener);
+    }
+
+    /**
+     * Get a student's attendance summary for a course.
+     * Students whose records predate the summaries get one built from their records on first read.
+     */
+    public void fetchAttendanceSummary(String studentId, String courseId, OnSummaryListener listener) {
+        DocumentReference summaryRef = firestore.collection(SUMMARIES_COLLECTION)
+                .document(AttendanceSummary.idFor(studentId, courseId));
+
+        summaryRef.get()
+                .addOnSuccessListener(documentSnapshot -> {
+                    AttendanceSummary summary = documentSnapshot.exists()
+                            ? documentSnapshot.toObject(AttendanceSummary.class) : null;
+                    if (summary != null) {
+                        listener.onSuccess(summary);
+                        return;
+                    }
+
+                    // No summary yet, rebuild it from the records
+                    firestore.collection(ATTENDANCE_COLLECTION)
+                            .whereEqualTo("studentId", studentId)
+                            .whereEqualTo("courseId", courseId)
+                            .get()
+                            .addOnSuccessListener(queryDocumentSnapshots -> {
+                                AttendanceSummary rebuilt = new AttendanceSummary(studentId, courseId);
+                                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                                    rebuilt.recordAttendance(document.getString("sessionId"), document.getDate("timestamp"),
+                                            AttendanceRecord.AttendanceStatus.fromValue(document.getString("status")));
+                                }
+                                if (rebuilt.getAttendedCount() == 0) {
+                                    listener.onSuccess(rebuilt);
+                                    return;
+                                }
+                                storeRebuiltSummary(summaryRef, rebuilt)
+                                        .addOnSuccessListener(listener::onSuccess)
+                                        .addOnFailureListener(e -> {
+                                            Log.w(TAG, "Failed to store rebuilt summary", e);
+                                            listener.onSuccess(rebuilt);
+                                        });
+                            })
+                            .addOnFailureListener(e -> listener.onFailure("Failed to load attendance: " + e.getMessage()));
+                })
+                .addOnFailureListener(e -> listener.onFailure("Failed to load attendance summary: " + e.getMessage()));
+    }
+
+    /**
+     * Store a summary rebuilt from the records, unless a commit created one since it was read.
+     * Every commit merges its increments into the summary, so a summary that exists now already
+     * counts the records committed after the rebuild query and must not be overwritten.
+     */
+    private Task<AttendanceSummary> storeRebuiltSummary(DocumentReference summaryRef, AttendanceSummary rebuilt) {
+        return firestore.runTransaction(transaction -> {
+            DocumentSnapshot current = transaction.get(summaryRef);
+            AttendanceSummary stored = current.exists() ? current.toObject(AttendanceSummary.class) : null;
+            if (stored != null) {
+                return stored;
+            }
+
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("summaryId", summaryRef.getId());
+            fields.put("studentId", rebuilt.getStudentId());
+            fields.put("courseId", rebuilt.getCourseId());
+            fields.put("attendedCount", rebuilt.getAttendedCount());
+            fields.put("presentCount", rebuilt.getPresentCount());
+            fields.put("lateCount", rebuilt.getLateCount());
+            fields.put("lastSessionId", rebuilt.getLastSessionId());
+            fields.put("lastAttendedAt", rebuilt.getLastAttendedAt());
+            transaction.set(summaryRef, SyncFields.touch(fields));
+            return rebuilt;
+        });
+    }
+
+    // Get a student's summaries, one per course they have attended
+    public void fetchStudentSummaries(String studentId, OnSummariesListener listener) {
+        fetchSummaries("student:" + studentId,
+                firestore.collection(SUMMARIES_COLLECTION).whereEqualTo("studentId", studentId), listener);
+    }
+
+    // Get the summaries of every student who has attended a course
+    public void fetchCourseSummaries(String courseId, OnSummariesListener listener) {
+        fetchSummaries("course:" + courseId,
+                firestore.collection(SUMMARIES_COLLECTION).whereEqualTo("courseId", courseId), listener);
+    }
+
+    /**
+     * Count a course's students whose attendance is below a threshold, with a count() aggregate over
+     * the summaries that meet it instead of downloading them. Enrolled students without a summary
+     * never attended and count as below.
+     */
+    public void countStudentsBelowThreshold(Course course, int thresholdPercentage,
+                                            ShardedCounter.OnCountListener listener) {
+        int held = AttendanceSummary.sessionsHeld(course);
+        int enrolled = course.getEnrolledStudentIds() != null ? course.getEnrolledStudentIds().size() : 0;
+        int minimumAttended = AttendanceSummary.minimumAttended(held, thresholdPercentage);
+        if (enrolled == 0 || minimumAttended == 0) {
+            listener.onCount(0);
+            return;
+        }
+
+        firestore.collection(SUMMARIES_COLLECTION)
+                .whereEqualTo("courseId", course.getCourseId())
+                .whereGreaterThanOrEqualTo("attendedCount", minimumAttended)
+                .count()
+                .get(AggregateSource.SERVER)
+                .addOnSuccessListener(snapshot -> listener.onCount(Math.max(0, enrolled - snapshot.getCount())))
+                .addOnFailureListener(e -> listener.onError("Failed to count attendance: " + e.getMessage()));
+    }
+
+    // Summaries are kept on the device per query, only those changed since the last fetch are read
+    private void fetchSummaries(String scope, Query query, OnSummariesListener listener) {
+        CollectionSync.getInstance().load(new CollectionSync.Scope<>(SUMMARIES_COLLECTION, scope,
+                        AttendanceSummary.class, query,
+                        CollectionSync.model(AttendanceSummary.class, AttendanceSummary::setSummaryId)),
+                (summaries, error) -> {
+                    if (error != null) {
+                        listener.onFailure("Failed to load attendance summaries: " + error.getMessage());
+                        return;
+                    }
+                    listener.onSuccess(summaries);
+                });
+    }
+
+    /**
+     * Get present, late and absent totals of a session from its counters
+     */
+    public void fetchSessionStats(String sessionId, OnSessionStatsListener listener) {
+        DocumentReference sessionRef = firestore.collection(SESSIONS_COLLECTION).document(sessionId);
+
+        entityCache.get(sessionRef)
+                .continueWithTask(sessionTask -> {
+                    String courseId = sessionTask.getResult().getString("courseId");
+                    if (courseId == null) {
+                        throw new IllegalStateException("Session not found");
+                    }
+                    return entityCache.get(firestore.collection(COURSES_COLLECTION).document(courseId));
+                })
+                .continueWithTask(courseTask -> {
+                    List<?> enrolled = (List<?>) courseTask.getResult().get("enrolledStudentIds");
+                    int enrolledCount = enrolled != null ? enrolled.size() : 0;
+                    return ShardedCounter.getInstance().getCounts(sessionRef)
+                            .continueWith(countsTask -> {
+                                Map<String, Long> counts = countsTask.getResult();
+                                return new SessionAttendanceStats(sessionId,
+                                        countOf(counts, ShardedCounter.PRESENT_COUNT),
+                                        countOf(counts, ShardedCounter.LATE_COUNT), enrolledCount);
+                            });
+                })
+                .addOnSuccessListener(listener::onSuccess)
+                .addOnFailureListener(e -> listener.onFailure("Failed to load session stats: " + e.getMessage()));
+    }
+
+    private static int countOf(Map<String, Long> counts, String counterName) {
+        Long count = counts.get(counterName);
+        return count != null ? count.intValue() : 0;
+    }
+
     // Create new session
     public void createSession(Session session, OnCompleteListener listener) {
         isLoading.setValue(true);
 
+        // Stored with the status it has now, later transitions are written as they fall due
+        session.updateStatus();
         Map<String, Object> sessionMap = sessionToMap(session);
 
         firestore.collection(SESSIONS_COLLECTION)
@@ -425,36 +591,19 @@ public class AttendanceRepository {
                     String sessionId = documentReference.getId();
                     session.setSessionId(sessionId);
 
-                    // Update course with new session ID
+                    // Add the session ID server-side, a read-modify-write of the list loses sessions created side by side
                     DocumentReference courseRef = firestore.collection(COURSES_COLLECTION).document(session.getCourseId());
-                    courseRef.get().addOnSuccessListener(documentSnapshot -> {
-                        if (documentSnapshot.exists()) {
-                            List<String> sessionIds = (List<String>) documentSnapshot.get("sessionIds");
-                            if (sessionIds == null) {
-                                sessionIds = new ArrayList<>();
-                            }
-                            sessionIds.add(sessionId);
-
-                            courseRef.update("sessionIds", sessionIds)
-                                    .addOnSuccessListener(aVoid -> {
-                                        isLoading.setValue(false);
-                                        listener.onSuccess(sessionId);
-                                    })
-                                    .addOnFailureListener(e -> {
-                                        errorMessage.setValue("Failed to update course: " + e.getMessage());
-                                        isLoading.setValue(false);
-                                        listener.onFailure(e.getMessage());
-                                    });
-                        } else {
-                            errorMessage.setValue("Course not found");
-                            isLoading.setValue(false);
-                            listener.onFailure("Course not found");
-                        }
-                    }).addOnFailureListener(e -> {
-                        errorMessage.setValue("Failed to get course: " + e.getMessage());
-                        isLoading.setValue(false);
-                        listener.onFailure(e.getMessage());
-                    });
+                    courseRef.update("sessionIds", FieldValue.arrayUnion(sessionId), SyncFields.UPDATED_AT, SyncFields.now())
+                            .addOnSuccessListener(aVoid -> {
+                                entityCache.invalidate(courseRef);
+                                isLoading.setValue(false);
+                                listener.onSuccess(sessionId);
+                            })
+                            .addOnFailureListener(e -> {
+                                errorMessage.setValue("Failed to update course: " + e.getMessage());
+                                isLoading.setValue(false);
+                                listener.onFailure(e.getMessage());
+                            });
                 })
                 .addOnFailureListener(e -> {
                     errorMessage.setValue("Failed to create session: " + e.getMessage());
@@ -465,6 +614,52 @@ public class AttendanceRepository {
 
     // Generate QR code for session
     public void generateQRCodeForSession(Session session, Date expiryDate, OnQRCodeListener listener) {
+        saveQRCode(session, expiryDate, QRPayloadCodec.generateKeyPair(), 0, listener);
+    }
+
+    /**
+     * Generate a QR code that changes every few seconds, see {@link RotatingQRCode}.
+     * The private key that signs each step never leaves this device. Steps follow server time, which
+     * the commit checks them against; the device clock is used if the server can't be reached.
+     *
+     * @param session       Session the code is for, must have start and end times
+     * @param expiryDate    Time after which no more codes are produced
+     * @param periodSeconds Seconds between rotations
+     * @param listener      callback with the code to show
+     */
+    public void generateRotatingQRCodeForSession(Session session, Date expiryDate, int periodSeconds,
+                                                 OnRotatingQRCodeListener listener) {
+        if (session.getStartTime() == null || session.getEndTime() == null) {
+            listener.onFailure("Session has no start or end time");
+            return;
+        }
+
+        KeyPair keyPair = QRPayloadCodec.generateKeyPair();
+        saveQRCode(session, expiryDate, keyPair, periodSeconds, new OnQRCodeListener() {
+            @Override
+            public void onSuccess(String qrCodeId, String qrCodeContent) {
+                ServerClock.getInstance().now().addOnCompleteListener(clock -> {
+                    long clockOffset = clock.isSuccessful()
+                            ? clock.getResult().getTime() - System.currentTimeMillis() : 0;
+                    if (!clock.isSuccessful()) {
+                        Log.w(TAG, "Rotating QR code follows the device clock", clock.getException());
+                    }
+                    listener.onSuccess(new RotatingQRCode(keyPair.getPrivate(), qrCodeId, session,
+                            expiryDate.getTime(), periodSeconds, clockOffset));
+                });
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                listener.onFailure(errorMessage);
+            }
+        });
+    }
+
+    // Save a QR code signed with the given key pair and link it to its session, rotationSeconds is 0
+    // for a static code
+    private void saveQRCode(Session session, Date expiryDate, KeyPair keyPair, int rotationSeconds,
+                            OnQRCodeListener listener) {
         isLoading.setValue(true);
 
         try {
@@ -484,9 +679,13 @@ public class AttendanceRepository {
 
             Log.d(TAG, "Generated QR code with ID: " + qrCodeId);
 
-            // Create content with the QR code ID included
-            String content = createQRCodeContent(qrCode);
+            // Create content with the QR code ID included, scans of signed content are checked against the public key
+            String content = createQRCodeContent(qrCode, session, keyPair.getPrivate());
             qrCode.setContent(content);
+            if (QRPayloadCodec.isSignedPayload(content)) {
+                qrCode.setPublicKey(QRPayloadCodec.encodePublicKey(keyPair.getPublic()));
+                qrCode.setRotationSeconds(rotationSeconds);
+            }
 
             Map<String, Object> qrCodeMap = qrCodeToMap(qrCode);
 
@@ -495,11 +694,22 @@ public class AttendanceRepository {
                     .document(qrCodeId)
                     .set(qrCodeMap)
                     .addOnSuccessListener(aVoid -> {
-                        // 3. Update session with QR code ID
+                        // 3. Update session with QR code ID, a session handing out codes has usually started.
+                        // The key goes along, so scanners and the commit verify the code from the session alone
+                        Map<String, Object> sessionUpdate = new HashMap<>();
+                        sessionUpdate.put("qrCodeId", qrCodeId);
+                        sessionUpdate.put("qrPublicKey", qrCode.getPublicKey());
+                        sessionUpdate.put("qrRotationSeconds", qrCode.getRotationSeconds());
+                        if (session.getStartTime() != null && session.getEndTime() != null
+                                && session.statusAt(new Date()) == Session.SessionStatus.IN_PROGRESS) {
+                            sessionUpdate.put("status", Session.SessionStatus.IN_PROGRESS.getValue());
+                        }
                         firestore.collection(SESSIONS_COLLECTION)
                                 .document(session.getSessionId())
-                                .update("qrCodeId", qrCodeId)
+                                .update(SyncFields.touch(sessionUpdate))
                                 .addOnSuccessListener(aVoid2 -> {
+                                    entityCache.invalidate(firestore.collection(SESSIONS_COLLECTION).document(session.getSessionId()));
+
                                     // 4. Add QR code ID to instructor's list of generated QR codes
                                     firestore.collection(USERS_COLLECTION)
                                             .document(session.getInstructorId())
@@ -514,7 +724,8 @@ public class AttendanceRepository {
                                                         generatedQRs.add(qrCodeId);
                                                         firestore.collection(USERS_COLLECTION)
                                                                 .document(session.getInstructorId())
-                                                                .update("generatedQRCodeIds", generatedQRs);
+                                                                .update("generatedQRCodeIds", generatedQRs,
+                                                                        SyncFields.UPDATED_AT, SyncFields.now());
                                                     }
                                                 }
 
@@ -546,7 +757,26 @@ public class AttendanceRepository {
     }
 
     // Helper method to create QR code content
-    private String createQRCodeContent(QRCode qrCode) {
+    private String createQRCodeContent(QRCode qrCode, Session session, PrivateKey signingKey) {
+        // Signed payload, checked against the public key stored with the QR code when committing
+        if (session.getStartTime() != null && session.getEndTime() != null) {
+            QRPayloadCodec.Payload payload = new QRPayloadCodec.Payload(
+                    qrCode.getQrCodeId(),
+                    qrCode.getSessionId(),
+                    qrCode.getCourseId(),
+                    qrCode.getExpiresAt().getTime(),
+                    // Negative, so it is never taken for the step of a rotating code
+                    nonceGenerator.nextInt() | Integer.MIN_VALUE,
+                    session.getStartTime().getTime(),
+                    session.getEndTime().getTime(),
+                    session.getLateThresholdMinutes());
+            try {
+                return QRPayloadCodec.encode(payload, signingKey);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Cannot sign QR payload, using legacy format", e);
+            }
+        }
+
         Map<String, Object> contentMap = new HashMap<>();
         contentMap.put("qrCodeId", qrCode.getQrCodeId());
         contentMap.put("sessionId", qrCode.getSessionId());
@@ -564,8 +794,30 @@ public class AttendanceRepository {
         }
     }
 
-    // Helper method to parse QR code content
-    private QRCodeData parseQRCodeContent(String content) {
+    /**
+     * Parse scanned QR code content.
+     * Only the format is checked here, the commit verifies the signature of signed codes against the
+     * QR code's public key. Legacy JSON codes are only checked for the required fields.
+     *
+     * @return the parsed code, or null if the content is not a valid attendance code
+     */
+    public QRCodeData parseScannedContent(String content) {
+        if (QRPayloadCodec.isSignedPayload(content)) {
+            try {
+                QRPayloadCodec.Payload payload = QRPayloadCodec.decode(content);
+                QRCodeData data = new QRCodeData();
+                data.qrCodeId = payload.getQrCodeId();
+                data.sessionId = payload.getSessionId();
+                data.courseId = payload.getCourseId();
+                data.expiresAt = payload.getExpiresAt();
+                data.signedPayload = payload;
+                return data;
+            } catch (QRPayloadCodec.InvalidPayloadException e) {
+                Log.w(TAG, "Rejected QR code: " + e.getMessage());
+                return null;
+            }
+        }
+
         try {
             JSONObject jsonObject = new JSONObject(content);
             QRCodeData data = new QRCodeData();
@@ -599,8 +851,7 @@ public class AttendanceRepository {
         Map<String, Object> sessionDetails = new HashMap<>();
 
         // First, get the session data
-        firestore.collection(SESSIONS_COLLECTION).document(sessionId)
-                .get()
+        entityCache.get(firestore.collection(SESSIONS_COLLECTION).document(sessionId))
                 .addOnSuccessListener(sessionSnapshot -> {
                     if (sessionSnapshot.exists()) {
                         Session session = sessionSnapshot.toObject(Session.class);
@@ -609,8 +860,7 @@ public class AttendanceRepository {
                             sessionDetails.put("session", session);
 
                             // Get the course data
-                            firestore.collection(COURSES_COLLECTION).document(session.getCourseId())
-                                    .get()
+                            entityCache.get(firestore.collection(COURSES_COLLECTION).document(session.getCourseId()))
                                     .addOnSuccessListener(courseSnapshot -> {
                                         if (courseSnapshot.exists()) {
                                             Course course = courseSnapshot.toObject(Course.class);
@@ -638,29 +888,6 @@ public class AttendanceRepository {
                                                     }
                                                     sessionDetails.put("attendanceRecords", records);
 
-                                                    // Calculate attendance statistics
-                                                    Map<String, Object> stats = new HashMap<>();
-                                                    stats.put("totalPresent", records.size());
-
-                                                    Course course = (Course) sessionDetails.get("course");
-                                                    if (course != null && course.getEnrolledStudentIds() != null) {
-                                                        stats.put("totalStudents", course.getEnrolledStudentIds().size());
-                                                        stats.put("absentCount", course.getEnrolledStudentIds().size() - records.size());
-
-                                                        if (course.getEnrolledStudentIds().size() > 0) {
-                                                            double percentage = (double) records.size() * 100 / course.getEnrolledStudentIds().size();
-                                                            stats.put("attendancePercentage", Math.round(percentage * 10) / 10.0); // Round to 1 decimal place
-                                                        } else {
-                                                            stats.put("attendancePercentage", 0.0);
-                                                        }
-                                                    } else {
-                                                        stats.put("totalStudents", 0);
-                                                        stats.put("absentCount", 0);
-                                                        stats.put("attendancePercentage", 0.0);
-                                                    }
-
-                                                    sessionDetails.put("stats", stats);
-
                                                     // Get all student details for those who are present
                                                     fetchStudentDetails(studentIds, sessionDetails);
                                                 })
@@ -696,95 +923,160 @@ public class AttendanceRepository {
             return;
         }
 
-        Map<String, Student> studentMap = new HashMap<>();
-        final int[] fetchCount = {0};
-        final int totalToFetch = studentIds.size();
+        fetchStudents(studentIds, studentMap -> {
+            sessionDetails.put("students", studentMap);
+            sessionDetailsLiveData.setValue(sessionDetails);
+            isLoading.setValue(false);
+        });
+    }
 
-        for (String studentId : studentIds) {
-            firestore.collection(USERS_COLLECTION).document(studentId)
-                    .get()
-                    .addOnSuccessListener(studentDoc -> {
-                        if (studentDoc.exists()) {
-                            Student student = studentDoc.toObject(Student.class);
-                            if (student != null) {
-                                student.setUserId(studentDoc.getId());
-                                studentMap.put(studentId, student);
-                            }
-                        }
+    // Fetch students by ID, e.g. for roster rows of scans that arrived after the session was loaded
+    public void fetchStudents(List<String> studentIds, OnStudentsListener listener) {
+        // One whereIn query per chunk of IDs instead of one read per student
+        studentLoader.load(studentIds, result -> {
+            Map<String, Student> studentMap = new HashMap<>();
+            for (DocumentSnapshot studentDoc : result.getDocuments()) {
+                Student student = studentDoc.toObject(Student.class);
+                if (student != null) {
+                    student.setUserId(studentDoc.getId());
+                    studentMap.put(studentDoc.getId(), student);
+                }
+            }
 
-                        fetchCount[0]++;
-                        if (fetchCount[0] >= totalToFetch) {
-                            sessionDetails.put("students", studentMap);
-                            sessionDetailsLiveData.setValue(sessionDetails);
-                            isLoading.setValue(false);
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        fetchCount[0]++;
-                        if (fetchCount[0] >= totalToFetch) {
-                            sessionDetails.put("students", studentMap);
-                            sessionDetailsLiveData.setValue(sessionDetails);
-                            isLoading.setValue(false);
-                        }
-                    });
-        }
+            if (result.hasFailures()) {
+                Log.w(TAG, "Could not load " + result.getFailedIds().size() + " students: " + result.getErrorMessage());
+                errorMessage.setValue("Some student details could not be loaded");
+            }
+            listener.onSuccess(studentMap);
+        });
     }
 
-
     /**
-     * Clean up expired QR codes
+     * Export attendance records to a CSV sheet.
+     * The sheet is written on a background thread; progress and the result are posted to the
+     * main thread. See {@link AttendanceExporter} for the columns.
+     *
+     * @param filter   Course, session and date range to export
+     * @param output   Where the sheet is written, closed when the export ends
+     * @param listener callback for progress and the result
+     * @return The running export, to cancel it
      */
-    public void cleanupExpiredQRCodes() {
-        Date now = new Date();
+    public AttendanceExporter exportAttendance(AttendanceExporter.Filter filter, Writer output,
+                                               OnExportListener listener) {
+        AttendanceExporter exporter = new AttendanceExporter(new FirestoreExportStore(),
+                (rowsWritten, rowsPerSecond) ->
+                        mainHandler.post(() -> listener.onProgress(rowsWritten, rowsPerSecond)));
+
+        exportExecutor.execute(() -> {
+            AttendanceExporter.Result result = exporter.run(filter, output);
+            Log.i(TAG, "Attendance export: " + result);
+            mainHandler.post(() -> listener.onComplete(result));
+        });
+        return exporter;
+    }
 
-        firestore.collection(QRCODES_COLLECTION)
-                .whereLessThan("expiresAt", now)
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    if (queryDocumentSnapshots.isEmpty()) {
-                        return;
-                    }
+    // Reads exports from Firestore, callbacks stay off the main thread
+    private class FirestoreExportStore implements AttendanceExporter.Store {
+
+        @Override
+        public void queryPage(AttendanceExporter.Filter filter, Object cursor, int limit,
+                              AttendanceExporter.Callback<AttendanceExporter.Page> callback) {
+            // Served by the (sessionId, timestamp) and (courseId, timestamp) indexes
+            Query query = firestore.collection(ATTENDANCE_COLLECTION);
+            if (filter.sessionId != null) {
+                query = query.whereEqualTo("sessionId", filter.sessionId);
+            } else if (filter.courseId != null) {
+                query = query.whereEqualTo("courseId", filter.courseId);
+            }
+            if (filter.from != null) {
+                query = query.whereGreaterThanOrEqualTo("timestamp", filter.from);
+            }
+            if (filter.to != null) {
+                query = query.whereLessThan("timestamp", filter.to);
+            }
+            query = query.orderBy("timestamp");
+            if (cursor != null) {
+                query = query.startAfter((DocumentSnapshot) cursor);
+            }
 
-                    int count = 0;
-                    for (DocumentSnapshot doc : queryDocumentSnapshots.getDocuments()) {
-                        // Deactivate the QR code
-                        doc.getReference().update("isActive", false)
-                                .addOnSuccessListener(aVoid -> Log.d(TAG, "QR code deactivated: " + doc.getId()))
-                                .addOnFailureListener(e -> Log.e(TAG, "Error deactivating QR code: " + e.getMessage()));
-                        count++;
-                    }
+            query.limit(limit)
+                    .get()
+                    .addOnSuccessListener(exportCallbackExecutor, querySnapshot -> {
+                        List<DocumentSnapshot> documents = querySnapshot.getDocuments();
+                        List<Map<String, Object>> records = new ArrayList<>(documents.size());
+                        for (DocumentSnapshot document : documents) {
+                            Map<String, Object> record = plainData(document);
+                            record.put("recordId", document.getId());
+                            records.add(record);
+                        }
+                        Object last = documents.isEmpty() ? cursor : documents.get(documents.size() - 1);
+                        callback.onComplete(new AttendanceExporter.Page(records, last), null);
+                    })
+                    .addOnFailureListener(exportCallbackExecutor, e -> callback.onComplete(null, e));
+        }
 
-                    Log.d(TAG, "Deactivated " + count + " expired QR codes");
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error cleaning up expired QR codes: " + e.getMessage());
-                });
-    }
+        @Override
+        public void findByIds(String collection, List<String> ids,
+                              AttendanceExporter.Callback<Map<String, Map<String, Object>>> callback) {
+            firestore.collection(collection)
+                    .whereIn(FieldPath.documentId(), ids)
+                    .get()
+                    .addOnSuccessListener(exportCallbackExecutor, querySnapshot -> {
+                        Map<String, Map<String, Object>> found = new HashMap<>();
+                        for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+                            found.put(document.getId(), plainData(document));
+                        }
+                        callback.onComplete(found, null);
+                    })
+                    .addOnFailureListener(exportCallbackExecutor, e -> callback.onComplete(null, e));
+        }
 
+        // Document data with Firestore timestamps as Dates
+        private Map<String, Object> plainData(DocumentSnapshot document) {
+            Map<String, Object> data = document.getData() != null ? document.getData() : new HashMap<>();
+            for (Map.Entry<String, Object> field : data.entrySet()) {
+                if (field.getValue() instanceof Timestamp) {
+                    field.setValue(((Timestamp) field.getValue()).toDate());
+                }
+            }
+            return data;
+        }
+    }
 
     // Static class to hold QR code parsed data
-    private static class QRCodeData {
+    public static class QRCodeData {
         String qrCodeId;
         String sessionId;
         String courseId;
         long expiresAt;
-    }
+        QRPayloadCodec.Payload signedPayload;
+
+        public String getQrCodeId() {
+            return qrCodeId;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getCourseId() {
+            return courseId;
+        }
+
+        public boolean isSigned() {
+            return signedPayload != null;
+        }
 
-    // Helper method to convert AttendanceRecord to Map for Firestore
-    private Map<String, Object> attendanceRecordToMap(AttendanceRecord record) {
-        Map<String, Object> recordMap = new HashMap<>();
-        recordMap.put("recordId", record.getRecordId());  // Make sure this field is included
-        recordMap.put("sessionId", record.getSessionId());
-        recordMap.put("courseId", record.getCourseId());
-        recordMap.put("studentId", record.getStudentId());
-        recordMap.put("qrCodeId", record.getQrCodeId());
-        recordMap.put("timestamp", record.getTimestamp());
-        recordMap.put("location", record.getLocation());
-        recordMap.put("verified", record.isVerified());
-        recordMap.put("verifiedBy", record.getVerifiedBy());
-        recordMap.put("verifiedAt", record.getVerifiedAt());
-        recordMap.put("status", record.getStatus() != null ? record.getStatus().getValue() : null);
-        return recordMap;
+        // Check if this is a step of a rotating code, whose nonce is the step number. Static codes
+        // carry a negative nonce; ones issued before that may be taken for rotating
+        public boolean isRotating() {
+            return signedPayload != null && signedPayload.getNonce() >= 0;
+        }
+
+        // Check if the code had expired at a given time, codes without an expiry are left to the server
+        public boolean isExpiredAt(long timeMillis) {
+            return expiresAt > 0 && timeMillis >= expiresAt;
+        }
     }
 
     // Helper method to convert Session to Map for Firestore
@@ -797,11 +1089,10 @@ public class AttendanceRepository {
         sessionMap.put("endTime", session.getEndTime());
         sessionMap.put("location", session.getLocation());
         sessionMap.put("instructorId", session.getInstructorId());
-        sessionMap.put("attendanceRecordIds", session.getAttendanceRecordIds());
         sessionMap.put("qrCodeId", session.getQrCodeId());
         sessionMap.put("status", session.getStatus() != null ? session.getStatus().getValue() : null);
         sessionMap.put("lateThresholdMinutes", session.getLateThresholdMinutes());
-        return sessionMap;
+        return SyncFields.touch(sessionMap);
     }
 
     // Helper method to convert QRCode to Map for Firestore
@@ -816,8 +1107,9 @@ public class AttendanceRepository {
         qrCodeMap.put("generatedAt", qrCode.getGeneratedAt());
         qrCodeMap.put("expiresAt", qrCode.getExpiresAt());
         qrCodeMap.put("isActive", qrCode.isActive());
-        qrCodeMap.put("scanCount", qrCode.getScanCount());
         qrCodeMap.put("type", qrCode.getType() != null ? qrCode.getType().getValue() : null);
+        qrCodeMap.put("publicKey", qrCode.getPublicKey());
+        qrCodeMap.put("rotationSeconds", qrCode.getRotationSeconds());
         return qrCodeMap;
     }
 
@@ -830,10 +1122,49 @@ public class AttendanceRepository {
     public interface OnAttendanceListener {
         void onSuccess(String message);
         void onFailure(String errorMessage);
+
+        // Called instead of onFailure when the server could not be reached
+        default void onUnavailable(String errorMessage) {
+            onFailure(errorMessage);
+        }
     }
 
     public interface OnQRCodeListener {
         void onSuccess(String qrCodeId, String qrCodeContent);
         void onFailure(String errorMessage);
     }
+
+    public interface OnRotatingQRCodeListener {
+        void onSuccess(RotatingQRCode rotatingCode);
+        void onFailure(String errorMessage);
+    }
+
+    public interface OnSessionsListener {
+        void onSuccess(List<Session> sessions);
+        void onFailure(String errorMessage);
+    }
+
+    public interface OnSummaryListener {
+        void onSuccess(AttendanceSummary summary);
+        void onFailure(String errorMessage);
+    }
+
+    public interface OnSummariesListener {
+        void onSuccess(List<AttendanceSummary> summaries);
+        void onFailure(String errorMessage);
+    }
+
+    public interface OnSessionStatsListener {
+        void onSuccess(SessionAttendanceStats stats);
+        void onFailure(String errorMessage);
+    }
+
+    public interface OnStudentsListener {
+        void onSuccess(Map<String, Student> students);
+    }
+
+    public interface OnExportListener {
+        void onProgress(int rowsWritten, double rowsPerSecond);
+        void onComplete(AttendanceExporter.Result result);
+    }
 }
\ No newline at end of file
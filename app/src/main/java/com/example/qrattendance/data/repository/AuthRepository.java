@@ -215,7 +215,6 @@ public class AuthRepository {
             userMap.put("semester", student.getSemester());
             userMap.put("batch", student.getBatch());
             userMap.put("enrolledCourseIds", student.getEnrolledCourseIds());
-            userMap.put("attendanceRecordIds", student.getAttendanceRecordIds());
         } else if (user instanceof Instructor) {
             Instructor instructor = (Instructor) user;
             userMap.put("userType", "INSTRUCTOR");
@@ -231,6 +230,8 @@ public class AuthRepository {
             userMap.put("position", admin.getPosition());
             userMap.put("privilegeLevel", admin.getPrivilegeLevel().name());
         }
+        UserSearchFields.addTo(userMap);
+        SyncFields.touch(userMap);
 
         firestore.collection(USERS_COLLECTION).document(user.getUserId())
                 .set(userMap)
@@ -266,7 +267,7 @@ public class AuthRepository {
                         // Update last login time
                         String userId = task.getResult().getUser().getUid();
                         DocumentReference userRef = firestore.collection(USERS_COLLECTION).document(userId);
-                        userRef.update("lastLoginAt", new Date());
+                        userRef.update("lastLoginAt", new Date(), SyncFields.UPDATED_AT, SyncFields.now());
 
                         // Fetch user details
                         fetchUserDetails(userId);
@@ -368,6 +369,7 @@ public class AuthRepository {
     public void logout() {
         firebaseAuth.signOut();
         currentUser.setValue(null);
+        EntityCache.getInstance().clear();
     }
 
     /**
@@ -0,0 +1,10 @@
+package com.example.qrattendance.data.repository;
+
+/**
+ * Source of the current time in milliseconds, e.g. System::currentTimeMillis or
+ * SystemClock::elapsedRealtime, so timed logic can be tested with a fixed time.
+ * java.util.function is not available below API 24.
+ */
+public interface Clock {
+    long now();
+}
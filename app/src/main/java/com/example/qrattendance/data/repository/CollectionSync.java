@@ -0,0 +1,248 @@
+package com.example.qrattendance.data.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.qrattendance.data.local.ReadModelStore;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps scopes of Firestore collections in {@link ReadModelStore}, pulling only what changed since
+ * the last sync of each scope with {@link DeltaSync}: documents whose updatedAt moved past the
+ * scope's watermark, and tombstones of documents deleted since (see {@link SyncFields#tombstone}).
+ *
+ * Repositories describe a scope with {@link Scope} and get the merged result back instead of
+ * re-reading the whole query on every screen open.
+ */
+class CollectionSync {
+    private static final String TAG = "CollectionSync";
+
+    private static CollectionSync instance;
+    private final FirebaseFirestore firestore;
+    private final ReadModelStore store;
+    private final DeltaSync deltaSync;
+    private final ExecutorService executor = Executors.newFixedThreadPool(BatchDocumentLoader.MAX_IN_FLIGHT);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Private constructor for singleton pattern
+    private CollectionSync() {
+        firestore = FirebaseFirestore.getInstance();
+        // The default app holds the application context, repositories are created without one
+        store = ReadModelStore.getInstance(FirebaseApp.getInstance().getApplicationContext());
+        deltaSync = new DeltaSync(new StoreAdapter(), ServerClock.getInstance()::currentTimeMillis);
+    }
+
+    // Get singleton instance
+    static synchronized CollectionSync getInstance() {
+        if (instance == null) {
+            instance = new CollectionSync();
+        }
+        return instance;
+    }
+
+    /**
+     * Bring a scope up to date and hand out everything stored for it, on the main thread.
+     * Without a connection the stored copy is handed out if the scope was synced before.
+     */
+    <T> void load(Scope<T> scope, Callback<List<T>> callback) {
+        executor.execute(() -> {
+            List<T> documents;
+            Exception error = null;
+            try {
+                pull(scope);
+                documents = new ArrayList<>(read(scope).values());
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to sync " + scope, e);
+                documents = store.getWatermark(scope.collection, scope.key) != null
+                        ? new ArrayList<>(read(scope).values()) : null;
+                error = documents == null ? e : null;
+            }
+            List<T> result = documents;
+            Exception failure = error;
+            mainHandler.post(() -> callback.onComplete(result, failure));
+        });
+    }
+
+    /**
+     * Bring a scope up to date, blocking
+     *
+     * @return What the sync read and changed
+     */
+    DeltaSync.Result pull(Scope<?> scope) throws Exception {
+        DeltaSync.Result result = deltaSync.sync(scope.collection, scope.key, since -> fetch(scope, since));
+        Log.d(TAG, scope + ": " + result);
+        return result;
+    }
+
+    // Stored documents of a scope, blocking
+    <T> Map<String, T> read(Scope<T> scope) {
+        return store.load(scope.collection, scope.key, scope.type);
+    }
+
+    private <T> List<DeltaSync.Change<T>> fetch(Scope<T> scope, Long sinceMillis) throws Exception {
+        if (sinceMillis == null) {
+            return changesOf(scope, Tasks.await(scope.query.get()));
+        }
+
+        Date since = new Date(sinceMillis);
+        Task<QuerySnapshot> changed = scope.changedSince.since(since).get();
+        Task<QuerySnapshot> deleted = firestore.collection(SyncFields.TOMBSTONES_COLLECTION)
+                .whereEqualTo(SyncFields.TOMBSTONE_COLLECTION, scope.collection)
+                .whereGreaterThanOrEqualTo(SyncFields.DELETED_AT, since)
+                .get();
+
+        List<DeltaSync.Change<T>> changes = changesOf(scope, Tasks.await(changed));
+        for (DocumentSnapshot tombstone : Tasks.await(deleted).getDocuments()) {
+            String documentId = tombstone.getString(SyncFields.TOMBSTONE_DOCUMENT_ID);
+            if (documentId != null) {
+                changes.add(DeltaSync.Change.removed(documentId, millis(tombstone, SyncFields.DELETED_AT),
+                        DocumentSize.of(tombstone.getReference().getPath(), tombstone.getData())));
+            }
+        }
+        return changes;
+    }
+
+    private static <T> List<DeltaSync.Change<T>> changesOf(Scope<T> scope, QuerySnapshot snapshot) {
+        List<DeltaSync.Change<T>> changes = new ArrayList<>(snapshot.size());
+        for (DocumentSnapshot document : snapshot.getDocuments()) {
+            T value = scope.filter.matches(document) ? scope.decoder.decode(document) : null;
+            long updatedAt = millis(document, SyncFields.UPDATED_AT);
+            long bytes = DocumentSize.of(document.getReference().getPath(), document.getData());
+            if (value == null) {
+                // Changed in a way that takes it out of the scope, e.g. a course that was deactivated
+                changes.add(DeltaSync.Change.removed(document.getId(), updatedAt, bytes));
+            } else {
+                changes.add(new DeltaSync.Change<>(document.getId(), value, updatedAt, bytes));
+            }
+        }
+        return changes;
+    }
+
+    private static long millis(DocumentSnapshot document, String field) {
+        Timestamp timestamp = document.getTimestamp(field);
+        return timestamp != null ? timestamp.toDate().getTime() : 0;
+    }
+
+    // Decoder for documents read into a model class
+    static <T> Decoder<T> model(Class<T> type, IdSetter<T> setId) {
+        return document -> {
+            T value = document.toObject(type);
+            if (value != null) {
+                setId.setId(value, document.getId());
+            }
+            return value;
+        };
+    }
+
+    /**
+     * Part of a collection that is synced as a whole, e.g. the sessions of one course
+     */
+    static class Scope<T> {
+        final String collection;
+        final String key;
+        final Class<T> type;
+        final Query query;
+        final Decoder<T> decoder;
+        ChangesQuery changedSince;
+        DocumentFilter filter = document -> true;
+
+        /**
+         * @param collection Collection the documents come from
+         * @param key        Name of the scope, unique within the collection
+         * @param type       Class the documents are stored as
+         * @param query      Query returning the whole scope
+         * @param decoder    Reads a document, null to skip it
+         */
+        Scope(String collection, String key, Class<T> type, Query query, Decoder<T> decoder) {
+            this.collection = collection;
+            this.key = key;
+            this.type = type;
+            this.query = query;
+            this.decoder = decoder;
+            this.changedSince = since -> query.whereGreaterThanOrEqualTo(SyncFields.UPDATED_AT, since);
+        }
+
+        /**
+         * Use another query for changes than the scope's query with an updatedAt filter, e.g. when a
+         * document can leave the scope and the scope's query would no longer return it
+         */
+        Scope<T> changedSince(ChangesQuery changedSince) {
+            this.changedSince = changedSince;
+            return this;
+        }
+
+        // Documents the changes query returns that do not belong to the scope are removed
+        Scope<T> filter(DocumentFilter filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return collection + "/" + key;
+        }
+    }
+
+    // Keeps the synced scopes in the read model database
+    private class StoreAdapter implements DeltaSync.Local {
+
+        @Override
+        public Long getWatermark(String collection, String scope) {
+            return store.getWatermark(collection, scope);
+        }
+
+        @Override
+        public Map<String, Long> getVersions(String collection, String scope) {
+            return store.getVersions(collection, scope);
+        }
+
+        @Override
+        public <T> void apply(String collection, String scope, List<DeltaSync.Change<T>> upserts,
+                              Collection<String> removedIds, long watermark) {
+            List<ReadModelStore.Row> rows = new ArrayList<>(upserts.size());
+            for (DeltaSync.Change<T> change : upserts) {
+                rows.add(new ReadModelStore.Row(change.id, change.value, change.updatedAt));
+            }
+            store.write(collection, scope, rows, removedIds, watermark);
+        }
+    }
+
+    // Callback interfaces
+    interface Callback<T> {
+        void onComplete(T result, Exception error);
+    }
+
+    // Reads a document of a scope, null to skip it
+    interface Decoder<T> {
+        T decode(DocumentSnapshot document);
+    }
+
+    interface IdSetter<T> {
+        void setId(T value, String documentId);
+    }
+
+    // Query for the documents of a scope changed at or after a time
+    interface ChangesQuery {
+        Query since(Date since);
+    }
+
+    interface DocumentFilter {
+        boolean matches(DocumentSnapshot document);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.qrattendance.data.repository;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.AttendanceSummary;
+import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.data.model.QRCode;
+import com.example.qrattendance.data.model.Session;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One attempt of the attendance commit transaction: the reads, the checks of {@link ScanValidator}
+ * and the writes. {@link AttendanceCommitEngine} runs it on a Firestore transaction, tests run it on
+ * a local stand-in.
+ *
+ * The reads are sequential. A Firestore transaction on Android blocks in every get until the
+ * document arrives, so one attempt can't have two reads in flight. Which QR code and course to read
+ * also depends on the session: the QR code only when the session does not publish its key, and the
+ * course the session belongs to. A scan waits for the record, session and course reads, the QR
+ * code read for legacy codes, and the commit.
+ */
+final class CommitAttempt {
+    static final String ATTENDANCE_COLLECTION = "attendance_records";
+    static final String SESSIONS_COLLECTION = "sessions";
+    static final String COURSES_COLLECTION = "courses";
+    static final String QRCODES_COLLECTION = "qr_codes";
+    static final String SUMMARIES_COLLECTION = "attendance_summaries";
+
+    private CommitAttempt() {
+    }
+
+    /**
+     * Read and check what a scan depends on, then stage the record with its counters and summary
+     *
+     * @param scan      Scan to commit
+     * @param serverNow Server time the scan is judged at, see {@link ScanValidator#validate}
+     * @return The record that was staged
+     * @throws ScanValidator.ScanRejectedException If the scan fails validation
+     */
+    static AttendanceRecord run(ScanValidator.Scan scan, Date serverNow, Reads reads, Writes writes)
+            throws FirebaseFirestoreException {
+        String recordId = ScanValidator.recordIdFor(scan.sessionId, scan.studentId);
+
+        boolean alreadyMarked = reads.exists(ATTENDANCE_COLLECTION, recordId);
+        Session session = reads.get(SESSIONS_COLLECTION, scan.sessionId, Session.class);
+        QRCode qrCode = scan.payload != null && ScanValidator.sessionPublishesKey(scan.qrCodeId, session)
+                ? null : reads.get(QRCODES_COLLECTION, scan.qrCodeId, QRCode.class);
+        // Enrollment is checked against the roster here, not only on the device
+        String courseId = ScanValidator.courseIdFor(scan, session);
+        Course course = courseId != null ? reads.get(COURSES_COLLECTION, courseId, Course.class) : null;
+
+        AttendanceRecord record = ScanValidator.validate(scan, alreadyMarked, qrCode, session, course, serverNow);
+
+        Map<String, Object> recordMap = attendanceRecordToMap(record);
+        // When the write reached the server, and for queued scans when the device says it was taken
+        recordMap.put("recordedAt", FieldValue.serverTimestamp());
+        if (scan.queuedAt != null) {
+            recordMap.put("queuedAt", scan.queuedAt);
+        }
+        writes.set(ATTENDANCE_COLLECTION, recordId, recordMap);
+        writes.increment(QRCODES_COLLECTION, scan.qrCodeId, ShardedCounter.SCAN_COUNT);
+        writes.increment(SESSIONS_COLLECTION, scan.sessionId, ShardedCounter.PRESENT_COUNT);
+        if (isLate(record)) {
+            writes.increment(SESSIONS_COLLECTION, scan.sessionId, ShardedCounter.LATE_COUNT);
+        }
+        if (record.getCourseId() != null) {
+            writes.merge(SUMMARIES_COLLECTION, AttendanceSummary.idFor(record.getStudentId(), record.getCourseId()),
+                    summaryUpdate(record));
+        }
+        return record;
+    }
+
+    private static boolean isLate(AttendanceRecord record) {
+        return record.getStatus() == AttendanceRecord.AttendanceStatus.LATE;
+    }
+
+    // Helper method to build the summary update for a newly committed record
+    static Map<String, Object> summaryUpdate(AttendanceRecord record) {
+        Map<String, Object> update = new HashMap<>();
+        update.put("summaryId", AttendanceSummary.idFor(record.getStudentId(), record.getCourseId()));
+        update.put("studentId", record.getStudentId());
+        update.put("courseId", record.getCourseId());
+        update.put("attendedCount", FieldValue.increment(1));
+        update.put(isLate(record) ? "lateCount" : "presentCount", FieldValue.increment(1));
+        update.put("lastSessionId", record.getSessionId());
+        update.put("lastAttendedAt", record.getTimestamp());
+        return SyncFields.touch(update);
+    }
+
+    // Helper method to convert AttendanceRecord to Map for Firestore
+    static Map<String, Object> attendanceRecordToMap(AttendanceRecord record) {
+        Map<String, Object> recordMap = new HashMap<>();
+        recordMap.put("recordId", record.getRecordId());
+        recordMap.put("sessionId", record.getSessionId());
+        recordMap.put("courseId", record.getCourseId());
+        recordMap.put("studentId", record.getStudentId());
+        recordMap.put("qrCodeId", record.getQrCodeId());
+        recordMap.put("timestamp", record.getTimestamp());
+        recordMap.put("location", record.getLocation());
+        recordMap.put("verified", record.isVerified());
+        recordMap.put("verifiedBy", record.getVerifiedBy());
+        recordMap.put("verifiedAt", record.getVerifiedAt());
+        recordMap.put("status", record.getStatus() != null ? record.getStatus().getValue() : null);
+        return recordMap;
+    }
+
+    // Reads of the running transaction
+    interface Reads {
+        boolean exists(String collection, String id) throws FirebaseFirestoreException;
+
+        // The document as an object, null if it does not exist
+        <T> T get(String collection, String id, Class<T> type) throws FirebaseFirestoreException;
+    }
+
+    // Writes of the running transaction, applied when it commits
+    interface Writes {
+        void set(String collection, String id, Map<String, Object> data);
+
+        void merge(String collection, String id, Map<String, Object> data);
+
+        // Add one to a sharded counter of a document, see ShardedCounter
+        void increment(String collection, String ownerId, String counterName);
+    }
+}
@@ -0,0 +1,491 @@
+package com.example.qrattendance.data.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Deletes a course and everything that belongs to it in write batches.
+ * The work runs in phases, children before parents: attendance records, QR codes, summaries,
+ * user references, sessions and finally the course. Each phase finds its documents, groups the
+ * deletes and array-removes into batches of at most {@link #MAX_BATCH_WRITES} writes and commits
+ * them with at most {@link #MAX_IN_FLIGHT} batches running at a time.
+ *
+ * A checkpoint document is written after every phase. Running the delete again for the same course
+ * skips the finished phases, and since deleting a missing document is a no-op a phase that was cut
+ * off halfway is simply run again. The course document is removed last, together with the
+ * checkpoint, so a course that is still listed can always be deleted again.
+ *
+ * Courses, sessions and summaries are kept on devices by delta sync, which never sees a deleted
+ * document. Each of their deletes is paired with a tombstone write so devices drop their copy.
+ *
+ * All storage goes through {@link Store}, Firestore in the app and an in-memory store in tests.
+ * Callbacks are expected on a single thread, like the Firestore listeners.
+ */
+class CourseCascadeDelete {
+    static final String COURSES_COLLECTION = "courses";
+    static final String SESSIONS_COLLECTION = "sessions";
+    static final String ATTENDANCE_RECORDS_COLLECTION = "attendance_records";
+    static final String QR_CODES_COLLECTION = "qr_codes";
+    static final String SUMMARIES_COLLECTION = "attendance_summaries";
+    static final String USERS_COLLECTION = "users";
+    static final String CHECKPOINTS_COLLECTION = "course_deletions";
+
+    // Firestore limit on writes in one batch
+    static final int MAX_BATCH_WRITES = 500;
+    static final int MAX_IN_FLIGHT = 3;
+
+    enum Phase { RECORDS, QR_CODES, SUMMARIES, USER_REFERENCES, SESSIONS, COURSE }
+
+    private final Store store;
+    private final String courseId;
+    private final Callback<Result> callback;
+    private final long startedAt = System.nanoTime();
+
+    private Map<String, Object> course;
+    private List<String> sessionIds = new ArrayList<>();
+    private Phase resumedFrom;
+    private int writesCommitted;
+    private int batchesCommitted;
+
+    private CourseCascadeDelete(Store store, String courseId, Callback<Result> callback) {
+        this.store = store;
+        this.courseId = courseId;
+        this.callback = callback;
+    }
+
+    /**
+     * Delete a course and all of its data, resuming an earlier delete of the same course
+     *
+     * @param store    Documents to delete from
+     * @param courseId ID of the course to delete
+     * @param callback Called once with the throughput of the run, or the first error
+     */
+    static void run(Store store, String courseId, Callback<Result> callback) {
+        new CourseCascadeDelete(store, courseId, callback).start();
+    }
+
+    private void start() {
+        store.read(CHECKPOINTS_COLLECTION, courseId, (checkpoint, checkpointError) -> {
+            if (checkpointError != null) {
+                callback.onComplete(null, checkpointError);
+                return;
+            }
+            store.read(COURSES_COLLECTION, courseId, (courseData, courseError) -> {
+                if (courseError != null) {
+                    callback.onComplete(null, courseError);
+                    return;
+                }
+                if (courseData == null) {
+                    callback.onComplete(null, new IllegalStateException("Course not found"));
+                    return;
+                }
+                course = courseData;
+
+                Phase next = Phase.RECORDS;
+                if (checkpoint != null && checkpoint.get("completedPhase") instanceof String) {
+                    Phase completed = Phase.valueOf((String) checkpoint.get("completedPhase"));
+                    next = Phase.values()[completed.ordinal() + 1];
+                    resumedFrom = next;
+                }
+                Phase firstPhase = next;
+                findSessions(() -> runPhase(firstPhase));
+            });
+        });
+    }
+
+    // Sessions listed on the course plus any that point at it without being listed
+    private void findSessions(Runnable then) {
+        store.findIds(SESSIONS_COLLECTION, "courseId", Collections.singletonList(courseId), (found, error) -> {
+            if (error != null) {
+                callback.onComplete(null, error);
+                return;
+            }
+            Set<String> ids = new LinkedHashSet<>(stringList(course.get("sessionIds")));
+            ids.addAll(found);
+            sessionIds = new ArrayList<>(ids);
+            then.run();
+        });
+    }
+
+    private void runPhase(Phase phase) {
+        collectWrites(phase, (writes, error) -> {
+            if (error != null) {
+                callback.onComplete(null, error);
+                return;
+            }
+
+            if (phase == Phase.COURSE) {
+                // The course and its checkpoint go together, nothing is left to resume afterwards
+                writes.add(Write.delete(CHECKPOINTS_COLLECTION + "/" + courseId));
+                commitAll(writes, (ignored, commitError) -> {
+                    if (commitError != null) {
+                        callback.onComplete(null, commitError);
+                        return;
+                    }
+                    callback.onComplete(new Result(courseId, writesCommitted, batchesCommitted,
+                            System.nanoTime() - startedAt, resumedFrom), null);
+                });
+                return;
+            }
+
+            commitAll(writes, (ignored, commitError) -> {
+                if (commitError != null) {
+                    callback.onComplete(null, commitError);
+                    return;
+                }
+                saveCheckpoint(phase, () -> runPhase(Phase.values()[phase.ordinal() + 1]));
+            });
+        });
+    }
+
+    private void collectWrites(Phase phase, Callback<List<Write>> then) {
+        List<Write> writes = new ArrayList<>();
+        switch (phase) {
+            case RECORDS:
+                // Records carry both IDs, older ones may only have the session
+                findAll(ATTENDANCE_RECORDS_COLLECTION, "courseId", Collections.singletonList(courseId), (byCourse, e1) -> {
+                    if (e1 != null) {
+                        then.onComplete(null, e1);
+                        return;
+                    }
+                    findAll(ATTENDANCE_RECORDS_COLLECTION, "sessionId", sessionIds, (bySession, e2) -> {
+                        if (e2 != null) {
+                            then.onComplete(null, e2);
+                            return;
+                        }
+                        Set<String> ids = new LinkedHashSet<>(byCourse);
+                        ids.addAll(bySession);
+                        for (String id : ids) {
+                            writes.add(Write.delete(ATTENDANCE_RECORDS_COLLECTION + "/" + id));
+                        }
+                        then.onComplete(writes, null);
+                    });
+                });
+                break;
+
+            case QR_CODES:
+                findAll(QR_CODES_COLLECTION, "sessionId", sessionIds, (ids, error) -> {
+                    if (error != null) {
+                        then.onComplete(null, error);
+                        return;
+                    }
+                    for (String id : ids) {
+                        String path = QR_CODES_COLLECTION + "/" + id;
+                        addShardDeletes(writes, path, ShardedCounter.SCAN_COUNT);
+                        writes.add(Write.delete(path));
+                    }
+                    then.onComplete(writes, null);
+                });
+                break;
+
+            case SUMMARIES:
+                findAll(SUMMARIES_COLLECTION, "courseId", Collections.singletonList(courseId), (ids, error) -> {
+                    if (error != null) {
+                        then.onComplete(null, error);
+                        return;
+                    }
+                    for (String id : ids) {
+                        addSyncedDelete(writes, SUMMARIES_COLLECTION + "/" + id);
+                    }
+                    then.onComplete(writes, null);
+                });
+                break;
+
+            case USER_REFERENCES:
+                collectUserWrites(writes, then);
+                break;
+
+            case SESSIONS:
+                for (String id : sessionIds) {
+                    String path = SESSIONS_COLLECTION + "/" + id;
+                    addShardDeletes(writes, path, ShardedCounter.PRESENT_COUNT);
+                    addShardDeletes(writes, path, ShardedCounter.LATE_COUNT);
+                    addSyncedDelete(writes, path);
+                }
+                then.onComplete(writes, null);
+                break;
+
+            case COURSE:
+                addSyncedDelete(writes, COURSES_COLLECTION + "/" + courseId);
+                then.onComplete(writes, null);
+                break;
+        }
+    }
+
+    // Array-removes need an existing document, users deleted since they enrolled are skipped
+    private void collectUserWrites(List<Write> writes, Callback<List<Write>> then) {
+        Object instructorId = course.get("instructorId");
+        List<String> studentIds = stringList(course.get("enrolledStudentIds"));
+        List<String> userIds = new ArrayList<>(studentIds);
+        if (instructorId instanceof String) {
+            userIds.add((String) instructorId);
+        }
+
+        findExisting(USERS_COLLECTION, userIds, (existing, error) -> {
+            if (error != null) {
+                then.onComplete(null, error);
+                return;
+            }
+            if (instructorId instanceof String && existing.contains(instructorId)) {
+                writes.add(Write.arrayRemove(USERS_COLLECTION + "/" + instructorId, "coursesIds", courseId));
+            }
+            for (String studentId : new LinkedHashSet<>(studentIds)) {
+                if (existing.contains(studentId)) {
+                    writes.add(Write.arrayRemove(USERS_COLLECTION + "/" + studentId, "enrolledCourseIds", courseId));
+                }
+            }
+            then.onComplete(writes, null);
+        });
+    }
+
+    private static void addSyncedDelete(List<Write> writes, String path) {
+        writes.add(Write.delete(path));
+        writes.add(Write.tombstone(path));
+    }
+
+    private void addShardDeletes(List<Write> writes, String ownerPath, String counterName) {
+        for (String shardId : ShardedCounter.shardIds(counterName)) {
+            writes.add(Write.delete(ownerPath + "/" + ShardedCounter.SHARDS_COLLECTION + "/" + shardId));
+        }
+    }
+
+    private void saveCheckpoint(Phase completed, Runnable then) {
+        Map<String, Object> checkpoint = new HashMap<>();
+        checkpoint.put("courseId", courseId);
+        checkpoint.put("completedPhase", completed.name());
+        checkpoint.put("updatedAt", new Date());
+        store.commit(Collections.singletonList(Write.set(CHECKPOINTS_COLLECTION + "/" + courseId, checkpoint)),
+                (ignored, error) -> {
+                    if (error != null) {
+                        callback.onComplete(null, error);
+                        return;
+                    }
+                    then.run();
+                });
+    }
+
+    // Query one whereIn chunk at a time and merge the IDs found
+    private void findAll(String collection, String field, List<String> values, Callback<Set<String>> then) {
+        List<List<String>> chunks = BatchDocumentLoader.partition(values, BatchDocumentLoader.MAX_IDS_PER_QUERY);
+        findChunk(chunks, 0, new LinkedHashSet<>(), then,
+                (chunk, next) -> store.findIds(collection, field, chunk, next));
+    }
+
+    private void findExisting(String collection, List<String> ids, Callback<Set<String>> then) {
+        List<List<String>> chunks = BatchDocumentLoader.partition(ids, BatchDocumentLoader.MAX_IDS_PER_QUERY);
+        findChunk(chunks, 0, new LinkedHashSet<>(), then,
+                (chunk, next) -> store.findExisting(collection, chunk, next));
+    }
+
+    private void findChunk(List<List<String>> chunks, int index, Set<String> found, Callback<Set<String>> then,
+                           ChunkQuery query) {
+        if (index >= chunks.size()) {
+            then.onComplete(found, null);
+            return;
+        }
+        query.run(chunks.get(index), (ids, error) -> {
+            if (error != null) {
+                then.onComplete(null, error);
+                return;
+            }
+            found.addAll(ids);
+            findChunk(chunks, index + 1, found, then, query);
+        });
+    }
+
+    // Commit writes in batches, at most MAX_IN_FLIGHT at a time, stopping at the first failure
+    private void commitAll(List<Write> writes, Callback<Void> then) {
+        BatchRun run = new BatchRun(partition(writes, MAX_BATCH_WRITES), then);
+        if (run.batches.isEmpty()) {
+            then.onComplete(null, null);
+            return;
+        }
+        for (int i = 0; i < Math.min(MAX_IN_FLIGHT, run.batches.size()); i++) {
+            run.startNext();
+        }
+    }
+
+    static <T> List<List<T>> partition(List<T> items, int size) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += size) {
+            chunks.add(new ArrayList<>(items.subList(start, Math.min(items.size(), start + size))));
+        }
+        return chunks;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> stringList(Object value) {
+        if (!(value instanceof List)) {
+            return new ArrayList<>();
+        }
+        List<String> strings = new ArrayList<>();
+        for (Object item : (List<Object>) value) {
+            if (item instanceof String && !((String) item).isEmpty()) {
+                strings.add((String) item);
+            }
+        }
+        return strings;
+    }
+
+    // Batches of one phase being committed
+    private class BatchRun {
+        private final List<List<Write>> batches;
+        private final Callback<Void> then;
+        private Exception error;
+        private int next;
+        private int inFlight;
+
+        BatchRun(List<List<Write>> batches, Callback<Void> then) {
+            this.batches = batches;
+            this.then = then;
+        }
+
+        void startNext() {
+            if (error != null || next >= batches.size()) {
+                return;
+            }
+            List<Write> batch = batches.get(next++);
+            inFlight++;
+            store.commit(batch, (ignored, commitError) -> {
+                inFlight--;
+                if (commitError != null) {
+                    if (error == null) {
+                        error = commitError;
+                    }
+                } else {
+                    writesCommitted += batch.size();
+                    batchesCommitted++;
+                }
+
+                if (error == null && next < batches.size()) {
+                    startNext();
+                } else if (inFlight == 0) {
+                    then.onComplete(null, error);
+                }
+            });
+        }
+    }
+
+    /**
+     * One write of a batch, addressed by document path
+     */
+    static class Write {
+        enum Type { DELETE, ARRAY_REMOVE, SET, TOMBSTONE }
+
+        final Type type;
+        final String path;
+        final String field;
+        final Object value;
+        final Map<String, Object> data;
+
+        private Write(Type type, String path, String field, Object value, Map<String, Object> data) {
+            this.type = type;
+            this.path = path;
+            this.field = field;
+            this.value = value;
+            this.data = data;
+        }
+
+        static Write delete(String path) {
+            return new Write(Type.DELETE, path, null, null, null);
+        }
+
+        // Fails if the document does not exist, like a Firestore update
+        static Write arrayRemove(String path, String field, Object value) {
+            return new Write(Type.ARRAY_REMOVE, path, field, value, null);
+        }
+
+        static Write set(String path, Map<String, Object> data) {
+            return new Write(Type.SET, path, null, null, data);
+        }
+
+        // Record that the document at path was deleted, see SyncFields#tombstone
+        static Write tombstone(String path) {
+            return new Write(Type.TOMBSTONE, path, null, null, null);
+        }
+    }
+
+    /**
+     * Outcome of a completed delete
+     */
+    static class Result {
+        private final String courseId;
+        private final int writes;
+        private final int batches;
+        private final long elapsedNanos;
+        private final Phase resumedFrom;
+
+        Result(String courseId, int writes, int batches, long elapsedNanos, Phase resumedFrom) {
+            this.courseId = courseId;
+            this.writes = writes;
+            this.batches = batches;
+            this.elapsedNanos = elapsedNanos;
+            this.resumedFrom = resumedFrom;
+        }
+
+        String getCourseId() {
+            return courseId;
+        }
+
+        // Batched writes committed by this run, checkpoints not included
+        int getWrites() {
+            return writes;
+        }
+
+        int getBatches() {
+            return batches;
+        }
+
+        long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        double getWritesPerSecond() {
+            return elapsedNanos > 0 ? writes * 1_000_000_000.0 / elapsedNanos : 0;
+        }
+
+        // Phase an interrupted delete was resumed from, null for a fresh delete
+        Phase getResumedFrom() {
+            return resumedFrom;
+        }
+
+        @Override
+        public String toString() {
+            return "Course " + courseId + ": " + writes + " writes in " + batches + " batches, "
+                    + getElapsedMillis() + " ms (" + Math.round(getWritesPerSecond()) + " writes/s)"
+                    + (resumedFrom != null ? ", resumed from " + resumedFrom : "");
+        }
+    }
+
+    // Callback interfaces
+    interface Callback<T> {
+        void onComplete(T result, Exception error);
+    }
+
+    private interface ChunkQuery {
+        void run(List<String> chunk, Callback<List<String>> callback);
+    }
+
+    /**
+     * Document storage the delete runs against
+     */
+    interface Store {
+        // Document fields, null if the document does not exist
+        void read(String collection, String id, Callback<Map<String, Object>> callback);
+
+        // IDs of documents whose field matches one of at most 30 values
+        void findIds(String collection, String field, List<String> values, Callback<List<String>> callback);
+
+        // Which of at most 30 document IDs exist
+        void findExisting(String collection, List<String> ids, Callback<List<String>> callback);
+
+        // Apply all writes atomically
+        void commit(List<Write> writes, Callback<Void> callback);
+    }
+}
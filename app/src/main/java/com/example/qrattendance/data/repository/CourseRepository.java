@@ -1,7 +1,10 @@
 package com.example.qrattendance.data.repository;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
@@ -9,9 +12,13 @@ import com.example.qrattendance.data.model.Course;
 import com.example.qrattendance.data.model.Session;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -23,9 +30,15 @@ public class CourseRepository {
     private static final String TAG = "CourseRepository";
     private static final String COURSES_COLLECTION = "courses";
     private static final String USERS_COLLECTION = "users";
+    private static final String SESSIONS_COLLECTION = "sessions";
 
     private static CourseRepository instance;
     private final FirebaseFirestore firestore;
+    private final BatchDocumentLoader courseLoader;
+    private final BatchDocumentLoader userLoader;
+    private final EntityCache entityCache;
+    private final ListenerRegistry listenerRegistry;
+    private final FirestoreEnrollmentStore enrollmentStore = new FirestoreEnrollmentStore();
     private final MutableLiveData<List<Course>> coursesLiveData = new MutableLiveData<>();
     private final MutableLiveData<List<Course>> allCoursesLiveData = new MutableLiveData<>();
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
@@ -35,6 +48,10 @@ public class CourseRepository {
     // Private constructor for singleton pattern
     private CourseRepository() {
         firestore = FirebaseFirestore.getInstance();
+        courseLoader = new BatchDocumentLoader(firestore.collection(COURSES_COLLECTION));
+        userLoader = new BatchDocumentLoader(firestore.collection(USERS_COLLECTION));
+        entityCache = EntityCache.getInstance();
+        listenerRegistry = ListenerRegistry.getInstance();
     }
 
     // Get singleton instance
@@ -69,106 +86,119 @@ public class CourseRepository {
         return sessionsLiveData;
     }
 
-    // Fetch courses by instructor ID
-    public void fetchCoursesByInstructor(String instructorId) {
+    // Fetch courses by instructor ID, kept live until the owner is destroyed
+    public void fetchCoursesByInstructor(LifecycleOwner owner, String instructorId) {
         isLoading.setValue(true);
 
-        firestore.collection(COURSES_COLLECTION)
-                .whereEqualTo("instructorId", instructorId)
+        Query query = firestore.collection(COURSES_COLLECTION)
+                .whereEqualTo("instructorId", instructorId);
                 //.orderBy("courseName", Query.Direction.ASCENDING)
-                .addSnapshotListener((snapshots, e) -> {
-                    if (e != null) {
-                        errorMessage.setValue("Failed to load courses: " + e.getMessage());
-                        isLoading.setValue(false);
-                        return;
-                    }
+        listenerRegistry.acquire(owner, "courses", query, new CoursesListener());
+    }
 
-                    List<Course> courses = new ArrayList<>();
+    // Publishes an instructor's courses, shared by every owner listening to the same instructor
+    private class CoursesListener implements ListenerRegistry.SharedListener {
+        private List<Course> courses;
 
-                    if (snapshots != null) {
-                        for (QueryDocumentSnapshot document : snapshots) {
-                            Course course = document.toObject(Course.class);
-                            course.setCourseId(document.getId());
-                            courses.add(course);
-                        }
-                    }
+        @Override
+        public void onEvent(QuerySnapshot snapshots, FirebaseFirestoreException e) {
+            if (e != null) {
+                errorMessage.setValue("Failed to load courses: " + e.getMessage());
+                isLoading.setValue(false);
+                return;
+            }
 
-                    coursesLiveData.setValue(courses);
-                    isLoading.setValue(false);
-                });
+            List<Course> courses = new ArrayList<>();
+
+            if (snapshots != null) {
+                // Keep cached courses in step with the listener
+                entityCache.apply(snapshots);
+
+                for (QueryDocumentSnapshot document : snapshots) {
+                    Course course = document.toObject(Course.class);
+                    course.setCourseId(document.getId());
+                    courses.add(course);
+                }
+            }
+
+            this.courses = courses;
+            coursesLiveData.setValue(courses);
+            isLoading.setValue(false);
+        }
+
+        @Override
+        public void onShared() {
+            if (courses != null) {
+                coursesLiveData.setValue(courses);
+                isLoading.setValue(false);
+            }
+        }
     }
 
-    // Fetch all active courses in the system
+    // Fetch all active courses in the system, only courses changed since the last fetch are read
     public void fetchAllActiveCourses() {
         isLoading.setValue(true);
 
         // Use a simpler query that filters by isActive but doesn't sort (to avoid index issues)
-        firestore.collection(COURSES_COLLECTION)
-                .whereEqualTo("isActive", true)
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<Course> courses = new ArrayList<>();
-
-                    for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
-                        Course course = document.toObject(Course.class);
-                        if (course != null) {
-                            course.setCourseId(document.getId());
-                            courses.add(course);
-                        }
-                    }
+        CollectionSync.Scope<Course> activeCourses = new CollectionSync.Scope<>(COURSES_COLLECTION, "active",
+                Course.class, firestore.collection(COURSES_COLLECTION).whereEqualTo("isActive", true),
+                CollectionSync.model(Course.class, Course::setCourseId))
+                // A deactivated course no longer matches isActive, look at every changed course
+                .changedSince(since -> firestore.collection(COURSES_COLLECTION)
+                        .whereGreaterThanOrEqualTo(SyncFields.UPDATED_AT, since))
+                .filter(document -> Boolean.TRUE.equals(document.getBoolean("isActive")));
+
+        CollectionSync.getInstance().load(activeCourses, (courses, error) -> {
+            if (error != null) {
+                errorMessage.setValue("Failed to load courses: " + error.getMessage());
+                isLoading.setValue(false);
+                return;
+            }
 
-                    // Sort locally instead of in the query
-                    Collections.sort(courses, (a, b) -> {
-                        if (a.getCourseName() == null && b.getCourseName() == null) return 0;
-                        if (a.getCourseName() == null) return -1;
-                        if (b.getCourseName() == null) return 1;
-                        return a.getCourseName().compareToIgnoreCase(b.getCourseName());
-                    });
+            // Sort locally instead of in the query
+            Collections.sort(courses, (a, b) -> {
+                if (a.getCourseName() == null && b.getCourseName() == null) return 0;
+                if (a.getCourseName() == null) return -1;
+                if (b.getCourseName() == null) return 1;
+                return a.getCourseName().compareToIgnoreCase(b.getCourseName());
+            });
 
-                    allCoursesLiveData.setValue(courses);
-                    isLoading.setValue(false);
-                })
-                .addOnFailureListener(e -> {
-                    errorMessage.setValue("Failed to load courses: " + e.getMessage());
-                    isLoading.setValue(false);
-                });
+            allCoursesLiveData.setValue(courses);
+            isLoading.setValue(false);
+        });
     }
 
+    // Fetch the sessions of a course, only sessions changed since the last fetch are read
     public void fetchSessionsByCourse(String courseId) {
         isLoading.setValue(true);
 
         // Remove the orderBy clause to avoid index requirements
-        firestore.collection("sessions")
-                .whereEqualTo("courseId", courseId)
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<Session> sessions = new ArrayList<>();
-
-                    for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
-                        Session session = document.toObject(Session.class);
-                        if (session != null) {
-                            session.setSessionId(document.getId());
-                            session.updateStatus();
-                            sessions.add(session);
-                        }
-                    }
+        CollectionSync.Scope<Session> courseSessions = new CollectionSync.Scope<>(SESSIONS_COLLECTION,
+                "course:" + courseId, Session.class,
+                firestore.collection(SESSIONS_COLLECTION).whereEqualTo("courseId", courseId),
+                CollectionSync.model(Session.class, Session::setSessionId));
+
+        CollectionSync.getInstance().load(courseSessions, (sessions, error) -> {
+            if (error != null) {
+                errorMessage.setValue("Failed to load sessions: " + error.getMessage());
+                isLoading.setValue(false);
+                return;
+            }
 
-                    // Sort locally instead of in Firebase query
-                    Collections.sort(sessions, (s1, s2) -> {
-                        if (s1.getStartTime() == null && s2.getStartTime() == null) return 0;
-                        if (s1.getStartTime() == null) return 1;
-                        if (s2.getStartTime() == null) return -1;
-                        // Descending order (newest first)
-                        return s2.getStartTime().compareTo(s1.getStartTime());
-                    });
+            SessionStatusWriter.getInstance().apply(sessions);
 
-                    sessionsLiveData.setValue(sessions);
-                    isLoading.setValue(false);
-                })
-                .addOnFailureListener(e -> {
-                    errorMessage.setValue("Failed to load sessions: " + e.getMessage());
-                    isLoading.setValue(false);
-                });
+            // Sort locally instead of in Firebase query
+            Collections.sort(sessions, (s1, s2) -> {
+                if (s1.getStartTime() == null && s2.getStartTime() == null) return 0;
+                if (s1.getStartTime() == null) return 1;
+                if (s2.getStartTime() == null) return -1;
+                // Descending order (newest first)
+                return s2.getStartTime().compareTo(s1.getStartTime());
+            });
+
+            sessionsLiveData.setValue(sessions);
+            isLoading.setValue(false);
+        });
     }
 
     // Add new course
@@ -204,11 +234,16 @@ public class CourseRepository {
         }
 
         Map<String, Object> courseMap = courseToMap(course);
+        // The roster only changes through enrollStudent/unenrollStudent and the session list through
+        // createSession, a stale copy of either here would drop entries added since it was loaded
+        courseMap.remove("enrolledStudentIds");
+        courseMap.remove("sessionIds");
 
         firestore.collection(COURSES_COLLECTION)
                 .document(course.getCourseId())
                 .update(courseMap)
                 .addOnSuccessListener(aVoid -> {
+                    entityCache.invalidate(firestore.collection(COURSES_COLLECTION).document(course.getCourseId()));
                     isLoading.setValue(false);
                     listener.onSuccess(course.getCourseId());
                 })
@@ -223,10 +258,15 @@ public class CourseRepository {
     public void deleteCourse(String courseId, OnCompleteListener listener) {
         isLoading.setValue(true);
 
-        firestore.collection(COURSES_COLLECTION)
-                .document(courseId)
-                .delete()
+        DocumentReference courseRef = firestore.collection(COURSES_COLLECTION).document(courseId);
+        SyncFields.Tombstone tombstone = SyncFields.tombstone(courseRef.getPath());
+        WriteBatch batch = firestore.batch();
+        batch.delete(courseRef);
+        batch.set(firestore.document(tombstone.path), tombstone.data);
+
+        batch.commit()
                 .addOnSuccessListener(aVoid -> {
+                    entityCache.invalidate(firestore.collection(COURSES_COLLECTION).document(courseId));
                     isLoading.setValue(false);
                     listener.onSuccess(courseId);
                 })
@@ -241,9 +281,7 @@ public class CourseRepository {
     public void getCourseById(String courseId, OnCourseListener listener) {
         isLoading.setValue(true);
 
-        firestore.collection(COURSES_COLLECTION)
-                .document(courseId)
-                .get()
+        entityCache.get(firestore.collection(COURSES_COLLECTION).document(courseId))
                 .addOnSuccessListener(documentSnapshot -> {
                     isLoading.setValue(false);
                     if (documentSnapshot.exists()) {
@@ -265,168 +303,32 @@ public class CourseRepository {
                 });
     }
 
-    // Enroll student in course
+    // Enroll student in course, safe to call again if the student is already enrolled
     public void enrollStudent(String courseId, String studentId, OnCompleteListener listener) {
-        isLoading.setValue(true);
-
-        // Get references to the course and student documents
-        DocumentReference courseRef = firestore.collection(COURSES_COLLECTION).document(courseId);
-        DocumentReference studentRef = firestore.collection(USERS_COLLECTION).document(studentId);
-
-        // Non-transaction approach for better reliability
-        // First, get the course and check if student is already enrolled
-        courseRef.get()
-                .addOnSuccessListener(courseSnapshot -> {
-                    if (courseSnapshot.exists()) {
-                        Course course = courseSnapshot.toObject(Course.class);
-                        if (course != null) {
-                            // Make sure the enrolledStudentIds list exists
-                            List<String> enrolledStudents = course.getEnrolledStudentIds();
-                            if (enrolledStudents == null) {
-                                enrolledStudents = new ArrayList<>();
-                            }
-
-                            // Check if student is already enrolled
-                            if (enrolledStudents.contains(studentId)) {
-                                isLoading.setValue(false);
-                                listener.onSuccess(courseId); // Already enrolled, consider it a success
-                                return;
-                            }
-
-                            // Add student to course
-                            enrolledStudents.add(studentId);
-                            courseRef.update("enrolledStudentIds", enrolledStudents)
-                                    .addOnSuccessListener(aVoid -> {
-                                        // Now update the student's enrolled courses
-                                        studentRef.get()
-                                                .addOnSuccessListener(studentSnapshot -> {
-                                                    if (studentSnapshot.exists()) {
-                                                        // Get current enrolled courses
-                                                        List<String> enrolledCourses = (List<String>) studentSnapshot.get("enrolledCourseIds");
-                                                        if (enrolledCourses == null) {
-                                                            enrolledCourses = new ArrayList<>();
-                                                        }
-
-                                                        // Add course if not already enrolled
-                                                        if (!enrolledCourses.contains(courseId)) {
-                                                            enrolledCourses.add(courseId);
-                                                            studentRef.update("enrolledCourseIds", enrolledCourses)
-                                                                    .addOnSuccessListener(aVoid2 -> {
-                                                                        isLoading.setValue(false);
-                                                                        listener.onSuccess(courseId);
-                                                                    })
-                                                                    .addOnFailureListener(e -> {
-                                                                        isLoading.setValue(false);
-                                                                        listener.onFailure("Failed to update student record: " + e.getMessage());
-                                                                    });
-                                                        } else {
-                                                            isLoading.setValue(false);
-                                                            listener.onSuccess(courseId);
-                                                        }
-                                                    } else {
-                                                        isLoading.setValue(false);
-                                                        listener.onFailure("Student not found");
-                                                    }
-                                                })
-                                                .addOnFailureListener(e -> {
-                                                    isLoading.setValue(false);
-                                                    listener.onFailure("Failed to get student data: " + e.getMessage());
-                                                });
-                                    })
-                                    .addOnFailureListener(e -> {
-                                        isLoading.setValue(false);
-                                        listener.onFailure("Failed to update course: " + e.getMessage());
-                                    });
-                        } else {
-                            isLoading.setValue(false);
-                            listener.onFailure("Course data is invalid");
-                        }
-                    } else {
-                        isLoading.setValue(false);
-                        listener.onFailure("Course not found");
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    isLoading.setValue(false);
-                    listener.onFailure("Failed to get course data: " + e.getMessage());
-                });
+        commitEnrollment(EnrollmentWriter.enrollment(courseId, studentId), courseId, "enroll", listener);
     }
 
-    // Remove student from course
+    // Remove student from course, safe to call again if the student is not enrolled
     public void unenrollStudent(String courseId, String studentId, OnCompleteListener listener) {
-        isLoading.setValue(true);
+        commitEnrollment(EnrollmentWriter.unenrollment(courseId, studentId), courseId, "unenroll", listener);
+    }
 
-        // Get references to the course and student documents
-        DocumentReference courseRef = firestore.collection(COURSES_COLLECTION).document(courseId);
-        DocumentReference studentRef = firestore.collection(USERS_COLLECTION).document(studentId);
-
-        // Non-transaction approach for better reliability
-        // First, get the course and check if student is enrolled
-        courseRef.get()
-                .addOnSuccessListener(courseSnapshot -> {
-                    if (courseSnapshot.exists()) {
-                        Course course = courseSnapshot.toObject(Course.class);
-                        if (course != null) {
-                            // Make sure the enrolledStudentIds list exists
-                            List<String> enrolledStudents = course.getEnrolledStudentIds();
-                            if (enrolledStudents == null || !enrolledStudents.contains(studentId)) {
-                                isLoading.setValue(false);
-                                listener.onSuccess(courseId); // Not enrolled, consider it a success
-                                return;
-                            }
-
-                            // Remove student from course
-                            enrolledStudents.remove(studentId);
-                            courseRef.update("enrolledStudentIds", enrolledStudents)
-                                    .addOnSuccessListener(aVoid -> {
-                                        // Now update the student's enrolled courses
-                                        studentRef.get()
-                                                .addOnSuccessListener(studentSnapshot -> {
-                                                    if (studentSnapshot.exists()) {
-                                                        // Get current enrolled courses
-                                                        List<String> enrolledCourses = (List<String>) studentSnapshot.get("enrolledCourseIds");
-                                                        if (enrolledCourses != null && enrolledCourses.contains(courseId)) {
-                                                            enrolledCourses.remove(courseId);
-                                                            studentRef.update("enrolledCourseIds", enrolledCourses)
-                                                                    .addOnSuccessListener(aVoid2 -> {
-                                                                        isLoading.setValue(false);
-                                                                        listener.onSuccess(courseId);
-                                                                    })
-                                                                    .addOnFailureListener(e -> {
-                                                                        isLoading.setValue(false);
-                                                                        listener.onFailure("Failed to update student record: " + e.getMessage());
-                                                                    });
-                                                        } else {
-                                                            isLoading.setValue(false);
-                                                            listener.onSuccess(courseId);
-                                                        }
-                                                    } else {
-                                                        isLoading.setValue(false);
-                                                        listener.onFailure("Student not found");
-                                                    }
-                                                })
-                                                .addOnFailureListener(e -> {
-                                                    isLoading.setValue(false);
-                                                    listener.onFailure("Failed to get student data: " + e.getMessage());
-                                                });
-                                    })
-                                    .addOnFailureListener(e -> {
-                                        isLoading.setValue(false);
-                                        listener.onFailure("Failed to update course: " + e.getMessage());
-                                    });
-                        } else {
-                            isLoading.setValue(false);
-                            listener.onFailure("Course data is invalid");
-                        }
-                    } else {
-                        isLoading.setValue(false);
-                        listener.onFailure("Course not found");
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    isLoading.setValue(false);
-                    listener.onFailure("Failed to get course data: " + e.getMessage());
-                });
+    // Both documents change in one batch of array updates, concurrent enrollments do not overwrite each other
+    private void commitEnrollment(List<EnrollmentWriter.ArrayUpdate> updates, String courseId, String action,
+                                  OnCompleteListener listener) {
+        isLoading.setValue(true);
+        EnrollmentWriter.commit(enrollmentStore, updates, error -> {
+            isLoading.setValue(false);
+            if (error == null) {
+                listener.onSuccess(courseId);
+            } else if (error instanceof FirebaseFirestoreException
+                    && ((FirebaseFirestoreException) error).getCode() == FirebaseFirestoreException.Code.NOT_FOUND) {
+                listener.onFailure("Course or student not found");
+            } else {
+                Log.e(TAG, "Failed to " + action + " course " + courseId, error);
+                listener.onFailure("Failed to update enrollment: " + error.getMessage());
+            }
+        });
     }
 
     // Get enrolled students for a course
@@ -443,39 +345,29 @@ public class CourseRepository {
                     return;
                 }
 
-                List<Map<String, Object>> students = new ArrayList<>();
-                final int[] completedQueries = {0};
-
-                for (String studentId : studentIds) {
-                    firestore.collection(USERS_COLLECTION).document(studentId)
-                            .get()
-                            .addOnSuccessListener(document -> {
-                                completedQueries[0]++;
-
-                                if (document.exists()) {
-                                    Map<String, Object> studentData = document.getData();
-                                    if (studentData != null) {
-                                        studentData.put("userId", document.getId());
-                                        students.add(studentData);
-                                    }
-                                }
-
-                                // Check if all queries are completed
-                                if (completedQueries[0] >= studentIds.size()) {
-                                    isLoading.setValue(false);
-                                    listener.onStudentsLoaded(students);
-                                }
-                            })
-                            .addOnFailureListener(e -> {
-                                completedQueries[0]++;
-
-                                // Check if all queries are completed
-                                if (completedQueries[0] >= studentIds.size()) {
-                                    isLoading.setValue(false);
-                                    listener.onStudentsLoaded(students);
-                                }
-                            });
-                }
+                // One whereIn query per chunk of IDs instead of one read per student
+                userLoader.load(studentIds, result -> {
+                    List<Map<String, Object>> students = new ArrayList<>();
+                    for (DocumentSnapshot document : result.getDocuments()) {
+                        Map<String, Object> studentData = document.getData();
+                        if (studentData != null) {
+                            studentData.put("userId", document.getId());
+                            students.add(studentData);
+                        }
+                    }
+
+                    isLoading.setValue(false);
+                    if (result.hasFailures() && students.isEmpty()) {
+                        listener.onFailure("Failed to load students: " + result.getErrorMessage());
+                        return;
+                    }
+                    if (result.hasFailures()) {
+                        // Show the students that did load rather than nothing
+                        Log.w(TAG, "Could not load " + result.getFailedIds().size()
+                                + " enrolled students: " + result.getErrorMessage());
+                    }
+                    listener.onStudentsLoaded(students);
+                });
             }
 
             @Override
@@ -486,6 +378,83 @@ public class CourseRepository {
         });
     }
 
+    /**
+     * Load courses by ID with batched reads
+     *
+     * @param courseIds IDs of the courses to load
+     * @param listener  callback with the courses that exist, in the given order
+     */
+    public void fetchCoursesByIds(List<String> courseIds, OnCoursesListener listener) {
+        courseLoader.load(courseIds, result -> {
+            if (result.hasFailures() && result.getDocuments().isEmpty()) {
+                listener.onFailure("Failed to load courses: " + result.getErrorMessage());
+                return;
+            }
+
+            List<Course> courses = new ArrayList<>();
+            for (DocumentSnapshot document : result.getDocuments()) {
+                entityCache.put(document);
+                Course course = document.toObject(Course.class);
+                if (course != null) {
+                    course.setCourseId(document.getId());
+                    courses.add(course);
+                }
+            }
+            listener.onCoursesLoaded(courses);
+        });
+    }
+
+    /**
+     * Load courses together with their instructors' names, one batched read per collection
+     *
+     * @param courseIds IDs of the courses to load
+     * @param listener  callback with the courses in the given order and a map of instructor ID to name
+     */
+    public void fetchCoursesWithInstructors(List<String> courseIds, OnCoursesWithInstructorsListener listener) {
+        isLoading.setValue(true);
+
+        courseLoader.load(courseIds, courseResult -> {
+            if (courseResult.hasFailures() && courseResult.getDocuments().isEmpty()) {
+                isLoading.setValue(false);
+                listener.onFailure("Failed to load courses: " + courseResult.getErrorMessage());
+                return;
+            }
+
+            List<Course> courses = new ArrayList<>();
+            List<String> instructorIds = new ArrayList<>();
+            for (DocumentSnapshot document : courseResult.getDocuments()) {
+                entityCache.put(document);
+                Course course = document.toObject(Course.class);
+                if (course != null) {
+                    course.setCourseId(document.getId());
+                    courses.add(course);
+                    if (course.getInstructorId() != null) {
+                        instructorIds.add(course.getInstructorId());
+                    }
+                }
+            }
+
+            userLoader.load(instructorIds, instructorResult -> {
+                Map<String, String> instructorNames = new HashMap<>();
+                for (DocumentSnapshot document : instructorResult.getDocuments()) {
+                    entityCache.put(document);
+                    String name = document.getString("name");
+                    if (name != null) {
+                        instructorNames.put(document.getId(), name);
+                    }
+                }
+
+                // Missing names only hide the instructor line
+                if (instructorResult.hasFailures()) {
+                    Log.w(TAG, "Could not load instructors: " + instructorResult.getErrorMessage());
+                }
+
+                isLoading.setValue(false);
+                listener.onCoursesLoaded(courses, instructorNames);
+            });
+        });
+    }
+
     // Check if a student is enrolled in a course
     public void isStudentEnrolled(String courseId, String studentId, OnEnrollmentCheckListener listener) {
         isLoading.setValue(true);
@@ -523,7 +492,37 @@ public class CourseRepository {
         courseMap.put("sessionIds", course.getSessionIds());
         courseMap.put("attendanceThreshold", course.getAttendanceThreshold());
         courseMap.put("isActive", course.isActive());
-        return courseMap;
+        return SyncFields.touch(courseMap);
+    }
+
+    // Commits enrollment batches to Firestore, retries run on the main thread like the callbacks
+    private class FirestoreEnrollmentStore implements EnrollmentWriter.Store {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void commit(List<EnrollmentWriter.ArrayUpdate> updates, EnrollmentWriter.Callback callback) {
+            WriteBatch batch = firestore.batch();
+            for (EnrollmentWriter.ArrayUpdate update : updates) {
+                DocumentReference ref = firestore.document(update.path);
+                batch.update(ref, update.field, update.add
+                        ? FieldValue.arrayUnion(update.value) : FieldValue.arrayRemove(update.value),
+                        SyncFields.UPDATED_AT, SyncFields.now());
+                entityCache.invalidate(ref);
+            }
+            batch.commit()
+                    .addOnSuccessListener(aVoid -> callback.onComplete(null))
+                    .addOnFailureListener(callback::onComplete);
+        }
+
+        @Override
+        public boolean isRetryable(Exception error) {
+            return AttendanceRepository.isTransientFailure(error);
+        }
+
+        @Override
+        public void schedule(Runnable retry, long delayMs) {
+            mainHandler.postDelayed(retry, delayMs);
+        }
     }
 
     // Callback interfaces
@@ -537,6 +536,16 @@ public class CourseRepository {
         void onFailure(String errorMessage);
     }
 
+    public interface OnCoursesListener {
+        void onCoursesLoaded(List<Course> courses);
+        void onFailure(String errorMessage);
+    }
+
+    public interface OnCoursesWithInstructorsListener {
+        void onCoursesLoaded(List<Course> courses, Map<String, String> instructorNames);
+        void onFailure(String errorMessage);
+    }
+
     public interface OnStudentsListener {
         void onStudentsLoaded(List<Map<String, Object>> students);
         void onFailure(String errorMessage);
@@ -0,0 +1,219 @@
+package com.example.qrattendance.data.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Brings one scope of a collection (e.g. the courses of one student) up to date in a local store,
+ * pulling only the documents whose {@link SyncFields#UPDATED_AT} is at or after the scope's watermark.
+ *
+ * The first sync of a scope has no watermark and reads the whole scope, so documents written
+ * before updatedAt existed are included; they get a timestamp the next time they change. Documents
+ * the local store already has at the same version are not written again.
+ *
+ * Later syncs only see deletes through removals the remote reports, tombstones or documents that
+ * moved out of the scope. A scope whose watermark is older than {@link #MAX_DELTA_AGE_MS} is read in
+ * full again, so tombstones only need to be kept about that long.
+ *
+ * Calls block and must run off the main thread.
+ */
+public class DeltaSync {
+    // Changes just before the watermark are read again. Server timestamps are taken at commit, so a
+    // write committed shortly before the last sync can become visible only after it
+    static final long OVERLAP_MS = 60_000;
+    // Only when a full sync sees no timestamped document does the watermark fall back to the clock,
+    // moved back far enough to cover a device clock running ahead of the server
+    static final long CLOCK_MARGIN_MS = 10 * 60_000;
+    // A day short of the tombstone lifetime, for the overlap and clocks that disagree between devices
+    static final long MAX_DELTA_AGE_MS = SyncFields.TOMBSTONE_TTL_MS - 24 * 60 * 60_000L;
+
+    private final Local local;
+    private final Clock clock;
+
+    /**
+     * @param local Local store the scopes are kept in
+     * @param clock Current time in milliseconds, server time where it is known
+     */
+    DeltaSync(Local local, Clock clock) {
+        this.local = local;
+        this.clock = clock;
+    }
+
+    /**
+     * Pull the changes of one scope and apply them to the local store
+     *
+     * @param collection Collection the documents come from
+     * @param scope      Part of the collection the remote query covers, e.g. a student ID
+     * @param remote     Query for the scope
+     * @return What changed locally
+     */
+    <T> Result sync(String collection, String scope, Remote<T> remote) throws Exception {
+        Long watermark = local.getWatermark(collection, scope);
+        long startedAt = clock.now();
+        boolean full = watermark == null || startedAt - watermark > MAX_DELTA_AGE_MS;
+
+        List<Change<T>> changes = remote.fetch(full ? null : watermark - OVERLAP_MS);
+
+        Map<String, Long> known = local.getVersions(collection, scope);
+        List<Change<T>> upserts = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        long bytes = 0;
+        // Server timestamps of the changes, a clock running ahead must not move it past the server
+        long newWatermark = full ? 0 : watermark;
+        for (Change<T> change : changes) {
+            bytes += change.bytes;
+            newWatermark = Math.max(newWatermark, change.updatedAt);
+            if (change.removed) {
+                if (known.containsKey(change.id) && !seen.contains(change.id)) {
+                    removed.add(change.id);
+                }
+                continue;
+            }
+            seen.add(change.id);
+            removed.remove(change.id);
+            Long version = known.get(change.id);
+            // Untimestamped documents cannot be compared and are always written
+            if (version == null || change.updatedAt == 0 || version != change.updatedAt) {
+                upserts.add(change);
+            }
+        }
+
+        if (full && newWatermark == 0) {
+            newWatermark = startedAt - CLOCK_MARGIN_MS;
+        }
+
+        // A full read returns the whole scope, anything else stored for it is gone
+        if (full) {
+            for (String id : known.keySet()) {
+                if (!seen.contains(id) && !removed.contains(id)) {
+                    removed.add(id);
+                }
+            }
+        }
+
+        local.apply(collection, scope, upserts, removed, newWatermark);
+        return new Result(full, changes.size(), upserts.size(), removed.size(), newWatermark, bytes);
+    }
+
+    /**
+     * One document read from the remote query, or the removal of one
+     */
+    static class Change<T> {
+        final String id;
+        final T value;
+        // Server time of the last write in milliseconds, 0 for documents written before updatedAt existed
+        final long updatedAt;
+        final boolean removed;
+        // Estimated size of what was transferred, see DocumentSize
+        final long bytes;
+
+        Change(String id, T value, long updatedAt) {
+            this(id, value, updatedAt, false, 0);
+        }
+
+        Change(String id, T value, long updatedAt, long bytes) {
+            this(id, value, updatedAt, false, bytes);
+        }
+
+        private Change(String id, T value, long updatedAt, boolean removed, long bytes) {
+            this.id = id;
+            this.value = value;
+            this.updatedAt = updatedAt;
+            this.removed = removed;
+            this.bytes = bytes;
+        }
+
+        /**
+         * A document that was deleted or no longer belongs to the scope
+         *
+         * @param updatedAt Server time of the delete or of the write that moved it out
+         */
+        static <T> Change<T> removed(String id, long updatedAt, long bytes) {
+            return new Change<>(id, null, updatedAt, true, bytes);
+        }
+    }
+
+    /**
+     * Outcome of one sync
+     */
+    public static class Result {
+        private final boolean full;
+        private final int read;
+        private final int written;
+        private final int removed;
+        private final long watermark;
+        private final long bytes;
+
+        Result(boolean full, int read, int written, int removed, long watermark, long bytes) {
+            this.full = full;
+            this.read = read;
+            this.written = written;
+            this.removed = removed;
+            this.watermark = watermark;
+            this.bytes = bytes;
+        }
+
+        // Whether the whole scope was read because it had never been synced
+        public boolean isFull() {
+            return full;
+        }
+
+        // Documents and tombstones returned by the queries
+        public int getRead() {
+            return read;
+        }
+
+        // Documents that were new or changed
+        public int getWritten() {
+            return written;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        public long getWatermark() {
+            return watermark;
+        }
+
+        // Estimated bytes transferred for the read documents
+        public long getBytes() {
+            return bytes;
+        }
+
+        public boolean hasChanges() {
+            return written > 0 || removed > 0;
+        }
+
+        @Override
+        public String toString() {
+            return (full ? "full" : "delta") + " read " + read + " (~" + bytes + " B), wrote " + written
+                    + ", removed " + removed;
+        }
+    }
+
+    // Remote query of a scope
+    interface Remote<T> {
+        /**
+         * @param sinceMillis Only documents updated at or after this time, null for the whole scope
+         */
+        List<Change<T>> fetch(Long sinceMillis) throws Exception;
+    }
+
+    // Local copy of the synced scopes
+    interface Local {
+        Long getWatermark(String collection, String scope);
+
+        // Stored documents of a scope and their updatedAt
+        Map<String, Long> getVersions(String collection, String scope);
+
+        // Store the changes and the new watermark together, so an interrupted sync is repeated in full
+        <T> void apply(String collection, String scope, List<Change<T>> upserts, Collection<String> removedIds,
+                       long watermark);
+    }
+}
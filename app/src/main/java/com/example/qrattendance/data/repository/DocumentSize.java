@@ -0,0 +1,67 @@
+package com.example.qrattendance.data.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates how many bytes a document takes, following Firestore's storage size rules.
+ * Used to compare what full and delta syncs transfer; the wire format adds its own overhead, so
+ * the numbers are for comparing reads with each other, not for billing.
+ */
+final class DocumentSize {
+    // Fixed overhead Firestore adds to every document
+    private static final int DOCUMENT_OVERHEAD = 32;
+    // Timestamps, geo points, references and other values that are not plain Java types
+    private static final int OTHER_VALUE = 16;
+
+    private DocumentSize() {
+    }
+
+    /**
+     * @param path Document path, e.g. "courses/abc"
+     * @param data Document fields, null for a document without fields
+     */
+    static long of(String path, Map<String, Object> data) {
+        long size = DOCUMENT_OVERHEAD + 16;
+        for (String segment : path.split("/")) {
+            size += stringSize(segment);
+        }
+        return data != null ? size + valueSize(data) : size;
+    }
+
+    private static long valueSize(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof String) {
+            return stringSize((String) value);
+        }
+        if (value instanceof Number || value instanceof Date) {
+            return 8;
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof List) {
+            long size = 0;
+            for (Object item : (List<?>) value) {
+                size += valueSize(item);
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += stringSize(String.valueOf(entry.getKey())) + valueSize(entry.getValue());
+            }
+            return size;
+        }
+        return OTHER_VALUE;
+    }
+
+    private static long stringSize(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+}
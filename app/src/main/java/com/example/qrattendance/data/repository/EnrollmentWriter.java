@@ -0,0 +1,101 @@
+package com.example.qrattendance.data.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Commits enrollment changes to a course and a student in one batch.
+ * Both sides are array-union or array-remove updates applied by the server, so students enrolling
+ * in the same course at the same time never overwrite each other's entry, and the two documents
+ * cannot disagree. The updates are idempotent, which makes it safe to retry a batch whose outcome
+ * is unknown; transient failures are retried up to {@link #MAX_ATTEMPTS} times with backoff.
+ */
+class EnrollmentWriter {
+    static final String COURSE_FIELD = "enrolledStudentIds";
+    static final String STUDENT_FIELD = "enrolledCourseIds";
+
+    static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MS = 250;
+
+    private EnrollmentWriter() {
+    }
+
+    // Add the student to the course and the course to the student
+    static List<ArrayUpdate> enrollment(String courseId, String studentId) {
+        return updates(courseId, studentId, true);
+    }
+
+    // Remove the student from the course and the course from the student
+    static List<ArrayUpdate> unenrollment(String courseId, String studentId) {
+        return updates(courseId, studentId, false);
+    }
+
+    private static List<ArrayUpdate> updates(String courseId, String studentId, boolean add) {
+        List<ArrayUpdate> updates = new ArrayList<>(2);
+        updates.add(new ArrayUpdate(CourseCascadeDelete.COURSES_COLLECTION + "/" + courseId, COURSE_FIELD, studentId, add));
+        updates.add(new ArrayUpdate(CourseCascadeDelete.USERS_COLLECTION + "/" + studentId, STUDENT_FIELD, courseId, add));
+        return updates;
+    }
+
+    /**
+     * Commit updates as one batch, retrying transient failures
+     *
+     * @param store    Where the batch is committed
+     * @param updates  Updates from {@link #enrollment} or {@link #unenrollment}
+     * @param callback Called once with null on success, or the last error
+     */
+    static void commit(Store store, List<ArrayUpdate> updates, Callback callback) {
+        attempt(store, updates, 1, callback);
+    }
+
+    private static void attempt(Store store, List<ArrayUpdate> updates, int attempt, Callback callback) {
+        store.commit(updates, error -> {
+            if (error == null || attempt >= MAX_ATTEMPTS || !store.isRetryable(error)) {
+                callback.onComplete(error);
+                return;
+            }
+            store.schedule(() -> attempt(store, updates, attempt + 1, callback), backoffFor(attempt));
+        });
+    }
+
+    // Exponential backoff with jitter, a burst of enrollments retries spread out
+    static long backoffFor(int attempt) {
+        long delay = BASE_BACKOFF_MS << (attempt - 1);
+        return delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Server-side union or removal of one value in an array field
+     */
+    static class ArrayUpdate {
+        final String path;
+        final String field;
+        final String value;
+        final boolean add;
+
+        ArrayUpdate(String path, String field, String value, boolean add) {
+            this.path = path;
+            this.field = field;
+            this.value = value;
+            this.add = add;
+        }
+    }
+
+    // Callback interfaces
+    interface Callback {
+        void onComplete(Exception error);
+    }
+
+    /**
+     * Document storage the enrollment batch is committed to
+     */
+    interface Store {
+        // Apply all updates atomically, failing if a document does not exist
+        void commit(List<ArrayUpdate> updates, Callback callback);
+
+        boolean isRetryable(Exception error);
+
+        void schedule(Runnable retry, long delayMs);
+    }
+}
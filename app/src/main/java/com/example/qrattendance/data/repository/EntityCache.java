@@ -0,0 +1,240 @@
+package com.example.qrattendance.data.repository;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of course, session and user documents.
+ * Reads go through {@link #get(DocumentReference)}: a fresh entry is returned without a round trip,
+ * and concurrent misses for one document share a single in-flight fetch. Entries expire after a
+ * per-collection TTL and the least recently used entry is evicted once the cache is full.
+ * Repositories refresh entries from their snapshot listeners and invalidate them on writes.
+ */
+public class EntityCache {
+    private static final String TAG = "EntityCache";
+    private static final int MAX_ENTRIES = 500;
+    private static final long DEFAULT_TTL_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Map<String, Long> TTL_BY_COLLECTION = new HashMap<>();
+
+    static {
+        // Courses rarely change, sessions change status during the day
+        TTL_BY_COLLECTION.put("courses", TimeUnit.MINUTES.toMillis(5));
+        TTL_BY_COLLECTION.put("sessions", TimeUnit.MINUTES.toMillis(1));
+        TTL_BY_COLLECTION.put("users", TimeUnit.MINUTES.toMillis(10));
+    }
+
+    private static EntityCache instance;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, CachedDocument> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Task<DocumentSnapshot>> inFlight = new HashMap<>();
+
+    private long hits;
+    private long misses;
+    private long coalesced;
+    private long evictions;
+
+    // Private constructor for singleton pattern
+    private EntityCache() {
+    }
+
+    // Get singleton instance
+    public static synchronized EntityCache getInstance() {
+        if (instance == null) {
+            instance = new EntityCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get a document, from the cache if a fresh copy is held
+     *
+     * @param ref Document to read
+     * @return Task with the snapshot, which may be for a document that does not exist
+     */
+    public synchronized Task<DocumentSnapshot> get(DocumentReference ref) {
+        String key = ref.getPath();
+        CachedDocument cached = entries.get(key);
+        if (cached != null) {
+            if (cached.expiresAt > SystemClock.elapsedRealtime()) {
+                hits++;
+                return Tasks.forResult(cached.snapshot);
+            }
+            entries.remove(key);
+        }
+
+        // Another caller is already fetching this document
+        Task<DocumentSnapshot> pending = inFlight.get(key);
+        if (pending != null) {
+            coalesced++;
+            return pending;
+        }
+
+        misses++;
+        Task<DocumentSnapshot> fetch = ref.get();
+        inFlight.put(key, fetch);
+        fetch.addOnCompleteListener(task -> onFetched(key, fetch));
+        return fetch;
+    }
+
+    private synchronized void onFetched(String key, Task<DocumentSnapshot> fetch) {
+        // Invalidated while the fetch was running, the result may predate the write
+        if (inFlight.get(key) != fetch) {
+            return;
+        }
+        inFlight.remove(key);
+
+        if (fetch.isSuccessful()) {
+            store(fetch.getResult());
+        }
+    }
+
+    /**
+     * Replace an entry with a snapshot received elsewhere, e.g. from a snapshot listener
+     */
+    public synchronized void put(DocumentSnapshot snapshot) {
+        store(snapshot);
+    }
+
+    /**
+     * Apply the changes of a query snapshot listener: modified documents are refreshed and
+     * removed documents are dropped
+     */
+    public synchronized void apply(QuerySnapshot snapshots) {
+        for (DocumentChange change : snapshots.getDocumentChanges()) {
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                invalidate(change.getDocument().getReference());
+            } else {
+                store(change.getDocument());
+            }
+        }
+    }
+
+    /**
+     * Drop a document, call after writing to it
+     */
+    public synchronized void invalidate(DocumentReference ref) {
+        String key = ref.getPath();
+        entries.remove(key);
+        inFlight.remove(key);
+    }
+
+    /**
+     * Drop every entry, e.g. on logout
+     */
+    public synchronized void clear() {
+        entries.clear();
+        inFlight.clear();
+    }
+
+    private void store(DocumentSnapshot snapshot) {
+        // Offline or unconfirmed data must not be served as fresh
+        if (snapshot == null || snapshot.getMetadata().isFromCache() || snapshot.getMetadata().hasPendingWrites()) {
+            return;
+        }
+
+        DocumentReference ref = snapshot.getReference();
+        long expiresAt = SystemClock.elapsedRealtime() + ttlFor(ref);
+        entries.put(ref.getPath(), new CachedDocument(snapshot, expiresAt));
+
+        Iterator<CachedDocument> iterator = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private static long ttlFor(DocumentReference ref) {
+        Long ttl = TTL_BY_COLLECTION.get(ref.getParent().getId());
+        return ttl != null ? ttl : DEFAULT_TTL_MS;
+    }
+
+    /**
+     * Snapshot of the cache counters
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, coalesced, evictions, entries.size());
+    }
+
+    // Write the counters to the log
+    public void logStats() {
+        Log.d(TAG, getStats().toString());
+    }
+
+    private static class CachedDocument {
+        private final DocumentSnapshot snapshot;
+        private final long expiresAt;
+
+        CachedDocument(DocumentSnapshot snapshot, long expiresAt) {
+            this.snapshot = snapshot;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Cache counters. Coalesced reads are misses that joined a fetch already in flight.
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long coalesced;
+        private final long evictions;
+        private final int size;
+
+        Stats(long hits, long misses, long coalesced, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.coalesced = coalesced;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        // Share of reads served without a new round trip
+        public double getHitRate() {
+            long total = hits + misses + coalesced;
+            return total == 0 ? 0 : (double) (hits + coalesced) / total;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " coalesced=" + coalesced
+                    + " evictions=" + evictions + " size=" + size
+                    + " hitRate=" + Math.round(getHitRate() * 100) + "%";
+        }
+    }
+}
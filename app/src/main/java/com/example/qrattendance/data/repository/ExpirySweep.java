@@ -0,0 +1,159 @@
+package com.example.qrattendance.data.repository;
+
+import java.util.List;
+
+/**
+ * Closes documents whose expiry has passed, e.g. QR codes that are still marked active after their
+ * expiresAt or sessions that were never completed after their endTime.
+ *
+ * The target only returns documents that are still open, so a closed document never comes back.
+ * Pages are read in order of expiry and each page is closed in one batch of at most
+ * {@link #PAGE_SIZE} writes. After every batch the expiry of its last document is saved as the
+ * checkpoint, and the next sweep starts {@link #CHECKPOINT_OVERLAP_MS} before it instead of going
+ * through the whole history again. The overlap covers documents written late by devices that were
+ * offline.
+ *
+ * Every staff device schedules the sweep, but only one runs it at a time: a device first takes a
+ * lease, and skips its run while another device holds one taken less than {@link #LEASE_MS} ago.
+ *
+ * Calls block and must run off the main thread.
+ */
+public class ExpirySweep {
+    // Firestore limit on writes in one batch, every page is closed in one batch
+    static final int PAGE_SIZE = 500;
+    static final long CHECKPOINT_OVERLAP_MS = 24 * 60 * 60_000L;
+    // Shorter than the 15 minutes between runs, so a device that stops sweeping is replaced by the
+    // next run of another one
+    public static final long LEASE_MS = 10 * 60_000L;
+
+    private final Clock clock;
+
+    /**
+     * @param clock Time in milliseconds, documents that expired before the start of a sweep are closed
+     */
+    public ExpirySweep(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Close all expired documents of a target
+     *
+     * @param target  Documents to sweep
+     * @param stopped Checked between batches, the sweep ends early once it returns true
+     * @return What was closed
+     */
+    public Result sweep(Target target, StopSignal stopped) throws Exception {
+        long startedAt = clock.now();
+        Long checkpoint = target.getCheckpoint();
+        Long from = checkpoint != null ? checkpoint - CHECKPOINT_OVERLAP_MS : null;
+
+        int closed = 0;
+        int batches = 0;
+        Expired after = null;
+        while (!stopped.isStopped()) {
+            List<Expired> page = target.findExpired(from, startedAt, after, PAGE_SIZE);
+            if (page.isEmpty()) {
+                break;
+            }
+
+            target.close(page);
+            closed += page.size();
+            batches++;
+            after = page.get(page.size() - 1);
+            target.saveCheckpoint(after.expiresAt);
+
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        return new Result(target.getName(), closed, batches, clock.now() - startedAt);
+    }
+
+    /**
+     * Check whether a device may take the sweep lease and run the sweep
+     *
+     * @param holder  Device that took the lease last, null if it was never taken
+     * @param takenAt Server time the lease was taken, null if it was never taken
+     * @param device  Device asking
+     * @param now     Server time
+     */
+    public static boolean mayTakeLease(String holder, Long takenAt, String device, long now) {
+        return holder == null || takenAt == null || holder.equals(device) || now - takenAt >= LEASE_MS;
+    }
+
+    /**
+     * One document to close
+     */
+    public static class Expired {
+        public final String id;
+        // Expiry in milliseconds
+        public final long expiresAt;
+
+        public Expired(String id, long expiresAt) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Outcome of one sweep of a target
+     */
+    public static class Result {
+        private final String name;
+        private final int closed;
+        private final int batches;
+        private final long durationMillis;
+
+        Result(String name, int closed, int batches, long durationMillis) {
+            this.name = name;
+            this.closed = closed;
+            this.batches = batches;
+            this.durationMillis = durationMillis;
+        }
+
+        public int getClosed() {
+            return closed;
+        }
+
+        public int getBatches() {
+            return batches;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": closed " + closed + " in " + batches + " batches, " + durationMillis + " ms";
+        }
+    }
+
+    // Checked between batches, e.g. Worker::isStopped
+    public interface StopSignal {
+        boolean isStopped();
+    }
+
+    // Expiring documents of one kind
+    public interface Target {
+        String getName();
+
+        // Expiry of the last document closed by an earlier sweep, null if there was none
+        Long getCheckpoint();
+
+        void saveCheckpoint(long expiresAt);
+
+        /**
+         * Documents that are still open and expired before a time, ordered by expiry and then ID
+         *
+         * @param fromMillis  Only documents that expired at or after this time, null for all
+         * @param untilMillis Only documents that expired before this time
+         * @param after       Last document of the previous page, null for the first page
+         */
+        List<Expired> findExpired(Long fromMillis, long untilMillis, Expired after, int limit) throws Exception;
+
+        // Close the documents in one batch
+        void close(List<Expired> documents) throws Exception;
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.qrattendance.data.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Owns the snapshot listeners of the repositories.
+ * Each listener is tied to a lifecycle owner and released when the owner is destroyed. Identical
+ * queries (Firestore queries compare by value) share one network listener, reference-counted across
+ * owners. When the last owner releases a query the listener stays attached for a grace period, so an
+ * activity recreated on rotation picks up the same listener instead of re-reading the whole query.
+ *
+ * An owner holds at most one query per slot, e.g. "sessions": asking for the sessions of another
+ * course releases the previous course's query.
+ *
+ * All methods must be called on the main thread.
+ */
+public class ListenerRegistry {
+    private static final String TAG = "ListenerRegistry";
+    private static final long GRACE_PERIOD_MS = 10_000;
+
+    private static ListenerRegistry instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Query, SharedQuery> queries = new HashMap<>();
+    private final Map<LifecycleOwner, Map<String, SharedQuery>> leases = new HashMap<>();
+
+    // Private constructor for singleton pattern
+    private ListenerRegistry() {
+    }
+
+    // Get singleton instance
+    public static synchronized ListenerRegistry getInstance() {
+        if (instance == null) {
+            instance = new ListenerRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Keep a query live for as long as the owner is alive
+     *
+     * @param owner    Lifecycle owner the query is tied to
+     * @param slot     Name of the owner's slot, the query previously held in it is released
+     * @param query    Query to listen to
+     * @param listener Listener attached if the query is not live yet, otherwise the live query's
+     *                 listener is asked to publish its latest result again
+     */
+    public void acquire(LifecycleOwner owner, String slot, Query query, SharedListener listener) {
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+
+        Map<String, SharedQuery> slots = leases.get(owner);
+        if (slots == null) {
+            slots = new HashMap<>();
+            leases.put(owner, slots);
+            owner.getLifecycle().addObserver(new OwnerObserver(owner));
+        }
+
+        SharedQuery previous = slots.get(slot);
+        if (previous != null && previous.query.equals(query)) {
+            // Already held by this owner, only the latest result is needed
+            previous.listener.onShared();
+            return;
+        }
+
+        SharedQuery shared = queries.get(query);
+        if (shared == null) {
+            shared = new SharedQuery(query, listener);
+            shared.registration = query.addSnapshotListener(shared.listener);
+            queries.put(query, shared);
+            Log.d(TAG, "Attached listener, " + queries.size() + " active");
+        } else {
+            mainHandler.removeCallbacks(shared.detach);
+            shared.listener.onShared();
+        }
+        shared.refCount++;
+        slots.put(slot, shared);
+
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    /**
+     * Release the query an owner holds in a slot, e.g. when a screen stops showing it
+     */
+    public void release(LifecycleOwner owner, String slot) {
+        Map<String, SharedQuery> slots = leases.get(owner);
+        if (slots == null) {
+            return;
+        }
+
+        SharedQuery shared = slots.remove(slot);
+        if (shared != null) {
+            release(shared);
+        }
+    }
+
+    private void release(SharedQuery shared) {
+        shared.refCount--;
+        if (shared.refCount == 0) {
+            mainHandler.postDelayed(shared.detach, GRACE_PERIOD_MS);
+        }
+    }
+
+    private void releaseAll(LifecycleOwner owner) {
+        Map<String, SharedQuery> slots = leases.remove(owner);
+        if (slots == null) {
+            return;
+        }
+
+        for (SharedQuery shared : slots.values()) {
+            release(shared);
+        }
+    }
+
+    private void detach(SharedQuery shared) {
+        // Re-acquired during the grace period
+        if (shared.refCount > 0 || queries.get(shared.query) != shared) {
+            return;
+        }
+
+        queries.remove(shared.query);
+        shared.registration.remove();
+        Log.d(TAG, "Detached listener, " + queries.size() + " active");
+    }
+
+    /**
+     * Number of attached network listeners, including those waiting out their grace period
+     */
+    public int getActiveListenerCount() {
+        return queries.size();
+    }
+
+    /**
+     * Number of lifecycle owners holding at least one query
+     */
+    public int getOwnerCount() {
+        return leases.size();
+    }
+
+    // One network listener and the number of owner slots holding it
+    private class SharedQuery {
+        private final Query query;
+        private final SharedListener listener;
+        private final Runnable detach = () -> detach(this);
+        private ListenerRegistration registration;
+        private int refCount;
+
+        SharedQuery(Query query, SharedListener listener) {
+            this.query = query;
+            this.listener = listener;
+        }
+    }
+
+    private class OwnerObserver implements LifecycleEventObserver {
+        private final LifecycleOwner owner;
+
+        OwnerObserver(LifecycleOwner owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void onStateChanged(LifecycleOwner source, Lifecycle.Event event) {
+            if (event == Lifecycle.Event.ON_DESTROY) {
+                source.getLifecycle().removeObserver(this);
+                releaseAll(owner);
+            }
+        }
+    }
+
+    // Callback interfaces
+    public interface SharedListener extends EventListener<QuerySnapshot> {
+        // The live query was acquired again, publish the latest result again
+        void onShared();
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.qrattendance.data.repository;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory attendance roster of one session, kept up to date from snapshot listener deltas.
+ * Only the documents named in a snapshot's document changes are deserialized, and the roster is
+ * patched in place using the indexes Firestore reports, so one scan costs one toObject call
+ * instead of one per student already present.
+ *
+ * Not thread-safe, apply changes from the listener's thread.
+ */
+public class LiveRoster {
+    private final List<AttendanceRecord> records = new ArrayList<>();
+    private final Map<String, AttendanceRecord> recordsById = new HashMap<>();
+    private boolean published;
+
+    /**
+     * Convert a snapshot's document changes, deserializing only added and modified documents
+     */
+    public static List<Change> changesOf(QuerySnapshot snapshots) {
+        List<DocumentChange> documentChanges = snapshots.getDocumentChanges();
+        List<Change> changes = new ArrayList<>(documentChanges.size());
+        for (DocumentChange documentChange : documentChanges) {
+            String recordId = documentChange.getDocument().getId();
+            if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                changes.add(new Change(Change.Type.REMOVED, recordId,
+                        documentChange.getOldIndex(), documentChange.getNewIndex(), null));
+                continue;
+            }
+
+            AttendanceRecord record = documentChange.getDocument().toObject(AttendanceRecord.class);
+            record.setRecordId(recordId);
+            Change.Type type = documentChange.getType() == DocumentChange.Type.ADDED
+                    ? Change.Type.ADDED : Change.Type.MODIFIED;
+            changes.add(new Change(type, recordId,
+                    documentChange.getOldIndex(), documentChange.getNewIndex(), record));
+        }
+        return changes;
+    }
+
+    /**
+     * Apply changes to the roster
+     *
+     * @param changes Changes in the order they were reported
+     * @return The new roster and the changes that produced it, or null if nothing changed since
+     * the last update was published
+     */
+    public Update apply(List<Change> changes) {
+        if (changes.isEmpty() && published) {
+            return null;
+        }
+
+        for (Change change : changes) {
+            switch (change.type) {
+                case ADDED:
+                    records.add(clampIndex(change.newIndex, records.size()), change.record);
+                    recordsById.put(change.recordId, change.record);
+                    break;
+                case MODIFIED:
+                    records.remove(indexOf(change.recordId, change.oldIndex));
+                    records.add(clampIndex(change.newIndex, records.size()), change.record);
+                    recordsById.put(change.recordId, change.record);
+                    break;
+                case REMOVED:
+                    records.remove(indexOf(change.recordId, change.oldIndex));
+                    recordsById.remove(change.recordId);
+                    break;
+            }
+        }
+
+        published = true;
+        return new Update(Collections.unmodifiableList(new ArrayList<>(records)),
+                Collections.unmodifiableList(new ArrayList<>(changes)));
+    }
+
+    // Look up a record by ID
+    public AttendanceRecord get(String recordId) {
+        return recordsById.get(recordId);
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    // Position of a record, trusting the reported index when it matches
+    private int indexOf(String recordId, int reportedIndex) {
+        if (reportedIndex >= 0 && reportedIndex < records.size()
+                && recordId.equals(records.get(reportedIndex).getRecordId())) {
+            return reportedIndex;
+        }
+        for (int i = 0; i < records.size(); i++) {
+            if (recordId.equals(records.get(i).getRecordId())) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Record " + recordId + " is not in the roster");
+    }
+
+    private static int clampIndex(int index, int size) {
+        return index < 0 || index > size ? size : index;
+    }
+
+    /**
+     * One added, modified or removed attendance record
+     */
+    public static class Change {
+        public enum Type {
+            ADDED, MODIFIED, REMOVED
+        }
+
+        private final Type type;
+        private final String recordId;
+        private final int oldIndex;
+        private final int newIndex;
+        private final AttendanceRecord record;
+
+        Change(Type type, String recordId, int oldIndex, int newIndex, AttendanceRecord record) {
+            this.type = type;
+            this.recordId = recordId;
+            this.oldIndex = oldIndex;
+            this.newIndex = newIndex;
+            this.record = record;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getRecordId() {
+            return recordId;
+        }
+
+        // Position before the change, -1 for an added record
+        public int getOldIndex() {
+            return oldIndex;
+        }
+
+        // Position after the change, -1 for a removed record
+        public int getNewIndex() {
+            return newIndex;
+        }
+
+        // The record after the change, null for a removed record
+        public AttendanceRecord getRecord() {
+            return record;
+        }
+    }
+
+    /**
+     * Immutable roster snapshot together with the changes since the previous one
+     */
+    public static class Update {
+        private final List<AttendanceRecord> records;
+        private final List<Change> changes;
+
+        Update(List<AttendanceRecord> records, List<Change> changes) {
+            this.records = records;
+            this.changes = changes;
+        }
+
+        public List<AttendanceRecord> getRecords() {
+            return records;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+    }
+}
@@ -0,0 +1,721 @@
+package com.example.qrattendance.data.repository;
+
+import com.example.qrattendance.util.CsvReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Imports students and course rosters from a CSV or TSV file.
+ * The file is parsed one record at a time and rows are grouped into chunks. For each chunk the
+ * importer looks up its course codes and any existing users with the same email or roll number,
+ * then commits the chunk as one write batch: a profile for each new student, an array union for
+ * existing students who join courses, and one array union per course with all of the chunk's
+ * students. At most {@link #MAX_IN_FLIGHT} chunks are in progress at a time, so memory stays
+ * bounded by a few chunks plus the keys used to catch duplicates within the file.
+ *
+ * Every rejected row is reported with its line number. Importing the same file twice creates
+ * nothing new, the second run finds every student already there.
+ *
+ * {@link #run} blocks until the import is done and must not be called on the main thread.
+ */
+public class RosterImporter {
+    static final String USERS_COLLECTION = "users";
+    static final String COURSES_COLLECTION = "courses";
+
+    static final int MAX_CHUNK_ROWS = 250;
+    // Firestore limit on writes in one batch
+    static final int MAX_BATCH_WRITES = 500;
+    static final int MAX_IN_FLIGHT = 3;
+    // Errors kept for the report, later ones are only counted
+    static final int MAX_KEPT_ERRORS = 500;
+
+    private static final Pattern EMAIL_PATTERN = Pattern.compile("[^@\\s]+@[^@\\s]+\\.[^@\\s]+");
+    private static final Pattern COURSE_SEPARATOR = Pattern.compile("[;|]");
+
+    private final Store store;
+    private final ProgressListener progressListener;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final Map<String, String> courseIdsByCode = new ConcurrentHashMap<>();
+    private final Set<String> unknownCourseCodes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    // First line of each email and roll number seen in the file
+    private final Map<String, Integer> emailLines = new HashMap<>();
+    private final Map<String, Integer> rollNumberLines = new HashMap<>();
+    private volatile boolean cancelled;
+
+    RosterImporter(Store store, ProgressListener progressListener) {
+        this.store = store;
+        this.progressListener = progressListener;
+    }
+
+    // Stop reading the file, chunks already sent still finish
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Import a roster. The first record must be a header with at least name, email and roll
+     * number columns; department, semester, batch, phone and courses are optional. Courses are
+     * course codes separated by ";" or "|".
+     *
+     * @param input File contents, closed when the import ends
+     * @return What was imported and every rejected row
+     */
+    Report run(Reader input) {
+        Report report = new Report();
+        try (CsvReader csv = new CsvReader(input)) {
+            List<String> header = csv.readRecord();
+            Columns columns = header != null ? Columns.from(header) : null;
+            if (columns == null) {
+                report.fail("The file is empty");
+            } else if (!columns.missing.isEmpty()) {
+                report.fail("Missing column(s): " + columns.missing);
+            } else {
+                readRows(csv, columns, report);
+            }
+        } catch (IOException e) {
+            report.fail("Could not read the file: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report.fail("Import interrupted");
+        } finally {
+            // Wait for the chunks still being committed
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+            inFlight.release(MAX_IN_FLIGHT);
+        }
+        report.finish(cancelled);
+        return report;
+    }
+
+    private void readRows(CsvReader csv, Columns columns, Report report) throws IOException, InterruptedException {
+        List<Row> chunk = new ArrayList<>();
+        Set<String> chunkCourses = new LinkedHashSet<>();
+        List<String> record;
+        while (!cancelled && (record = csv.readRecord()) != null) {
+            if (isBlank(record)) {
+                continue;
+            }
+            report.rowRead();
+
+            Row row = parse(record, csv.getRecordLine(), columns, report);
+            if (row == null) {
+                continue;
+            }
+
+            // A chunk is one batch: a write per row plus one per course
+            int newCourses = 0;
+            for (String code : row.courseCodes) {
+                if (!chunkCourses.contains(code)) {
+                    newCourses++;
+                }
+            }
+            if (chunk.size() == MAX_CHUNK_ROWS
+                    || chunk.size() + 1 + chunkCourses.size() + newCourses > MAX_BATCH_WRITES) {
+                dispatch(chunk, report);
+                chunk = new ArrayList<>();
+                chunkCourses = new LinkedHashSet<>();
+            }
+            chunk.add(row);
+            chunkCourses.addAll(row.courseCodes);
+        }
+        if (!chunk.isEmpty()) {
+            dispatch(chunk, report);
+        }
+    }
+
+    private Row parse(List<String> record, int line, Columns columns, Report report) {
+        if (record.size() != columns.count) {
+            report.rejected(line, "Expected " + columns.count + " fields, found " + record.size());
+            return null;
+        }
+
+        Row row = new Row(line);
+        row.name = columns.get(record, Columns.NAME);
+        row.email = columns.get(record, Columns.EMAIL);
+        row.rollNumber = columns.get(record, Columns.ROLL_NUMBER);
+        row.department = columns.get(record, Columns.DEPARTMENT);
+        row.semester = columns.get(record, Columns.SEMESTER);
+        row.batch = columns.get(record, Columns.BATCH);
+        row.phoneNumber = columns.get(record, Columns.PHONE);
+        for (String code : COURSE_SEPARATOR.split(columns.get(record, Columns.COURSES))) {
+            if (!code.trim().isEmpty()) {
+                row.courseCodes.add(code.trim().toUpperCase(Locale.ROOT));
+            }
+        }
+
+        if (row.name.isEmpty()) {
+            report.rejected(line, "Name is empty");
+            return null;
+        }
+        if (!EMAIL_PATTERN.matcher(row.email).matches()) {
+            report.rejected(line, "Invalid email \"" + row.email + "\"");
+            return null;
+        }
+        if (row.rollNumber.isEmpty()) {
+            report.rejected(line, "Roll number is empty");
+            return null;
+        }
+
+        Integer emailLine = emailLines.get(row.emailKey());
+        Integer rollLine = rollNumberLines.get(row.rollNumber);
+        if (emailLine != null || rollLine != null) {
+            report.duplicate(line, emailLine != null
+                    ? "Email already on line " + emailLine : "Roll number already on line " + rollLine);
+            return null;
+        }
+        emailLines.put(row.emailKey(), line);
+        rollNumberLines.put(row.rollNumber, line);
+        return row;
+    }
+
+    private void dispatch(List<Row> chunk, Report report) throws InterruptedException {
+        inFlight.acquire();
+        new ChunkImport(chunk, report).start();
+    }
+
+    private static boolean isBlank(List<String> record) {
+        for (String field : record) {
+            if (!field.trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Lookups and commit of one chunk, callbacks may arrive on any thread
+    private class ChunkImport {
+        private final List<Row> rows;
+        private final Report report;
+        private final Map<String, Map<String, Object>> usersByEmail = new ConcurrentHashMap<>();
+        private final Map<String, Map<String, Object>> usersByRollNumber = new ConcurrentHashMap<>();
+        private final AtomicInteger pendingLookups = new AtomicInteger();
+        private volatile Exception lookupError;
+
+        ChunkImport(List<Row> rows, Report report) {
+            this.rows = rows;
+            this.report = report;
+        }
+
+        void start() {
+            Set<String> codes = new LinkedHashSet<>();
+            Set<String> emails = new LinkedHashSet<>();
+            List<String> rollNumbers = new ArrayList<>();
+            for (Row row : rows) {
+                for (String code : row.courseCodes) {
+                    if (!courseIdsByCode.containsKey(code) && !unknownCourseCodes.contains(code)) {
+                        codes.add(code);
+                    }
+                }
+                // Stored emails keep the case they were typed in
+                emails.add(row.email);
+                emails.add(row.emailKey());
+                rollNumbers.add(row.rollNumber);
+            }
+
+            List<List<String>> codeChunks = BatchDocumentLoader.partition(new ArrayList<>(codes), BatchDocumentLoader.MAX_IDS_PER_QUERY);
+            List<List<String>> emailChunks = BatchDocumentLoader.partition(new ArrayList<>(emails), BatchDocumentLoader.MAX_IDS_PER_QUERY);
+            List<List<String>> rollChunks = BatchDocumentLoader.partition(rollNumbers, BatchDocumentLoader.MAX_IDS_PER_QUERY);
+            pendingLookups.set(codeChunks.size() + emailChunks.size() + rollChunks.size() + 1);
+
+            for (List<String> values : codeChunks) {
+                store.find(COURSES_COLLECTION, "courseCode", values, (found, error) -> {
+                    if (error == null) {
+                        for (Map.Entry<String, Map<String, Object>> course : found.entrySet()) {
+                            Object code = course.getValue().get("courseCode");
+                            if (code instanceof String) {
+                                courseIdsByCode.put(((String) code).toUpperCase(Locale.ROOT), course.getKey());
+                            }
+                        }
+                        for (String code : values) {
+                            if (!courseIdsByCode.containsKey(code)) {
+                                unknownCourseCodes.add(code);
+                            }
+                        }
+                    }
+                    onLookupDone(error);
+                });
+            }
+            for (List<String> values : emailChunks) {
+                store.find(USERS_COLLECTION, "email", values, (found, error) -> {
+                    if (error == null) {
+                        index(found, "email", usersByEmail);
+                    }
+                    onLookupDone(error);
+                });
+            }
+            for (List<String> values : rollChunks) {
+                store.find(USERS_COLLECTION, "rollNumber", values, (found, error) -> {
+                    if (error == null) {
+                        index(found, "rollNumber", usersByRollNumber);
+                    }
+                    onLookupDone(error);
+                });
+            }
+            onLookupDone(null);
+        }
+
+        private void index(Map<String, Map<String, Object>> found, String field, Map<String, Map<String, Object>> into) {
+            for (Map.Entry<String, Map<String, Object>> user : found.entrySet()) {
+                Object value = user.getValue().get(field);
+                if (value instanceof String) {
+                    Map<String, Object> data = new HashMap<>(user.getValue());
+                    data.put("userId", user.getKey());
+                    String key = field.equals("email") ? ((String) value).trim().toLowerCase(Locale.ROOT) : (String) value;
+                    into.put(key, data);
+                }
+            }
+        }
+
+        private void onLookupDone(Exception error) {
+            if (error != null) {
+                lookupError = error;
+            }
+            if (pendingLookups.decrementAndGet() > 0) {
+                return;
+            }
+            if (lookupError != null) {
+                finish(rows, "Lookup failed: " + lookupError.getMessage());
+                return;
+            }
+            commit();
+        }
+
+        private void commit() {
+            List<Write> writes = new ArrayList<>();
+            Map<String, List<String>> studentsByCourse = new LinkedHashMap<>();
+            List<Row> accepted = new ArrayList<>();
+            int created = 0;
+            int enrolledExisting = 0;
+            int unchanged = 0;
+            int enrollments = 0;
+
+            for (Row row : rows) {
+                List<String> courseIds = new ArrayList<>();
+                String unknown = null;
+                for (String code : row.courseCodes) {
+                    String courseId = courseIdsByCode.get(code);
+                    if (courseId == null) {
+                        unknown = code;
+                        break;
+                    }
+                    if (!courseIds.contains(courseId)) {
+                        courseIds.add(courseId);
+                    }
+                }
+                if (unknown != null) {
+                    report.rejected(row.line, "Unknown course code " + unknown);
+                    continue;
+                }
+
+                Map<String, Object> byEmail = usersByEmail.get(row.emailKey());
+                Map<String, Object> byRoll = usersByRollNumber.get(row.rollNumber);
+                if (byEmail != null && byRoll != null && !byEmail.get("userId").equals(byRoll.get("userId"))) {
+                    report.rejected(row.line, "Email and roll number belong to different users");
+                    continue;
+                }
+                Map<String, Object> existing = byEmail != null ? byEmail : byRoll;
+                if (existing != null && !"STUDENT".equals(existing.get("role"))
+                        && !"STUDENT".equals(existing.get("userType"))) {
+                    report.rejected(row.line, "Email or roll number belongs to a user who is not a student");
+                    continue;
+                }
+
+                String userId;
+                if (existing != null) {
+                    userId = (String) existing.get("userId");
+                    if (courseIds.isEmpty()) {
+                        unchanged++;
+                        continue;
+                    }
+                    writes.add(Write.arrayUnion(USERS_COLLECTION + "/" + userId, "enrolledCourseIds", courseIds));
+                    enrolledExisting++;
+                } else {
+                    userId = store.newDocumentId(USERS_COLLECTION);
+                    writes.add(Write.create(USERS_COLLECTION + "/" + userId, row.toUserData(userId, courseIds)));
+                    created++;
+                }
+                for (String courseId : courseIds) {
+                    List<String> students = studentsByCourse.get(courseId);
+                    if (students == null) {
+                        students = new ArrayList<>();
+                        studentsByCourse.put(courseId, students);
+                    }
+                    students.add(userId);
+                    enrollments++;
+                }
+                accepted.add(row);
+            }
+            for (Map.Entry<String, List<String>> course : studentsByCourse.entrySet()) {
+                writes.add(Write.arrayUnion(COURSES_COLLECTION + "/" + course.getKey(), "enrolledStudentIds", course.getValue()));
+            }
+
+            report.unchanged(unchanged);
+            if (writes.isEmpty()) {
+                finish(Collections.emptyList(), null);
+                return;
+            }
+
+            int createdInBatch = created;
+            int enrolledInBatch = enrolledExisting;
+            int enrollmentsInBatch = enrollments;
+            store.commit(writes, (ignored, error) -> {
+                if (error == null) {
+                    report.committed(createdInBatch, enrolledInBatch, enrollmentsInBatch, writes.size());
+                    finish(Collections.emptyList(), null);
+                } else {
+                    finish(accepted, "Commit failed: " + error.getMessage());
+                }
+            });
+        }
+
+        private void finish(List<Row> failedRows, String message) {
+            for (Row row : failedRows) {
+                report.failed(row.line, message);
+            }
+            inFlight.release();
+            if (progressListener != null) {
+                progressListener.onProgress(report.getRowsRead(), report.getRowsDone(), report.getRowsPerSecond());
+            }
+        }
+    }
+
+    // Header positions, header names are matched ignoring case, spaces and punctuation
+    private static class Columns {
+        static final String NAME = "name";
+        static final String EMAIL = "email";
+        static final String ROLL_NUMBER = "rollnumber";
+        static final String DEPARTMENT = "department";
+        static final String SEMESTER = "semester";
+        static final String BATCH = "batch";
+        static final String PHONE = "phonenumber";
+        static final String COURSES = "courses";
+
+        private static final Map<String, String> ALIASES = new HashMap<>();
+
+        static {
+            alias(NAME, "name", "fullname", "studentname");
+            alias(EMAIL, "email", "emailaddress", "mail");
+            alias(ROLL_NUMBER, "rollnumber", "rollno", "roll");
+            alias(DEPARTMENT, "department", "dept");
+            alias(SEMESTER, "semester", "sem");
+            alias(BATCH, "batch");
+            alias(PHONE, "phonenumber", "phone", "mobile");
+            alias(COURSES, "courses", "coursecodes", "course", "coursecode");
+        }
+
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final List<String> missing = new ArrayList<>();
+        private final int count;
+
+        private Columns(int count) {
+            this.count = count;
+        }
+
+        private static void alias(String column, String... names) {
+            for (String name : names) {
+                ALIASES.put(name, column);
+            }
+        }
+
+        static Columns from(List<String> header) {
+            Columns columns = new Columns(header.size());
+            for (int i = 0; i < header.size(); i++) {
+                String column = ALIASES.get(header.get(i).toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", ""));
+                if (column != null && !columns.positions.containsKey(column)) {
+                    columns.positions.put(column, i);
+                }
+            }
+            for (String required : new String[]{NAME, EMAIL, ROLL_NUMBER}) {
+                if (!columns.positions.containsKey(required)) {
+                    columns.missing.add(required);
+                }
+            }
+            return columns;
+        }
+
+        String get(List<String> record, String column) {
+            Integer position = positions.get(column);
+            return position != null ? record.get(position).trim() : "";
+        }
+    }
+
+    // One valid student row of the file
+    private static class Row {
+        final int line;
+        String name;
+        String email;
+        String rollNumber;
+        String department;
+        String semester;
+        String batch;
+        String phoneNumber;
+        final List<String> courseCodes = new ArrayList<>();
+
+        Row(int line) {
+            this.line = line;
+        }
+
+        String emailKey() {
+            return email.toLowerCase(Locale.ROOT);
+        }
+
+        // Same fields as a student added in AddEditUserActivity
+        Map<String, Object> toUserData(String userId, List<String> courseIds) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("userId", userId);
+            data.put("name", name);
+            data.put("email", email);
+            data.put("phoneNumber", phoneNumber);
+            data.put("role", "STUDENT");
+            data.put("userType", "STUDENT");
+            data.put("createdAt", new Date());
+            data.put("isActive", true);
+            data.put("rollNumber", rollNumber);
+            data.put("department", department);
+            data.put("semester", semester);
+            data.put("batch", batch);
+            data.put("enrolledCourseIds", new ArrayList<>(courseIds));
+            return UserSearchFields.addTo(data);
+        }
+    }
+
+    /**
+     * One write of a chunk's batch, addressed by document path
+     */
+    static class Write {
+        enum Type { CREATE, ARRAY_UNION }
+
+        final Type type;
+        final String path;
+        final Map<String, Object> data;
+        final String field;
+        final List<String> values;
+
+        private Write(Type type, String path, Map<String, Object> data, String field, List<String> values) {
+            this.type = type;
+            this.path = path;
+            this.data = data;
+            this.field = field;
+            this.values = values;
+        }
+
+        static Write create(String path, Map<String, Object> data) {
+            return new Write(Type.CREATE, path, data, null, null);
+        }
+
+        // Fails if the document does not exist, like a Firestore update
+        static Write arrayUnion(String path, String field, List<String> values) {
+            return new Write(Type.ARRAY_UNION, path, null, field, values);
+        }
+    }
+
+    /**
+     * Row that was not imported
+     */
+    public static class RowError {
+        private final int line;
+        private final String message;
+
+        RowError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + line + ": " + message;
+        }
+    }
+
+    /**
+     * Outcome of an import, updated from several threads while it runs
+     */
+    public static class Report {
+        private final long startedAt = System.nanoTime();
+        private final List<RowError> errors = new ArrayList<>();
+        private long elapsedNanos = -1;
+        private String fatalError;
+        private boolean cancelled;
+        private int rowsRead;
+        private int created;
+        private int enrolledExisting;
+        private int unchanged;
+        private int enrollments;
+        private int duplicates;
+        private int invalid;
+        private int failed;
+        private int writes;
+
+        synchronized void rowRead() {
+            rowsRead++;
+        }
+
+        synchronized void rejected(int line, String message) {
+            invalid++;
+            addError(line, message);
+        }
+
+        synchronized void duplicate(int line, String message) {
+            duplicates++;
+            addError(line, message);
+        }
+
+        synchronized void failed(int line, String message) {
+            failed++;
+            addError(line, message);
+        }
+
+        synchronized void unchanged(int count) {
+            unchanged += count;
+        }
+
+        synchronized void committed(int created, int enrolledExisting, int enrollments, int writes) {
+            this.created += created;
+            this.enrolledExisting += enrolledExisting;
+            this.enrollments += enrollments;
+            this.writes += writes;
+        }
+
+        synchronized void fail(String message) {
+            fatalError = message;
+        }
+
+        synchronized void finish(boolean cancelled) {
+            this.cancelled = cancelled;
+            elapsedNanos = System.nanoTime() - startedAt;
+        }
+
+        private void addError(int line, String message) {
+            if (errors.size() < MAX_KEPT_ERRORS) {
+                errors.add(new RowError(line, message));
+            }
+        }
+
+        public synchronized int getRowsRead() {
+            return rowsRead;
+        }
+
+        // Rows that reached a final outcome so far
+        public synchronized int getRowsDone() {
+            return created + enrolledExisting + unchanged + getErrorCount();
+        }
+
+        // New student profiles
+        public synchronized int getCreated() {
+            return created;
+        }
+
+        // Existing students added to courses
+        public synchronized int getEnrolledExisting() {
+            return enrolledExisting;
+        }
+
+        // Existing students with no courses in the file, nothing to write
+        public synchronized int getUnchanged() {
+            return unchanged;
+        }
+
+        // Student-course pairs written
+        public synchronized int getEnrollments() {
+            return enrollments;
+        }
+
+        public synchronized int getDuplicates() {
+            return duplicates;
+        }
+
+        public synchronized int getInvalid() {
+            return invalid;
+        }
+
+        public synchronized int getFailed() {
+            return failed;
+        }
+
+        public synchronized int getWrites() {
+            return writes;
+        }
+
+        // Rejected rows, duplicates and failed commits
+        public synchronized int getErrorCount() {
+            return duplicates + invalid + failed;
+        }
+
+        // The first MAX_KEPT_ERRORS rejected rows in the order they were found
+        public synchronized List<RowError> getErrors() {
+            return new ArrayList<>(errors);
+        }
+
+        // Problem that stopped the whole import, null if it ran to the end
+        public synchronized String getFatalError() {
+            return fatalError;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized long getElapsedMillis() {
+            return (elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startedAt) / 1_000_000;
+        }
+
+        public synchronized double getRowsPerSecond() {
+            long nanos = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startedAt;
+            return nanos > 0 ? rowsRead * 1_000_000_000.0 / nanos : 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return rowsRead + " rows in " + getElapsedMillis() + " ms (" + Math.round(getRowsPerSecond())
+                    + " rows/s): " + created + " created, " + enrolledExisting + " existing enrolled, "
+                    + unchanged + " unchanged, " + enrollments + " enrollments, " + duplicates + " duplicates, "
+                    + invalid + " invalid, " + failed + " failed"
+                    + (fatalError != null ? ", stopped: " + fatalError : "")
+                    + (cancelled ? ", cancelled" : "");
+        }
+    }
+
+    // Callback interfaces
+    public interface ProgressListener {
+        void onProgress(int rowsRead, int rowsDone, double rowsPerSecond);
+    }
+
+    interface Callback<T> {
+        void onComplete(T result, Exception error);
+    }
+
+    /**
+     * Document storage the import runs against
+     */
+    interface Store {
+        // Documents whose field matches one of at most 30 values, keyed by document ID
+        void find(String collection, String field, List<String> values, Callback<Map<String, Map<String, Object>>> callback);
+
+        String newDocumentId(String collection);
+
+        // Apply all writes atomically
+        void commit(List<Write> writes, Callback<Void> callback);
+    }
+}
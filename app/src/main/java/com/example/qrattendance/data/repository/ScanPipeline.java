@@ -0,0 +1,292 @@
+package com.example.qrattendance.data.repository;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.Session;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.List;
+
+/**
+ * Validates and commits a scanned QR code as one chain of Task continuations, nothing on the way
+ * blocks a thread. The stages are:
+ * - parse: decode the code and check its expiry on the device
+ * - course: check a signed code against the public key its session publishes, so forged and
+ *   tampered codes are turned away before the commit; take the course from the code, or from the
+ *   session for codes without one
+ * - enrollment: look the course up in the enrollments kept on the device, and only read the
+ *   course itself when it is not among them, e.g. for a student who enrolled since the last refresh
+ * - commit: the attendance transaction, while the course details for the result load alongside
+ *
+ * Each stage is timed in {@link ScanTimings}, the timings of every scan are logged together with
+ * percentiles over the recent scans.
+ */
+public class ScanPipeline {
+    private static final String TAG = "ScanPipeline";
+    private static final String SESSIONS_COLLECTION = "sessions";
+    private static final String COURSES_COLLECTION = "courses";
+    private static final int HISTORY_SIZE = 50;
+
+    private static ScanPipeline instance;
+    private final FirebaseFirestore firestore;
+    private final AttendanceRepository attendanceRepository;
+    private final StudentDataRepository studentDataRepository;
+    private final EntityCache entityCache;
+    private final ScanTimings.History history = new ScanTimings.History(HISTORY_SIZE);
+
+    // Private constructor for singleton pattern
+    private ScanPipeline(Context context) {
+        firestore = FirebaseFirestore.getInstance();
+        attendanceRepository = AttendanceRepository.getInstance();
+        studentDataRepository = StudentDataRepository.getInstance(context);
+        entityCache = EntityCache.getInstance();
+    }
+
+    // Get singleton instance
+    public static synchronized ScanPipeline getInstance(Context context) {
+        if (instance == null) {
+            instance = new ScanPipeline(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Decode a scanned code and check that it has not expired
+     *
+     * @throws ScanException If the code is not an attendance code or has expired
+     */
+    public AttendanceRepository.QRCodeData parse(String content) throws ScanException {
+        AttendanceRepository.QRCodeData qrData;
+        try {
+            qrData = attendanceRepository.parseScannedContent(content);
+        } catch (RuntimeException e) {
+            qrData = null;
+        }
+        if (qrData == null) {
+            throw new ScanException(ScanException.Kind.INVALID, "This QR code is not a valid attendance code.");
+        }
+        // Judged at server time once the clock has been probed, a device clock set back would
+        // otherwise let an expired code through to the commit and one set ahead reject a live code
+        if (qrData.isExpiredAt(ServerClock.getInstance().currentTimeMillis())) {
+            throw new ScanException(ScanException.Kind.EXPIRED,
+                    "This QR code has expired. Ask your instructor for a new one.");
+        }
+        return qrData;
+    }
+
+    /**
+     * Run a scan through all stages
+     *
+     * @param content   Scanned QR code content
+     * @param studentId Student marking attendance
+     * @param location  Location reported by the device
+     * @param scannedAt When the camera read the code, on the {@link SystemClock#elapsedRealtime()} clock
+     * @return Task with the committed record, failing with a {@link ScanException}; listeners run on the main thread
+     */
+    public Task<Result> process(String content, String studentId, AttendanceRecord.LocationData location,
+                                long scannedAt) {
+        ScanTimings timings = new ScanTimings(SystemClock::elapsedRealtime, scannedAt);
+
+        long parseStart = timings.now();
+        AttendanceRepository.QRCodeData qrData;
+        try {
+            qrData = parse(content);
+        } catch (ScanException e) {
+            timings.record(ScanTimings.Stage.PARSE, parseStart);
+            return finish(Tasks.forException(e), timings);
+        }
+        timings.record(ScanTimings.Stage.PARSE, parseStart);
+
+        long courseStart = timings.now();
+        Task<Result> result = courseOf(qrData).continueWithTask(courseTask -> {
+            timings.record(ScanTimings.Stage.COURSE, courseStart);
+            if (!courseTask.isSuccessful()) {
+                throw courseTask.getException();
+            }
+            String courseId = courseTask.getResult();
+            if (courseId == null) {
+                throw new ScanException(ScanException.Kind.INVALID, "This QR code does not belong to a course");
+            }
+
+            long enrollmentStart = timings.now();
+            return isEnrolled(courseId, studentId).continueWithTask(enrolledTask -> {
+                timings.record(ScanTimings.Stage.ENROLLMENT, enrollmentStart);
+                if (!enrolledTask.isSuccessful()) {
+                    throw enrolledTask.getException();
+                }
+                if (!enrolledTask.getResult()) {
+                    throw new ScanException(ScanException.Kind.NOT_ENROLLED, ScanValidator.ERROR_NOT_ENROLLED);
+                }
+
+                long commitStart = timings.now();
+                Task<AttendanceRecord> commit = attendanceRepository.commitScan(qrData, studentId, location, null)
+                        .addOnCompleteListener(task -> timings.record(ScanTimings.Stage.COMMIT, commitStart));
+                Task<String> details = courseDetails(qrData.getSessionId(), courseId, timings);
+
+                return Tasks.whenAllComplete(commit, details).continueWith(done -> {
+                    AttendanceRecord record = commit.getResult();
+                    return new Result(record, details.isSuccessful() ? details.getResult() : "Unknown Course", timings);
+                });
+            });
+        });
+        return finish(result, timings);
+    }
+
+    // Course of the scan, null for older codes without one whose session has none. Signed codes are
+    // checked against their session's key first, the session is usually cached and is read for the
+    // result anyway. Fails if the session could not be read and the course is not in the code; a
+    // signed code whose session can't be read here is still verified by the commit
+    private Task<String> courseOf(AttendanceRepository.QRCodeData qrData) {
+        if (qrData.getCourseId() != null && !qrData.isSigned()) {
+            return Tasks.forResult(qrData.getCourseId());
+        }
+        return entityCache.get(firestore.collection(SESSIONS_COLLECTION).document(qrData.getSessionId()))
+                .continueWith(sessionTask -> {
+                    if (!sessionTask.isSuccessful()) {
+                        if (qrData.getCourseId() != null) {
+                            return qrData.getCourseId();
+                        }
+                        throw sessionTask.getException();
+                    }
+                    Session session = sessionTask.getResult().exists()
+                            ? sessionTask.getResult().toObject(Session.class) : null;
+                    if (qrData.isSigned() && ScanValidator.isForgedFor(qrData.signedPayload, session)) {
+                        throw new ScanException(ScanException.Kind.INVALID, ScanValidator.ERROR_FORGED);
+                    }
+                    if (qrData.getCourseId() != null) {
+                        return qrData.getCourseId();
+                    }
+                    return session != null ? session.getCourseId() : null;
+                });
+    }
+
+    private Task<Boolean> isEnrolled(String courseId, String studentId) {
+        return studentDataRepository.getCachedEnrollments(studentId).continueWithTask(cached -> {
+            if (cached.isSuccessful() && cached.getResult().contains(courseId)) {
+                return Tasks.forResult(true);
+            }
+            return entityCache.get(firestore.collection(COURSES_COLLECTION).document(courseId))
+                    .continueWith(course -> {
+                        // Offline or refused reads keep their exception, so they are retried instead of rejected
+                        if (!course.isSuccessful()) {
+                            throw course.getException();
+                        }
+                        Object enrolled = course.getResult().get("enrolledStudentIds");
+                        return enrolled instanceof List && ((List<?>) enrolled).contains(studentId);
+                    });
+        });
+    }
+
+    // Course code, name and session title shown with the result, mostly served from the cache
+    private Task<String> courseDetails(String sessionId, String courseId, ScanTimings timings) {
+        long start = timings.now();
+        Task<DocumentSnapshot> session = entityCache.get(firestore.collection(SESSIONS_COLLECTION).document(sessionId));
+        Task<DocumentSnapshot> course = courseId != null
+                ? entityCache.get(firestore.collection(COURSES_COLLECTION).document(courseId))
+                : Tasks.forResult(null);
+
+        return Tasks.whenAllComplete(session, course).continueWith(done -> {
+            timings.record(ScanTimings.Stage.DETAILS, start);
+            DocumentSnapshot courseDoc = course.isSuccessful() ? course.getResult() : null;
+            if (courseDoc == null || !courseDoc.exists()) {
+                return "Unknown Course";
+            }
+
+            String courseInfo = courseDoc.getString("courseCode") + " - " + courseDoc.getString("courseName");
+            String sessionTitle = session.isSuccessful() && session.getResult().exists()
+                    ? session.getResult().getString("title") : null;
+            if (sessionTitle != null && !sessionTitle.isEmpty()) {
+                courseInfo += "\n" + sessionTitle;
+            }
+            return courseInfo;
+        });
+    }
+
+    // Turn any failure into a ScanException and record the scan once it has a result
+    private Task<Result> finish(Task<Result> result, ScanTimings timings) {
+        return result.continueWith(task -> {
+            timings.finish();
+            history.add(timings);
+            Log.d(TAG, timings + "; " + history);
+
+            if (!task.isSuccessful()) {
+                throw toScanException(task.getException());
+            }
+            return task.getResult();
+        });
+    }
+
+    private static ScanException toScanException(Exception e) {
+        if (e instanceof ScanException) {
+            return (ScanException) e;
+        }
+        if (AttendanceRepository.isTransientFailure(e)) {
+            return new ScanException(ScanException.Kind.UNAVAILABLE, "Could not reach the server: " + e.getMessage());
+        }
+        if (e instanceof ScanValidator.ScanRejectedException) {
+            // Enrollment is checked again in the commit, the roster may have changed since the check above
+            boolean notEnrolled = ((ScanValidator.ScanRejectedException) e).getReason()
+                    == ScanValidator.ScanRejectedException.Reason.NOT_ENROLLED;
+            return new ScanException(notEnrolled ? ScanException.Kind.NOT_ENROLLED : ScanException.Kind.REJECTED,
+                    e.getMessage());
+        }
+        return new ScanException(ScanException.Kind.REJECTED, "Failed to create attendance record: " + e.getMessage());
+    }
+
+    // Scan timings of the recent scans
+    public ScanTimings.History getHistory() {
+        return history;
+    }
+
+    /**
+     * A committed scan
+     */
+    public static class Result {
+        private final AttendanceRecord record;
+        private final String courseInfo;
+        private final ScanTimings timings;
+
+        Result(AttendanceRecord record, String courseInfo, ScanTimings timings) {
+            this.record = record;
+            this.courseInfo = courseInfo;
+            this.timings = timings;
+        }
+
+        public AttendanceRecord getRecord() {
+            return record;
+        }
+
+        // Course code and name with the session title, for the success screen
+        public String getCourseInfo() {
+            return courseInfo;
+        }
+
+        public ScanTimings getTimings() {
+            return timings;
+        }
+    }
+
+    /**
+     * Why a scan did not go through. The message is meant to be shown to the student as-is.
+     */
+    public static class ScanException extends Exception {
+        public enum Kind { INVALID, EXPIRED, NOT_ENROLLED, REJECTED, UNAVAILABLE }
+
+        private final Kind kind;
+
+        ScanException(Kind kind, String message) {
+            super(message);
+            this.kind = kind;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.qrattendance.data.repository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Time spent in each stage of one scan, from the camera reading the code to the result on screen.
+ * Stages that run side by side, like loading the course details while the commit runs, are timed
+ * on their own, so the stages do not have to add up to the total.
+ */
+public class ScanTimings {
+
+    public enum Stage { PARSE, COURSE, ENROLLMENT, COMMIT, DETAILS, TOTAL }
+
+    private final Clock clock;
+    private final long scannedAt;
+    private final Map<Stage, Long> millis = new EnumMap<>(Stage.class);
+
+    /**
+     * @param clock     Monotonic time in milliseconds
+     * @param scannedAt When the code was read, on the same clock
+     */
+    ScanTimings(Clock clock, long scannedAt) {
+        this.clock = clock;
+        this.scannedAt = scannedAt;
+    }
+
+    // Current time on the scan's clock, to pass to record when a stage ends
+    long now() {
+        return clock.now();
+    }
+
+    // Record a stage that started at the given time and ended now
+    synchronized void record(Stage stage, long startedAt) {
+        millis.put(stage, clock.now() - startedAt);
+    }
+
+    // Record the scan-to-result time, once the result is shown
+    void finish() {
+        record(Stage.TOTAL, scannedAt);
+    }
+
+    /**
+     * @return Milliseconds spent in a stage, -1 if the scan did not get there
+     */
+    public synchronized long get(Stage stage) {
+        Long value = millis.get(stage);
+        return value != null ? value : -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder("scan-to-result ").append(get(Stage.TOTAL)).append(" ms (");
+        boolean first = true;
+        for (Map.Entry<Stage, Long> stage : millis.entrySet()) {
+            if (stage.getKey() == Stage.TOTAL) {
+                continue;
+            }
+            if (!first) {
+                text.append(", ");
+            }
+            text.append(stage.getKey().name().toLowerCase(Locale.ROOT)).append(' ').append(stage.getValue());
+            first = false;
+        }
+        return text.append(')').toString();
+    }
+
+    /**
+     * Timings of the most recent scans, for percentiles of each stage
+     */
+    public static class History {
+        private final int capacity;
+        private final Deque<ScanTimings> scans = new ArrayDeque<>();
+
+        History(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(ScanTimings timings) {
+            if (scans.size() == capacity) {
+                scans.removeFirst();
+            }
+            scans.addLast(timings);
+        }
+
+        public synchronized int size() {
+            return scans.size();
+        }
+
+        /**
+         * @param percentile Between 0 and 100, e.g. 95
+         * @return Nearest-rank percentile of a stage over the kept scans that reached it, -1 if none did
+         */
+        public synchronized long percentile(Stage stage, int percentile) {
+            List<Long> values = new ArrayList<>(scans.size());
+            for (ScanTimings scan : scans) {
+                long value = scan.get(stage);
+                if (value >= 0) {
+                    values.add(value);
+                }
+            }
+            if (values.isEmpty()) {
+                return -1;
+            }
+            Collections.sort(values);
+            int rank = (int) Math.ceil(percentile / 100.0 * values.size());
+            return values.get(Math.max(rank, 1) - 1);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "last " + scans.size() + " scans: p50 " + percentile(Stage.TOTAL, 50) + " ms, p95 "
+                    + percentile(Stage.TOTAL, 95) + " ms, commit p95 " + percentile(Stage.COMMIT, 95) + " ms";
+        }
+    }
+}
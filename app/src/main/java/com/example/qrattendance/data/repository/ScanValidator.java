@@ -0,0 +1,226 @@
+package com.example.qrattendance.data.repository;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.data.model.QRCode;
+import com.example.qrattendance.data.model.Session;
+import com.example.qrattendance.util.QRPayloadCodec;
+import com.example.qrattendance.util.RotatingQRCode;
+
+import java.util.Date;
+
+/**
+ * Decides whether a scan may be committed, from the documents read in the commit transaction.
+ * It does no I/O of its own: {@link AttendanceCommitEngine} feeds it what Firestore returned, and
+ * tests feed it documents from a local stand-in.
+ */
+final class ScanValidator {
+    static final String ERROR_ALREADY_MARKED = "Attendance already marked for this session";
+    static final String ERROR_EXPIRED = "QR code has expired or is inactive";
+    static final String ERROR_SESSION_INACTIVE = "Session is not active, can't mark attendance";
+    static final String ERROR_FORGED = "This QR code was not issued for this session";
+    static final String ERROR_STALE_STEP = "This QR code has changed, scan the one on screen now";
+    static final String ERROR_NOT_ENROLLED = "You are not enrolled in this course. Please enroll before marking attendance.";
+    // How long a scan may wait in the offline queue and still count for the time it was taken
+    static final long OFFLINE_WINDOW_MS = 6 * 60 * 60 * 1000L;
+
+    private ScanValidator() {
+    }
+
+    /**
+     * Deterministic attendance record ID for a student in a session
+     */
+    static String recordIdFor(String sessionId, String studentId) {
+        return sessionId + "_" + studentId;
+    }
+
+    // Live scans are judged at server time. A scan replayed from the offline queue is judged at the
+    // time it was queued, if that lies within OFFLINE_WINDOW_MS before server time, otherwise at
+    // server time as well.
+    static Date effectiveTime(Date queuedAt, Date serverNow) {
+        if (queuedAt == null || queuedAt.after(serverNow)
+                || serverNow.getTime() - queuedAt.getTime() > OFFLINE_WINDOW_MS) {
+            return serverNow;
+        }
+        return queuedAt;
+    }
+
+    /**
+     * Check a scan and build the record to write
+     *
+     * @param scan          Scan being committed
+     * @param alreadyMarked Whether the student's record for the session exists
+     * @param qrCode        QR code document, null if it does not exist or was not read because the
+     *                      session publishes its key, see {@link #sessionPublishesKey}
+     * @param session       Session document, null if it does not exist
+     * @param course        Document of the course the record counts for, see {@link #courseIdFor};
+     *                      null if it does not exist
+     * @param serverNow     Server time, see {@link ServerClock}; the scan is judged at
+     *                      {@link #effectiveTime}
+     * @return The record to write
+     * @throws ScanRejectedException If the scan fails validation
+     */
+    static AttendanceRecord validate(Scan scan, boolean alreadyMarked, QRCode qrCode, Session session,
+                                     Course course, Date serverNow) {
+        Date effectiveAt = effectiveTime(scan.queuedAt, serverNow);
+
+        // 1. Reject duplicates by looking up the deterministic record ID
+        if (alreadyMarked) {
+            throw new ScanRejectedException(ScanRejectedException.Reason.ALREADY_MARKED, ERROR_ALREADY_MARKED);
+        }
+
+        // 2. Verify QR code exists, the content was signed with its key, and it is valid. The key
+        // comes from the session when it publishes the code's key, else from the QR code document
+        String publicKey;
+        int rotationSeconds;
+        if (sessionPublishesKey(scan.qrCodeId, session)) {
+            publicKey = session.getQrPublicKey();
+            rotationSeconds = session.getQrRotationSeconds();
+        } else {
+            if (qrCode == null) {
+                throw new ScanRejectedException(ScanRejectedException.Reason.NOT_FOUND, "QR code not found");
+            }
+            if (qrCode.getSessionId() != null && !qrCode.getSessionId().equals(scan.sessionId)) {
+                throw new ScanRejectedException(ScanRejectedException.Reason.INVALID, ERROR_FORGED);
+            }
+            publicKey = qrCode.getPublicKey();
+            rotationSeconds = qrCode.getRotationSeconds();
+        }
+        if (publicKey != null) {
+            // Legacy content naming a signed code's ID is not accepted in its place
+            if (scan.payload == null || !isSignedBy(scan.payload, publicKey)) {
+                throw new ScanRejectedException(ScanRejectedException.Reason.INVALID, ERROR_FORGED);
+            }
+            if (scan.payload.isExpiredAt(effectiveAt.getTime())) {
+                throw new ScanRejectedException(ScanRejectedException.Reason.EXPIRED, ERROR_EXPIRED);
+            }
+            // A rotating code's step is checked at server time, never the queued time the device
+            // reports, so a photo of an old step can't be replayed as an offline scan
+            if (rotationSeconds > 0 && !RotatingQRCode.isStepLiveAt(scan.payload.getNonce(),
+                    rotationSeconds, serverNow.getTime())) {
+                throw new ScanRejectedException(ScanRejectedException.Reason.EXPIRED, ERROR_STALE_STEP);
+            }
+        }
+        if (qrCode != null && !qrCode.wasValidAt(effectiveAt, serverNow)) {
+            throw new ScanRejectedException(ScanRejectedException.Reason.EXPIRED, ERROR_EXPIRED);
+        }
+
+        // 3. Verify session exists and is active
+        if (session == null) {
+            throw new ScanRejectedException(ScanRejectedException.Reason.NOT_FOUND, "Session not found");
+        }
+        if (session.getStartTime() == null || session.getEndTime() == null) {
+            throw new ScanRejectedException(ScanRejectedException.Reason.INVALID, "Invalid session data");
+        }
+        if (!session.wasActiveAt(effectiveAt)) {
+            throw new ScanRejectedException(ScanRejectedException.Reason.SESSION_INACTIVE, ERROR_SESSION_INACTIVE);
+        }
+
+        // 4. Verify the student is on the course roster, whatever the device checked before
+        String courseId = courseIdFor(scan, session);
+        if (courseId == null) {
+            throw new ScanRejectedException(ScanRejectedException.Reason.INVALID, "Session has no course");
+        }
+        if (course == null) {
+            throw new ScanRejectedException(ScanRejectedException.Reason.NOT_FOUND, "Course not found");
+        }
+        if (course.getEnrolledStudentIds() == null || !course.getEnrolledStudentIds().contains(scan.studentId)) {
+            throw new ScanRejectedException(ScanRejectedException.Reason.NOT_ENROLLED, ERROR_NOT_ENROLLED);
+        }
+
+        return buildRecord(scan, courseId, effectiveAt, session.getStartTime(), session.getLateThresholdMinutes());
+    }
+
+    // The session's course counts, the one in the QR code only for sessions without one
+    static String courseIdFor(Scan scan, Session session) {
+        return (session != null && session.getCourseId() != null) ? session.getCourseId() : scan.courseId;
+    }
+
+    /**
+     * Whether the session document carries the public key of a QR code, so the signature can be
+     * checked without the qr_codes document. Sessions publish only their latest code, and sessions
+     * that got their code before keys were published carry none.
+     */
+    static boolean sessionPublishesKey(String qrCodeId, Session session) {
+        return session != null && session.getQrPublicKey() != null && qrCodeId != null
+                && qrCodeId.equals(session.getQrCodeId());
+    }
+
+    /**
+     * Check a signed code on the scanning device, against the key its session publishes
+     *
+     * @return Whether the session publishes the code's key and the signature does not match it;
+     *         false when the key is not known here, the commit checks those
+     */
+    static boolean isForgedFor(QRPayloadCodec.Payload payload, Session session) {
+        return sessionPublishesKey(payload.getQrCodeId(), session) && !isSignedBy(payload, session.getQrPublicKey());
+    }
+
+    private static boolean isSignedBy(QRPayloadCodec.Payload payload, String publicKey) {
+        try {
+            return QRPayloadCodec.verify(payload, QRPayloadCodec.decodePublicKey(publicKey));
+        } catch (QRPayloadCodec.InvalidPayloadException e) {
+            return false;
+        }
+    }
+
+    private static AttendanceRecord buildRecord(Scan scan, String courseId, Date effectiveAt, Date sessionStart,
+                                                int lateThresholdMinutes) {
+        AttendanceRecord record = new AttendanceRecord(scan.sessionId, courseId, scan.studentId, scan.qrCodeId);
+        record.setRecordId(recordIdFor(scan.sessionId, scan.studentId));
+        record.setLocation(scan.location);
+        record.setTimestamp(effectiveAt);
+        record.checkLateStatus(sessionStart, lateThresholdMinutes);
+        return record;
+    }
+
+    /**
+     * A scan to validate
+     */
+    static class Scan {
+        final String qrCodeId;
+        final String sessionId;
+        final String courseId;
+        final String studentId;
+        final AttendanceRecord.LocationData location;
+        final Date queuedAt;
+        // Decoded payload of a signed code, null for legacy codes; verified by validate
+        final QRPayloadCodec.Payload payload;
+
+        /**
+         * @param courseId  Course ID from the QR code, or null to take it from the session
+         * @param queuedAt  Server time estimated on the device when a scan taken offline was queued,
+         *                  null for live scans
+         */
+        Scan(String qrCodeId, String sessionId, String courseId, String studentId,
+             AttendanceRecord.LocationData location, Date queuedAt, QRPayloadCodec.Payload payload) {
+            this.qrCodeId = qrCodeId;
+            this.sessionId = sessionId;
+            this.courseId = courseId;
+            this.studentId = studentId;
+            this.location = location;
+            this.queuedAt = queuedAt;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Raised when the scan fails validation. The message is meant to be shown to the student as-is.
+     * Unchecked and not a FirebaseFirestoreException, so Firestore fails the transaction at once
+     * instead of retrying it like a conflict.
+     */
+    static class ScanRejectedException extends RuntimeException {
+        enum Reason { ALREADY_MARKED, NOT_FOUND, EXPIRED, SESSION_INACTIVE, NOT_ENROLLED, INVALID }
+
+        private final Reason reason;
+
+        ScanRejectedException(Reason reason, String message) {
+            super(message);
+            this.reason = reason;
+        }
+
+        Reason getReason() {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.qrattendance.data.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Source;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Server time on the device, for judging scans. Firestore has no call that returns the time, so a
+ * probe document is written with a server timestamp and read back from the server. The result is
+ * anchored to {@link SystemClock#elapsedRealtime()}, which setting the device clock does not move,
+ * and extrapolated from there until the anchor gets old. The probe document is deleted once read.
+ */
+public class ServerClock {
+    private static final String TAG = "ServerClock";
+    private static final String PROBES_COLLECTION = "clock_probes";
+    private static final long MAX_ANCHOR_AGE_MS = 10 * 60 * 1000;
+    // Firestore keeps an unacknowledged write pending while offline instead of failing it
+    private static final long PROBE_TIMEOUT_MS = 10_000;
+
+    private static ServerClock instance;
+    private final FirebaseFirestore firestore;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final String probeId = UUID.randomUUID().toString();
+    private volatile Anchor anchor;
+    private Task<Date> probe;
+
+    // Private constructor for singleton pattern
+    private ServerClock() {
+        firestore = FirebaseFirestore.getInstance();
+    }
+
+    // Get singleton instance
+    public static synchronized ServerClock getInstance() {
+        if (instance == null) {
+            instance = new ServerClock();
+        }
+        return instance;
+    }
+
+    /**
+     * Current server time, probed again if the last probe is too old
+     *
+     * @return Task with the server time; fails with an UNAVAILABLE {@link FirebaseFirestoreException}
+     *         if the server can't be reached
+     */
+    public synchronized Task<Date> now() {
+        Anchor current = anchor;
+        long elapsed = SystemClock.elapsedRealtime();
+        if (current != null && elapsed - current.elapsedRealtime < MAX_ANCHOR_AGE_MS) {
+            return Tasks.forResult(current.at(elapsed));
+        }
+        // Callers arriving while a probe is out share it
+        if (probe == null) {
+            probe = probe();
+            probe.addOnCompleteListener(task -> {
+                synchronized (this) {
+                    probe = null;
+                }
+            });
+        }
+        return probe;
+    }
+
+    /**
+     * Server time extrapolated from the last probe, without a round trip. Meant for scans taken
+     * offline; null if the clock has not been probed since the app started.
+     */
+    public Date estimate() {
+        Anchor current = anchor;
+        return current != null ? current.at(SystemClock.elapsedRealtime()) : null;
+    }
+
+    /**
+     * Estimated server time in milliseconds, or the device time if the clock has not been probed
+     */
+    public long currentTimeMillis() {
+        Date estimate = estimate();
+        return estimate != null ? estimate.getTime() : System.currentTimeMillis();
+    }
+
+    private Task<Date> probe() {
+        DocumentReference probeRef = firestore.collection(PROBES_COLLECTION).document(probeId);
+        TaskCompletionSource<Date> result = new TaskCompletionSource<>();
+        Runnable timeout = () -> result.trySetException(new FirebaseFirestoreException(
+                "Timed out reading server time", FirebaseFirestoreException.Code.UNAVAILABLE));
+        handler.postDelayed(timeout, PROBE_TIMEOUT_MS);
+        result.getTask().addOnCompleteListener(done -> handler.removeCallbacks(timeout));
+
+        long sentAt = SystemClock.elapsedRealtime();
+        long[] ackedAt = new long[1];
+        probeRef.set(Collections.singletonMap("at", FieldValue.serverTimestamp()))
+                .continueWithTask(write -> {
+                    ackedAt[0] = SystemClock.elapsedRealtime();
+                    if (!write.isSuccessful()) {
+                        return Tasks.forException(write.getException());
+                    }
+                    return probeRef.get(Source.SERVER);
+                })
+                .addOnCompleteListener(read -> {
+                    // The probe has served its purpose once read back, or failed
+                    probeRef.delete().addOnFailureListener(e -> Log.w(TAG, "Could not delete clock probe", e));
+                    Date serverTime = read.isSuccessful() ? read.getResult().getDate("at") : null;
+                    if (serverTime == null) {
+                        Log.w(TAG, "Could not read server time", read.getException());
+                        result.trySetException(read.getException() != null ? read.getException()
+                                : new FirebaseFirestoreException("No server time in probe",
+                                FirebaseFirestoreException.Code.UNAVAILABLE));
+                        return;
+                    }
+
+                    // The timestamp was taken while the write was in flight, assume halfway
+                    Anchor probed = new Anchor(serverTime.getTime(), (sentAt + ackedAt[0]) / 2);
+                    anchor = probed;
+                    Log.d(TAG, "Server clock is " + (serverTime.getTime() - System.currentTimeMillis())
+                            + " ms ahead of the device, write took " + (ackedAt[0] - sentAt) + " ms");
+                    result.trySetResult(probed.at(SystemClock.elapsedRealtime()));
+                });
+        return result.getTask();
+    }
+
+    // A server time and the elapsedRealtime it was taken at
+    private static class Anchor {
+        final long serverTime;
+        final long elapsedRealtime;
+
+        Anchor(long serverTime, long elapsedRealtime) {
+            this.serverTime = serverTime;
+            this.elapsedRealtime = elapsedRealtime;
+        }
+
+        Date at(long elapsed) {
+            return new Date(serverTime + elapsed - elapsedRealtime);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.qrattendance.data.repository;
+
+import android.util.Log;
+
+import com.example.qrattendance.data.model.Session;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes session status transitions as they fall due, so the stored status can be queried.
+ * Sessions read by instructor screens are compared with {@link Session#statusAt}: a session whose
+ * stored status is behind, e.g. still SCHEDULED after it started, is handed out with the status it
+ * should have and the transition is written once. The write runs in a transaction that re-reads
+ * the session, so a session cancelled in the meantime stays cancelled.
+ *
+ * Sessions nobody opens are moved on by ExpirySweepWorker, through {@link #writeDue}.
+ */
+public class SessionStatusWriter {
+    private static final String TAG = "SessionStatusWriter";
+    private static final String SESSIONS_COLLECTION = "sessions";
+
+    private static SessionStatusWriter instance;
+    private final FirebaseFirestore firestore;
+    // Transitions written or being written, so listener events do not repeat them
+    private final Set<String> written = Collections.synchronizedSet(new HashSet<>());
+
+    // Private constructor for singleton pattern
+    private SessionStatusWriter() {
+        firestore = FirebaseFirestore.getInstance();
+    }
+
+    // Get singleton instance
+    public static synchronized SessionStatusWriter getInstance() {
+        if (instance == null) {
+            instance = new SessionStatusWriter();
+        }
+        return instance;
+    }
+
+    /**
+     * Bring the status of read sessions up to date and write the transitions that are due
+     */
+    void apply(List<Session> sessions) {
+        Date now = new Date();
+        for (Session session : sessions) {
+            if (session.getStartTime() == null || session.getEndTime() == null) {
+                continue;
+            }
+            Session.SessionStatus due = session.statusAt(now);
+            if (due == session.getStatus()) {
+                continue;
+            }
+            session.setStatus(due);
+            if (session.getSessionId() != null && written.add(session.getSessionId() + "/" + due)) {
+                write(session.getSessionId(), due);
+            }
+        }
+    }
+
+    private void write(String sessionId, Session.SessionStatus due) {
+        writeDue(sessionId)
+                .addOnSuccessListener(result -> Log.d(TAG, "Session " + sessionId + " is " + due))
+                .addOnFailureListener(e -> {
+                    // Not retried from here, the next sweep writes it
+                    Log.w(TAG, "Failed to write status of session " + sessionId, e);
+                });
+    }
+
+    /**
+     * Write the status a session should have now, in a transaction that re-reads it. Only moves a
+     * session forward: cancelled sessions and sessions ended early stay as they are.
+     *
+     * @param sessionId Session to bring up to date
+     * @return Task that completes once the session is up to date
+     */
+    public Task<Void> writeDue(String sessionId) {
+        DocumentReference sessionRef = firestore.collection(SESSIONS_COLLECTION).document(sessionId);
+
+        return firestore.runTransaction(transaction -> {
+            DocumentSnapshot document = transaction.get(sessionRef);
+            Session stored = document.toObject(Session.class);
+            if (stored == null || stored.getStartTime() == null || stored.getEndTime() == null) {
+                return null;
+            }
+            Session.SessionStatus status = stored.statusAt(new Date());
+            if (stored.getStatus() == null || status.compareTo(stored.getStatus()) > 0) {
+                transaction.update(sessionRef, "status", status.getValue(),
+                        SyncFields.UPDATED_AT, SyncFields.now());
+            }
+            return null;
+        }).continueWith(task -> {
+            if (!task.isSuccessful()) {
+                throw task.getException();
+            }
+            EntityCache.getInstance().invalidate(sessionRef);
+            return null;
+        });
+    }
+}
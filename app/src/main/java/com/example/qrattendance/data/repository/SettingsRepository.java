@@ -1,10 +1,15 @@
 package com.example.qrattendance.data.repository;
 
+import android.util.Log;
+
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -13,6 +18,7 @@ public class SettingsRepository {
     private static final String TAG = "SettingsRepository";
     private static final String SETTINGS_COLLECTION = "settings";
     private static final String SYSTEM_SETTINGS_DOCUMENT = "system_settings";
+    private static final boolean DEFAULT_OFFLINE_MODE = true;
 
     private static SettingsRepository instance;
     private final FirebaseFirestore firestore;
@@ -52,38 +58,83 @@ public class SettingsRepository {
     public void fetchSystemSettings() {
         isLoading.setValue(true);
 
-        firestore.collection(SETTINGS_COLLECTION).document(SYSTEM_SETTINGS_DOCUMENT)
-                .get()
-                .addOnSuccessListener(documentSnapshot -> {
+        loadSettings(new OnSettingsLoadedListener() {
+            @Override
+            public void onSettingsLoaded(Map<String, Object> settings) {
+                if (settings != null) {
                     isLoading.setValue(false);
-                    if (documentSnapshot.exists()) {
-                        Map<String, Object> settings = documentSnapshot.getData();
-                        settingsLiveData.setValue(settings);
-                    } else {
-                        // If settings don't exist, create default settings
-                        createDefaultSettings();
+                    settingsLiveData.setValue(settings);
+                } else {
+                    // If settings don't exist, create default settings
+                    createDefaultSettings();
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                errorMessage.setValue("Failed to load settings: " + message);
+                isLoading.setValue(false);
+            }
+        });
+    }
+
+    /**
+     * Read the settings, from the device cache when they have not changed on the server since.
+     * The cached copy's updatedAt serves as the watermark: asking for settings updated after it
+     * returns nothing while they are current, instead of the whole document.
+     *
+     * @param listener Called with the settings, or with null if they were never created
+     */
+    private void loadSettings(OnSettingsLoadedListener listener) {
+        DocumentReference settingsRef = firestore.collection(SETTINGS_COLLECTION).document(SYSTEM_SETTINGS_DOCUMENT);
+
+        settingsRef.get(Source.CACHE)
+                .addOnSuccessListener(cached -> {
+                    // Copies written before updatedAt was a server timestamp hold a number, read those in full
+                    Object cachedAt = cached.exists() ? cached.get(SyncFields.UPDATED_AT) : null;
+                    if (!(cachedAt instanceof Timestamp)) {
+                        loadSettingsFromServer(settingsRef, listener);
+                        return;
                     }
+
+                    firestore.collection(SETTINGS_COLLECTION)
+                            .whereGreaterThan(SyncFields.UPDATED_AT, cachedAt)
+                            .get()
+                            .addOnSuccessListener(changed -> {
+                                for (DocumentSnapshot document : changed.getDocuments()) {
+                                    if (document.getId().equals(SYSTEM_SETTINGS_DOCUMENT)) {
+                                        listener.onSettingsLoaded(document.getData());
+                                        return;
+                                    }
+                                }
+                                listener.onSettingsLoaded(cached.getData());
+                            })
+                            // Offline, the cached copy is the best there is
+                            .addOnFailureListener(e -> listener.onSettingsLoaded(cached.getData()));
                 })
-                .addOnFailureListener(e -> {
-                    errorMessage.setValue("Failed to load settings: " + e.getMessage());
-                    isLoading.setValue(false);
-                });
+                .addOnFailureListener(cacheError -> loadSettingsFromServer(settingsRef, listener));
+    }
+
+    private void loadSettingsFromServer(DocumentReference settingsRef, OnSettingsLoadedListener listener) {
+        settingsRef.get()
+                .addOnSuccessListener(documentSnapshot ->
+                        listener.onSettingsLoaded(documentSnapshot.exists() ? documentSnapshot.getData() : null))
+                .addOnFailureListener(e -> listener.onError(e.getMessage()));
     }
 
     // Create default settings
     private void createDefaultSettings() {
         Map<String, Object> defaultSettings = new HashMap<>();
         defaultSettings.put("instituteName", "Indian Institute of Information Technology, Allahabad");
-        defaultSettings.put("offlineMode", true);
+        defaultSettings.put("offlineMode", DEFAULT_OFFLINE_MODE);
         defaultSettings.put("enableNotifications", true);
         defaultSettings.put("autoLockAttendance", false);
         defaultSettings.put("qrCodeExpiryMinutes", 15L);
         defaultSettings.put("minAttendancePercentage", 75);
         defaultSettings.put("createdAt", System.currentTimeMillis());
-        defaultSettings.put("updatedAt", System.currentTimeMillis());
 
         firestore.collection(SETTINGS_COLLECTION).document(SYSTEM_SETTINGS_DOCUMENT)
-                .set(defaultSettings)
+                .set(SyncFields.touch(new HashMap<>(defaultSettings)))
                 .addOnSuccessListener(aVoid -> {
                     settingsLiveData.setValue(defaultSettings);
                     isLoading.setValue(false);
@@ -98,11 +149,9 @@ public class SettingsRepository {
     public void updateSystemSettings(Map<String, Object> updatedSettings, OnCompleteListener listener) {
         isLoading.setValue(true);
 
-        // Add timestamp for the update
-        updatedSettings.put("updatedAt", System.currentTimeMillis());
-
+        // Stamped with the server time, cached copies compare against it
         firestore.collection(SETTINGS_COLLECTION).document(SYSTEM_SETTINGS_DOCUMENT)
-                .update(updatedSettings)
+                .update(SyncFields.touch(new HashMap<>(updatedSettings)))
                 .addOnSuccessListener(aVoid -> {
                     isLoading.setValue(false);
 
@@ -126,39 +175,40 @@ public class SettingsRepository {
     public void getSystemSettings(OnSettingsLoadedListener listener) {
         isLoading.setValue(true);
 
-        firestore.collection(SETTINGS_COLLECTION).document(SYSTEM_SETTINGS_DOCUMENT)
-                .get()
-                .addOnSuccessListener(documentSnapshot -> {
+        loadSettings(new OnSettingsLoadedListener() {
+            @Override
+            public void onSettingsLoaded(Map<String, Object> settings) {
+                if (settings != null) {
                     isLoading.setValue(false);
-                    if (documentSnapshot.exists()) {
-                        Map<String, Object> settings = documentSnapshot.getData();
-                        listener.onSettingsLoaded(settings != null ? settings : new HashMap<>());
-                    } else {
-                        // If settings don't exist, create default settings and return them
-                        createDefaultSettingsAndReturn(listener);
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    errorMessage.setValue("Failed to load settings: " + e.getMessage());
-                    isLoading.setValue(false);
-                    listener.onError(e.getMessage());
-                });
+                    listener.onSettingsLoaded(settings);
+                } else {
+                    // If settings don't exist, create default settings and return them
+                    createDefaultSettingsAndReturn(listener);
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                errorMessage.setValue("Failed to load settings: " + message);
+                isLoading.setValue(false);
+                listener.onError(message);
+            }
+        });
     }
 
     // Create default settings and return them
     private void createDefaultSettingsAndReturn(OnSettingsLoadedListener listener) {
         Map<String, Object> defaultSettings = new HashMap<>();
         defaultSettings.put("instituteName", "Indian Institute of Information Technology, Allahabad");
-        defaultSettings.put("offlineMode", true);
+        defaultSettings.put("offlineMode", DEFAULT_OFFLINE_MODE);
         defaultSettings.put("enableNotifications", true);
         defaultSettings.put("autoLockAttendance", false);
         defaultSettings.put("qrCodeExpiryMinutes", 15L);
         defaultSettings.put("minAttendancePercentage", 75);
         defaultSettings.put("createdAt", System.currentTimeMillis());
-        defaultSettings.put("updatedAt", System.currentTimeMillis());
 
         firestore.collection(SETTINGS_COLLECTION).document(SYSTEM_SETTINGS_DOCUMENT)
-                .set(defaultSettings)
+                .set(SyncFields.touch(new HashMap<>(defaultSettings)))
                 .addOnSuccessListener(aVoid -> {
                     settingsLiveData.setValue(defaultSettings);
                     isLoading.setValue(false);
@@ -171,6 +221,29 @@ public class SettingsRepository {
                 });
     }
 
+    /**
+     * Check whether students may queue scans while offline.
+     * Reads the locally cached settings first so the answer is available without a connection,
+     * and falls back to the default (enabled) if the settings were never loaded on this device.
+     */
+    public void isOfflineModeEnabled(OnOfflineModeListener listener) {
+        DocumentReference settingsRef = firestore.collection(SETTINGS_COLLECTION).document(SYSTEM_SETTINGS_DOCUMENT);
+
+        settingsRef.get(Source.CACHE)
+                .addOnSuccessListener(documentSnapshot -> listener.onResult(readOfflineMode(documentSnapshot)))
+                .addOnFailureListener(cacheError -> settingsRef.get()
+                        .addOnSuccessListener(documentSnapshot -> listener.onResult(readOfflineMode(documentSnapshot)))
+                        .addOnFailureListener(e -> {
+                            Log.w(TAG, "Settings unavailable, using default offline mode", e);
+                            listener.onResult(DEFAULT_OFFLINE_MODE);
+                        }));
+    }
+
+    private boolean readOfflineMode(DocumentSnapshot documentSnapshot) {
+        Boolean offlineMode = documentSnapshot.exists() ? documentSnapshot.getBoolean("offlineMode") : null;
+        return offlineMode != null ? offlineMode : DEFAULT_OFFLINE_MODE;
+    }
+
     // Callback interfaces
     public interface OnCompleteListener {
         void onSuccess();
@@ -181,4 +254,8 @@ public class SettingsRepository {
         void onSettingsLoaded(Map<String, Object> settings);
         void onError(String errorMessage);
     }
+
+    public interface OnOfflineModeListener {
+        void onResult(boolean offlineModeEnabled);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,254 @@
+package com.example.qrattendance.data.repository;
+
+import android.os.SystemClock;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Distributed counter for hot fields such as QR code scan counts and session present counts.
+ * Increments are spread over a fixed number of shard documents stored under the owning document
+ * in a "counter_shards" subcollection, so concurrent scans do not contend on a single document.
+ * Reads sum all shards and are cached for a short time.
+ */
+public class ShardedCounter {
+    public static final String SCAN_COUNT = "scanCount";
+    // Students who attended a session, on time or late
+    public static final String PRESENT_COUNT = "presentCount";
+    // Students who attended a session after its late threshold
+    public static final String LATE_COUNT = "lateCount";
+
+    static final String SHARDS_COLLECTION = "counter_shards";
+    private static final int NUM_SHARDS = 10;
+    private static final long CACHE_TTL_MS = 5000;
+
+    private static ShardedCounter instance;
+    private final Map<String, CachedCount> cache = new ConcurrentHashMap<>();
+
+    // Private constructor for singleton pattern
+    private ShardedCounter() {
+    }
+
+    // Get singleton instance
+    public static synchronized ShardedCounter getInstance() {
+        if (instance == null) {
+            instance = new ShardedCounter();
+        }
+        return instance;
+    }
+
+    /**
+     * Add an increment for a counter to a running transaction
+     */
+    public void increment(Transaction transaction, DocumentReference owner, String counterName, long delta) {
+        increment((shardId, name, by) -> transaction.set(shardRef(owner, shardId), shardUpdate(name, by),
+                SetOptions.merge()), counterName, delta);
+        invalidate(owner, counterName);
+    }
+
+    /**
+     * Add an increment for a counter to a write batch
+     */
+    public void increment(WriteBatch batch, DocumentReference owner, String counterName, long delta) {
+        increment((shardId, name, by) -> batch.set(shardRef(owner, shardId), shardUpdate(name, by),
+                SetOptions.merge()), counterName, delta);
+        invalidate(owner, counterName);
+    }
+
+    /**
+     * Increment a counter on its own
+     */
+    public Task<Void> increment(DocumentReference owner, String counterName, long delta) {
+        invalidate(owner, counterName);
+        DocumentReference shard = shardRef(owner, randomShardId(counterName));
+        return shard.set(shardUpdate(counterName, delta), SetOptions.merge());
+    }
+
+    /**
+     * Get the total of a counter, served from cache if it was read recently
+     *
+     * @param owner       Document the counter belongs to
+     * @param counterName Name of the counter
+     * @param listener    callback for result
+     */
+    public void getCount(DocumentReference owner, String counterName, OnCountListener listener) {
+        String key = cacheKey(owner, counterName);
+        CachedCount cached = cache.get(key);
+        if (cached != null && SystemClock.elapsedRealtime() - cached.loadedAt < CACHE_TTL_MS) {
+            listener.onCount(cached.value);
+            return;
+        }
+
+        owner.collection(SHARDS_COLLECTION)
+                .whereEqualTo("counter", counterName)
+                .get()
+                .addOnSuccessListener(shards -> {
+                    Long counted = totals(shardCounts(shards.getDocuments())).get(counterName);
+                    long total = counted != null ? counted : 0;
+                    cache.put(key, new CachedCount(total, SystemClock.elapsedRealtime()));
+                    listener.onCount(total);
+                })
+                .addOnFailureListener(e -> listener.onError("Failed to read counter: " + e.getMessage()));
+    }
+
+    /**
+     * Get the totals of every counter of a document with a single read of its shards.
+     * Always reads the shards, the totals refresh the cache.
+     *
+     * @param owner Document the counters belong to
+     * @return Task with the total of each counter that has been incremented
+     */
+    public Task<Map<String, Long>> getCounts(DocumentReference owner) {
+        return owner.collection(SHARDS_COLLECTION)
+                .get()
+                .continueWith(task -> {
+                    if (!task.isSuccessful()) {
+                        throw task.getException();
+                    }
+                    Map<String, Long> totals = totals(shardCounts(task.getResult().getDocuments()));
+
+                    long loadedAt = SystemClock.elapsedRealtime();
+                    for (Map.Entry<String, Long> total : totals.entrySet()) {
+                        cache.put(cacheKey(owner, total.getKey()), new CachedCount(total.getValue(), loadedAt));
+                    }
+                    return totals;
+                });
+    }
+
+    /**
+     * Drop the cached total of a counter
+     */
+    public void invalidate(DocumentReference owner, String counterName) {
+        cache.remove(cacheKey(owner, counterName));
+    }
+
+    /**
+     * Shard documents written for a counter, used when deleting the owning document
+     */
+    public DocumentReference[] allShards(DocumentReference owner, String counterName) {
+        DocumentReference[] shards = new DocumentReference[NUM_SHARDS];
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            shards[i] = shardRef(owner, counterName, i);
+        }
+        return shards;
+    }
+
+    /**
+     * IDs of the shard documents of a counter within the owner's shard subcollection
+     */
+    static List<String> shardIds(String counterName) {
+        List<String> ids = new ArrayList<>(NUM_SHARDS);
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            ids.add(shardId(counterName, i));
+        }
+        return ids;
+    }
+
+    /**
+     * Send an increment to a random shard of a counter
+     *
+     * @param writer Where the shard write goes, e.g. a transaction
+     * @return ID of the shard that was picked
+     */
+    static String increment(ShardWriter writer, String counterName, long delta) {
+        String shardId = randomShardId(counterName);
+        writer.add(shardId, counterName, delta);
+        return shardId;
+    }
+
+    /**
+     * Add up the shards of an owner into a total per counter
+     */
+    static Map<String, Long> totals(List<ShardCount> shards) {
+        Map<String, Long> totals = new HashMap<>();
+        for (ShardCount shard : shards) {
+            if (shard.counterName != null && shard.count != null) {
+                Long total = totals.get(shard.counterName);
+                totals.put(shard.counterName, (total != null ? total : 0) + shard.count);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * ID of the shard an increment goes to, picked at random so concurrent writers spread out
+     */
+    static String randomShardId(String counterName) {
+        return shardId(counterName, ThreadLocalRandom.current().nextInt(NUM_SHARDS));
+    }
+
+    private static String shardId(String counterName, int index) {
+        return counterName + "_" + index;
+    }
+
+    private static List<ShardCount> shardCounts(List<DocumentSnapshot> documents) {
+        List<ShardCount> shards = new ArrayList<>(documents.size());
+        for (DocumentSnapshot document : documents) {
+            shards.add(new ShardCount(document.getString("counter"), document.getLong("count")));
+        }
+        return shards;
+    }
+
+    private DocumentReference shardRef(DocumentReference owner, String shardId) {
+        return owner.collection(SHARDS_COLLECTION).document(shardId);
+    }
+
+    private DocumentReference shardRef(DocumentReference owner, String counterName, int index) {
+        return shardRef(owner, shardId(counterName, index));
+    }
+
+    private Map<String, Object> shardUpdate(String counterName, long delta) {
+        Map<String, Object> update = new HashMap<>();
+        update.put("counter", counterName);
+        update.put("count", FieldValue.increment(delta));
+        return update;
+    }
+
+    private String cacheKey(DocumentReference owner, String counterName) {
+        return owner.getPath() + "#" + counterName;
+    }
+
+    // Counter name and count of one shard document
+    static class ShardCount {
+        final String counterName;
+        final Long count;
+
+        ShardCount(String counterName, Long count) {
+            this.counterName = counterName;
+            this.count = count;
+        }
+    }
+
+    private static class CachedCount {
+        final long value;
+        final long loadedAt;
+
+        CachedCount(long value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    // Adds an increment to one shard document, like FieldValue.increment merged into it
+    interface ShardWriter {
+        void add(String shardId, String counterName, long delta);
+    }
+
+    // Callback interface
+    public interface OnCountListener {
+        void onCount(long count);
+        void onError(String errorMessage);
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.qrattendance.data.repository;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Totals for the admin dashboard, counted on the server with count() aggregate queries.
+ * Each count costs one document read per 1000 matching documents instead of downloading them.
+ * Counts are kept for {@link #MAX_AGE_MS}; a refresh only asks again for the ones that are
+ * older, and writes made on this device adjust the cached counts straight away.
+ *
+ * Use from the main thread.
+ */
+public class StatsRepository {
+    private static final String TAG = "StatsRepository";
+    private static final String USERS_COLLECTION = "users";
+    private static final String COURSES_COLLECTION = "courses";
+    private static final String SESSIONS_COLLECTION = "sessions";
+    private static final String ATTENDANCE_COLLECTION = "attendance_records";
+
+    // How long a count is shown before it is asked for again
+    static final long MAX_AGE_MS = 60_000;
+
+    public enum Stat {
+        STUDENTS, INSTRUCTORS, ADMINS, ACTIVE_COURSES, SESSIONS_TODAY, SCANS_TODAY;
+
+        boolean isDaily() {
+            return this == SESSIONS_TODAY || this == SCANS_TODAY;
+        }
+    }
+
+    private static StatsRepository instance;
+    private final FirebaseFirestore firestore;
+    private final Map<Stat, Long> counts = new EnumMap<>(Stat.class);
+    private final Map<Stat, Long> countedAt = new EnumMap<>(Stat.class);
+    // Start of the day the daily counts were taken for
+    private final Map<Stat, Long> countedDay = new EnumMap<>(Stat.class);
+    private final Set<Stat> inFlight = EnumSet.noneOf(Stat.class);
+    private final MutableLiveData<Map<Stat, Long>> statsLiveData = new MutableLiveData<>();
+    private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
+
+    // Private constructor for singleton pattern
+    private StatsRepository() {
+        firestore = FirebaseFirestore.getInstance();
+    }
+
+    // Get singleton instance
+    public static synchronized StatsRepository getInstance() {
+        if (instance == null) {
+            instance = new StatsRepository();
+        }
+        return instance;
+    }
+
+    // Counts known so far, updated as each one arrives
+    public LiveData<Map<Stat, Long>> getStats() {
+        return statsLiveData;
+    }
+
+    public LiveData<String> getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Count again every statistic that is missing or stale
+     *
+     * @param force Ask for every count, however recent
+     */
+    public void refresh(boolean force) {
+        long now = SystemClock.elapsedRealtime();
+        long today = startOfDay(0);
+        for (Stat stat : Stat.values()) {
+            Long at = countedAt.get(stat);
+            boolean stale = force || at == null || now - at > MAX_AGE_MS
+                    || (stat.isDaily() && !Long.valueOf(today).equals(countedDay.get(stat)));
+            if (stale && !inFlight.contains(stat)) {
+                count(stat, today);
+            }
+        }
+    }
+
+    /**
+     * Apply a change made on this device to the cached count, without asking the server
+     *
+     * @param stat  Count that changed
+     * @param delta Documents added, negative for removed
+     */
+    public void adjust(Stat stat, long delta) {
+        Long count = counts.get(stat);
+        if (count != null) {
+            counts.put(stat, Math.max(0, count + delta));
+            publish();
+        }
+    }
+
+    // Count of users with a role, null for roles the dashboard does not count
+    public static Stat forRole(Object role) {
+        if ("STUDENT".equals(role)) {
+            return Stat.STUDENTS;
+        } else if ("INSTRUCTOR".equals(role)) {
+            return Stat.INSTRUCTORS;
+        } else if ("ADMIN".equals(role)) {
+            return Stat.ADMINS;
+        }
+        return null;
+    }
+
+    private void count(Stat stat, long day) {
+        inFlight.add(stat);
+        queryFor(stat, day).count()
+                .get(AggregateSource.SERVER)
+                .addOnSuccessListener(snapshot -> {
+                    inFlight.remove(stat);
+                    counts.put(stat, snapshot.getCount());
+                    countedAt.put(stat, SystemClock.elapsedRealtime());
+                    countedDay.put(stat, day);
+                    publish();
+                })
+                .addOnFailureListener(e -> {
+                    inFlight.remove(stat);
+                    Log.e(TAG, "Failed to count " + stat, e);
+                    errorMessage.setValue("Failed to load statistics: " + e.getMessage());
+                });
+    }
+
+    private Query queryFor(Stat stat, long day) {
+        Date dayStart = new Date(day);
+        Date dayEnd = new Date(startOfDay(1));
+        switch (stat) {
+            case STUDENTS:
+                return firestore.collection(USERS_COLLECTION).whereEqualTo("role", "STUDENT");
+            case INSTRUCTORS:
+                return firestore.collection(USERS_COLLECTION).whereEqualTo("role", "INSTRUCTOR");
+            case ADMINS:
+                return firestore.collection(USERS_COLLECTION).whereEqualTo("role", "ADMIN");
+            case ACTIVE_COURSES:
+                return firestore.collection(COURSES_COLLECTION).whereEqualTo("isActive", true);
+            case SESSIONS_TODAY:
+                return firestore.collection(SESSIONS_COLLECTION)
+                        .whereGreaterThanOrEqualTo("startTime", dayStart)
+                        .whereLessThan("startTime", dayEnd);
+            case SCANS_TODAY:
+            default:
+                return firestore.collection(ATTENDANCE_COLLECTION)
+                        .whereGreaterThanOrEqualTo("timestamp", dayStart)
+                        .whereLessThan("timestamp", dayEnd);
+        }
+    }
+
+    private void publish() {
+        statsLiveData.setValue(Collections.unmodifiableMap(new EnumMap<>(counts)));
+    }
+
+    // Local midnight, days from today
+    private static long startOfDay(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, days);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,485 @@
+package com.example.qrattendance.data.repository;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.qrattendance.data.local.ReadModelStore;
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.AttendanceSummary;
+import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.data.model.Session;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The signed-in student's courses, upcoming sessions, attendance summaries and latest records,
+ * served stale-while-revalidate from {@link ReadModelStore}.
+ * {@link #load} first hands out what is on disk, then pulls only the documents whose updatedAt
+ * moved past the stored watermarks (see {@link CollectionSync}) and hands out the refreshed data.
+ *
+ * Use from the main thread; listeners are called on the main thread.
+ */
+public class StudentDataRepository {
+    private static final String TAG = "StudentDataRepository";
+    private static final String USERS_COLLECTION = "users";
+    private static final String COURSES_COLLECTION = "courses";
+    private static final String SESSIONS_COLLECTION = "sessions";
+    private static final String SUMMARIES_COLLECTION = "attendance_summaries";
+    // Read model entries that are not a synced Firestore collection
+    private static final String ENROLLMENTS = "enrollments";
+    private static final String INSTRUCTOR_NAMES = "instructor_names";
+    private static final String RECENT_ATTENDANCE = "recent_attendance";
+    private static final String SESSION_TITLES = "session_titles";
+
+    // Opening another student screen this soon after a refresh shows the disk copy only
+    static final long MIN_REVALIDATE_INTERVAL_MS = 30_000;
+
+    private static StudentDataRepository instance;
+    private final FirebaseFirestore firestore;
+    private final ReadModelStore store;
+    private final CollectionSync collectionSync;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Disk reads for the first render, kept apart from a running refresh so they never wait on it
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    // One refresh at a time waits on its queries here, the queries themselves run on the pool
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService queryExecutor = Executors.newFixedThreadPool(BatchDocumentLoader.MAX_IN_FLIGHT);
+    // Listeners waiting on the running refresh of each student, main thread only
+    private final Map<String, List<OnStudentDataListener>> waiting = new HashMap<>();
+    private final Map<String, Long> revalidatedAt = new HashMap<>();
+
+    // Private constructor for singleton pattern
+    private StudentDataRepository(Context context) {
+        firestore = FirebaseFirestore.getInstance();
+        store = ReadModelStore.getInstance(context);
+        collectionSync = CollectionSync.getInstance();
+    }
+
+    // Get singleton instance
+    public static synchronized StudentDataRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new StudentDataRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Load a student's dashboard data, first from disk and then refreshed from Firestore
+     *
+     * @param studentId Signed-in student
+     * @param listener  Called with the disk copy if there is one, then with the refreshed data
+     */
+    public void load(String studentId, OnStudentDataListener listener) {
+        long startedAt = SystemClock.elapsedRealtime();
+        diskExecutor.execute(() -> {
+            StudentData cached = readSnapshot(studentId, false);
+            Log.d(TAG, "Read model loaded from disk in " + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+            mainHandler.post(() -> {
+                if (!cached.hasData()) {
+                    revalidate(studentId, listener);
+                } else if (revalidatedRecently(studentId)) {
+                    // The disk copy is what the last refresh wrote moments ago
+                    listener.onData(cached.asFresh());
+                } else {
+                    listener.onData(cached);
+                    revalidate(studentId, listener);
+                }
+            });
+        });
+    }
+
+    // Remember the first page of the student's history and the titles shown with it
+    public void cacheRecentAttendance(String studentId, List<AttendanceRecord> records, Map<String, String> sessionTitles) {
+        List<AttendanceRecord> copy = new ArrayList<>(records);
+        Map<String, String> titles = new HashMap<>(sessionTitles);
+        diskExecutor.execute(() -> {
+            List<ReadModelStore.Row> recordRows = new ArrayList<>();
+            List<ReadModelStore.Row> titleRows = new ArrayList<>();
+            Set<String> keptIds = new HashSet<>();
+            for (AttendanceRecord record : copy) {
+                recordRows.add(new ReadModelStore.Row(record.getRecordId(), record, 0));
+                keptIds.add(record.getRecordId());
+                String title = titles.get(record.getSessionId());
+                if (title != null) {
+                    titleRows.add(new ReadModelStore.Row(record.getSessionId(), title, 0));
+                }
+            }
+            store.write(RECENT_ATTENDANCE, studentId, recordRows,
+                    staleIds(store.getVersions(RECENT_ATTENDANCE, studentId).keySet(), keptIds), null);
+            store.write(SESSION_TITLES, studentId, titleRows, Collections.emptyList(), null);
+        });
+    }
+
+    /**
+     * Courses the student was enrolled in at the last refresh, read from disk without a round trip
+     *
+     * @return Task with the course IDs, empty if the student's data was never loaded on this device
+     */
+    public Task<Set<String>> getCachedEnrollments(String studentId) {
+        return Tasks.call(diskExecutor, () -> {
+            String[] enrolled = store.load(ENROLLMENTS, studentId, String[].class).get(studentId);
+            return enrolled != null ? new HashSet<>(Arrays.asList(enrolled)) : Collections.<String>emptySet();
+        });
+    }
+
+    // Drop everything stored on this device, e.g. on logout
+    public void clear() {
+        revalidatedAt.clear();
+        diskExecutor.execute(store::clear);
+    }
+
+    private boolean revalidatedRecently(String studentId) {
+        Long lastRevalidated = revalidatedAt.get(studentId);
+        return lastRevalidated != null
+                && SystemClock.elapsedRealtime() - lastRevalidated < MIN_REVALIDATE_INTERVAL_MS;
+    }
+
+    private void revalidate(String studentId, OnStudentDataListener listener) {
+        // Share a refresh that is already running
+        List<OnStudentDataListener> listeners = waiting.get(studentId);
+        if (listeners != null) {
+            listeners.add(listener);
+            return;
+        }
+        listeners = new ArrayList<>();
+        listeners.add(listener);
+        waiting.put(studentId, listeners);
+
+        syncExecutor.execute(() -> {
+            try {
+                pull(studentId);
+                StudentData fresh = readSnapshot(studentId, true);
+                mainHandler.post(() -> {
+                    revalidatedAt.put(studentId, SystemClock.elapsedRealtime());
+                    for (OnStudentDataListener waitingListener : waiting.remove(studentId)) {
+                        waitingListener.onData(fresh);
+                    }
+                });
+            } catch (Exception e) {
+                Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+                Log.e(TAG, "Failed to refresh data of student " + studentId, cause);
+                String errorMsg = "Failed to refresh: " + cause.getMessage();
+                mainHandler.post(() -> {
+                    for (OnStudentDataListener waitingListener : waiting.remove(studentId)) {
+                        waitingListener.onFailure(errorMsg);
+                    }
+                });
+            }
+        });
+    }
+
+    // Bring every part of the student's read model up to date, blocking
+    private void pull(String studentId) throws Exception {
+        long startedAt = SystemClock.elapsedRealtime();
+
+        // The enrollments decide which courses and sessions are needed, the rest can run alongside
+        Future<List<String>> enrollments = queryExecutor.submit(() -> pullEnrollments(studentId));
+        Future<DeltaSync.Result> courses = queryExecutor.submit(() -> collectionSync.pull(coursesScope(studentId)));
+        Future<DeltaSync.Result> summaries = queryExecutor.submit(() -> collectionSync.pull(summariesScope(studentId)));
+
+        List<String> courseIds = enrollments.get();
+        DeltaSync.Result courseResult = courses.get();
+        DeltaSync.Result summaryResult = summaries.get();
+        reconcileCourses(studentId, courseIds);
+
+        List<Future<?>> pending = new ArrayList<>();
+        for (String courseId : courseIds) {
+            pending.add(queryExecutor.submit(() -> pullSessions(courseId)));
+        }
+        pending.add(queryExecutor.submit(() -> pullInstructorNames(studentId, courseResult.isFull())));
+        for (Future<?> future : pending) {
+            future.get();
+        }
+
+        Log.d(TAG, "Student data refreshed in " + (SystemClock.elapsedRealtime() - startedAt) + " ms: courses "
+                + courseResult + ", summaries " + summaryResult + ", sessions of " + courseIds.size() + " courses");
+    }
+
+    // The student's own document is the source of truth for which courses they are in
+    private List<String> pullEnrollments(String studentId) throws Exception {
+        DocumentSnapshot document = Tasks.await(firestore.collection(USERS_COLLECTION).document(studentId).get());
+        List<String> courseIds = new ArrayList<>();
+        Object enrolled = document.get("enrolledCourseIds");
+        if (enrolled instanceof List) {
+            for (Object courseId : (List<?>) enrolled) {
+                if (courseId instanceof String) {
+                    courseIds.add((String) courseId);
+                }
+            }
+        }
+        store.write(ENROLLMENTS, studentId, Collections.singletonList(
+                new ReadModelStore.Row(studentId, courseIds.toArray(new String[0]), 0)), Collections.emptyList(), null);
+        return courseIds;
+    }
+
+    private CollectionSync.Scope<Course> coursesScope(String studentId) {
+        return new CollectionSync.Scope<>(COURSES_COLLECTION, studentId, Course.class,
+                firestore.collection(COURSES_COLLECTION).whereArrayContains("enrolledStudentIds", studentId),
+                CollectionSync.model(Course.class, StudentDataRepository::compactCourse));
+    }
+
+    private CollectionSync.Scope<AttendanceSummary> summariesScope(String studentId) {
+        return new CollectionSync.Scope<>(SUMMARIES_COLLECTION, studentId, AttendanceSummary.class,
+                firestore.collection(SUMMARIES_COLLECTION).whereEqualTo("studentId", studentId),
+                CollectionSync.model(AttendanceSummary.class, AttendanceSummary::setSummaryId));
+    }
+
+    // Sessions are kept per course so a newly joined course starts with a full read of its own
+    private Void pullSessions(String courseId) throws Exception {
+        Query courseSessions = firestore.collection(SESSIONS_COLLECTION).whereEqualTo("courseId", courseId);
+        // Past sessions are never shown, a first read only needs the ones still to come
+        collectionSync.pull(new CollectionSync.Scope<>(SESSIONS_COLLECTION, courseId, Session.class,
+                courseSessions.whereGreaterThanOrEqualTo("endTime", new Date()),
+                CollectionSync.model(Session.class, Session::setSessionId))
+                .changedSince(since -> courseSessions.whereGreaterThanOrEqualTo(SyncFields.UPDATED_AT, since)));
+
+        // Sessions that ended since they were pulled are not needed anymore
+        List<String> ended = new ArrayList<>();
+        Date now = new Date();
+        for (Map.Entry<String, Session> entry : store.load(SESSIONS_COLLECTION, courseId, Session.class).entrySet()) {
+            Date endTime = entry.getValue().getEndTime();
+            if (endTime == null || endTime.before(now)) {
+                ended.add(entry.getKey());
+            }
+        }
+        if (!ended.isEmpty()) {
+            store.write(SESSIONS_COLLECTION, courseId, Collections.emptyList(), ended, null);
+        }
+        return null;
+    }
+
+    // Align the stored courses with the enrollments: read courses the query did not return, drop left ones
+    private void reconcileCourses(String studentId, List<String> courseIds) throws Exception {
+        Set<String> stored = store.getVersions(COURSES_COLLECTION, studentId).keySet();
+        List<String> missing = new ArrayList<>();
+        for (String courseId : courseIds) {
+            if (!stored.contains(courseId)) {
+                missing.add(courseId);
+            }
+        }
+
+        List<ReadModelStore.Row> rows = new ArrayList<>();
+        for (List<String> chunk : BatchDocumentLoader.partition(missing, BatchDocumentLoader.MAX_IDS_PER_QUERY)) {
+            QuerySnapshot snapshot = Tasks.await(firestore.collection(COURSES_COLLECTION)
+                    .whereIn(FieldPath.documentId(), chunk).get());
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                Course course = document.toObject(Course.class);
+                if (course != null) {
+                    compactCourse(course, document.getId());
+                    Timestamp updatedAt = document.getTimestamp(SyncFields.UPDATED_AT);
+                    rows.add(new ReadModelStore.Row(document.getId(), course,
+                            updatedAt != null ? updatedAt.toDate().getTime() : 0));
+                }
+            }
+        }
+        store.write(COURSES_COLLECTION, studentId, rows, staleIds(stored, new HashSet<>(courseIds)), null);
+    }
+
+    // Names are read for new instructors, or for all of them when the courses were read in full
+    private Void pullInstructorNames(String studentId, boolean refreshAll) throws Exception {
+        Set<String> instructorIds = new HashSet<>();
+        for (Course course : store.load(COURSES_COLLECTION, studentId, Course.class).values()) {
+            if (course.getInstructorId() != null) {
+                instructorIds.add(course.getInstructorId());
+            }
+        }
+        Set<String> known = store.getVersions(INSTRUCTOR_NAMES, studentId).keySet();
+        List<String> wanted = new ArrayList<>();
+        for (String instructorId : instructorIds) {
+            if (refreshAll || !known.contains(instructorId)) {
+                wanted.add(instructorId);
+            }
+        }
+
+        List<ReadModelStore.Row> rows = new ArrayList<>();
+        for (List<String> chunk : BatchDocumentLoader.partition(wanted, BatchDocumentLoader.MAX_IDS_PER_QUERY)) {
+            QuerySnapshot snapshot = Tasks.await(firestore.collection(USERS_COLLECTION)
+                    .whereIn(FieldPath.documentId(), chunk).get());
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                String name = document.getString("name");
+                if (name != null) {
+                    rows.add(new ReadModelStore.Row(document.getId(), name, 0));
+                }
+            }
+        }
+        store.write(INSTRUCTOR_NAMES, studentId, rows, staleIds(known, instructorIds), null);
+        return null;
+    }
+
+    // Everything the screens need, read from disk
+    private StudentData readSnapshot(String studentId, boolean fresh) {
+        String[] enrolled = store.load(ENROLLMENTS, studentId, String[].class).get(studentId);
+        if (enrolled == null) {
+            return new StudentData(null, Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(),
+                    Collections.emptyList(), Collections.emptyList(), Collections.emptyMap(), fresh);
+        }
+
+        Map<String, Course> storedCourses = store.load(COURSES_COLLECTION, studentId, Course.class);
+        List<Course> courses = new ArrayList<>();
+        List<Session> upcoming = new ArrayList<>();
+        Date now = new Date();
+        for (String courseId : enrolled) {
+            Course course = storedCourses.get(courseId);
+            if (course != null) {
+                courses.add(course);
+            }
+            for (Session session : store.load(SESSIONS_COLLECTION, courseId, Session.class).values()) {
+                if (session.getEndTime() != null && session.getEndTime().after(now)
+                        && session.getStatus() != Session.SessionStatus.CANCELLED) {
+                    session.updateStatus();
+                    upcoming.add(session);
+                }
+            }
+        }
+        Collections.sort(upcoming, (a, b) -> compareDates(a.getStartTime(), b.getStartTime()));
+
+        Map<String, AttendanceSummary> summariesByCourse = new HashMap<>();
+        for (AttendanceSummary summary : store.load(SUMMARIES_COLLECTION, studentId, AttendanceSummary.class).values()) {
+            summariesByCourse.put(summary.getCourseId(), summary);
+        }
+
+        List<AttendanceRecord> recent = new ArrayList<>(
+                store.load(RECENT_ATTENDANCE, studentId, AttendanceRecord.class).values());
+        // Newest first, like the history pages
+        Collections.sort(recent, (a, b) -> compareDates(b.getTimestamp(), a.getTimestamp()));
+
+        return new StudentData(listOf(enrolled), courses, summariesByCourse,
+                store.load(INSTRUCTOR_NAMES, studentId, String.class), upcoming, recent,
+                store.load(SESSION_TITLES, studentId, String.class), fresh);
+    }
+
+    // The roster of every classmate is not needed on the student's device
+    private static void compactCourse(Course course, String courseId) {
+        course.setCourseId(courseId);
+        course.setEnrolledStudentIds(new ArrayList<>());
+    }
+
+    private static List<String> staleIds(Collection<String> stored, Set<String> kept) {
+        List<String> stale = new ArrayList<>();
+        for (String id : stored) {
+            if (!kept.contains(id)) {
+                stale.add(id);
+            }
+        }
+        return stale;
+    }
+
+    private static List<String> listOf(String[] ids) {
+        List<String> list = new ArrayList<>(ids.length);
+        Collections.addAll(list, ids);
+        return list;
+    }
+
+    private static int compareDates(Date a, Date b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * What the student screens show, as stored on the device
+     */
+    public static class StudentData {
+        private final List<String> enrolledCourseIds;
+        private final List<Course> courses;
+        private final Map<String, AttendanceSummary> summariesByCourse;
+        private final Map<String, String> instructorNames;
+        private final List<Session> upcomingSessions;
+        private final List<AttendanceRecord> recentAttendance;
+        private final Map<String, String> sessionTitles;
+        private final boolean fresh;
+
+        StudentData(List<String> enrolledCourseIds, List<Course> courses,
+                    Map<String, AttendanceSummary> summariesByCourse, Map<String, String> instructorNames,
+                    List<Session> upcomingSessions, List<AttendanceRecord> recentAttendance,
+                    Map<String, String> sessionTitles, boolean fresh) {
+            this.enrolledCourseIds = enrolledCourseIds;
+            this.courses = courses;
+            this.summariesByCourse = summariesByCourse;
+            this.instructorNames = instructorNames;
+            this.upcomingSessions = upcomingSessions;
+            this.recentAttendance = recentAttendance;
+            this.sessionTitles = sessionTitles;
+            this.fresh = fresh;
+        }
+
+        StudentData asFresh() {
+            return new StudentData(enrolledCourseIds, courses, summariesByCourse, instructorNames,
+                    upcomingSessions, recentAttendance, sessionTitles, true);
+        }
+
+        // False before the first refresh of this student has finished
+        public boolean hasData() {
+            return enrolledCourseIds != null;
+        }
+
+        // Whether this is the result of a refresh rather than the copy read before it
+        public boolean isFresh() {
+            return fresh;
+        }
+
+        public List<String> getEnrolledCourseIds() {
+            return enrolledCourseIds;
+        }
+
+        // Courses the student is enrolled in, in enrollment order
+        public List<Course> getCourses() {
+            return courses;
+        }
+
+        public Map<String, AttendanceSummary> getSummariesByCourse() {
+            return summariesByCourse;
+        }
+
+        // Instructor ID to name
+        public Map<String, String> getInstructorNames() {
+            return instructorNames;
+        }
+
+        // Sessions of the student's courses that have not ended, soonest first
+        public List<Session> getUpcomingSessions() {
+            return upcomingSessions;
+        }
+
+        // First page of the attendance history as last shown, newest first
+        public List<AttendanceRecord> getRecentAttendance() {
+            return recentAttendance;
+        }
+
+        // Session ID to title for the recent attendance
+        public Map<String, String> getSessionTitles() {
+            return sessionTitles;
+        }
+    }
+
+    // Callback interfaces
+    public interface OnStudentDataListener {
+        void onData(StudentData data);
+        void onFailure(String errorMessage);
+    }
+}
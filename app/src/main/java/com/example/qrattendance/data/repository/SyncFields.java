@@ -0,0 +1,74 @@
+package com.example.qrattendance.data.repository;
+
+import com.google.firebase.firestore.FieldValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fields that let devices pull only what changed since their last sync.
+ * Writers stamp {@link #UPDATED_AT} with the server time of the write; readers keep the highest
+ * value they have seen as a watermark and later ask only for documents at or after it.
+ *
+ * A deleted document cannot be found by such a query, so deletes of synced documents also write a
+ * tombstone: a document in {@link #TOMBSTONES_COLLECTION} naming the deleted document, stamped
+ * with the time of the delete. Tombstones are deleted {@link #TOMBSTONE_TTL_MS} after that by the
+ * expiry sweep; a device whose last sync is older reads its scopes in full instead.
+ */
+public final class SyncFields {
+    public static final String UPDATED_AT = "updatedAt";
+
+    public static final String TOMBSTONES_COLLECTION = "tombstones";
+    public static final String TOMBSTONE_COLLECTION = "collection";
+    public static final String TOMBSTONE_DOCUMENT_ID = "documentId";
+    public static final String DELETED_AT = "deletedAt";
+    public static final long TOMBSTONE_TTL_MS = 31L * 24 * 60 * 60_000;
+
+    private SyncFields() {
+    }
+
+    /**
+     * Stamp a set or update with the server time of the write
+     *
+     * @param data Fields of the write, modified in place
+     * @return The same map
+     */
+    public static Map<String, Object> touch(Map<String, Object> data) {
+        data.put(UPDATED_AT, FieldValue.serverTimestamp());
+        return data;
+    }
+
+    // Value to pass after a field in update(field, value, moreFieldsAndValues...) calls
+    public static Object now() {
+        return FieldValue.serverTimestamp();
+    }
+
+    /**
+     * Tombstone of a deleted document, write it in the same batch as the delete
+     *
+     * @param path Path of the deleted document, e.g. "courses/abc"
+     * @return Tombstone document and its fields
+     */
+    public static Tombstone tombstone(String path) {
+        int slash = path.lastIndexOf('/');
+        String collection = path.substring(0, slash);
+        String documentId = path.substring(slash + 1);
+
+        Map<String, Object> data = new HashMap<>();
+        data.put(TOMBSTONE_COLLECTION, collection);
+        data.put(TOMBSTONE_DOCUMENT_ID, documentId);
+        data.put(DELETED_AT, FieldValue.serverTimestamp());
+        // One tombstone per document, deleting twice does not add another
+        return new Tombstone(TOMBSTONES_COLLECTION + "/" + collection.replace('/', '_') + "_" + documentId, data);
+    }
+
+    public static final class Tombstone {
+        public final String path;
+        public final Map<String, Object> data;
+
+        private Tombstone(String path, Map<String, Object> data) {
+            this.path = path;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.qrattendance.data.repository;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cursor-based pages of users for the admin list, merged from one or more ordered queries.
+ * Browsing uses a single query ordered by name; a search runs one prefix query per search field
+ * and each page takes the next rows of every query that still has some, keeping the users that
+ * were not already returned by another query. Each page is sorted by name.
+ *
+ * Firestore queries cannot be aborted, so {@link #cancel()} only stops results that arrive
+ * afterwards from reaching the listener. Not thread-safe, use from the main thread.
+ */
+public class UserPager {
+    private static final String TAG = "UserPager";
+
+    private final List<Source> sources = new ArrayList<>();
+    private final int pageSize;
+    private final Set<String> seenIds = new HashSet<>();
+    private final List<Map<String, Object>> users = new ArrayList<>();
+    private boolean loading;
+    private boolean endReached;
+    private boolean cancelled;
+
+    /**
+     * @param queries  Ordered queries, limits and cursors are added per page
+     * @param pageSize Number of rows read from each query per page
+     */
+    UserPager(List<Query> queries, int pageSize) {
+        for (Query query : queries) {
+            sources.add(new Source(query));
+        }
+        this.pageSize = pageSize;
+        endReached = sources.isEmpty();
+    }
+
+    /**
+     * Load the page after the last loaded one. Ignored while a page is loading, once the end is
+     * reached or after the pager was cancelled.
+     */
+    public void loadNextPage(OnPageLoadListener listener) {
+        if (loading || endReached || cancelled) {
+            return;
+        }
+        loading = true;
+
+        List<Source> pending = new ArrayList<>();
+        List<Task<QuerySnapshot>> tasks = new ArrayList<>();
+        for (Source source : sources) {
+            if (!source.exhausted) {
+                Query page = source.lastDocument != null ? source.query.startAfter(source.lastDocument) : source.query;
+                pending.add(source);
+                tasks.add(page.limit(pageSize).get());
+            }
+        }
+
+        Tasks.whenAllSuccess(tasks)
+                .addOnSuccessListener(snapshots -> {
+                    if (cancelled) {
+                        return;
+                    }
+                    List<Map<String, Object>> pageUsers = new ArrayList<>();
+                    for (int i = 0; i < pending.size(); i++) {
+                        Source source = pending.get(i);
+                        List<DocumentSnapshot> documents = ((QuerySnapshot) snapshots.get(i)).getDocuments();
+                        for (DocumentSnapshot document : documents) {
+                            Map<String, Object> userData = document.getData();
+                            // A user can match several search fields
+                            if (userData != null && seenIds.add(document.getId())) {
+                                userData.put("userId", document.getId());
+                                pageUsers.add(userData);
+                            }
+                        }
+                        if (!documents.isEmpty()) {
+                            source.lastDocument = documents.get(documents.size() - 1);
+                        }
+                        // A short page is the last one of its query
+                        source.exhausted = documents.size() < pageSize;
+                    }
+
+                    Collections.sort(pageUsers, (a, b) -> UserSearchFields.normalize((String) a.get("name"))
+                            .compareTo(UserSearchFields.normalize((String) b.get("name"))));
+                    endReached = true;
+                    for (Source source : sources) {
+                        endReached &= source.exhausted;
+                    }
+                    users.addAll(pageUsers);
+                    loading = false;
+
+                    listener.onPageLoaded(pageUsers, getUsers(), endReached);
+                })
+                .addOnFailureListener(e -> {
+                    loading = false;
+                    if (cancelled) {
+                        return;
+                    }
+                    Log.e(TAG, "Failed to load users page", e);
+                    listener.onFailure("Failed to load users: " + e.getMessage());
+                });
+    }
+
+    /**
+     * Stop delivering results, e.g. when the search text or role filter changed
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Every user loaded so far, in the order they were shown
+    public List<Map<String, Object>> getUsers() {
+        return Collections.unmodifiableList(new ArrayList<>(users));
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public boolean isEndReached() {
+        return endReached;
+    }
+
+    // One ordered query and how far it has been read
+    private static class Source {
+        final Query query;
+        DocumentSnapshot lastDocument;
+        boolean exhausted;
+
+        Source(Query query) {
+            this.query = query;
+        }
+    }
+
+    // Callback interfaces
+    public interface OnPageLoadListener {
+        void onPageLoaded(List<Map<String, Object>> page, List<Map<String, Object>> allUsers, boolean endReached);
+        void onFailure(String errorMessage);
+    }
+}
@@ -1,33 +1,55 @@
 package com.example.qrattendance.data.repository;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import com.example.qrattendance.data.model.User;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.WriteBatch;
 
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class UserRepository {
     private static final String TAG = "UserRepository";
     private static final String USERS_COLLECTION = "users";
+    private static final int BACKFILL_PAGE_SIZE = 250;
 
     private static UserRepository instance;
     private final FirebaseFirestore firestore;
+    private final EntityCache entityCache;
     private final MutableLiveData<Boolean> isLoading = new MutableLiveData<>(false);
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // One import or search field rebuild at a time runs here, Firestore callbacks of imports run on the other
+    private final ExecutorService importExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+    // The running import outlives the activity that started it when the screen is rotated
+    private RosterImporter runningImport;
+    private OnImportListener importListener;
+    private RosterImporter.Report unreportedImport;
 
     // Private constructor for singleton pattern
     private UserRepository() {
         firestore = FirebaseFirestore.getInstance();
+        entityCache = EntityCache.getInstance();
     }
 
     // Get singleton instance
@@ -49,46 +71,50 @@ public class UserRepository {
     }
 
     /**
-     * Fetch all users or filter by role
+     * Fetch all users or filter by role.
+     * Users are kept on the device per role, only users changed since the last fetch are read;
+     * timestamps come back as epoch milliseconds.
      *
      * @param userRole "ALL", "STUDENT", "INSTRUCTOR", or "ADMIN"
      * @param listener callback for results
      */
     public void fetchUsers(String userRole, OnUsersLoadedListener listener) {
-        isLoading.setValue(true);
-
-        Query query = firestore.collection(USERS_COLLECTION);
+        fetchUsers(userRole, "Failed to load users: ", listener);
+    }
 
-        // Apply role filter if specified
+    /**
+     * Page through users, by name or by search text.
+     * With search text, users whose name, email or roll number starts with it are returned, matched
+     * on the normalized copies kept by {@link UserSearchFields}. Users saved before those fields
+     * existed are only found once {@link #rebuildSearchFields} has run.
+     *
+     * @param userRole   "ALL", "STUDENT", "INSTRUCTOR", or "ADMIN"
+     * @param searchText Text typed by the user, empty to list everyone
+     * @param pageSize   Number of rows read from each query per page
+     * @return Pager positioned before the first page
+     */
+    public UserPager pageUsers(String userRole, String searchText, int pageSize) {
+        Query base = firestore.collection(USERS_COLLECTION);
         if (userRole != null && !userRole.equals("ALL")) {
-            query = query.whereEqualTo("role", userRole);
+            base = base.whereEqualTo("role", userRole);
         }
 
-        query.get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<Map<String, Object>> users = new ArrayList<>();
-
-                    for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                        Map<String, Object> userData = document.getData();
-                        userData.put("userId", document.getId());
-                        users.add(userData);
-                    }
-
-                    isLoading.setValue(false);
-                    if (listener != null) {
-                        listener.onUsersLoaded(users);
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    String errorMsg = "Failed to load users: " + e.getMessage();
-                    Log.e(TAG, errorMsg);
-                    errorMessage.setValue(errorMsg);
-                    isLoading.setValue(false);
-
-                    if (listener != null) {
-                        listener.onError(errorMsg);
-                    }
-                });
+        String prefix = UserSearchFields.normalize(searchText);
+        List<Query> queries = new ArrayList<>();
+        if (prefix.isEmpty()) {
+            queries.add(base.orderBy("name"));
+        } else {
+            for (String[] field : UserSearchFields.FIELDS) {
+                // Names and roll numbers never contain '@', no need to ask
+                if (prefix.indexOf('@') >= 0 && !field[1].equals(UserSearchFields.EMAIL)) {
+                    continue;
+                }
+                queries.add(base.whereGreaterThanOrEqualTo(field[1], prefix)
+                        .whereLessThan(field[1], UserSearchFields.prefixEnd(prefix))
+                        .orderBy(field[1]));
+            }
+        }
+        return new UserPager(queries, pageSize);
     }
 
     /**
@@ -97,35 +123,62 @@ public class UserRepository {
      * @param listener callback for results
      */
     public void fetchInstructors(OnUsersLoadedListener listener) {
+        fetchUsers("INSTRUCTOR", "Failed to load instructors: ", listener);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fetchUsers(String userRole, String errorPrefix, OnUsersLoadedListener listener) {
         isLoading.setValue(true);
 
-        firestore.collection(USERS_COLLECTION)
-                .whereEqualTo("role", "INSTRUCTOR")
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<Map<String, Object>> instructors = new ArrayList<>();
-
-                    for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                        Map<String, Object> userData = document.getData();
-                        userData.put("userId", document.getId());
-                        instructors.add(userData);
-                    }
+        Query query = firestore.collection(USERS_COLLECTION);
+        CollectionSync.DocumentFilter inRole = document -> true;
 
-                    isLoading.setValue(false);
-                    if (listener != null) {
-                        listener.onUsersLoaded(instructors);
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    String errorMsg = "Failed to load instructors: " + e.getMessage();
-                    Log.e(TAG, errorMsg);
-                    errorMessage.setValue(errorMsg);
-                    isLoading.setValue(false);
+        // Apply role filter if specified
+        if (userRole != null && !userRole.equals("ALL")) {
+            query = query.whereEqualTo("role", userRole);
+            inRole = document -> userRole.equals(document.getString("role"));
+        }
 
-                    if (listener != null) {
-                        listener.onError(errorMsg);
-                    }
-                });
+        // A user whose role changed no longer matches the role query, look at every changed user
+        CollectionSync.Scope<Map<String, Object>> users = new CollectionSync.Scope<>(USERS_COLLECTION,
+                userRole != null ? userRole : "ALL", (Class<Map<String, Object>>) (Class<?>) Map.class,
+                query, UserRepository::userData)
+                .changedSince(since -> firestore.collection(USERS_COLLECTION)
+                        .whereGreaterThanOrEqualTo(SyncFields.UPDATED_AT, since))
+                .filter(inRole);
+
+        CollectionSync.getInstance().load(users, (result, error) -> {
+            isLoading.setValue(false);
+            if (error != null) {
+                String errorMsg = errorPrefix + error.getMessage();
+                Log.e(TAG, errorMsg);
+                errorMessage.setValue(errorMsg);
+
+                if (listener != null) {
+                    listener.onError(errorMsg);
+                }
+                return;
+            }
+
+            if (listener != null) {
+                listener.onUsersLoaded(result);
+            }
+        });
+    }
+
+    // Document fields with the user ID, timestamps as Dates so they can be stored
+    private static Map<String, Object> userData(DocumentSnapshot document) {
+        Map<String, Object> userData = document.getData();
+        if (userData == null) {
+            return null;
+        }
+        for (Map.Entry<String, Object> field : userData.entrySet()) {
+            if (field.getValue() instanceof Timestamp) {
+                field.setValue(((Timestamp) field.getValue()).toDate());
+            }
+        }
+        userData.put("userId", document.getId());
+        return userData;
     }
 
     /**
@@ -137,8 +190,7 @@ public class UserRepository {
     public void getUserById(String userId, OnUserLoadedListener listener) {
         isLoading.setValue(true);
 
-        firestore.collection(USERS_COLLECTION).document(userId)
-                .get()
+        entityCache.get(firestore.collection(USERS_COLLECTION).document(userId))
                 .addOnSuccessListener(documentSnapshot -> {
                     isLoading.setValue(false);
 
@@ -190,8 +242,9 @@ public class UserRepository {
         isLoading.setValue(true);
 
         firestore.collection(USERS_COLLECTION).document(userId)
-                .update(updateData)
+                .update(SyncFields.touch(UserSearchFields.addTo(new HashMap<>(updateData))))
                 .addOnSuccessListener(aVoid -> {
+                    entityCache.invalidate(firestore.collection(USERS_COLLECTION).document(userId));
                     isLoading.setValue(false);
 
                     if (listener != null) {
@@ -220,9 +273,13 @@ public class UserRepository {
         isLoading.setValue(true);
 
         firestore.collection(USERS_COLLECTION)
-                .add(userData)
+                .add(SyncFields.touch(UserSearchFields.addTo(new HashMap<>(userData))))
                 .addOnSuccessListener(documentReference -> {
                     isLoading.setValue(false);
+                    StatsRepository.Stat stat = StatsRepository.forRole(userData.get("role"));
+                    if (stat != null) {
+                        StatsRepository.getInstance().adjust(stat, 1);
+                    }
 
                     if (listener != null) {
                         listener.onSuccess(documentReference.getId());
@@ -240,6 +297,173 @@ public class UserRepository {
                 });
     }
 
+    /**
+     * Import students and course rosters from a CSV or TSV file.
+     * The file is read on a background thread; progress and the final report are posted to the
+     * main thread. See {@link RosterImporter} for the expected columns.
+     *
+     * @param input    File contents, closed when the import ends
+     * @param listener callback for progress and the final report
+     * @return The running import, to cancel it
+     */
+    public RosterImporter importRoster(Reader input, OnImportListener listener) {
+        RosterImporter importer = new RosterImporter(new FirestoreImportStore(),
+                (rowsRead, rowsDone, rowsPerSecond) -> mainHandler.post(() -> {
+                    if (importListener != null) {
+                        importListener.onProgress(rowsRead, rowsDone, rowsPerSecond);
+                    }
+                }));
+        runningImport = importer;
+        importListener = listener;
+        unreportedImport = null;
+
+        isLoading.setValue(true);
+        importExecutor.execute(() -> {
+            RosterImporter.Report report = importer.run(input);
+            Log.i(TAG, "Roster import: " + report);
+            mainHandler.post(() -> {
+                isLoading.setValue(false);
+                StatsRepository.getInstance().adjust(StatsRepository.Stat.STUDENTS, report.getCreated());
+                OnImportListener current = importListener;
+                runningImport = null;
+                importListener = null;
+                if (current != null) {
+                    current.onComplete(report);
+                } else {
+                    unreportedImport = report;
+                }
+            });
+        });
+        return importer;
+    }
+
+    /**
+     * Take over the callbacks of an import started before the activity was recreated.
+     * If the import finished while nothing was attached, its report is delivered right away.
+     * Call on the main thread.
+     *
+     * @param listener callback for progress and the final report
+     * @return The running import, or null if none is running
+     */
+    public RosterImporter attachImport(OnImportListener listener) {
+        if (runningImport != null) {
+            importListener = listener;
+        } else if (unreportedImport != null) {
+            RosterImporter.Report report = unreportedImport;
+            unreportedImport = null;
+            listener.onComplete(report);
+        }
+        return runningImport;
+    }
+
+    // Stop posting import callbacks to a listener that is going away, keeping the import running
+    public void detachImport() {
+        importListener = null;
+    }
+
+    /**
+     * Write the normalized search fields on every user that lacks them or has stale ones,
+     * e.g. users created before search existed or edited outside the app.
+     * Only changed documents are written, so it can safely be run again if interrupted.
+     *
+     * @param listener callback for the result, invoked on the main thread
+     */
+    public void rebuildSearchFields(OnRebuildListener listener) {
+        isLoading.setValue(true);
+        importExecutor.execute(() -> {
+            try {
+                DocumentSnapshot lastDoc = null;
+                int updated = 0;
+                while (true) {
+                    Query query = firestore.collection(USERS_COLLECTION)
+                            .orderBy(FieldPath.documentId())
+                            .limit(BACKFILL_PAGE_SIZE);
+                    if (lastDoc != null) {
+                        query = query.startAfter(lastDoc);
+                    }
+                    List<DocumentSnapshot> docs = Tasks.await(query.get()).getDocuments();
+                    if (docs.isEmpty()) {
+                        break;
+                    }
+
+                    // A page is smaller than the 500 writes a batch allows
+                    WriteBatch batch = firestore.batch();
+                    int pending = 0;
+                    for (DocumentSnapshot doc : docs) {
+                        Map<String, Object> data = doc.getData();
+                        if (data != null && !UserSearchFields.isCurrent(data)) {
+                            batch.update(doc.getReference(), SyncFields.touch(UserSearchFields.of(data)));
+                            pending++;
+                        }
+                    }
+                    if (pending > 0) {
+                        Tasks.await(batch.commit());
+                        updated += pending;
+                    }
+                    lastDoc = docs.get(docs.size() - 1);
+                }
+
+                int total = updated;
+                Log.d(TAG, "Search fields rebuilt for " + total + " users");
+                mainHandler.post(() -> {
+                    isLoading.setValue(false);
+                    listener.onComplete(total);
+                });
+            } catch (Exception e) {
+                String errorMsg = "Failed to rebuild search fields: " + e.getMessage();
+                Log.e(TAG, errorMsg, e);
+                mainHandler.post(() -> {
+                    errorMessage.setValue(errorMsg);
+                    isLoading.setValue(false);
+                    listener.onError(errorMsg);
+                });
+            }
+        });
+    }
+
+    // Runs roster imports against Firestore, callbacks stay off the main thread
+    private class FirestoreImportStore implements RosterImporter.Store {
+
+        @Override
+        public void find(String collection, String field, List<String> values,
+                         RosterImporter.Callback<Map<String, Map<String, Object>>> callback) {
+            firestore.collection(collection)
+                    .whereIn(field, values)
+                    .get()
+                    .addOnSuccessListener(callbackExecutor, querySnapshot -> {
+                        Map<String, Map<String, Object>> found = new HashMap<>();
+                        for (QueryDocumentSnapshot document : querySnapshot) {
+                            found.put(document.getId(), document.getData());
+                        }
+                        callback.onComplete(found, null);
+                    })
+                    .addOnFailureListener(callbackExecutor, e -> callback.onComplete(null, e));
+        }
+
+        @Override
+        public String newDocumentId(String collection) {
+            return firestore.collection(collection).document().getId();
+        }
+
+        @Override
+        public void commit(List<RosterImporter.Write> writes, RosterImporter.Callback<Void> callback) {
+            WriteBatch batch = firestore.batch();
+            for (RosterImporter.Write write : writes) {
+                DocumentReference ref = firestore.document(write.path);
+                if (write.type == RosterImporter.Write.Type.CREATE) {
+                    batch.set(ref, SyncFields.touch(new HashMap<>(write.data)));
+                } else {
+                    batch.update(ref, write.field, FieldValue.arrayUnion(write.values.toArray()),
+                            SyncFields.UPDATED_AT, SyncFields.now());
+                    entityCache.invalidate(ref);
+                }
+            }
+            batch.commit()
+                    .addOnSuccessListener(callbackExecutor, aVoid -> callback.onComplete(null, null))
+                    .addOnFailureListener(callbackExecutor, e -> callback.onComplete(null, e));
+        }
+    }
+
     // Listener interfaces
     public interface OnUsersLoadedListener {
         void onUsersLoaded(List<Map<String, Object>> users);
@@ -264,4 +488,16 @@ public class UserRepository {
 
         void onError(String errorMessage);
     }
-}
\ No newline at end of file
+
+    public interface OnImportListener {
+        void onProgress(int rowsRead, int rowsDone, double rowsPerSecond);
+
+        void onComplete(RosterImporter.Report report);
+    }
+
+    public interface OnRebuildListener {
+        void onComplete(int usersUpdated);
+
+        void onError(String errorMessage);
+    }
+}
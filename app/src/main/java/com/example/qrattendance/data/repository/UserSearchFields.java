@@ -0,0 +1,98 @@
+package com.example.qrattendance.data.repository;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Normalized copies of the user fields the admin search matches on.
+ * Firestore compares strings byte by byte, so prefix search needs a stored copy that is already
+ * lowercase and accent-free; the search text is normalized the same way before querying.
+ * Every write of name, email or roll number should pass through {@link #addTo(Map)}.
+ */
+public final class UserSearchFields {
+    public static final String NAME = "nameLower";
+    public static final String EMAIL = "emailLower";
+    public static final String ROLL_NUMBER = "rollNumberLower";
+
+    // Source field and its normalized copy, in the order they are searched
+    static final String[][] FIELDS = {
+            {"name", NAME},
+            {"email", EMAIL},
+            {"rollNumber", ROLL_NUMBER}
+    };
+
+    // Sorts after every other character a prefix can be followed by
+    private static final char PREFIX_END = '\uf8ff';
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private UserSearchFields() {
+    }
+
+    /**
+     * Lowercase, accent-free form with single spaces, used both for stored fields and search text
+     *
+     * @return Normalized text, empty for null
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text.trim(), Normalizer.Form.NFD);
+        String unaccented = MARKS.matcher(decomposed).replaceAll("");
+        return WHITESPACE.matcher(unaccented.toLowerCase(Locale.ROOT)).replaceAll(" ");
+    }
+
+    // Upper bound (exclusive) of the values starting with a normalized prefix
+    static String prefixEnd(String prefix) {
+        return prefix + PREFIX_END;
+    }
+
+    /**
+     * Add the normalized copy of every searchable field present in a user write
+     *
+     * @param data Fields of a set or update, modified in place
+     * @return The same map
+     */
+    public static Map<String, Object> addTo(Map<String, Object> data) {
+        data.putAll(of(data));
+        return data;
+    }
+
+    /**
+     * Normalized copies of the searchable fields present in a user document or write
+     *
+     * @param data Fields of the user
+     * @return Search field name to normalized value, null where the source value is not text
+     */
+    static Map<String, Object> of(Map<String, Object> data) {
+        Map<String, Object> fields = new HashMap<>();
+        for (String[] field : FIELDS) {
+            if (data.containsKey(field[0])) {
+                Object value = data.get(field[0]);
+                fields.put(field[1], value instanceof String ? normalize((String) value) : null);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Check whether a stored user document has up-to-date search fields
+     *
+     * @param data Stored fields of the user
+     * @return True when every searchable field has its matching normalized copy
+     */
+    static boolean isCurrent(Map<String, Object> data) {
+        for (String[] field : FIELDS) {
+            Object value = data.get(field[0]);
+            if (value instanceof String && !Objects.equals(normalize((String) value), data.get(field[1]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
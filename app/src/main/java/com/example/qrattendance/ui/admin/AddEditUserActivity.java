@@ -25,7 +25,9 @@ import androidx.appcompat.widget.Toolbar;
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Admin;
 import com.example.qrattendance.data.repository.AuthRepository;
+import com.example.qrattendance.data.repository.SyncFields;
 import com.example.qrattendance.data.repository.UserRepository;
+import com.example.qrattendance.data.repository.UserSearchFields;
 import com.example.qrattendance.util.SessionManager;
 import com.example.qrattendance.util.UIHelper;
 import com.google.android.material.textfield.TextInputEditText;
@@ -456,7 +458,6 @@ public class AddEditUserActivity extends AppCompatActivity {
             userData.put("semester", etSemester.getText().toString().trim());
             userData.put("batch", etBatch.getText().toString().trim());
             userData.put("enrolledCourseIds", new ArrayList<String>());
-            userData.put("attendanceRecordIds", new ArrayList<String>());
         } else if (userRole.equals("INSTRUCTOR")) {
             userData.put("employeeId", etEmployeeId.getText().toString().trim());
             userData.put("department", etInstructorDepartment.getText().toString().trim());
@@ -492,7 +493,7 @@ public class AddEditUserActivity extends AppCompatActivity {
 
                     // Now add to Firestore
                     FirebaseFirestore.getInstance().collection("users").document(newUserId)
-                            .set(userData)
+                            .set(SyncFields.touch(UserSearchFields.addTo(userData)))
                             .addOnSuccessListener(aVoid -> {
                                 progressBar.setVisibility(View.GONE);
                                 Toast.makeText(AddEditUserActivity.this,
@@ -546,9 +547,6 @@ public class AddEditUserActivity extends AppCompatActivity {
                 if (userData.containsKey("enrolledCourseIds")) {
                     updateData.put("enrolledCourseIds", userData.get("enrolledCourseIds"));
                 }
-                if (userData.containsKey("attendanceRecordIds")) {
-                    updateData.put("attendanceRecordIds", userData.get("attendanceRecordIds"));
-                }
             }
         } else if (userRole.equals("INSTRUCTOR")) {
             updateData.put("employeeId", etEmployeeId.getText().toString().trim());
@@ -8,20 +8,42 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Course;
 import com.example.qrattendance.data.repository.UserRepository;
+import com.example.qrattendance.ui.common.StableIds;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
-public class AdminCourseAdapter extends RecyclerView.Adapter<AdminCourseAdapter.CourseViewHolder> {
+public class AdminCourseAdapter extends ListAdapter<Course, AdminCourseAdapter.CourseViewHolder> {
+
+    private static final DiffUtil.ItemCallback<Course> DIFF_CALLBACK = new DiffUtil.ItemCallback<Course>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Course oldItem, @NonNull Course newItem) {
+            return Objects.equals(oldItem.getCourseId(), newItem.getCourseId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Course oldItem, @NonNull Course newItem) {
+            return Objects.equals(oldItem.getCourseCode(), newItem.getCourseCode())
+                    && Objects.equals(oldItem.getCourseName(), newItem.getCourseName())
+                    && Objects.equals(oldItem.getDepartment(), newItem.getDepartment())
+                    && Objects.equals(oldItem.getInstructorId(), newItem.getInstructorId())
+                    && Objects.equals(oldItem.getEnrolledStudentIds(), newItem.getEnrolledStudentIds())
+                    && oldItem.isActive() == newItem.isActive();
+        }
+    };
 
-    private List<Course> courses;
     private final CourseActionListener listener;
+    private final StableIds stableIds = new StableIds();
     private final UserRepository userRepository;
     private final Map<String, String> instructorCache = new HashMap<>();
 
@@ -32,14 +54,29 @@ public class AdminCourseAdapter extends RecyclerView.Adapter<AdminCourseAdapter.
     }
 
     public AdminCourseAdapter(List<Course> courses, CourseActionListener listener) {
-        this.courses = courses;
+        super(DIFF_CALLBACK);
         this.listener = listener;
         this.userRepository = UserRepository.getInstance();
+        setHasStableIds(true);
+        submitList(new ArrayList<>(courses));
     }
 
     public void updateCourses(List<Course> newCourses) {
-        this.courses = newCourses;
-        notifyDataSetChanged();
+        submitList(new ArrayList<>(newCourses));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIds.idFor(getItem(position).getCourseId());
+    }
+
+    private void notifyInstructorLoaded(String instructorId) {
+        List<Course> courses = getCurrentList();
+        for (int i = 0; i < courses.size(); i++) {
+            if (instructorId.equals(courses.get(i).getInstructorId())) {
+                notifyItemChanged(i);
+            }
+        }
     }
 
     @NonNull
@@ -52,15 +89,10 @@ public class AdminCourseAdapter extends RecyclerView.Adapter<AdminCourseAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull CourseViewHolder holder, int position) {
-        Course course = courses.get(position);
+        Course course = getItem(position);
         holder.bind(course);
     }
 
-    @Override
-    public int getItemCount() {
-        return courses.size();
-    }
-
     class CourseViewHolder extends RecyclerView.ViewHolder {
         private final TextView tvCourseName;
         private final TextView tvCourseCode;
@@ -126,8 +158,8 @@ public class AdminCourseAdapter extends RecyclerView.Adapter<AdminCourseAdapter.
                             // Update cache
                             instructorCache.put(instructorId, displayText);
 
-                            // Update UI
-                            tvInstructor.setText("Instructor: " + displayText);
+                            // Rebind the rows of this instructor, this view may show another course by now
+                            notifyInstructorLoaded(instructorId);
                         }
 
                         @Override
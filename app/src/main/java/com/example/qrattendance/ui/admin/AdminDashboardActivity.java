@@ -16,16 +16,31 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
 
 import com.example.qrattendance.R;
+import com.example.qrattendance.data.local.AggregateReconcileWorker;
+import com.example.qrattendance.data.local.ExpirySweepWorker;
 import com.example.qrattendance.data.model.Admin;
+import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.data.repository.AttendanceRepository;
 import com.example.qrattendance.data.repository.AuthRepository;
+import com.example.qrattendance.data.repository.CourseRepository;
+import com.example.qrattendance.data.repository.SettingsRepository;
+import com.example.qrattendance.data.repository.ShardedCounter;
+import com.example.qrattendance.data.repository.StatsRepository;
 import com.example.qrattendance.ui.common.ProfileActivity;
 import com.example.qrattendance.util.SessionManager;
 
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 public class AdminDashboardActivity extends AppCompatActivity {
+    private static final int DEFAULT_MIN_ATTENDANCE = 75;
 
     private TextView tvWelcome;
     private TextView tvAdminId;
     private TextView tvAdminType;
+    private TextView tvAttendanceAlerts;
+    private TextView tvDashboardStats;
     private SessionManager sessionManager;
     private AuthRepository authRepository;
 
@@ -38,6 +53,7 @@ public class AdminDashboardActivity extends AppCompatActivity {
     private CardView cardBackup;
 
     private Admin currentAdmin;
+    private int alertsGeneration;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -60,12 +76,21 @@ public class AdminDashboardActivity extends AppCompatActivity {
         initViews();
         setupUserInfo();
         setupDashboardAccess();
+        loadAttendanceAlerts();
+        StatsRepository.getInstance().getStats().observe(this, this::showStats);
+
+        // Keep the attendance aggregates in line with the records
+        AggregateReconcileWorker.schedule(this);
+        // Switch off expired QR codes and move session statuses on in the background
+        ExpirySweepWorker.schedule(this);
     }
 
     private void initViews() {
         tvWelcome = findViewById(R.id.tvWelcomeAdmin);
         tvAdminId = findViewById(R.id.tvAdminId);
         tvAdminType = findViewById(R.id.tvAdminType);
+        tvAttendanceAlerts = findViewById(R.id.tvAttendanceAlerts);
+        tvDashboardStats = findViewById(R.id.tvDashboardStats);
 
         // Find all dashboard cards
         cardManageUsers = findViewById(R.id.cardManageUsers);
@@ -156,6 +181,103 @@ public class AdminDashboardActivity extends AppCompatActivity {
         }
     }
 
+    // Enrollments below the minimum attendance in the active courses, counted on the server per course
+    private void loadAttendanceAlerts() {
+        SettingsRepository.getInstance().getSystemSettings(new SettingsRepository.OnSettingsLoadedListener() {
+            @Override
+            public void onSettingsLoaded(Map<String, Object> settings) {
+                Object minimum = settings.get("minAttendancePercentage");
+                int minimumPercentage = minimum instanceof Number ? ((Number) minimum).intValue() : DEFAULT_MIN_ATTENDANCE;
+
+                CourseRepository courseRepository = CourseRepository.getInstance();
+                courseRepository.getAllCourses().observe(AdminDashboardActivity.this,
+                        courses -> countAttendanceAlerts(courses, minimumPercentage));
+                courseRepository.fetchAllActiveCourses();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                tvAttendanceAlerts.setVisibility(View.GONE);
+            }
+        });
+    }
+
+    private void countAttendanceAlerts(List<Course> courses, int minimumPercentage) {
+        // Counts of an older course list are dropped when they arrive
+        int generation = ++alertsGeneration;
+        long[] below = new long[1];
+        int[] pending = {courses.size()};
+        if (courses.isEmpty()) {
+            showAttendanceAlerts(0, minimumPercentage);
+            return;
+        }
+
+        for (Course course : courses) {
+            AttendanceRepository.getInstance().countStudentsBelowThreshold(course, minimumPercentage,
+                    new ShardedCounter.OnCountListener() {
+                        @Override
+                        public void onCount(long count) {
+                            below[0] += count;
+                            if (--pending[0] == 0 && generation == alertsGeneration) {
+                                showAttendanceAlerts(below[0], minimumPercentage);
+                            }
+                        }
+
+                        @Override
+                        public void onError(String errorMessage) {
+                            if (generation == alertsGeneration) {
+                                alertsGeneration++;
+                                tvAttendanceAlerts.setVisibility(View.GONE);
+                            }
+                        }
+                    });
+        }
+    }
+
+    private void showAttendanceAlerts(long enrollmentsBelow, int minimumPercentage) {
+        tvAttendanceAlerts.setText(String.format(Locale.getDefault(), "%d course %s below the %d%% minimum",
+                enrollmentsBelow, enrollmentsBelow == 1 ? "enrollment" : "enrollments", minimumPercentage));
+        tvAttendanceAlerts.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Only counts older than a minute are asked for again
+        StatsRepository.getInstance().refresh(false);
+    }
+
+    // Totals counted on the server, shown as each one arrives
+    private void showStats(Map<StatsRepository.Stat, Long> stats) {
+        if (stats.isEmpty()) {
+            tvDashboardStats.setVisibility(View.GONE);
+            return;
+        }
+
+        StringBuilder users = new StringBuilder();
+        appendStat(users, stats.get(StatsRepository.Stat.STUDENTS), "student", "students");
+        appendStat(users, stats.get(StatsRepository.Stat.INSTRUCTORS), "instructor", "instructors");
+        appendStat(users, stats.get(StatsRepository.Stat.ADMINS), "admin", "admins");
+        StringBuilder activity = new StringBuilder();
+        appendStat(activity, stats.get(StatsRepository.Stat.ACTIVE_COURSES), "active course", "active courses");
+        appendStat(activity, stats.get(StatsRepository.Stat.SESSIONS_TODAY), "session today", "sessions today");
+        appendStat(activity, stats.get(StatsRepository.Stat.SCANS_TODAY), "scan today", "scans today");
+
+        String text = users.length() > 0 && activity.length() > 0 ? users + "\n" + activity : users.toString() + activity;
+        tvDashboardStats.setText(text);
+        tvDashboardStats.setVisibility(View.VISIBLE);
+    }
+
+    private static void appendStat(StringBuilder line, Long count, String singular, String plural) {
+        if (count == null) {
+            return;
+        }
+        if (line.length() > 0) {
+            line.append(" • ");
+        }
+        line.append(String.format(Locale.getDefault(), "%,d %s", count, count == 1 ? singular : plural));
+    }
+
     private void manageUsers() {
         // Navigate to ManageUsersActivity
         Intent intent = new Intent(this, ManageUsersActivity.class);
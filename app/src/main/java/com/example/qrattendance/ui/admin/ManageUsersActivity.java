@@ -1,16 +1,26 @@
 package com.example.qrattendance.ui.admin;
 
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
@@ -21,20 +31,36 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Admin;
 import com.example.qrattendance.data.model.User;
+import com.example.qrattendance.data.repository.RosterImporter;
+import com.example.qrattendance.data.repository.UserPager;
 import com.example.qrattendance.data.repository.UserRepository;
+import com.example.qrattendance.ui.common.PagingScrollListener;
 import com.example.qrattendance.util.SessionManager;
 import com.example.qrattendance.util.UIHelper;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class ManageUsersActivity extends AppCompatActivity implements UserAdapter.UserActionListener {
+    private static final String[] ROSTER_MIME_TYPES = {
+            "text/csv", "text/comma-separated-values", "text/tab-separated-values", "text/plain"};
+    private static final int MAX_ERRORS_SHOWN = 20;
+    private static final int PAGE_SIZE = 25;
+    private static final int PREFETCH_DISTANCE = 10;
+    // Wait for a pause in typing before querying
+    private static final long SEARCH_DEBOUNCE_MS = 300;
 
     private Toolbar toolbar;
     private Spinner spinnerUserType;
+    private EditText etSearchUsers;
     private RecyclerView recyclerViewUsers;
     private TextView tvNoUsers;
     private ProgressBar progressBar;
@@ -44,6 +70,16 @@ public class ManageUsersActivity extends AppCompatActivity implements UserAdapte
     private Admin currentAdmin;
     private UserAdapter userAdapter;
     private String currentUserRole = "ALL"; // Default filter
+    private String currentSearchText = "";
+    private UserPager userPager;
+    private PagingScrollListener scrollListener;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::loadUsers;
+    private RosterImporter runningImport;
+    private AlertDialog importDialog;
+
+    private final ActivityResultLauncher<String[]> rosterPicker =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::importRoster);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,12 +101,20 @@ public class ManageUsersActivity extends AppCompatActivity implements UserAdapte
         initViews();
         setupRecyclerView();
         setupUserTypeSpinner();
+        setupSearch();
         loadUsers();
+
+        // Pick up an import that was running when the screen was rotated
+        runningImport = userRepository.attachImport(importListener);
+        if (runningImport != null) {
+            showImportDialog();
+        }
     }
 
     private void initViews() {
         toolbar = findViewById(R.id.toolbar);
         spinnerUserType = findViewById(R.id.spinnerUserType);
+        etSearchUsers = findViewById(R.id.etSearchUsers);
         recyclerViewUsers = findViewById(R.id.recyclerViewUsers);
         tvNoUsers = findViewById(R.id.tvNoUsers);
         progressBar = findViewById(R.id.progressBar);
@@ -97,8 +141,13 @@ public class ManageUsersActivity extends AppCompatActivity implements UserAdapte
 
     private void setupRecyclerView() {
         userAdapter = new UserAdapter(new ArrayList<>(), this);
-        recyclerViewUsers.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerViewUsers.setLayoutManager(layoutManager);
         recyclerViewUsers.setAdapter(userAdapter);
+
+        // Load the next page while the user is still a few rows away from the end
+        scrollListener = new PagingScrollListener(layoutManager, PREFETCH_DISTANCE, this::loadNextPage);
+        recyclerViewUsers.addOnScrollListener(scrollListener);
     }
 
     private void setupUserTypeSpinner() {
@@ -140,36 +189,92 @@ public class ManageUsersActivity extends AppCompatActivity implements UserAdapte
         });
     }
 
+    private void setupSearch() {
+        etSearchUsers.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String text = s.toString().trim();
+                if (text.equals(currentSearchText)) {
+                    return;
+                }
+                currentSearchText = text;
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+            }
+        });
+
+        // Search right away when the keyboard's search key is pressed
+        etSearchUsers.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId == EditorInfo.IME_ACTION_SEARCH) {
+                searchHandler.removeCallbacks(searchRunnable);
+                loadUsers();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    // Start over from the first page of the current role filter and search text
     private void loadUsers() {
-        progressBar.setVisibility(View.VISIBLE);
+        searchHandler.removeCallbacks(searchRunnable);
+        // Results of the previous filter may still arrive, they must not replace the new ones
+        if (userPager != null) {
+            userPager.cancel();
+        }
+        userPager = userRepository.pageUsers(currentUserRole, currentSearchText, PAGE_SIZE);
+
         tvNoUsers.setVisibility(View.GONE);
-        recyclerViewUsers.setVisibility(View.GONE);
+        loadNextPage();
+    }
 
-        // Fetch users based on the selected filter
-        userRepository.fetchUsers(currentUserRole, new UserRepository.OnUsersLoadedListener() {
+    private void loadNextPage() {
+        UserPager pager = userPager;
+        if (pager == null || pager.isLoading() || pager.isEndReached()) {
+            return;
+        }
+        progressBar.setVisibility(View.VISIBLE);
+
+        pager.loadNextPage(new UserPager.OnPageLoadListener() {
             @Override
-            public void onUsersLoaded(List<Map<String, Object>> users) {
+            public void onPageLoaded(List<Map<String, Object>> page, List<Map<String, Object>> allUsers, boolean endReached) {
                 progressBar.setVisibility(View.GONE);
 
-                if (users.isEmpty()) {
+                if (allUsers.isEmpty()) {
+                    tvNoUsers.setText(currentSearchText.isEmpty() ? "No users found"
+                            : "No users match \"" + currentSearchText + "\"");
                     tvNoUsers.setVisibility(View.VISIBLE);
                     recyclerViewUsers.setVisibility(View.GONE);
-                } else {
-                    tvNoUsers.setVisibility(View.GONE);
-                    recyclerViewUsers.setVisibility(View.VISIBLE);
-                    userAdapter.updateUsers(users);
+                    userAdapter.updateUsers(new ArrayList<>());
+                    return;
                 }
+
+                tvNoUsers.setVisibility(View.GONE);
+                recyclerViewUsers.setVisibility(View.VISIBLE);
+                // Check again once the rows are laid out, a short first page may not fill the screen
+                userAdapter.submitList(new ArrayList<>(allUsers), scrollListener::checkThreshold);
             }
 
             @Override
-            public void onError(String errorMessage) {
+            public void onFailure(String errorMessage) {
                 progressBar.setVisibility(View.GONE);
-                tvNoUsers.setText("Error: " + errorMessage);
-                tvNoUsers.setVisibility(View.VISIBLE);
-                recyclerViewUsers.setVisibility(View.GONE);
+                if (pager.getUsers().isEmpty()) {
+                    tvNoUsers.setText("Error: " + errorMessage);
+                    tvNoUsers.setVisibility(View.VISIBLE);
+                    recyclerViewUsers.setVisibility(View.GONE);
 
-                UIHelper.showErrorDialog(ManageUsersActivity.this,
-                        "Error Loading Users", errorMessage);
+                    UIHelper.showErrorDialog(ManageUsersActivity.this,
+                            "Error Loading Users", errorMessage);
+                } else {
+                    Toast.makeText(ManageUsersActivity.this, errorMessage, Toast.LENGTH_SHORT).show();
+                }
             }
         });
     }
@@ -306,15 +411,175 @@ public class ManageUsersActivity extends AppCompatActivity implements UserAdapte
                 .show();
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_manage_users, menu);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
             onBackPressed();
             return true;
+        } else if (item.getItemId() == R.id.action_import_roster) {
+            if (currentAdmin.hasPrivilege(Admin.AdminPrivilegeLevel.DEPARTMENT_ADMIN)) {
+                rosterPicker.launch(ROSTER_MIME_TYPES);
+            } else {
+                UIHelper.showErrorDialog(this, "Permission Denied",
+                        "You need Department Admin or higher privileges to import users.");
+            }
+            return true;
+        } else if (item.getItemId() == R.id.action_rebuild_search) {
+            if (currentAdmin.hasPrivilege(Admin.AdminPrivilegeLevel.DEPARTMENT_ADMIN)) {
+                rebuildSearchFields();
+            } else {
+                UIHelper.showErrorDialog(this, "Permission Denied",
+                        "You need Department Admin or higher privileges to rebuild the search index.");
+            }
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    // Fill in search fields for users saved before search existed
+    private void rebuildSearchFields() {
+        progressBar.setVisibility(View.VISIBLE);
+        userRepository.rebuildSearchFields(new UserRepository.OnRebuildListener() {
+            @Override
+            public void onComplete(int usersUpdated) {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                progressBar.setVisibility(View.GONE);
+                Toast.makeText(ManageUsersActivity.this,
+                        "Search index updated for " + usersUpdated + " users", Toast.LENGTH_SHORT).show();
+                loadUsers();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                progressBar.setVisibility(View.GONE);
+                UIHelper.showErrorDialog(ManageUsersActivity.this, "Error", errorMessage);
+            }
+        });
+    }
+
+    // Import the picked roster file, showing progress while it runs
+    private void importRoster(Uri uri) {
+        if (uri == null) {
+            return;
+        }
+
+        InputStream input;
+        try {
+            input = getContentResolver().openInputStream(uri);
+            if (input == null) {
+                throw new FileNotFoundException(uri.toString());
+            }
+        } catch (FileNotFoundException e) {
+            UIHelper.showErrorDialog(this, "Import Failed", "Could not open the file: " + e.getMessage());
+            return;
+        }
+
+        showImportDialog();
+        runningImport = userRepository.importRoster(new InputStreamReader(input, StandardCharsets.UTF_8),
+                importListener);
+    }
+
+    private void showImportDialog() {
+        importDialog = new AlertDialog.Builder(this)
+                .setTitle("Importing Students")
+                .setMessage("Reading file...")
+                .setCancelable(false)
+                .setNegativeButton("Stop", (dialog, which) -> {
+                    if (runningImport != null) {
+                        runningImport.cancel();
+                    }
+                })
+                .show();
+    }
+
+    private final UserRepository.OnImportListener importListener = new UserRepository.OnImportListener() {
+        @Override
+        public void onProgress(int rowsRead, int rowsDone, double rowsPerSecond) {
+            if (importDialog != null && importDialog.isShowing()) {
+                importDialog.setMessage(rowsDone + " of " + rowsRead + " rows processed\n"
+                        + Math.round(rowsPerSecond) + " rows/s");
+            }
+        }
+
+        @Override
+        public void onComplete(RosterImporter.Report report) {
+            runningImport = null;
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            if (importDialog != null && importDialog.isShowing()) {
+                importDialog.dismiss();
+            }
+            showImportReport(report);
+            loadUsers();
+        }
+    };
+
+    private void showImportReport(RosterImporter.Report report) {
+        StringBuilder message = new StringBuilder();
+        if (report.getFatalError() != null) {
+            message.append(report.getFatalError()).append("\n\n");
+        } else if (report.isCancelled()) {
+            message.append("Import stopped before the end of the file.\n\n");
+        }
+        message.append("Rows read: ").append(report.getRowsRead()).append("\n");
+        message.append("New students: ").append(report.getCreated()).append("\n");
+        message.append("Existing students enrolled: ").append(report.getEnrolledExisting()).append("\n");
+        message.append("Already registered: ").append(report.getUnchanged()).append("\n");
+        message.append("Course enrollments: ").append(report.getEnrollments()).append("\n");
+        message.append("Duplicates in file: ").append(report.getDuplicates()).append("\n");
+        message.append("Invalid rows: ").append(report.getInvalid()).append("\n");
+        message.append("Failed to save: ").append(report.getFailed()).append("\n");
+        message.append(String.format(Locale.getDefault(), "Time: %.1f s (%d rows/s)\n",
+                report.getElapsedMillis() / 1000.0, Math.round(report.getRowsPerSecond())));
+
+        List<RosterImporter.RowError> errors = report.getErrors();
+        if (!errors.isEmpty()) {
+            message.append("\nProblems:\n");
+            for (int i = 0; i < Math.min(MAX_ERRORS_SHOWN, errors.size()); i++) {
+                message.append(errors.get(i)).append("\n");
+            }
+            if (report.getErrorCount() > MAX_ERRORS_SHOWN) {
+                message.append("... and ").append(report.getErrorCount() - MAX_ERRORS_SHOWN).append(" more");
+            }
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle("Import Finished")
+                .setMessage(message.toString().trim())
+                .setPositiveButton("OK", null)
+                .show();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchHandler.removeCallbacks(searchRunnable);
+        if (userPager != null) {
+            userPager.cancel();
+        }
+        if (importDialog != null && importDialog.isShowing()) {
+            importDialog.dismiss();
+        }
+        if (isChangingConfigurations()) {
+            // Keep importing, the recreated activity attaches to it
+            userRepository.detachImport();
+        } else if (runningImport != null) {
+            runningImport.cancel();
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
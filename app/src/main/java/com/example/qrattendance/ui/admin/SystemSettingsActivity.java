@@ -18,6 +18,7 @@ import androidx.lifecycle.Observer;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Admin;
+import com.example.qrattendance.data.repository.AttendanceLayoutMigration;
 import com.example.qrattendance.data.repository.SettingsRepository;
 import com.example.qrattendance.util.SessionManager;
 import com.example.qrattendance.util.UIHelper;
@@ -33,6 +34,7 @@ public class SystemSettingsActivity extends AppCompatActivity {
     private Toolbar toolbar;
     private ProgressBar progressBar;
     private Button btnSaveSettings;
+    private Button btnMigrateAttendanceData;
 
     // Settings UI components
     private SwitchCompat switchOfflineMode;
@@ -84,6 +86,7 @@ public class SystemSettingsActivity extends AppCompatActivity {
         toolbar = findViewById(R.id.toolbar);
         progressBar = findViewById(R.id.progressBar);
         btnSaveSettings = findViewById(R.id.btnSaveSettings);
+        btnMigrateAttendanceData = findViewById(R.id.btnMigrateAttendanceData);
 
         // Settings components
         switchOfflineMode = findViewById(R.id.switchOfflineMode);
@@ -107,6 +110,7 @@ public class SystemSettingsActivity extends AppCompatActivity {
         if (currentAdmin.getPrivilegeLevel() == Admin.AdminPrivilegeLevel.COURSE_ADMIN) {
             disableSettingFields();
             btnSaveSettings.setEnabled(false);
+            btnMigrateAttendanceData.setVisibility(View.GONE);
             Toast.makeText(this, "Course Admins can only view settings", Toast.LENGTH_LONG).show();
         }
     }
@@ -124,6 +128,12 @@ public class SystemSettingsActivity extends AppCompatActivity {
                 saveSettings();
             }
         });
+
+        // Setup attendance data migration button
+        btnMigrateAttendanceData.setOnClickListener(v ->
+                UIHelper.showConfirmationDialog(this, "Migrate Attendance Data",
+                        "Rebuild attendance summaries and remove the old attendance lists from sessions and users?",
+                        "Migrate", this::migrateAttendanceData));
     }
 
     private void observeSettingsData() {
@@ -249,6 +259,38 @@ public class SystemSettingsActivity extends AppCompatActivity {
         });
     }
 
+    private void migrateAttendanceData() {
+        btnMigrateAttendanceData.setEnabled(false);
+        progressBar.setVisibility(View.VISIBLE);
+
+        new AttendanceLayoutMigration().run(new AttendanceLayoutMigration.OnMigrationListener() {
+            @Override
+            public void onProgress(String message) {
+                btnMigrateAttendanceData.setText(message);
+            }
+
+            @Override
+            public void onComplete(int summariesWritten, int sessionsCleaned, int usersCleaned) {
+                resetMigrationButton();
+                UIHelper.showInfoDialog(SystemSettingsActivity.this, "Migration Complete",
+                        summariesWritten + " attendance summaries written\n"
+                                + sessionsCleaned + " sessions and " + usersCleaned + " users cleaned");
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                resetMigrationButton();
+                UIHelper.showErrorDialog(SystemSettingsActivity.this, "Error", errorMessage);
+            }
+        });
+    }
+
+    private void resetMigrationButton() {
+        progressBar.setVisibility(View.GONE);
+        btnMigrateAttendanceData.setEnabled(true);
+        btnMigrateAttendanceData.setText("Migrate Attendance Data");
+    }
+
     private void disableSettingFields() {
         // Disable all interactive components for view-only mode
         switchOfflineMode.setEnabled(false);
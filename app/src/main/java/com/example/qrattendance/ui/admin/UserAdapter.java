@@ -7,17 +7,35 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
+import com.example.qrattendance.ui.common.StableIds;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
-public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder> {
+public class UserAdapter extends ListAdapter<Map<String, Object>, UserAdapter.UserViewHolder> {
+
+    private static final DiffUtil.ItemCallback<Map<String, Object>> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Map<String, Object>>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull Map<String, Object> oldItem, @NonNull Map<String, Object> newItem) {
+                    return Objects.equals(oldItem.get("userId"), newItem.get("userId"));
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull Map<String, Object> oldItem, @NonNull Map<String, Object> newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
 
-    private List<Map<String, Object>> users;
     private final UserActionListener listener;
+    private final StableIds stableIds = new StableIds();
 
     public interface UserActionListener {
         void onEditUser(Map<String, Object> user);
@@ -26,13 +44,19 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder
     }
 
     public UserAdapter(List<Map<String, Object>> users, UserActionListener listener) {
-        this.users = users;
+        super(DIFF_CALLBACK);
         this.listener = listener;
+        setHasStableIds(true);
+        submitList(new ArrayList<>(users));
     }
 
     public void updateUsers(List<Map<String, Object>> newUsers) {
-        this.users = newUsers;
-        notifyDataSetChanged();
+        submitList(new ArrayList<>(newUsers));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIds.idFor((String) getItem(position).get("userId"));
     }
 
     @NonNull
@@ -45,15 +69,10 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull UserViewHolder holder, int position) {
-        Map<String, Object> user = users.get(position);
+        Map<String, Object> user = getItem(position);
         holder.bind(user);
     }
 
-    @Override
-    public int getItemCount() {
-        return users.size();
-    }
-
     class UserViewHolder extends RecyclerView.ViewHolder {
         private final TextView tvName;
         private final TextView tvEmail;
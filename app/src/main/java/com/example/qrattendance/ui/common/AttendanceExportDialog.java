@@ -0,0 +1,194 @@
+package com.example.qrattendance.ui.common;
+
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.net.Uri;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+
+import com.example.qrattendance.data.repository.AttendanceExporter;
+import com.example.qrattendance.data.repository.AttendanceRepository;
+import com.example.qrattendance.util.UIHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Runs an attendance export with a progress dialog and offers the finished sheet through the
+ * share sheet. Sheets are written to the cache directory shared by the app's FileProvider. The
+ * export keeps running while the activity is recreated for a configuration change and is picked up
+ * again by {@link #reattach}; it is stopped if the activity is destroyed for good.
+ */
+public class AttendanceExportDialog {
+    private static final String EXPORT_DIRECTORY = "exports";
+    private static final String CSV_MIME_TYPE = "text/csv";
+
+    // The export in progress, kept across activity recreation
+    private static AttendanceExportDialog running;
+
+    private final Class<?> activityClass;
+    private final File file;
+    private AppCompatActivity activity;
+    private AttendanceExporter exporter;
+    private AlertDialog progressDialog;
+    private AttendanceExporter.Result finishedWhileDetached;
+
+    private final LifecycleEventObserver observer = (source, event) -> {
+        if (event != Lifecycle.Event.ON_DESTROY) {
+            return;
+        }
+        source.getLifecycle().removeObserver(this.observer);
+        if (activity.isChangingConfigurations()) {
+            detach();
+        } else if (exporter != null) {
+            exporter.cancel();
+        }
+    };
+
+    private AttendanceExportDialog(AppCompatActivity activity, File file) {
+        this.activityClass = activity.getClass();
+        this.activity = activity;
+        this.file = file;
+    }
+
+    /**
+     * Export and share attendance records
+     *
+     * @param activity Activity the dialogs are shown in
+     * @param filter   Records to export
+     * @param fileName Name of the sheet without extension
+     */
+    public static void start(AppCompatActivity activity, AttendanceExporter.Filter filter, String fileName) {
+        File directory = new File(activity.getCacheDir(), EXPORT_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            UIHelper.showErrorDialog(activity, "Export Failed", "Could not create the export folder");
+            return;
+        }
+        String safeName = fileName.replaceAll("[^A-Za-z0-9._-]+", "_");
+        new AttendanceExportDialog(activity, new File(directory, safeName + ".csv")).run(filter);
+    }
+
+    /**
+     * Show the export started before the activity was recreated, if there is one. Call from
+     * onCreate of activities that start exports.
+     *
+     * @param activity The recreated activity
+     */
+    public static void reattach(AppCompatActivity activity) {
+        AttendanceExportDialog export = running;
+        if (export == null || export.activity != null || export.activityClass != activity.getClass()) {
+            return;
+        }
+        export.activity = activity;
+        activity.getLifecycle().addObserver(export.observer);
+        if (export.finishedWhileDetached != null) {
+            export.finish(export.finishedWhileDetached);
+        } else {
+            export.showProgress();
+        }
+    }
+
+    private void run(AttendanceExporter.Filter filter) {
+        OutputStreamWriter output;
+        try {
+            output = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+            // Lets spreadsheet apps detect UTF-8 for non-ASCII names
+            output.write('\uFEFF');
+        } catch (IOException e) {
+            UIHelper.showErrorDialog(activity, "Export Failed", "Could not create the file: " + e.getMessage());
+            return;
+        }
+
+        running = this;
+        showProgress();
+        activity.getLifecycle().addObserver(observer);
+
+        exporter = AttendanceRepository.getInstance().exportAttendance(filter, output,
+                new AttendanceRepository.OnExportListener() {
+                    @Override
+                    public void onProgress(int rowsWritten, double rowsPerSecond) {
+                        if (progressDialog != null && progressDialog.isShowing()) {
+                            progressDialog.setMessage(String.format(Locale.getDefault(),
+                                    "%d records written\n%d records/s", rowsWritten, Math.round(rowsPerSecond)));
+                        }
+                    }
+
+                    @Override
+                    public void onComplete(AttendanceExporter.Result result) {
+                        if (activity == null) {
+                            // Recreating, the next activity shows the result
+                            finishedWhileDetached = result;
+                            return;
+                        }
+                        finish(result);
+                    }
+                });
+    }
+
+    private void showProgress() {
+        progressDialog = new AlertDialog.Builder(activity)
+                .setTitle("Exporting Attendance")
+                .setMessage("Reading records...")
+                .setCancelable(false)
+                .setNegativeButton("Stop", (dialog, which) -> exporter.cancel())
+                .show();
+    }
+
+    // Let go of the activity being recreated, the export keeps running
+    private void detach() {
+        if (progressDialog != null && progressDialog.isShowing()) {
+            progressDialog.dismiss();
+        }
+        progressDialog = null;
+        activity = null;
+    }
+
+    private void finish(AttendanceExporter.Result result) {
+        running = null;
+        activity.getLifecycle().removeObserver(observer);
+        if (activity.isFinishing() || activity.isDestroyed()) {
+            file.delete();
+            return;
+        }
+        if (progressDialog != null && progressDialog.isShowing()) {
+            progressDialog.dismiss();
+        }
+        onExportComplete(result);
+    }
+
+    private void onExportComplete(AttendanceExporter.Result result) {
+        if (!result.isComplete()) {
+            file.delete();
+            if (result.getFatalError() != null) {
+                UIHelper.showErrorDialog(activity, "Export Failed", result.getFatalError());
+            }
+            return;
+        }
+        if (result.getRows() == 0) {
+            file.delete();
+            Toast.makeText(activity, "No attendance records to export", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Uri uri = FileProvider.getUriForFile(activity, activity.getPackageName() + ".fileprovider", file);
+        Intent share = new Intent(Intent.ACTION_SEND)
+                .setType(CSV_MIME_TYPE)
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .putExtra(Intent.EXTRA_SUBJECT, file.getName())
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        try {
+            activity.startActivity(Intent.createChooser(share, "Share " + result.getRows() + " records"));
+        } catch (ActivityNotFoundException e) {
+            UIHelper.showErrorDialog(activity, "Export Failed", "No app can open the exported sheet");
+        }
+    }
+}
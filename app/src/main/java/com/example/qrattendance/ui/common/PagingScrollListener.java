@@ -0,0 +1,51 @@
+package com.example.qrattendance.ui.common;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Asks for the next page when the user scrolls to within a few rows of the end of a list,
+ * so the page usually arrives before the last row is on screen.
+ */
+public class PagingScrollListener extends RecyclerView.OnScrollListener {
+    private final LinearLayoutManager layoutManager;
+    private final int prefetchDistance;
+    private final LoadMoreListener listener;
+
+    /**
+     * @param layoutManager    Layout manager of the list
+     * @param prefetchDistance Number of rows left below the last visible one that triggers a load
+     * @param listener         Called to load the next page, may be called again while it is loading
+     */
+    public PagingScrollListener(LinearLayoutManager layoutManager, int prefetchDistance, LoadMoreListener listener) {
+        this.layoutManager = layoutManager;
+        this.prefetchDistance = prefetchDistance;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        // Only scrolling towards the end can bring the threshold into view
+        if (dy <= 0) {
+            return;
+        }
+        checkThreshold();
+    }
+
+    /**
+     * Load more if the end of the list is already within reach, e.g. after a page too short to fill the screen
+     */
+    public void checkThreshold() {
+        int itemCount = layoutManager.getItemCount();
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible != RecyclerView.NO_POSITION && lastVisible + prefetchDistance >= itemCount - 1) {
+            listener.onLoadMore();
+        }
+    }
+
+    // Callback interface
+    public interface LoadMoreListener {
+        void onLoadMore();
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.qrattendance.ui.common;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps document IDs to the long item IDs RecyclerView uses for stable IDs.
+ * IDs are handed out in order of first use, so unlike a string hash two documents never share one.
+ * Use one instance per adapter, on the main thread.
+ */
+public class StableIds {
+    private final Map<String, Long> ids = new HashMap<>();
+    private long nextId = 0;
+
+    // Get the item ID for a document ID
+    public long idFor(String key) {
+        if (key == null) {
+            return RecyclerView.NO_ID;
+        }
+
+        Long id = ids.get(key);
+        if (id == null) {
+            id = nextId++;
+            ids.put(key, id);
+        }
+        return id;
+    }
+}
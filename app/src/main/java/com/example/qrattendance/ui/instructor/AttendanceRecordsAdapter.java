@@ -6,27 +6,59 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.ui.common.StableIds;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
-public class AttendanceRecordsAdapter extends RecyclerView.Adapter<AttendanceRecordsAdapter.AttendanceViewHolder> {
+public class AttendanceRecordsAdapter extends ListAdapter<SessionAttendanceActivity.AttendanceModel, AttendanceRecordsAdapter.AttendanceViewHolder> {
 
-    private List<SessionAttendanceActivity.AttendanceModel> attendanceRecords;
-    private final SimpleDateFormat timeFormat = new SimpleDateFormat("hh:mm:ss a", Locale.getDefault());
+    // Diffed on a background thread, so a new scan only inserts its own row
+    private static final DiffUtil.ItemCallback<SessionAttendanceActivity.AttendanceModel> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<SessionAttendanceActivity.AttendanceModel>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull SessionAttendanceActivity.AttendanceModel oldItem,
+                                               @NonNull SessionAttendanceActivity.AttendanceModel newItem) {
+                    return Objects.equals(oldItem.getRecord().getRecordId(), newItem.getRecord().getRecordId());
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull SessionAttendanceActivity.AttendanceModel oldItem,
+                                                  @NonNull SessionAttendanceActivity.AttendanceModel newItem) {
+                    AttendanceRecord oldRecord = oldItem.getRecord();
+                    AttendanceRecord newRecord = newItem.getRecord();
+                    return oldItem.getSerialNumber() == newItem.getSerialNumber()
+                            && Objects.equals(oldItem.getStudentName(), newItem.getStudentName())
+                            && Objects.equals(oldItem.getStudentRoll(), newItem.getStudentRoll())
+                            && Objects.equals(oldRecord.getTimestamp(), newRecord.getTimestamp())
+                            && oldRecord.getStatus() == newRecord.getStatus();
+                }
+            };
+
+    private final StableIds stableIds = new StableIds();
 
     public AttendanceRecordsAdapter(List<SessionAttendanceActivity.AttendanceModel> attendanceRecords) {
-        this.attendanceRecords = attendanceRecords;
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+        submitList(new ArrayList<>(attendanceRecords));
     }
 
     public void updateAttendanceRecords(List<SessionAttendanceActivity.AttendanceModel> newRecords) {
-        this.attendanceRecords = newRecords;
-        notifyDataSetChanged();
+        submitList(new ArrayList<>(newRecords));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIds.idFor(getItem(position).getRecord().getRecordId());
     }
 
     @NonNull
@@ -39,13 +71,8 @@ public class AttendanceRecordsAdapter extends RecyclerView.Adapter<AttendanceRec
 
     @Override
     public void onBindViewHolder(@NonNull AttendanceViewHolder holder, int position) {
-        SessionAttendanceActivity.AttendanceModel model = attendanceRecords.get(position);
-        holder.bind(model, position + 1);
-    }
-
-    @Override
-    public int getItemCount() {
-        return attendanceRecords.size();
+        SessionAttendanceActivity.AttendanceModel model = getItem(position);
+        holder.bind(model);
     }
 
     static class AttendanceViewHolder extends RecyclerView.ViewHolder {
@@ -64,11 +91,11 @@ public class AttendanceRecordsAdapter extends RecyclerView.Adapter<AttendanceRec
             tvAttendanceStatus = itemView.findViewById(R.id.tvAttendanceStatus);
         }
 
-        public void bind(SessionAttendanceActivity.AttendanceModel model, int serialNumber) {
+        public void bind(SessionAttendanceActivity.AttendanceModel model) {
             AttendanceRecord record = model.getRecord();
 
             // Set serial number
-            tvSerialNumber.setText(String.valueOf(serialNumber));
+            tvSerialNumber.setText(String.valueOf(model.getSerialNumber()));
 
             // Set student info
             tvStudentName.setText(model.getStudentName());
@@ -111,4 +138,4 @@ public class AttendanceRecordsAdapter extends RecyclerView.Adapter<AttendanceRec
             tvAttendanceStatus.setTextColor(itemView.getContext().getResources().getColor(textColor));
         }
     }
-}
\ No newline at end of file
+}
@@ -8,17 +8,41 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.ui.common.StableIds;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
-public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseViewHolder> {
+public class CourseAdapter extends ListAdapter<Course, CourseAdapter.CourseViewHolder> {
+
+    private static final DiffUtil.ItemCallback<Course> DIFF_CALLBACK = new DiffUtil.ItemCallback<Course>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Course oldItem, @NonNull Course newItem) {
+            return Objects.equals(oldItem.getCourseId(), newItem.getCourseId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Course oldItem, @NonNull Course newItem) {
+            return Objects.equals(oldItem.getCourseCode(), newItem.getCourseCode())
+                    && Objects.equals(oldItem.getCourseName(), newItem.getCourseName())
+                    && Objects.equals(oldItem.getDepartment(), newItem.getDepartment())
+                    && Objects.equals(oldItem.getSemester(), newItem.getSemester())
+                    && Objects.equals(oldItem.getDescription(), newItem.getDescription())
+                    && Objects.equals(oldItem.getInstructorId(), newItem.getInstructorId())
+                    && Objects.equals(oldItem.getEnrolledStudentIds(), newItem.getEnrolledStudentIds())
+                    && oldItem.isActive() == newItem.isActive();
+        }
+    };
 
-    private List<Course> courses;
     private final CourseClickListener listener;
+    private final StableIds stableIds = new StableIds();
 
     public interface CourseClickListener {
         void onCourseClick(Course course, int position);
@@ -28,13 +52,19 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
     }
 
     public CourseAdapter(List<Course> courses, CourseClickListener listener) {
-        this.courses = courses;
+        super(DIFF_CALLBACK);
         this.listener = listener;
+        setHasStableIds(true);
+        submitList(new ArrayList<>(courses));
     }
 
     public void updateCourses(List<Course> newCourses) {
-        this.courses = newCourses;
-        notifyDataSetChanged();
+        submitList(new ArrayList<>(newCourses));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIds.idFor(getItem(position).getCourseId());
     }
 
     @NonNull
@@ -47,13 +77,8 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
 
     @Override
     public void onBindViewHolder(@NonNull CourseViewHolder holder, int position) {
-        Course course = courses.get(position);
-        holder.bind(course, position);
-    }
-
-    @Override
-    public int getItemCount() {
-        return courses.size();
+        Course course = getItem(position);
+        holder.bind(course);
     }
 
     class CourseViewHolder extends RecyclerView.ViewHolder {
@@ -78,7 +103,7 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
             btnToggleActiveStatus = itemView.findViewById(R.id.btnToggleActiveStatus);
         }
 
-        public void bind(Course course, int position) {
+        public void bind(Course course) {
             // Set course data
             tvCourseCode.setText(course.getCourseCode());
             tvCourseName.setText(course.getCourseName());
@@ -94,19 +119,19 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
             // Set click listeners
             itemView.setOnClickListener(v -> {
                 if (listener != null) {
-                    listener.onCourseClick(course, position);
+                    listener.onCourseClick(course, getBindingAdapterPosition());
                 }
             });
 
             btnViewAttendance.setOnClickListener(v -> {
                 if (listener != null) {
-                    listener.onViewAttendanceClick(course, position);
+                    listener.onViewAttendanceClick(course, getBindingAdapterPosition());
                 }
             });
 
             btnManageCourse.setOnClickListener(v -> {
                 if (listener != null) {
-                    listener.onManageCourseClick(course, position);
+                    listener.onManageCourseClick(course, getBindingAdapterPosition());
                 }
             });
 
@@ -130,7 +155,7 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
 
             btnToggleActiveStatus.setOnClickListener(v -> {
                 if (listener != null) {
-                    listener.onToggleActiveStatusClick(course, position);
+                    listener.onToggleActiveStatusClick(course, getBindingAdapterPosition());
                 }
             });
         }
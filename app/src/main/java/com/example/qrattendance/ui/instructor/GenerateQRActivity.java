@@ -1,6 +1,5 @@
 package com.example.qrattendance.ui.instructor;
 
-import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
@@ -12,19 +11,19 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SwitchCompat;
 import androidx.cardview.widget.CardView;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Course;
 import com.example.qrattendance.data.model.Instructor;
 import com.example.qrattendance.data.model.Session;
+import com.example.qrattendance.data.repository.AttendanceExporter;
 import com.example.qrattendance.data.repository.AttendanceRepository;
 import com.example.qrattendance.data.repository.CourseRepository;
+import com.example.qrattendance.ui.common.AttendanceExportDialog;
+import com.example.qrattendance.util.RotatingQRCode;
 import com.example.qrattendance.util.SessionManager;
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.MultiFormatWriter;
-import com.google.zxing.common.BitMatrix;
-import com.journeyapps.barcodescanner.BarcodeEncoder;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -35,11 +34,19 @@ import java.util.Locale;
 
 public class GenerateQRActivity extends AppCompatActivity {
 
+    private static final int QR_SIZE = 500;
+
+    // The code on screen, kept across activity recreation: a rotating code's private key exists
+    // only in memory and could not be recovered once lost
+    private static DisplayedCode displayedCode;
+
     private AutoCompleteTextView courseDropdown, sessionDropdown;
     private TextView tvCourseInfo, tvQRValidity, tvExpiryTime;
     private ImageView ivQRCode;
     private Button btnGenerateQR, btnShareQR, btnDisplayQR;
     private CardView cardQRResult;
+    private SwitchCompat switchRotateQR;
+    private QRFramePipeline framePipeline;
 
     private CourseRepository courseRepository;
     private AttendanceRepository attendanceRepository;
@@ -69,6 +76,16 @@ public class GenerateQRActivity extends AppCompatActivity {
         initViews();
         loadCourses();
         setupListeners();
+
+        // Show the code that was on screen when the screen was rotated
+        if (displayedCode != null && displayedCode.expiryTime.after(new Date())) {
+            display(displayedCode);
+        } else {
+            displayedCode = null;
+        }
+
+        // Show an export that was running when the screen was rotated
+        AttendanceExportDialog.reattach(this);
     }
 
     private void initViews() {
@@ -87,6 +104,20 @@ public class GenerateQRActivity extends AppCompatActivity {
         tvCourseInfo = findViewById(R.id.tvCourseInfo);
         tvQRValidity = findViewById(R.id.tvQRValidity);
         tvExpiryTime = findViewById(R.id.tvExpiryTime);
+        switchRotateQR = findViewById(R.id.switchRotateQR);
+
+        // QR frames are rendered off the UI thread into a reusable bitmap pool
+        framePipeline = new QRFramePipeline(ivQRCode, QR_SIZE, new QRFramePipeline.FrameListener() {
+            @Override
+            public void onExpired() {
+                tvQRValidity.setText("QR code expired");
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                Toast.makeText(GenerateQRActivity.this, errorMessage, Toast.LENGTH_SHORT).show();
+            }
+        });
 
         // Set up toolbar
         androidx.appcompat.widget.Toolbar toolbar = findViewById(R.id.toolbar);
@@ -124,7 +155,7 @@ public class GenerateQRActivity extends AppCompatActivity {
         });
 
         // Load the instructor's courses
-        courseRepository.fetchCoursesByInstructor(currentInstructor.getUserId());
+        courseRepository.fetchCoursesByInstructor(this, currentInstructor.getUserId());
     }
 
     private void setupListeners() {
@@ -137,9 +168,14 @@ public class GenerateQRActivity extends AppCompatActivity {
         // Generate QR button listener
         btnGenerateQR.setOnClickListener(v -> generateQRCode());
 
+        // Share the attendance sheet of the session the QR code is for
         btnShareQR.setOnClickListener(v -> {
-            // Implement share functionality here
-            Toast.makeText(this, "Share functionality coming soon!", Toast.LENGTH_SHORT).show();
+            if (currentSession == null || currentSession.getSessionId() == null) {
+                Toast.makeText(this, "Generate a QR code first", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            AttendanceExportDialog.start(this, AttendanceExporter.Filter.forSession(currentSession.getSessionId()),
+                    "attendance_" + currentSession.getTitle());
         });
 
         btnDisplayQR.setOnClickListener(v -> {
@@ -244,13 +280,35 @@ public class GenerateQRActivity extends AppCompatActivity {
                 // Calculate expiry time for QR code (same as session end time)
                 Date expiryTime = endTime;
 
+                // Rotating codes are signed step by step with a key kept on this device
+                if (switchRotateQR.isChecked()) {
+                    attendanceRepository.generateRotatingQRCodeForSession(newSession, expiryTime,
+                            RotatingQRCode.DEFAULT_PERIOD_SECONDS,
+                            new AttendanceRepository.OnRotatingQRCodeListener() {
+                                @Override
+                                public void onSuccess(RotatingQRCode rotatingCode) {
+                                    display(new DisplayedCode(newSession, rotatingCode, null, expiryTime,
+                                            validityMinutes));
+                                }
+
+                                @Override
+                                public void onFailure(String errorMessage) {
+                                    Toast.makeText(GenerateQRActivity.this,
+                                            "Failed to generate QR code: " + errorMessage,
+                                            Toast.LENGTH_SHORT).show();
+                                }
+                            });
+                    return;
+                }
+
                 // Generate QR code for the session
                 attendanceRepository.generateQRCodeForSession(newSession, expiryTime,
                         new AttendanceRepository.OnQRCodeListener() {
                             @Override
                             public void onSuccess(String qrCodeId, String qrCodeContent) {
                                 // QR code generated successfully, display it
-                                generateQRBitmap(qrCodeContent, validityMinutes);
+                                display(new DisplayedCode(newSession, null, qrCodeContent, expiryTime,
+                                        validityMinutes));
                             }
 
                             @Override
@@ -271,41 +329,68 @@ public class GenerateQRActivity extends AppCompatActivity {
         });
     }
 
-    private void generateQRBitmap(String content, int validityMinutes) {
-        try {
-            // Generate QR code bitmap
-            MultiFormatWriter multiFormatWriter = new MultiFormatWriter();
-            BitMatrix bitMatrix = multiFormatWriter.encode(content, BarcodeFormat.QR_CODE, 500, 500);
-            BarcodeEncoder barcodeEncoder = new BarcodeEncoder();
-            Bitmap bitmap = barcodeEncoder.createBitmap(bitMatrix);
-
-            // Display the QR code
-            runOnUiThread(() -> {
-                // Set QR code image
-                ivQRCode.setImageBitmap(bitmap);
-
-                // Set course and session info
-                if (currentSession != null) {
-                    tvCourseInfo.setText(currentSession.getTitle() + "\nLocation: " + currentSession.getLocation());
-                }
+    // Show a generated code, and keep it for the activity that replaces this one on rotation
+    private void display(DisplayedCode code) {
+        displayedCode = code;
+        if (isDestroyed()) {
+            return;
+        }
+        currentSession = code.session;
+        if (code.rotatingCode != null) {
+            framePipeline.showRotating(code.rotatingCode);
+        } else {
+            framePipeline.showStatic(code.content);
+        }
+        showQRCodeInfo(code.expiryTime, code.validityMinutes, code.rotatingCode != null);
+    }
+
+    private void showQRCodeInfo(Date expiryTime, int validityMinutes, boolean rotate) {
+        // Set course and session info
+        if (currentSession != null) {
+            tvCourseInfo.setText(currentSession.getTitle() + "\nLocation: " + currentSession.getLocation());
+        }
 
-                // Set validity info
-                tvQRValidity.setText("Valid for " + validityMinutes + " minutes");
+        // Set validity info
+        if (rotate) {
+            tvQRValidity.setText("Valid for " + validityMinutes + " minutes, changes every "
+                    + RotatingQRCode.DEFAULT_PERIOD_SECONDS + " seconds");
+        } else {
+            tvQRValidity.setText("Valid for " + validityMinutes + " minutes");
+        }
+
+        // Display expiry time
+        SimpleDateFormat sdf = new SimpleDateFormat("hh:mm a", Locale.getDefault());
+        tvExpiryTime.setText("Expires at " + sdf.format(expiryTime));
 
-                // Calculate and display expiry time
-                Calendar calendar = Calendar.getInstance();
-                calendar.add(Calendar.MINUTE, validityMinutes);
-                Date expiryTime = calendar.getTime();
+        // Show QR result card
+        cardQRResult.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (framePipeline != null) {
+            framePipeline.resume();
+        }
+    }
 
-                SimpleDateFormat sdf = new SimpleDateFormat("hh:mm a", Locale.getDefault());
-                tvExpiryTime.setText("Expires at " + sdf.format(expiryTime));
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (framePipeline != null) {
+            framePipeline.pause();
+        }
+    }
 
-                // Show QR result card
-                cardQRResult.setVisibility(View.VISIBLE);
-            });
-        } catch (Exception e) {
-            Toast.makeText(this, "Error generating QR code: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            e.printStackTrace();
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (framePipeline != null) {
+            framePipeline.release();
+        }
+        // Leaving the screen for good ends the code's display, its key goes with it
+        if (!isChangingConfigurations()) {
+            displayedCode = null;
         }
     }
 
@@ -405,4 +490,23 @@ public class GenerateQRActivity extends AppCompatActivity {
             }
         });
     }
-}
\ No newline at end of file
+
+    // A generated code with what the screen shows about it
+    private static class DisplayedCode {
+        final Session session;
+        // Set for rotating codes, content for static ones
+        final RotatingQRCode rotatingCode;
+        final String content;
+        final Date expiryTime;
+        final int validityMinutes;
+
+        DisplayedCode(Session session, RotatingQRCode rotatingCode, String content, Date expiryTime,
+                      int validityMinutes) {
+            this.session = session;
+            this.rotatingCode = rotatingCode;
+            this.content = content;
+            this.expiryTime = expiryTime;
+            this.validityMinutes = validityMinutes;
+        }
+    }
+}
@@ -14,8 +14,8 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.qrattendance.R;
+import com.example.qrattendance.data.local.ExpirySweepWorker;
 import com.example.qrattendance.data.model.Instructor;
-import com.example.qrattendance.data.repository.AttendanceRepository;
 import com.example.qrattendance.data.repository.AuthRepository;
 import com.example.qrattendance.ui.common.ProfileActivity;
 import com.example.qrattendance.util.SessionManager;
@@ -36,8 +36,8 @@ public class InstructorDashboardActivity extends AppCompatActivity {
         sessionManager = SessionManager.getInstance(this);
         authRepository = AuthRepository.getInstance();
 
-        // Clean up expired QR codes
-        AttendanceRepository.getInstance().cleanupExpiredQRCodes();
+        // Switch off expired QR codes and move session statuses on in the background
+        ExpirySweepWorker.schedule(this);
 
         // Initialize UI components
         initViews();
@@ -105,7 +105,7 @@ public class ManageCoursesActivity extends AppCompatActivity implements CourseAd
         });
 
         // Load courses for this instructor
-        courseRepository.fetchCoursesByInstructor(currentInstructor.getUserId());
+        courseRepository.fetchCoursesByInstructor(this, currentInstructor.getUserId());
     }
 
     private void showAddCourseDialog() {
@@ -348,7 +348,7 @@ public class ManageCoursesActivity extends AppCompatActivity implements CourseAd
                         dialog.dismiss();
 
                         // Refresh course list to show updated data
-                        courseRepository.fetchCoursesByInstructor(currentInstructor.getUserId());
+                        courseRepository.fetchCoursesByInstructor(ManageCoursesActivity.this, currentInstructor.getUserId());
                     }
 
                     @Override
@@ -447,7 +447,7 @@ public class ManageCoursesActivity extends AppCompatActivity implements CourseAd
                 Toast.makeText(ManageCoursesActivity.this, message, Toast.LENGTH_SHORT).show();
 
                 // Refresh the course list
-                courseRepository.fetchCoursesByInstructor(currentInstructor.getUserId());
+                courseRepository.fetchCoursesByInstructor(ManageCoursesActivity.this, currentInstructor.getUserId());
             }
 
             @Override
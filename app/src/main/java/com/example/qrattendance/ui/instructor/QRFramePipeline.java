@@ -0,0 +1,273 @@
+package com.example.qrattendance.ui.instructor;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.example.qrattendance.util.RotatingQRCode;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders QR codes into an ImageView from a small pool of reusable bitmaps.
+ * Upcoming frames of a {@link RotatingQRCode} are encoded ahead of time on a background thread,
+ * so a rotation on the UI thread is only a bitmap swap. The pool is allocated once; one bitmap is on
+ * screen while the others hold the next frames.
+ *
+ * All methods must be called on the main thread.
+ */
+class QRFramePipeline {
+    private static final String TAG = "QRFramePipeline";
+    private static final int POOL_SIZE = 3;
+    private static final int LOOKAHEAD = POOL_SIZE - 1;
+    private static final long RETRY_DELAY_MS = 50;
+    private static final long STATIC_STEP = 0;
+
+    private final ImageView target;
+    private final int size;
+    private final FrameListener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService encoder = Executors.newSingleThreadExecutor();
+
+    // Shared with the encoder thread
+    private final BlockingQueue<Bitmap> freeBitmaps = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // Only touched by the encoder thread
+    private final QRCodeWriter writer = new QRCodeWriter();
+    private final Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+    private final int[] pixels;
+
+    // Only touched on the main thread
+    private final Map<Long, Bitmap> readyFrames = new HashMap<>();
+    private final Set<Long> inFlight = new HashSet<>();
+    private RotatingQRCode rotatingCode;
+    private String staticContent;
+    private Bitmap displayed;
+    private long displayedStep = -1;
+    private int generation;
+
+    private final Runnable tick = this::onTick;
+
+    QRFramePipeline(ImageView target, int size, FrameListener listener) {
+        this.target = target;
+        this.size = size;
+        this.listener = listener;
+        this.pixels = new int[size * size];
+        hints.put(EncodeHintType.MARGIN, 1);
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            freeBitmaps.add(Bitmap.createBitmap(size, size, Bitmap.Config.RGB_565));
+        }
+    }
+
+    /**
+     * Show a code that rotates every period
+     */
+    void showRotating(RotatingQRCode code) {
+        reset();
+        rotatingCode = code;
+        onTick();
+    }
+
+    /**
+     * Show a single fixed code
+     */
+    void showStatic(String content) {
+        reset();
+        staticContent = content;
+        request(STATIC_STEP);
+    }
+
+    /**
+     * Stop rotating, the current frame stays on screen
+     */
+    void pause() {
+        mainHandler.removeCallbacks(tick);
+    }
+
+    /**
+     * Continue rotating after {@link #pause()}
+     */
+    void resume() {
+        if (rotatingCode != null) {
+            onTick();
+        }
+    }
+
+    /**
+     * Stop the encoder thread, call from onDestroy
+     */
+    void release() {
+        reset();
+        encoder.shutdownNow();
+    }
+
+    // Drop everything that belongs to the previous code
+    private void reset() {
+        mainHandler.removeCallbacks(tick);
+        generation++;
+        rotatingCode = null;
+        staticContent = null;
+        displayedStep = -1;
+        inFlight.clear();
+        for (Bitmap bitmap : readyFrames.values()) {
+            freeBitmaps.offer(bitmap);
+        }
+        readyFrames.clear();
+    }
+
+    private void onTick() {
+        RotatingQRCode code = rotatingCode;
+        if (code == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long step = code.stepAt(now);
+        if (code.isFinished(step)) {
+            listener.onExpired();
+            return;
+        }
+
+        discardFramesBefore(step);
+
+        long delay;
+        if (step == displayedStep || swapTo(step)) {
+            delay = code.stepStart(step + 1) - now;
+        } else {
+            // Encoder is behind, keep the old frame and check again shortly
+            delay = RETRY_DELAY_MS;
+        }
+
+        for (long next = step; next <= step + LOOKAHEAD; next++) {
+            if (!code.isFinished(next)) {
+                request(next);
+            }
+        }
+        mainHandler.postAtTime(tick, SystemClock.uptimeMillis() + Math.max(delay, 0));
+    }
+
+    // Put a ready frame on screen and return the previous bitmap to the pool
+    private boolean swapTo(long step) {
+        Bitmap frame = readyFrames.remove(step);
+        if (frame == null) {
+            return false;
+        }
+
+        Bitmap previous = displayed;
+        target.setImageBitmap(frame);
+        displayed = frame;
+        displayedStep = step;
+        if (previous != null) {
+            freeBitmaps.offer(previous);
+        }
+        return true;
+    }
+
+    private void discardFramesBefore(long step) {
+        Iterator<Map.Entry<Long, Bitmap>> iterator = readyFrames.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Bitmap> entry = iterator.next();
+            if (entry.getKey() < step) {
+                freeBitmaps.offer(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    // Ask the encoder for a frame unless it is already ready, on screen or being encoded
+    private void request(long step) {
+        if (step == displayedStep || readyFrames.containsKey(step) || inFlight.contains(step)) {
+            return;
+        }
+
+        RotatingQRCode code = rotatingCode;
+        String content = staticContent;
+        int requestGeneration = generation;
+        inFlight.add(step);
+
+        encoder.execute(() -> {
+            Bitmap bitmap = freeBitmaps.poll();
+            if (bitmap == null) {
+                // Every bitmap is in use, the next tick asks again
+                mainHandler.post(() -> onFrameFailed(step, requestGeneration, null));
+                return;
+            }
+
+            try {
+                render(code != null ? code.contentFor(step) : content, bitmap);
+                mainHandler.post(() -> onFrameEncoded(step, bitmap, requestGeneration));
+            } catch (WriterException | RuntimeException e) {
+                Log.e(TAG, "Failed to encode QR frame", e);
+                freeBitmaps.offer(bitmap);
+                mainHandler.post(() -> onFrameFailed(step, requestGeneration, "Could not render QR code"));
+            }
+        });
+    }
+
+    private void onFrameEncoded(long step, Bitmap bitmap, int requestGeneration) {
+        if (requestGeneration != generation) {
+            freeBitmaps.offer(bitmap);
+            return;
+        }
+
+        inFlight.remove(step);
+        readyFrames.put(step, bitmap);
+
+        if (staticContent != null) {
+            swapTo(STATIC_STEP);
+        } else if (displayedStep == -1) {
+            // First frame of a rotating code, show it without waiting for the next tick
+            mainHandler.removeCallbacks(tick);
+            onTick();
+        }
+    }
+
+    // A rotating code asks again on its next tick, a static code has no second chance
+    private void onFrameFailed(long step, int requestGeneration, String errorMessage) {
+        if (requestGeneration != generation) {
+            return;
+        }
+
+        inFlight.remove(step);
+        if (staticContent != null) {
+            listener.onError(errorMessage != null ? errorMessage : "Could not render QR code");
+        }
+    }
+
+    // Runs on the encoder thread
+    private void render(String content, Bitmap bitmap) throws WriterException {
+        BitMatrix matrix = writer.encode(content, BarcodeFormat.QR_CODE, size, size, hints);
+        for (int y = 0; y < size; y++) {
+            int offset = y * size;
+            for (int x = 0; x < size; x++) {
+                pixels[offset + x] = matrix.get(x, y) ? Color.BLACK : Color.WHITE;
+            }
+        }
+        bitmap.setPixels(pixels, 0, size, 0, 0, size, size);
+    }
+
+    // Callback interface
+    interface FrameListener {
+        void onExpired();
+        void onError(String errorMessage);
+    }
+}
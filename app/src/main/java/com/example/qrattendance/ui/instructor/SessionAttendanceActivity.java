@@ -19,13 +19,18 @@ import com.example.qrattendance.data.model.Course;
 import com.example.qrattendance.data.model.Session;
 import com.example.qrattendance.data.model.Student;
 import com.example.qrattendance.data.repository.AttendanceRepository;
+import com.example.qrattendance.data.repository.LiveRoster;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 public class SessionAttendanceActivity extends AppCompatActivity {
 
@@ -44,6 +49,13 @@ public class SessionAttendanceActivity extends AppCompatActivity {
 
     private AttendanceRecordsAdapter attendanceAdapter;
 
+    private Course course;
+    private final Map<String, Student> students = new HashMap<>();
+    // Students already asked for, so a student that failed to load is not asked for on every scan
+    private final Set<String> requestedStudentIds = new HashSet<>();
+    private LiveRoster.Update latestRoster;
+    private boolean rosterStarted;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -121,10 +133,9 @@ public class SessionAttendanceActivity extends AppCompatActivity {
 
     private void displaySessionDetails(Map<String, Object> sessionDetails) {
         Session session = (Session) sessionDetails.get("session");
-        Course course = (Course) sessionDetails.get("course");
+        course = (Course) sessionDetails.get("course");
         List<AttendanceRecord> records = (List<AttendanceRecord>) sessionDetails.get("attendanceRecords");
-        Map<String, Student> students = (Map<String, Student>) sessionDetails.get("students");
-        Map<String, Object> stats = (Map<String, Object>) sessionDetails.get("stats");
+        Map<String, Student> loadedStudents = (Map<String, Student>) sessionDetails.get("students");
 
         if (session != null) {
             // Set session details
@@ -150,46 +161,106 @@ public class SessionAttendanceActivity extends AppCompatActivity {
                 getSupportActionBar().setTitle(course.getCourseCode() + " Attendance");
             }
 
-            // Display attendance statistics
-            if (stats != null) {
-                int totalPresent = stats.containsKey("totalPresent") ? (int) stats.get("totalPresent") : 0;
-                int totalStudents = stats.containsKey("totalStudents") ? (int) stats.get("totalStudents") : 0;
-                int absentCount = stats.containsKey("absentCount") ? (int) stats.get("absentCount") : 0;
-                double percentage = stats.containsKey("attendancePercentage") ? (double) stats.get("attendancePercentage") : 0.0;
+            if (loadedStudents != null) {
+                students.putAll(loadedStudents);
+                requestedStudentIds.addAll(loadedStudents.keySet());
+            }
+            // The live roster is newer than the records loaded with the session
+            if (latestRoster != null) {
+                displayRecords(latestRoster.getRecords());
+            } else {
+                displayRecords(records != null ? records : new ArrayList<>());
+            }
 
-                tvAttendanceStats.setText(String.format(Locale.getDefault(),
-                        "%d/%d students present (%.1f%%) • %d absent",
-                        totalPresent, totalStudents, percentage, absentCount));
+            // Keep the roster live, new scans are added as they arrive
+            if (!rosterStarted) {
+                rosterStarted = true;
+                attendanceRepository.getRosterUpdates().observe(this, this::onRosterUpdate);
+                attendanceRepository.fetchAttendanceBySession(this, sessionId);
             }
+        } else {
+            Toast.makeText(this, "Failed to load session data", Toast.LENGTH_SHORT).show();
+            finish();
+        }
+    }
 
-            // Display attendance records
-            if (records != null && !records.isEmpty()) {
-                // Create attendance model objects that combine record data with student info
-                List<AttendanceModel> attendanceModels = new ArrayList<>();
+    private void onRosterUpdate(LiveRoster.Update update) {
+        List<AttendanceRecord> records = update.getRecords();
+        // The live data may still hold the roster of a session viewed before
+        if (!records.isEmpty() && !sessionId.equals(records.get(0).getSessionId())) {
+            return;
+        }
+        latestRoster = update;
 
-                for (AttendanceRecord record : records) {
-                    String studentId = record.getStudentId();
-                    Student student = students != null ? students.get(studentId) : null;
+        List<String> unknownStudentIds = new ArrayList<>();
+        for (AttendanceRecord record : records) {
+            if (requestedStudentIds.add(record.getStudentId())) {
+                unknownStudentIds.add(record.getStudentId());
+            }
+        }
+        if (unknownStudentIds.isEmpty()) {
+            displayRecords(records);
+            return;
+        }
 
-                    String studentName = student != null ? student.getName() : "Unknown Student";
-                    String studentRoll = student != null ? student.getRollNumber() : "No Roll Number";
+        attendanceRepository.fetchStudents(unknownStudentIds, loadedStudents -> {
+            students.putAll(loadedStudents);
+            // Another scan may have arrived while the students loaded
+            displayRecords(latestRoster.getRecords());
+        });
+    }
 
-                    AttendanceModel model = new AttendanceModel(record, studentName, studentRoll);
-                    attendanceModels.add(model);
-                }
+    private void displayRecords(List<AttendanceRecord> records) {
+        displayStats(records.size());
 
-                // Update adapter
-                tvNoAttendance.setVisibility(View.GONE);
-                recyclerViewAttendance.setVisibility(View.VISIBLE);
-                attendanceAdapter.updateAttendanceRecords(attendanceModels);
-            } else {
-                tvNoAttendance.setVisibility(View.VISIBLE);
-                recyclerViewAttendance.setVisibility(View.GONE);
+        if (records.isEmpty()) {
+            tvNoAttendance.setVisibility(View.VISIBLE);
+            recyclerViewAttendance.setVisibility(View.GONE);
+            return;
+        }
+
+        // List in scan order, so a new scan is appended and earlier rows keep their numbers
+        List<AttendanceRecord> sortedRecords = new ArrayList<>(records);
+        Collections.sort(sortedRecords, (a, b) -> {
+            if (a.getTimestamp() == null) {
+                return b.getTimestamp() == null ? 0 : 1;
             }
-        } else {
-            Toast.makeText(this, "Failed to load session data", Toast.LENGTH_SHORT).show();
-            finish();
+            if (b.getTimestamp() == null) {
+                return -1;
+            }
+            return a.getTimestamp().compareTo(b.getTimestamp());
+        });
+
+        // Create attendance model objects that combine record data with student info
+        List<AttendanceModel> attendanceModels = new ArrayList<>();
+
+        for (AttendanceRecord record : sortedRecords) {
+            Student student = students.get(record.getStudentId());
+
+            String studentName = student != null ? student.getName() : "Unknown Student";
+            String studentRoll = student != null ? student.getRollNumber() : "No Roll Number";
+
+            AttendanceModel model = new AttendanceModel(record, studentName, studentRoll,
+                    attendanceModels.size() + 1);
+            attendanceModels.add(model);
         }
+
+        // Update adapter
+        tvNoAttendance.setVisibility(View.GONE);
+        recyclerViewAttendance.setVisibility(View.VISIBLE);
+        attendanceAdapter.updateAttendanceRecords(attendanceModels);
+    }
+
+    // Display attendance statistics against the course's enrollment
+    private void displayStats(int totalPresent) {
+        int totalStudents = course != null && course.getEnrolledStudentIds() != null
+                ? course.getEnrolledStudentIds().size() : 0;
+        int absentCount = Math.max(totalStudents - totalPresent, 0);
+        double percentage = totalStudents > 0 ? (double) totalPresent * 100 / totalStudents : 0.0;
+
+        tvAttendanceStats.setText(String.format(Locale.getDefault(),
+                "%d/%d students present (%.1f%%) • %d absent",
+                totalPresent, totalStudents, percentage, absentCount));
     }
 
     @Override
@@ -206,11 +277,13 @@ public class SessionAttendanceActivity extends AppCompatActivity {
         private final AttendanceRecord record;
         private final String studentName;
         private final String studentRoll;
+        private final int serialNumber;
 
-        public AttendanceModel(AttendanceRecord record, String studentName, String studentRoll) {
+        public AttendanceModel(AttendanceRecord record, String studentName, String studentRoll, int serialNumber) {
             this.record = record;
             this.studentName = studentName;
             this.studentRoll = studentRoll;
+            this.serialNumber = serialNumber;
         }
 
         public AttendanceRecord getRecord() {
@@ -224,5 +297,9 @@ public class SessionAttendanceActivity extends AppCompatActivity {
         public String getStudentRoll() {
             return studentRoll;
         }
+
+        public int getSerialNumber() {
+            return serialNumber;
+        }
     }
 }
\ No newline at end of file
@@ -7,20 +7,50 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.cardview.widget.CardView;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Session;
+import com.example.qrattendance.data.model.SessionAttendanceStats;
+import com.example.qrattendance.data.repository.AttendanceRepository;
+import com.example.qrattendance.ui.common.StableIds;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
-public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.SessionViewHolder> {
+public class SessionsAdapter extends ListAdapter<Session, SessionsAdapter.SessionViewHolder> {
+
+    private static final DiffUtil.ItemCallback<Session> DIFF_CALLBACK = new DiffUtil.ItemCallback<Session>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Session oldItem, @NonNull Session newItem) {
+            return Objects.equals(oldItem.getSessionId(), newItem.getSessionId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Session oldItem, @NonNull Session newItem) {
+            return Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                    && Objects.equals(oldItem.getStartTime(), newItem.getStartTime())
+                    && Objects.equals(oldItem.getEndTime(), newItem.getEndTime())
+                    && Objects.equals(oldItem.getLocation(), newItem.getLocation())
+                    && oldItem.getStatus() == newItem.getStatus();
+        }
+    };
 
-    private List<Session> sessions;
     private final SessionClickListener listener;
+    private final StableIds stableIds = new StableIds();
+    // Totals read from each session's counters, loaded once per session as its row is shown
+    private final Map<String, SessionAttendanceStats> statsCache = new HashMap<>();
+    private final Set<String> statsRequested = new HashSet<>();
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
     private final SimpleDateFormat timeFormat = new SimpleDateFormat("hh:mm a", Locale.getDefault());
 
@@ -29,13 +59,28 @@ public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.Sessio
     }
 
     public SessionsAdapter(List<Session> sessions, SessionClickListener listener) {
-        this.sessions = sessions;
+        super(DIFF_CALLBACK);
         this.listener = listener;
+        setHasStableIds(true);
+        submitList(new ArrayList<>(sessions));
     }
 
     public void updateSessions(List<Session> newSessions) {
-        this.sessions = newSessions;
-        notifyDataSetChanged();
+        submitList(new ArrayList<>(newSessions));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIds.idFor(getItem(position).getSessionId());
+    }
+
+    private void notifyStatsLoaded(String sessionId) {
+        List<Session> sessions = getCurrentList();
+        for (int i = 0; i < sessions.size(); i++) {
+            if (sessionId.equals(sessions.get(i).getSessionId())) {
+                notifyItemChanged(i);
+            }
+        }
     }
 
     @NonNull
@@ -48,15 +93,10 @@ public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.Sessio
 
     @Override
     public void onBindViewHolder(@NonNull SessionViewHolder holder, int position) {
-        Session session = sessions.get(position);
+        Session session = getItem(position);
         holder.bind(session);
     }
 
-    @Override
-    public int getItemCount() {
-        return sessions.size();
-    }
-
     class SessionViewHolder extends RecyclerView.ViewHolder {
         private final CardView cardView;
         private final TextView tvSessionTitle;
@@ -64,6 +104,7 @@ public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.Sessio
         private final TextView tvSessionTime;
         private final TextView tvSessionLocation;
         private final TextView tvSessionStatus;
+        private final TextView tvAttendanceSummary;
 
         public SessionViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -73,6 +114,7 @@ public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.Sessio
             tvSessionTime = itemView.findViewById(R.id.tvSessionTime);
             tvSessionLocation = itemView.findViewById(R.id.tvSessionLocation);
             tvSessionStatus = itemView.findViewById(R.id.tvSessionStatus);
+            tvAttendanceSummary = itemView.findViewById(R.id.tvAttendanceSummary);
         }
 
         public void bind(Session session) {
@@ -91,11 +133,12 @@ public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.Sessio
             tvSessionLocation.setText(session.getLocation());
 
             // Update status text and color based on session status
-            session.updateStatus(); // Ensure status is up to date
             String statusText = "Unknown";
             int statusColor = R.color.grey_600;
 
-            switch (session.getStatus()) {
+            // Shown as of now without changing the session, transitions are stored by the repository
+            Session.SessionStatus status = session.statusAt(new Date());
+            switch (status) {
                 case SCHEDULED:
                     statusText = "Scheduled";
                     statusColor = R.color.purple_500;
@@ -117,6 +160,8 @@ public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.Sessio
             tvSessionStatus.setText(statusText);
             tvSessionStatus.setTextColor(itemView.getContext().getResources().getColor(statusColor));
 
+            bindStats(session, status);
+
             // Set click listener for the entire card
             cardView.setOnClickListener(v -> {
                 if (listener != null) {
@@ -124,5 +169,35 @@ public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.Sessio
                 }
             });
         }
+
+        // Attendance totals of sessions that have started, without reading their records
+        private void bindStats(Session session, Session.SessionStatus status) {
+            String sessionId = session.getSessionId();
+            SessionAttendanceStats stats = statsCache.get(sessionId);
+            if (stats != null) {
+                tvAttendanceSummary.setText(String.format(Locale.getDefault(), "%d/%d Students Present",
+                        stats.getAttendedCount(), stats.getEnrolledCount()));
+                tvAttendanceSummary.setVisibility(View.VISIBLE);
+                return;
+            }
+
+            tvAttendanceSummary.setVisibility(View.GONE);
+            if (sessionId == null || status == Session.SessionStatus.SCHEDULED || !statsRequested.add(sessionId)) {
+                return;
+            }
+            AttendanceRepository.getInstance().fetchSessionStats(sessionId, new AttendanceRepository.OnSessionStatsListener() {
+                @Override
+                public void onSuccess(SessionAttendanceStats loaded) {
+                    statsCache.put(sessionId, loaded);
+                    // Rebind the session's row, this view may show another session by now
+                    notifyStatsLoaded(sessionId);
+                }
+
+                @Override
+                public void onFailure(String errorMessage) {
+                    // Leave the summary hidden, the session list is still usable
+                }
+            });
+        }
     }
 }
\ No newline at end of file
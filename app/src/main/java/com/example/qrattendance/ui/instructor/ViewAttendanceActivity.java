@@ -2,6 +2,7 @@ package com.example.qrattendance.ui.instructor;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
@@ -12,33 +13,50 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.util.Pair;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
+import com.example.qrattendance.data.model.AttendanceSummary;
 import com.example.qrattendance.data.model.Course;
 import com.example.qrattendance.data.model.Instructor;
 import com.example.qrattendance.data.model.Session;
+import com.example.qrattendance.data.repository.AttendanceExporter;
+import com.example.qrattendance.data.repository.AttendanceRepository;
 import com.example.qrattendance.data.repository.CourseRepository;
+import com.example.qrattendance.ui.common.AttendanceExportDialog;
 import com.example.qrattendance.util.SessionManager;
+import com.google.android.material.datepicker.MaterialDatePicker;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 public class ViewAttendanceActivity extends AppCompatActivity implements SessionsAdapter.SessionClickListener {
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
 
     private Toolbar toolbar;
     private Spinner spinnerCourses;
     private RecyclerView recyclerViewSessions;
     private TextView tvNoSessions;
+    private TextView tvCourseStats;
     private ProgressBar progressBar;
 
     private CourseRepository courseRepository;
     private Instructor currentInstructor;
 
     private List<Course> instructorCourses = new ArrayList<>();
+    private String statsCourseId;
+    private Course selectedCourse;
     private SessionsAdapter sessionsAdapter;
 
     @Override
@@ -72,6 +90,9 @@ public class ViewAttendanceActivity extends AppCompatActivity implements Session
             // Otherwise, load all instructor courses
             loadInstructorCourses(null);
         }
+
+        // Show an export that was running when the screen was rotated
+        AttendanceExportDialog.reattach(this);
     }
 
     private void loadInstructorCourses(String selectedCourseId) {
@@ -103,7 +124,7 @@ public class ViewAttendanceActivity extends AppCompatActivity implements Session
         });
 
         // Load the instructor's courses
-        courseRepository.fetchCoursesByInstructor(currentInstructor.getUserId());
+        courseRepository.fetchCoursesByInstructor(this, currentInstructor.getUserId());
     }
 
     // Add a method to select the course in the spinner
@@ -124,6 +145,7 @@ public class ViewAttendanceActivity extends AppCompatActivity implements Session
         spinnerCourses = findViewById(R.id.spinnerCourses);
         recyclerViewSessions = findViewById(R.id.recyclerViewSessions);
         tvNoSessions = findViewById(R.id.tvNoSessions);
+        tvCourseStats = findViewById(R.id.tvCourseStats);
         progressBar = findViewById(R.id.progressBar);
 
         // Set up toolbar
@@ -139,10 +161,14 @@ public class ViewAttendanceActivity extends AppCompatActivity implements Session
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                 if (position > 0 && position <= instructorCourses.size()) {
                     // Subtract 1 from position because of the "Select Course" item at position 0
-                    Course selectedCourse = instructorCourses.get(position - 1);
+                    selectedCourse = instructorCourses.get(position - 1);
                     loadSessionsForCourse(selectedCourse.getCourseId());
+                    loadCourseStats(selectedCourse);
                 } else {
                     // Clear sessions list
+                    selectedCourse = null;
+                    statsCourseId = null;
+                    tvCourseStats.setVisibility(View.GONE);
                     sessionsAdapter.updateSessions(new ArrayList<>());
                     tvNoSessions.setVisibility(View.VISIBLE);
                     recyclerViewSessions.setVisibility(View.GONE);
@@ -186,7 +212,7 @@ public class ViewAttendanceActivity extends AppCompatActivity implements Session
         });
 
         // Load the instructor's courses
-        courseRepository.fetchCoursesByInstructor(currentInstructor.getUserId());
+        courseRepository.fetchCoursesByInstructor(this, currentInstructor.getUserId());
     }
 
     private void setupCoursesSpinner() {
@@ -229,15 +255,114 @@ public class ViewAttendanceActivity extends AppCompatActivity implements Session
         courseRepository.fetchSessionsByCourse(courseId);
     }
 
+    // Course average and students below the threshold, from one summary per student
+    private void loadCourseStats(Course course) {
+        statsCourseId = course.getCourseId();
+        tvCourseStats.setVisibility(View.GONE);
+
+        int held = AttendanceSummary.sessionsHeld(course);
+        List<String> enrolledIds = course.getEnrolledStudentIds();
+        if (held == 0 || enrolledIds == null || enrolledIds.isEmpty()) {
+            return;
+        }
+
+        AttendanceRepository.getInstance().fetchCourseSummaries(course.getCourseId(),
+                new AttendanceRepository.OnSummariesListener() {
+                    @Override
+                    public void onSuccess(List<AttendanceSummary> summaries) {
+                        // Another course was selected meanwhile
+                        if (!course.getCourseId().equals(statsCourseId)) {
+                            return;
+                        }
+
+                        Map<String, AttendanceSummary> summariesByStudent = new HashMap<>();
+                        for (AttendanceSummary summary : summaries) {
+                            summariesByStudent.put(summary.getStudentId(), summary);
+                        }
+
+                        double totalPercentage = 0;
+                        int belowThreshold = 0;
+                        for (String studentId : enrolledIds) {
+                            AttendanceSummary summary = summariesByStudent.get(studentId);
+                            if (summary == null) {
+                                summary = new AttendanceSummary(studentId, course.getCourseId());
+                            }
+                            totalPercentage += summary.getAttendancePercentage(held);
+                            if (summary.isBelowThreshold(held, course.getAttendanceThreshold())) {
+                                belowThreshold++;
+                            }
+                        }
+
+                        tvCourseStats.setText(String.format(Locale.getDefault(),
+                                "Average attendance %d%% • %d of %d students below %d%%",
+                                Math.round(totalPercentage / enrolledIds.size()), belowThreshold,
+                                enrolledIds.size(), course.getAttendanceThreshold()));
+                        tvCourseStats.setVisibility(View.VISIBLE);
+                    }
+
+                    @Override
+                    public void onFailure(String errorMessage) {
+                        tvCourseStats.setVisibility(View.GONE);
+                    }
+                });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_view_attendance, menu);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
             onBackPressed();
             return true;
+        } else if (item.getItemId() == R.id.action_export_attendance) {
+            chooseExportRange();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    // Export the selected course, for the whole term or a range of days
+    private void chooseExportRange() {
+        if (selectedCourse == null) {
+            Toast.makeText(this, "Select a course to export", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Course course = selectedCourse;
+        new AlertDialog.Builder(this)
+                .setTitle("Export " + course.getCourseCode())
+                .setItems(new String[]{"All records", "Choose dates..."}, (dialog, which) -> {
+                    if (which == 0) {
+                        exportCourse(course, null, null);
+                        return;
+                    }
+                    MaterialDatePicker<Pair<Long, Long>> picker =
+                            MaterialDatePicker.Builder.dateRangePicker().setTitleText("Export dates").build();
+                    picker.addOnPositiveButtonClickListener(range ->
+                            exportCourse(course, startOfDay(range.first), startOfDay(range.second + DAY_MILLIS)));
+                    picker.show(getSupportFragmentManager(), "export_range");
+                })
+                .show();
+    }
+
+    private void exportCourse(Course course, Date from, Date to) {
+        String fileName = "attendance_" + course.getCourseCode();
+        if (from != null) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd", Locale.US);
+            fileName += "_" + format.format(from) + "-" + format.format(new Date(to.getTime() - DAY_MILLIS));
+        }
+        AttendanceExportDialog.start(this, AttendanceExporter.Filter.forCourse(course.getCourseId(), from, to), fileName);
+    }
+
+    // The picker reports days as UTC midnight, the export bounds are local midnight of that day
+    private static Date startOfDay(long utcMillis) {
+        return new Date(utcMillis - TimeZone.getDefault().getOffset(utcMillis));
+    }
+
     @Override
     public void onSessionClick(Session session) {
         // Open session attendance details
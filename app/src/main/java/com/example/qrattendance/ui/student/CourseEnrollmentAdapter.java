@@ -8,18 +8,41 @@ import android.widget.Button;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.ui.common.StableIds;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
-public class CourseEnrollmentAdapter extends RecyclerView.Adapter<CourseEnrollmentAdapter.CourseViewHolder> {
+public class CourseEnrollmentAdapter extends ListAdapter<Course, CourseEnrollmentAdapter.CourseViewHolder> {
 
-    private List<Course> courses;
-    private List<String> enrolledCourseIds;
+    private static final DiffUtil.ItemCallback<Course> DIFF_CALLBACK = new DiffUtil.ItemCallback<Course>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Course oldItem, @NonNull Course newItem) {
+            return Objects.equals(oldItem.getCourseId(), newItem.getCourseId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Course oldItem, @NonNull Course newItem) {
+            return Objects.equals(oldItem.getCourseCode(), newItem.getCourseCode())
+                    && Objects.equals(oldItem.getCourseName(), newItem.getCourseName())
+                    && Objects.equals(oldItem.getDescription(), newItem.getDescription())
+                    && Objects.equals(oldItem.getDepartment(), newItem.getDepartment());
+        }
+    };
+
+    // Copy of the enrolled IDs, so a change can be compared with what the rows show
+    private final Set<String> enrolledCourseIds = new HashSet<>();
     private final CourseEnrollmentListener listener;
+    private final StableIds stableIds = new StableIds();
 
     public interface CourseEnrollmentListener {
         void onEnrollClicked(Course course);
@@ -27,19 +50,41 @@ public class CourseEnrollmentAdapter extends RecyclerView.Adapter<CourseEnrollme
     }
 
     public CourseEnrollmentAdapter(List<Course> courses, List<String> enrolledCourseIds, CourseEnrollmentListener listener) {
-        this.courses = courses;
-        this.enrolledCourseIds = enrolledCourseIds;
+        super(DIFF_CALLBACK);
         this.listener = listener;
+        if (enrolledCourseIds != null) {
+            this.enrolledCourseIds.addAll(enrolledCourseIds);
+        }
+        setHasStableIds(true);
+        submitList(new ArrayList<>(courses));
     }
 
     public void updateCourses(List<Course> newCourses) {
-        this.courses = newCourses;
-        notifyDataSetChanged();
+        submitList(new ArrayList<>(newCourses));
     }
 
+    // Rebind only the courses whose enrollment state changed
     public void updateEnrolledCourses(List<String> newEnrolledCourseIds) {
-        this.enrolledCourseIds = newEnrolledCourseIds;
-        notifyDataSetChanged();
+        Set<String> updated = new HashSet<>();
+        if (newEnrolledCourseIds != null) {
+            updated.addAll(newEnrolledCourseIds);
+        }
+
+        List<Course> courses = getCurrentList();
+        for (int i = 0; i < courses.size(); i++) {
+            String courseId = courses.get(i).getCourseId();
+            if (enrolledCourseIds.contains(courseId) != updated.contains(courseId)) {
+                notifyItemChanged(i);
+            }
+        }
+
+        enrolledCourseIds.clear();
+        enrolledCourseIds.addAll(updated);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIds.idFor(getItem(position).getCourseId());
     }
 
     @NonNull
@@ -52,16 +97,11 @@ public class CourseEnrollmentAdapter extends RecyclerView.Adapter<CourseEnrollme
 
     @Override
     public void onBindViewHolder(@NonNull CourseViewHolder holder, int position) {
-        Course course = courses.get(position);
-        boolean isEnrolled = enrolledCourseIds != null && enrolledCourseIds.contains(course.getCourseId());
+        Course course = getItem(position);
+        boolean isEnrolled = enrolledCourseIds.contains(course.getCourseId());
         holder.bind(course, isEnrolled);
     }
 
-    @Override
-    public int getItemCount() {
-        return courses.size();
-    }
-
     class CourseViewHolder extends RecyclerView.ViewHolder {
         private final TextView tvCourseCode;
         private final TextView tvCourseName;
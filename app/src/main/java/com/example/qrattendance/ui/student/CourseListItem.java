@@ -0,0 +1,102 @@
+package com.example.qrattendance.ui.student;
+
+import com.example.qrattendance.data.model.Course;
+
+import java.util.Objects;
+
+/**
+ * Display data for one row of the student's course list.
+ * Everything a row shows is resolved before the list is submitted, so binding never waits on
+ * the network.
+ */
+public class CourseListItem {
+    private final String courseId;
+    private final String courseCode;
+    private final String courseName;
+    private final String departmentLabel;
+    private final String semesterLabel;
+    private final String creditsLabel;
+    private final String instructorLabel;
+
+    private CourseListItem(String courseId, String courseCode, String courseName, String departmentLabel,
+                           String semesterLabel, String creditsLabel, String instructorLabel) {
+        this.courseId = courseId;
+        this.courseCode = courseCode;
+        this.courseName = courseName;
+        this.departmentLabel = departmentLabel;
+        this.semesterLabel = semesterLabel;
+        this.creditsLabel = creditsLabel;
+        this.instructorLabel = instructorLabel;
+    }
+
+    /**
+     * Build the row for a course
+     *
+     * @param course         Course to show
+     * @param instructorName Name of the course's instructor, null if unknown
+     */
+    public static CourseListItem from(Course course, String instructorName) {
+        return new CourseListItem(
+                course.getCourseId(),
+                course.getCourseCode(),
+                course.getCourseName(),
+                "Department: " + course.getDepartment(),
+                "Semester: " + course.getSemester(),
+                "Credits: " + course.getCredits(),
+                instructorName != null ? "Instructor: " + instructorName : null
+        );
+    }
+
+    public String getCourseId() {
+        return courseId;
+    }
+
+    public String getCourseCode() {
+        return courseCode;
+    }
+
+    public String getCourseName() {
+        return courseName;
+    }
+
+    public String getDepartmentLabel() {
+        return departmentLabel;
+    }
+
+    public String getSemesterLabel() {
+        return semesterLabel;
+    }
+
+    public String getCreditsLabel() {
+        return creditsLabel;
+    }
+
+    // Null when the instructor is unknown and the row should hide the line
+    public String getInstructorLabel() {
+        return instructorLabel;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CourseListItem)) {
+            return false;
+        }
+        CourseListItem other = (CourseListItem) o;
+        return Objects.equals(courseId, other.courseId)
+                && Objects.equals(courseCode, other.courseCode)
+                && Objects.equals(courseName, other.courseName)
+                && Objects.equals(departmentLabel, other.departmentLabel)
+                && Objects.equals(semesterLabel, other.semesterLabel)
+                && Objects.equals(creditsLabel, other.creditsLabel)
+                && Objects.equals(instructorLabel, other.instructorLabel);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(courseId, courseCode, courseName, departmentLabel, semesterLabel, creditsLabel,
+                instructorLabel);
+    }
+}
@@ -15,12 +15,15 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.Course;
 import com.example.qrattendance.data.model.Student;
+import com.example.qrattendance.data.repository.AttendancePager;
+import com.example.qrattendance.data.repository.AttendanceRepository;
+import com.example.qrattendance.data.repository.EntityCache;
+import com.example.qrattendance.data.repository.StudentDataRepository;
+import com.example.qrattendance.ui.common.PagingScrollListener;
 import com.example.qrattendance.util.SessionManager;
-import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -28,6 +31,8 @@ import java.util.List;
 import java.util.Map;
 
 public class MyAttendanceActivity extends AppCompatActivity {
+    private static final int PAGE_SIZE = 25;
+    private static final int PREFETCH_DISTANCE = 10;
 
     private Toolbar toolbar;
     private TextView tvStudentName;
@@ -39,6 +44,10 @@ public class MyAttendanceActivity extends AppCompatActivity {
     private FirebaseFirestore db;
     private Student currentStudent;
     private MyAttendanceAdapter attendanceAdapter;
+    private AttendancePager attendancePager;
+    private PagingScrollListener scrollListener;
+    // First page read from Firestore, stored for the next visit
+    private List<AttendanceRecord> firstPage;
 
     // Maps to store course and session details
     private Map<String, String> courseNames = new HashMap<>();
@@ -88,8 +97,13 @@ public class MyAttendanceActivity extends AppCompatActivity {
 
     private void setupRecyclerView() {
         attendanceAdapter = new MyAttendanceAdapter(new ArrayList<>(), courseNames, sessionTitles);
-        recyclerViewAttendance.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerViewAttendance.setLayoutManager(layoutManager);
         recyclerViewAttendance.setAdapter(attendanceAdapter);
+
+        // Load the next page while the user is still a few rows away from the end
+        scrollListener = new PagingScrollListener(layoutManager, PREFETCH_DISTANCE, this::loadNextPage);
+        recyclerViewAttendance.addOnScrollListener(scrollListener);
     }
 
     private void loadAttendanceRecords() {
@@ -97,48 +111,94 @@ public class MyAttendanceActivity extends AppCompatActivity {
         tvNoAttendance.setVisibility(View.GONE);
         recyclerViewAttendance.setVisibility(View.GONE);
 
-        // Direct Firestore query without using repository for more control
-        db.collection("attendance_records")
-                .whereEqualTo("studentId", currentStudent.getUserId())
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<AttendanceRecord> records = new ArrayList<>();
-
-                    if (queryDocumentSnapshots.isEmpty()) {
-                        progressBar.setVisibility(View.GONE);
-                        tvNoAttendance.setVisibility(View.VISIBLE);
-                        recyclerViewAttendance.setVisibility(View.GONE);
-                        return;
-                    }
+        attendancePager = AttendanceRepository.getInstance()
+                .pageAttendanceByStudent(currentStudent.getUserId(), PAGE_SIZE);
+        loadStoredData();
+        loadNextPage();
+    }
 
-                    for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                        AttendanceRecord record = document.toObject(AttendanceRecord.class);
-                        record.setRecordId(document.getId());
-                        records.add(record);
+    // Course names and the last seen first page from the device, shown until the first page arrives
+    private void loadStoredData() {
+        StudentDataRepository.getInstance(this).load(currentStudent.getUserId(),
+                new StudentDataRepository.OnStudentDataListener() {
+                    @Override
+                    public void onData(StudentDataRepository.StudentData data) {
+                        if (isFinishing() || isDestroyed()) {
+                            return;
+                        }
+                        for (Course course : data.getCourses()) {
+                            String displayName = courseDisplayName(course.getCourseCode(), course.getCourseName());
+                            if (!displayName.equals(courseNames.put(course.getCourseId(), displayName))) {
+                                attendanceAdapter.notifyCourseNameChanged(course.getCourseId());
+                            }
+                        }
+                        for (Map.Entry<String, String> entry : data.getSessionTitles().entrySet()) {
+                            if (!sessionTitles.containsKey(entry.getKey())) {
+                                sessionTitles.put(entry.getKey(), entry.getValue());
+                                attendanceAdapter.notifySessionTitleChanged(entry.getKey());
+                            }
+                        }
 
-                        // Fetch course and session info for each record
-                        fetchCourseInfo(record.getCourseId());
-                        fetchSessionInfo(record.getSessionId());
+                        if (firstPage == null && !data.getRecentAttendance().isEmpty()) {
+                            tvNoAttendance.setVisibility(View.GONE);
+                            recyclerViewAttendance.setVisibility(View.VISIBLE);
+                            attendanceAdapter.submitList(new ArrayList<>(data.getRecentAttendance()));
+                        }
                     }
 
-                    // Now we have all the attendance records
-                    progressBar.setVisibility(View.GONE);
-
-                    if (records.isEmpty()) {
-                        tvNoAttendance.setVisibility(View.VISIBLE);
-                        recyclerViewAttendance.setVisibility(View.GONE);
-                    } else {
-                        tvNoAttendance.setVisibility(View.GONE);
-                        recyclerViewAttendance.setVisibility(View.VISIBLE);
-                        attendanceAdapter.updateAttendanceRecords(records);
+                    @Override
+                    public void onFailure(String errorMessage) {
+                        // The course names are also read per row, nothing is missing
                     }
-                })
-                .addOnFailureListener(e -> {
-                    progressBar.setVisibility(View.GONE);
-                    tvNoAttendance.setText("Error loading attendance: " + e.getMessage());
+                });
+    }
+
+    private void loadNextPage() {
+        if (attendancePager.isLoading() || attendancePager.isEndReached()) {
+            return;
+        }
+        progressBar.setVisibility(View.VISIBLE);
+
+        attendancePager.loadNextPage(new AttendancePager.OnPageLoadListener() {
+            @Override
+            public void onPageLoaded(List<AttendanceRecord> page, List<AttendanceRecord> allRecords, boolean endReached) {
+                progressBar.setVisibility(View.GONE);
+
+                if (allRecords.isEmpty()) {
+                    firstPage = new ArrayList<>();
+                    attendanceAdapter.submitList(new ArrayList<>());
                     tvNoAttendance.setVisibility(View.VISIBLE);
                     recyclerViewAttendance.setVisibility(View.GONE);
-                });
+                    return;
+                }
+
+                // Fetch course and session info for the new rows only
+                for (AttendanceRecord record : page) {
+                    fetchCourseInfo(record.getCourseId());
+                    fetchSessionInfo(record.getSessionId());
+                }
+                if (firstPage == null) {
+                    firstPage = new ArrayList<>(page);
+                }
+
+                tvNoAttendance.setVisibility(View.GONE);
+                recyclerViewAttendance.setVisibility(View.VISIBLE);
+                // Check again once the rows are laid out, a short first page may not fill the screen
+                attendanceAdapter.submitList(new ArrayList<>(allRecords), scrollListener::checkThreshold);
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                progressBar.setVisibility(View.GONE);
+                if (attendanceAdapter.getItemCount() == 0) {
+                    tvNoAttendance.setText("Error loading attendance: " + errorMessage);
+                    tvNoAttendance.setVisibility(View.VISIBLE);
+                    recyclerViewAttendance.setVisibility(View.GONE);
+                } else {
+                    Toast.makeText(MyAttendanceActivity.this, errorMessage, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
     }
 
     private void fetchCourseInfo(String courseId) {
@@ -149,34 +209,32 @@ public class MyAttendanceActivity extends AppCompatActivity {
         // Set a placeholder while fetching
         courseNames.put(courseId, "Loading...");
 
-        db.collection("courses").document(courseId)
-                .get()
+        EntityCache.getInstance().get(db.collection("courses").document(courseId))
                 .addOnSuccessListener(documentSnapshot -> {
                     if (documentSnapshot.exists()) {
-                        String courseCode = documentSnapshot.getString("courseCode");
-                        String courseName = documentSnapshot.getString("courseName");
-                        String displayName;
-
-                        if (courseCode != null && courseName != null) {
-                            displayName = courseCode + " - " + courseName;
-                        } else if (courseName != null) {
-                            displayName = courseName;
-                        } else if (courseCode != null) {
-                            displayName = courseCode;
-                        } else {
-                            displayName = "Unknown Course";
-                        }
-
+                        String displayName = courseDisplayName(documentSnapshot.getString("courseCode"),
+                                documentSnapshot.getString("courseName"));
                         courseNames.put(courseId, displayName);
-                        attendanceAdapter.notifyDataSetChanged();
+                        attendanceAdapter.notifyCourseNameChanged(courseId);
                     }
                 })
                 .addOnFailureListener(e -> {
                     courseNames.put(courseId, "Unknown Course");
-                    attendanceAdapter.notifyDataSetChanged();
+                    attendanceAdapter.notifyCourseNameChanged(courseId);
                 });
     }
 
+    private static String courseDisplayName(String courseCode, String courseName) {
+        if (courseCode != null && courseName != null) {
+            return courseCode + " - " + courseName;
+        } else if (courseName != null) {
+            return courseName;
+        } else if (courseCode != null) {
+            return courseCode;
+        }
+        return "Unknown Course";
+    }
+
     private void fetchSessionInfo(String sessionId) {
         if (sessionId == null || sessionTitles.containsKey(sessionId)) {
             return;
@@ -185,21 +243,36 @@ public class MyAttendanceActivity extends AppCompatActivity {
         // Set a placeholder while fetching
         sessionTitles.put(sessionId, "Loading...");
 
-        db.collection("sessions").document(sessionId)
-                .get()
+        EntityCache.getInstance().get(db.collection("sessions").document(sessionId))
                 .addOnSuccessListener(documentSnapshot -> {
                     if (documentSnapshot.exists()) {
                         String title = documentSnapshot.getString("title");
                         sessionTitles.put(sessionId, title != null ? title : "Unnamed Session");
-                        attendanceAdapter.notifyDataSetChanged();
+                        attendanceAdapter.notifySessionTitleChanged(sessionId);
                     }
                 })
                 .addOnFailureListener(e -> {
                     sessionTitles.put(sessionId, "Unknown Session");
-                    attendanceAdapter.notifyDataSetChanged();
+                    attendanceAdapter.notifySessionTitleChanged(sessionId);
                 });
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Remember the first page for the next visit, with the titles resolved by now
+        if (firstPage != null) {
+            Map<String, String> titles = new HashMap<>();
+            for (AttendanceRecord record : firstPage) {
+                String title = sessionTitles.get(record.getSessionId());
+                if (title != null && !title.equals("Loading...")) {
+                    titles.put(record.getSessionId(), title);
+                }
+            }
+            StudentDataRepository.getInstance(this).cacheRecentAttendance(currentStudent.getUserId(), firstPage, titles);
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
@@ -6,19 +6,39 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.ui.common.StableIds;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 
-public class MyAttendanceAdapter extends RecyclerView.Adapter<MyAttendanceAdapter.AttendanceViewHolder> {
+public class MyAttendanceAdapter extends ListAdapter<AttendanceRecord, MyAttendanceAdapter.AttendanceViewHolder> {
 
-    private List<AttendanceRecord> attendanceRecords;
+    private static final DiffUtil.ItemCallback<AttendanceRecord> DIFF_CALLBACK = new DiffUtil.ItemCallback<AttendanceRecord>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull AttendanceRecord oldItem, @NonNull AttendanceRecord newItem) {
+            return Objects.equals(oldItem.getRecordId(), newItem.getRecordId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull AttendanceRecord oldItem, @NonNull AttendanceRecord newItem) {
+            return Objects.equals(oldItem.getCourseId(), newItem.getCourseId())
+                    && Objects.equals(oldItem.getSessionId(), newItem.getSessionId())
+                    && Objects.equals(oldItem.getTimestamp(), newItem.getTimestamp())
+                    && oldItem.getStatus() == newItem.getStatus();
+        }
+    };
+
+    private final StableIds stableIds = new StableIds();
     private final Map<String, String> courseNames;
     private final Map<String, String> sessionTitles;
 
@@ -28,14 +48,40 @@ public class MyAttendanceAdapter extends RecyclerView.Adapter<MyAttendanceAdapte
     public MyAttendanceAdapter(List<AttendanceRecord> attendanceRecords,
                                Map<String, String> courseNames,
                                Map<String, String> sessionTitles) {
-        this.attendanceRecords = attendanceRecords;
+        super(DIFF_CALLBACK);
         this.courseNames = courseNames;
         this.sessionTitles = sessionTitles;
+        setHasStableIds(true);
+        submitList(new ArrayList<>(attendanceRecords));
     }
 
     public void updateAttendanceRecords(List<AttendanceRecord> newRecords) {
-        this.attendanceRecords = newRecords;
-        notifyDataSetChanged();
+        submitList(new ArrayList<>(newRecords));
+    }
+
+    // Rebind only the rows that show a course whose name was just resolved
+    public void notifyCourseNameChanged(String courseId) {
+        List<AttendanceRecord> records = getCurrentList();
+        for (int i = 0; i < records.size(); i++) {
+            if (Objects.equals(courseId, records.get(i).getCourseId())) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    // Rebind only the rows that show a session whose title was just resolved
+    public void notifySessionTitleChanged(String sessionId) {
+        List<AttendanceRecord> records = getCurrentList();
+        for (int i = 0; i < records.size(); i++) {
+            if (Objects.equals(sessionId, records.get(i).getSessionId())) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIds.idFor(getItem(position).getRecordId());
     }
 
     @NonNull
@@ -48,15 +94,10 @@ public class MyAttendanceAdapter extends RecyclerView.Adapter<MyAttendanceAdapte
 
     @Override
     public void onBindViewHolder(@NonNull AttendanceViewHolder holder, int position) {
-        AttendanceRecord record = attendanceRecords.get(position);
+        AttendanceRecord record = getItem(position);
         holder.bind(record);
     }
 
-    @Override
-    public int getItemCount() {
-        return attendanceRecords.size();
-    }
-
     class AttendanceViewHolder extends RecyclerView.ViewHolder {
         private final TextView tvCourseName;
         private final TextView tvSessionTitle;
@@ -6,25 +6,46 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.qrattendance.R;
-import com.example.qrattendance.data.model.Course;
-import com.google.firebase.firestore.FirebaseFirestore;
+import com.example.qrattendance.ui.common.StableIds;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
-public class MyCourseAdapter extends RecyclerView.Adapter<MyCourseAdapter.CourseViewHolder> {
+public class MyCourseAdapter extends ListAdapter<CourseListItem, MyCourseAdapter.CourseViewHolder> {
 
-    private List<Course> courses;
+    private static final DiffUtil.ItemCallback<CourseListItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<CourseListItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull CourseListItem oldItem, @NonNull CourseListItem newItem) {
+            return Objects.equals(oldItem.getCourseId(), newItem.getCourseId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull CourseListItem oldItem, @NonNull CourseListItem newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
 
-    public MyCourseAdapter(List<Course> courses) {
-        this.courses = courses;
+    private final StableIds stableIds = new StableIds();
+
+    public MyCourseAdapter(List<CourseListItem> items) {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+        submitList(new ArrayList<>(items));
     }
 
-    public void updateCourses(List<Course> newCourses) {
-        this.courses = newCourses;
-        notifyDataSetChanged();
+    public void updateItems(List<CourseListItem> newItems) {
+        submitList(new ArrayList<>(newItems));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIds.idFor(getItem(position).getCourseId());
     }
 
     @NonNull
@@ -37,13 +58,8 @@ public class MyCourseAdapter extends RecyclerView.Adapter<MyCourseAdapter.Course
 
     @Override
     public void onBindViewHolder(@NonNull CourseViewHolder holder, int position) {
-        Course course = courses.get(position);
-        holder.bind(course);
-    }
-
-    @Override
-    public int getItemCount() {
-        return courses.size();
+        CourseListItem item = getItem(position);
+        holder.bind(item);
     }
 
     static class CourseViewHolder extends RecyclerView.ViewHolder {
@@ -64,34 +80,20 @@ public class MyCourseAdapter extends RecyclerView.Adapter<MyCourseAdapter.Course
             tvInstructor = itemView.findViewById(R.id.tvInstructor);
         }
 
-        public void bind(Course course) {
-            tvCourseCode.setText(course.getCourseCode());
-            tvCourseName.setText(course.getCourseName());
-            tvDepartment.setText("Department: " + course.getDepartment());
-            tvSemester.setText("Semester: " + course.getSemester());
-            tvCredits.setText("Credits: " + course.getCredits());
-
-            // Fetch instructor name
-            if (course.getInstructorId() != null) {
-                FirebaseFirestore.getInstance().collection("users").document(course.getInstructorId())
-                        .get()
-                        .addOnSuccessListener(documentSnapshot -> {
-                            if (documentSnapshot.exists()) {
-                                String instructorName = documentSnapshot.getString("name");
-                                if (instructorName != null) {
-                                    tvInstructor.setText("Instructor: " + instructorName);
-                                    tvInstructor.setVisibility(View.VISIBLE);
-                                } else {
-                                    tvInstructor.setVisibility(View.GONE);
-                                }
-                            } else {
-                                tvInstructor.setVisibility(View.GONE);
-                            }
-                        })
-                        .addOnFailureListener(e -> tvInstructor.setVisibility(View.GONE));
+        // Only copies precomputed values, display data is resolved before the list is submitted
+        public void bind(CourseListItem item) {
+            tvCourseCode.setText(item.getCourseCode());
+            tvCourseName.setText(item.getCourseName());
+            tvDepartment.setText(item.getDepartmentLabel());
+            tvSemester.setText(item.getSemesterLabel());
+            tvCredits.setText(item.getCreditsLabel());
+
+            if (item.getInstructorLabel() != null) {
+                tvInstructor.setText(item.getInstructorLabel());
+                tvInstructor.setVisibility(View.VISIBLE);
             } else {
                 tvInstructor.setVisibility(View.GONE);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -16,11 +16,12 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.qrattendance.R;
 import com.example.qrattendance.data.model.Course;
 import com.example.qrattendance.data.model.Student;
+import com.example.qrattendance.data.repository.StudentDataRepository;
 import com.example.qrattendance.util.SessionManager;
-import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class MyCoursesActivity extends AppCompatActivity {
 
@@ -29,7 +30,6 @@ public class MyCoursesActivity extends AppCompatActivity {
     private TextView tvNoCourses;
     private ProgressBar progressBar;
     private Student currentStudent;
-    private FirebaseFirestore firestore;
     private MyCourseAdapter adapter;
 
     @Override
@@ -37,9 +37,6 @@ public class MyCoursesActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_my_courses);
 
-        // Initialize Firestore
-        firestore = FirebaseFirestore.getInstance();
-
         // Get current student from session
         currentStudent = (Student) SessionManager.getInstance(this).getUserData();
         if (currentStudent == null) {
@@ -77,64 +74,44 @@ public class MyCoursesActivity extends AppCompatActivity {
     private void loadEnrolledCourses() {
         progressBar.setVisibility(View.VISIBLE);
 
-        List<String> enrolledCourseIds = currentStudent.getEnrolledCourseIds();
-
-        if (enrolledCourseIds == null || enrolledCourseIds.isEmpty()) {
-            progressBar.setVisibility(View.GONE);
-            tvNoCourses.setVisibility(View.VISIBLE);
-            recyclerView.setVisibility(View.GONE);
-            return;
-        }
-
-        List<Course> courses = new ArrayList<>();
-        final int[] completedQueries = {0};
-        final int totalCourses = enrolledCourseIds.size();
-
-        for (String courseId : enrolledCourseIds) {
-            firestore.collection("courses").document(courseId)
-                    .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        completedQueries[0]++;
-
-                        if (documentSnapshot.exists()) {
-                            Course course = documentSnapshot.toObject(Course.class);
-                            if (course != null) {
-                                course.setCourseId(documentSnapshot.getId());
-                                courses.add(course);
-                            }
+        // Rows come from the courses stored on the device first, then from the refreshed ones
+        StudentDataRepository.getInstance(this).load(currentStudent.getUserId(),
+                new StudentDataRepository.OnStudentDataListener() {
+                    @Override
+                    public void onData(StudentDataRepository.StudentData data) {
+                        // An empty disk copy may be outdated, wait for the refresh before saying so
+                        if (!data.isFresh() && data.getCourses().isEmpty()) {
+                            return;
                         }
 
-                        // Check if all courses have been fetched
-                        if (completedQueries[0] >= totalCourses) {
-                            progressBar.setVisibility(View.GONE);
-
-                            if (courses.isEmpty()) {
-                                tvNoCourses.setVisibility(View.VISIBLE);
-                                recyclerView.setVisibility(View.GONE);
-                            } else {
-                                tvNoCourses.setVisibility(View.GONE);
-                                recyclerView.setVisibility(View.VISIBLE);
-                                adapter.updateCourses(courses);
-                            }
+                        Map<String, String> instructorNames = data.getInstructorNames();
+                        List<CourseListItem> items = new ArrayList<>(data.getCourses().size());
+                        for (Course course : data.getCourses()) {
+                            items.add(CourseListItem.from(course, instructorNames.get(course.getInstructorId())));
                         }
-                    })
-                    .addOnFailureListener(e -> {
-                        completedQueries[0]++;
-
-                        // Check if all courses have been fetched
-                        if (completedQueries[0] >= totalCourses) {
-                            progressBar.setVisibility(View.GONE);
-
-                            if (courses.isEmpty()) {
-                                tvNoCourses.setVisibility(View.VISIBLE);
-                                recyclerView.setVisibility(View.GONE);
-                            } else {
-                                tvNoCourses.setVisibility(View.GONE);
-                                recyclerView.setVisibility(View.VISIBLE);
-                                adapter.updateCourses(courses);
-                            }
+                        showCourses(items);
+                    }
+
+                    @Override
+                    public void onFailure(String errorMessage) {
+                        Toast.makeText(MyCoursesActivity.this, errorMessage, Toast.LENGTH_SHORT).show();
+                        if (progressBar.getVisibility() == View.VISIBLE) {
+                            showCourses(new ArrayList<>());
                         }
-                    });
+                    }
+                });
+    }
+
+    private void showCourses(List<CourseListItem> items) {
+        progressBar.setVisibility(View.GONE);
+
+        if (items.isEmpty()) {
+            tvNoCourses.setVisibility(View.VISIBLE);
+            recyclerView.setVisibility(View.GONE);
+        } else {
+            tvNoCourses.setVisibility(View.GONE);
+            recyclerView.setVisibility(View.VISIBLE);
+            adapter.updateItems(items);
         }
     }
 
@@ -4,8 +4,12 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
+import android.content.Context;
 import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -20,10 +24,17 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import com.example.qrattendance.R;
+import com.example.qrattendance.data.local.PendingScan;
+import com.example.qrattendance.data.local.ScanOutbox;
+import com.example.qrattendance.data.local.ScanSyncWorker;
 import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.Session;
 import com.example.qrattendance.data.model.Student;
 import com.example.qrattendance.data.repository.AttendanceRepository;
-import com.example.qrattendance.data.repository.CourseRepository;
+import com.example.qrattendance.data.repository.BatchDocumentLoader;
+import com.example.qrattendance.data.repository.ScanPipeline;
+import com.example.qrattendance.data.repository.ServerClock;
+import com.example.qrattendance.data.repository.SettingsRepository;
 import com.example.qrattendance.util.SessionManager;
 import com.example.qrattendance.util.UIHelper;
 import com.google.firebase.firestore.DocumentSnapshot;
@@ -33,8 +44,6 @@ import com.journeyapps.barcodescanner.BarcodeCallback;
 import com.journeyapps.barcodescanner.BarcodeResult;
 import com.journeyapps.barcodescanner.DecoratedBarcodeView;
 
-import org.json.JSONObject;
-
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -43,7 +52,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class QRScannerActivity extends AppCompatActivity {
 
@@ -63,7 +71,8 @@ public class QRScannerActivity extends AppCompatActivity {
     private boolean scanComplete = false;
 
     private AttendanceRepository attendanceRepository;
-    private CourseRepository courseRepository;
+    private ScanPipeline scanPipeline;
+    private SettingsRepository settingsRepository;
     private Student currentStudent;
 
     @Override
@@ -73,7 +82,11 @@ public class QRScannerActivity extends AppCompatActivity {
 
         // Initialize repositories
         attendanceRepository = AttendanceRepository.getInstance();
-        courseRepository = CourseRepository.getInstance();
+        scanPipeline = ScanPipeline.getInstance(this);
+        settingsRepository = SettingsRepository.getInstance();
+
+        // Read the server time now, so scans don't wait for it and offline scans can be timed
+        ServerClock.getInstance().now();
 
         // Get current student from session
         currentStudent = (Student) SessionManager.getInstance(this).getUserData();
@@ -119,6 +132,8 @@ public class QRScannerActivity extends AppCompatActivity {
             @Override
             public void barcodeResult(BarcodeResult result) {
                 if (result != null && result.getText() != null && !scanComplete) {
+                    long scannedAt = SystemClock.elapsedRealtime();
+
                     // Set scanComplete to prevent multiple scans
                     scanComplete = true;
 
@@ -126,7 +141,7 @@ public class QRScannerActivity extends AppCompatActivity {
                     barcodeView.pause();
 
                     // Process the scan result
-                    processScanResult(result.getText());
+                    processScanResult(result.getText(), scannedAt);
                 }
             }
 
@@ -137,174 +152,147 @@ public class QRScannerActivity extends AppCompatActivity {
         });
     }
 
-    private void processScanResult(String scanContent) {
-        try {
-            // Parse QR code content
-            JSONObject jsonObject = new JSONObject(scanContent);
-
-            // Extract course ID if available
-            String courseId = null;
-            if (jsonObject.has("courseId")) {
-                courseId = jsonObject.getString("courseId");
-            }
+    private void processScanResult(String scanContent, long scannedAt) {
+        // Create a simple location data (in a real app, you would use device location)
+        AttendanceRecord.LocationData location = new AttendanceRecord.LocationData(
+                0.0, 0.0, "Unknown Location");
 
-            // If courseId is not in the QR content, extract it from the session
-            if (courseId == null && jsonObject.has("sessionId")) {
-                String sessionId = jsonObject.getString("sessionId");
-                courseId = getSessionCourseId(sessionId);
-            }
+        // Without a connection, queue the scan instead of trying the server
+        if (!isOnline()) {
+            queueOfflineScan(scanContent);
+            return;
+        }
 
-            // If we have a courseId, check enrollment before marking attendance
-            if (courseId != null) {
-                checkEnrollmentAndMarkAttendance(scanContent, courseId);
-            } else {
-                // If we still couldn't get courseId, proceed with attendance marking
-                // This is a fallback for compatibility with older QR codes
-                markAttendance(scanContent);
-            }
+        Log.d(TAG, "Scanned content: " + scanContent);
 
-        } catch (Exception e) {
-            scanComplete = false;
-            barcodeView.resume();
-            UIHelper.showErrorDialog(this, "Error", "Invalid QR code format: " + e.getMessage());
-        }
+        // Parse, enrollment check and commit run as one chain, nothing here waits on the main thread
+        scanPipeline.process(scanContent, currentStudent.getUserId(), location, scannedAt)
+                .addOnSuccessListener(this, result ->
+                        showSuccessOverlay("Attendance marked successfully!", result.getCourseInfo(), new Date()))
+                .addOnFailureListener(this, e -> {
+                    if (!(e instanceof ScanPipeline.ScanException)) {
+                        showScanError("Error", e.getMessage());
+                        return;
+                    }
+                    switch (((ScanPipeline.ScanException) e).getKind()) {
+                        case INVALID:
+                            showScanError("Invalid QR Code", e.getMessage());
+                            break;
+                        case EXPIRED:
+                            showScanError("QR Code Expired", e.getMessage());
+                            break;
+                        case NOT_ENROLLED:
+                            showNotEnrolled(e.getMessage());
+                            break;
+                        case UNAVAILABLE:
+                            // Server could not be reached, fall back to the offline queue
+                            queueOfflineScan(scanContent);
+                            break;
+                        default:
+                            showScanError("Error", e.getMessage());
+                            break;
+                    }
+                });
     }
 
-    private String getSessionCourseId(String sessionId) {
-        // This is a synchronous method to get courseId from sessionId
-        // In a real app, you might want to make this asynchronous
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        final String[] courseId = {null};
+    private void showNotEnrolled(String message) {
+        UIHelper.showErrorDialog(this, "Not Enrolled", message);
+
+        // Ask if they want to go to enrollment screen
+        new AlertDialog.Builder(this)
+                .setTitle("Enroll Now?")
+                .setMessage("Would you like to go to the course enrollment screen?")
+                .setPositiveButton("Yes", (dialog, which) -> {
+                    // Open CourseEnrollmentActivity
+                    // navigateToCourseEnrollment();
+                    finish();
+                })
+                .setNegativeButton("No", (dialog, which) -> {
+                    // Resume scanning
+                    scanComplete = false;
+                    barcodeView.resume();
+                })
+                .show();
+    }
 
+    private void queueOfflineScan(String scanContent) {
+        AttendanceRepository.QRCodeData qrData;
         try {
-            DocumentSnapshot sessionDoc = db.collection("sessions").document(sessionId)
-                    .get()
-                    .getResult();
+            // Signed codes are verified here on the device
+            qrData = scanPipeline.parse(scanContent);
+        } catch (ScanPipeline.ScanException e) {
+            showScanError(e.getKind() == ScanPipeline.ScanException.Kind.EXPIRED
+                    ? "QR Code Expired" : "Invalid QR Code", e.getMessage());
+            return;
+        }
+        // A rotating code's step is only live for seconds, by the time the queue syncs it is
+        // rejected, so it is refused here rather than reported as saved
+        if (qrData.isRotating()) {
+            showScanError("No Connection",
+                    "This QR code changes every few seconds and can only be scanned online. "
+                            + "Connect to the internet and scan again.");
+            return;
+        }
+        handleOfflineScan(scanContent, qrData.getSessionId(), qrData.getCourseId());
+    }
 
-            if (sessionDoc.exists()) {
-                courseId[0] = sessionDoc.getString("courseId");
+    private void handleOfflineScan(String scanContent, String sessionId, String courseId) {
+        settingsRepository.isOfflineModeEnabled(offlineModeEnabled -> {
+            if (!offlineModeEnabled) {
+                showScanError("No Connection", "You are offline. Connect to the internet and scan again.");
+                return;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting session data: " + e.getMessage());
-        }
 
-        return courseId[0];
-    }
+            // Enrollment can only be checked against the courses saved with the login session
+            List<String> enrolledCourseIds = currentStudent.getEnrolledCourseIds();
+            if (courseId != null && enrolledCourseIds != null && !enrolledCourseIds.contains(courseId)) {
+                showScanError("Not Enrolled",
+                        "You are not enrolled in this course. Please enroll before marking attendance.");
+                return;
+            }
 
-    private void checkEnrollmentAndMarkAttendance(String scanContent, String courseId) {
-        // Check if student is enrolled in the course
-        courseRepository.isStudentEnrolled(courseId, currentStudent.getUserId(),
-                isEnrolled -> {
-                    if (isEnrolled) {
-                        // Student is enrolled, proceed with marking attendance
-                        markAttendance(scanContent);
-                    } else {
-                        // Student is not enrolled
-                        runOnUiThread(() -> {
-                            UIHelper.showErrorDialog(this, "Not Enrolled",
-                                    "You are not enrolled in this course. Please enroll before marking attendance.");
-
-                            // Ask if they want to go to enrollment screen
-                            new AlertDialog.Builder(this)
-                                    .setTitle("Enroll Now?")
-                                    .setMessage("Would you like to go to the course enrollment screen?")
-                                    .setPositiveButton("Yes", (dialog, which) -> {
-                                        // Open CourseEnrollmentActivity
-                                        // navigateToCourseEnrollment();
-                                        finish();
-                                    })
-                                    .setNegativeButton("No", (dialog, which) -> {
-                                        // Resume scanning
-                                        scanComplete = false;
-                                        barcodeView.resume();
-                                    })
-                                    .show();
-                        });
-                    }
-                });
+            queueScan(scanContent, sessionId);
+        });
     }
 
-    private void markAttendance(String scanContent) {
-        // Create a simple location data (in a real app, you would use device location)
+    private void queueScan(String scanContent, String sessionId) {
+        // Same placeholder location as the online path
         AttendanceRecord.LocationData location = new AttendanceRecord.LocationData(
                 0.0, 0.0, "Unknown Location");
 
-        Log.d(TAG, "Scanned content: " + scanContent);
-
-        // Mark attendance in Firebase
-        attendanceRepository.markAttendance(scanContent, currentStudent.getUserId(), location,
-                new AttendanceRepository.OnAttendanceListener() {
-                    @Override
-                    public void onSuccess(String message) {
-                        // Parse the QR content to get sessionId
-                        try {
-                            JSONObject jsonObject = new JSONObject(scanContent);
-                            String sessionId = jsonObject.getString("sessionId");
-
-                            // Fetch session details to display course info
-                            fetchSessionDetails(sessionId);
-                        } catch (Exception e) {
-                            // If parsing fails, just show generic success
-                            showSuccessOverlay("Attendance marked successfully!", "Unknown Course", new Date());
-                        }
-                    }
+        // Server time as of the last probe. The device clock can be set to any time, so without a
+        // probe since the app started there is no time to judge the scan at
+        Date queuedAt = ServerClock.getInstance().estimate();
+        if (queuedAt == null) {
+            showScanError("No Connection",
+                    "Attendance can only be saved offline after the app has reached the server. "
+                            + "Connect to the internet and scan again.");
+            return;
+        }
+        PendingScan scan = new PendingScan(sessionId, currentStudent.getUserId(), scanContent, queuedAt, location);
+        boolean queued = ScanOutbox.getInstance(this).enqueue(scan);
+        ScanSyncWorker.schedule(this);
 
-                    @Override
-                    public void onFailure(String errorMessage) {
-                        // Show error message and resume scanning after delay
-                        runOnUiThread(() -> {
-                            UIHelper.showErrorDialog(QRScannerActivity.this, "Error", errorMessage);
+        Log.d(TAG, "Scan for session " + sessionId + (queued ? " queued" : " was already queued"));
+        showSuccessOverlay("Attendance saved offline",
+                "Saved offline\nIt will be submitted automatically when you are back online", scan.getScannedAt());
+    }
 
-                            // Resume scanning after a delay
-                            scanComplete = false;
-                            barcodeView.postDelayed(() -> barcodeView.resume(), 2000);
-                        });
-                    }
-                });
+    private void showScanError(String title, String message) {
+        runOnUiThread(() -> {
+            UIHelper.showErrorDialog(this, title, message);
+            scanComplete = false;
+            barcodeView.postDelayed(() -> barcodeView.resume(), 2000);
+        });
     }
 
-    private void fetchSessionDetails(String sessionId) {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        db.collection("sessions").document(sessionId)
-                .get()
-                .addOnSuccessListener(sessionDoc -> {
-                    if (sessionDoc.exists()) {
-                        String courseId = sessionDoc.getString("courseId");
-                        String sessionTitle = sessionDoc.getString("title");
-                        Date timestamp = new Date();
-
-                        // Fetch course details if courseId exists
-                        if (courseId != null && !courseId.isEmpty()) {
-                            db.collection("courses").document(courseId)
-                                    .get()
-                                    .addOnSuccessListener(courseDoc -> {
-                                        if (courseDoc.exists()) {
-                                            String courseName = courseDoc.getString("courseName");
-                                            String courseCode = courseDoc.getString("courseCode");
-                                            String courseInfo = courseCode + " - " + courseName;
-
-                                            if (sessionTitle != null && !sessionTitle.isEmpty()) {
-                                                courseInfo += "\n" + sessionTitle;
-                                            }
-
-                                            showSuccessOverlay("Attendance marked successfully!", courseInfo, timestamp);
-                                        } else {
-                                            showSuccessOverlay("Attendance marked successfully!", "Unknown Course", timestamp);
-                                        }
-                                    })
-                                    .addOnFailureListener(e -> {
-                                        showSuccessOverlay("Attendance marked successfully!", "Unknown Course", timestamp);
-                                    });
-                        } else {
-                            showSuccessOverlay("Attendance marked successfully!", "Unknown Course", timestamp);
-                        }
-                    } else {
-                        showSuccessOverlay("Attendance marked successfully!", "Unknown Course", new Date());
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    showSuccessOverlay("Attendance marked successfully!", "Unknown Course", new Date());
-                });
+    private boolean isOnline() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return true;
+        }
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
     }
 
     // Helper method to display success overlay
@@ -373,122 +361,94 @@ public class QRScannerActivity extends AppCompatActivity {
         progressDialog.setCancelable(false);
         progressDialog.show();
 
-        // Fetch active QR codes from Firestore
-        FirebaseFirestore.getInstance().collection("qr_codes")
-                .get()
-                .addOnSuccessListener(querySnapshot -> {
-                    progressDialog.dismiss();
-
-                    if (querySnapshot.isEmpty()) {
-                        UIHelper.showErrorToast(this, "No QR codes found");
-                        return;
+        // Only running sessions hand out valid codes, one indexed query finds them
+        attendanceRepository.fetchInProgressSessions(new AttendanceRepository.OnSessionsListener() {
+            @Override
+            public void onSuccess(List<Session> sessions) {
+                List<String> qrCodeIds = new ArrayList<>();
+                List<String> courseIds = new ArrayList<>();
+                for (Session session : sessions) {
+                    if (session.getQrCodeId() != null) {
+                        qrCodeIds.add(session.getQrCodeId());
+                        courseIds.add(session.getCourseId());
                     }
+                }
 
-                    // Create list of QR codes with session/course info
-                    List<Map<String, String>> qrInfoList = new ArrayList<>();
-
-                    // Counter for tracking async operations
-                    AtomicInteger counter = new AtomicInteger(0);
-                    int totalQrCodes = querySnapshot.size();
-
-                    for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
-                        String qrCodeId = doc.getId();
-                        String sessionId = doc.getString("sessionId");
-                        String courseId = doc.getString("courseId");
-                        String qrContent = doc.getString("content");
-                        boolean isActive = Boolean.TRUE.equals(doc.getBoolean("isActive"));
-
-                        Map<String, String> qrInfo = new HashMap<>();
-                        qrInfo.put("qrCodeId", qrCodeId);
-                        qrInfo.put("content", qrContent);
-                        qrInfo.put("isActive", isActive ? "Active" : "Inactive");
-
-                        // Fetch session details
-                        if (sessionId != null) {
-                            FirebaseFirestore.getInstance().collection("sessions").document(sessionId)
-                                    .get()
-                                    .addOnSuccessListener(sessionDoc -> {
-                                        String sessionTitle = sessionDoc.getString("title");
-                                        qrInfo.put("sessionTitle", sessionTitle != null ? sessionTitle : "Unknown Session");
-
-                                        // Fetch course details
-                                        if (courseId != null) {
-                                            FirebaseFirestore.getInstance().collection("courses").document(courseId)
-                                                    .get()
-                                                    .addOnSuccessListener(courseDoc -> {
-                                                        String courseName = courseDoc.getString("courseName");
-                                                        String courseCode = courseDoc.getString("courseCode");
-
-                                                        qrInfo.put("courseInfo", (courseCode != null ? courseCode : "Unknown") +
-                                                                " - " + (courseName != null ? courseName : "Course"));
-
-                                                        // Check if this is the last item to process
-                                                        if (counter.incrementAndGet() == totalQrCodes) {
-                                                            showQRSelectionDialog(builder, qrInfoList);
-                                                        }
-                                                    })
-                                                    .addOnFailureListener(e -> {
-                                                        qrInfo.put("courseInfo", "Error loading course");
-                                                        if (counter.incrementAndGet() == totalQrCodes) {
-                                                            showQRSelectionDialog(builder, qrInfoList);
-                                                        }
-                                                    });
-                                        } else {
-                                            qrInfo.put("courseInfo", "No Course ID");
-                                            if (counter.incrementAndGet() == totalQrCodes) {
-                                                showQRSelectionDialog(builder, qrInfoList);
-                                            }
-                                        }
-                                    })
-                                    .addOnFailureListener(e -> {
-                                        qrInfo.put("sessionTitle", "Error loading session");
-                                        qrInfo.put("courseInfo", "Unknown Course");
-
-                                        if (counter.incrementAndGet() == totalQrCodes) {
-                                            showQRSelectionDialog(builder, qrInfoList);
-                                        }
-                                    });
-                        } else {
-                            qrInfo.put("sessionTitle", "No Session ID");
-                            qrInfo.put("courseInfo", "Unknown Course");
-
-                            if (counter.incrementAndGet() == totalQrCodes) {
-                                showQRSelectionDialog(builder, qrInfoList);
-                            }
-                        }
-
-                        qrInfoList.add(qrInfo);
-                    }
-                })
-                .addOnFailureListener(e -> {
+                if (qrCodeIds.isEmpty()) {
                     progressDialog.dismiss();
-                    UIHelper.showErrorToast(this, "Error fetching QR codes: " + e.getMessage());
-                });
+                    UIHelper.showErrorToast(QRScannerActivity.this, "No QR codes found");
+                    return;
+                }
+
+                // Codes and courses of all running sessions in batched reads
+                FirebaseFirestore db = FirebaseFirestore.getInstance();
+                new BatchDocumentLoader(db.collection("qr_codes")).load(qrCodeIds, qrCodes ->
+                        new BatchDocumentLoader(db.collection("courses")).load(courseIds, courses -> {
+                            progressDialog.dismiss();
+                            showQRSelectionDialog(builder, qrInfoFor(sessions, qrCodes, courses));
+                        }));
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                progressDialog.dismiss();
+                UIHelper.showErrorToast(QRScannerActivity.this, "Error fetching QR codes: " + errorMessage);
+            }
+        });
+    }
+
+    // Selection entries for the codes of the running sessions
+    private List<Map<String, String>> qrInfoFor(List<Session> sessions, BatchDocumentLoader.Result qrCodes,
+                                                BatchDocumentLoader.Result courses) {
+        Map<String, DocumentSnapshot> qrCodesById = new HashMap<>();
+        for (DocumentSnapshot doc : qrCodes.getDocuments()) {
+            qrCodesById.put(doc.getId(), doc);
+        }
+        Map<String, DocumentSnapshot> coursesById = new HashMap<>();
+        for (DocumentSnapshot doc : courses.getDocuments()) {
+            coursesById.put(doc.getId(), doc);
+        }
+
+        List<Map<String, String>> qrInfoList = new ArrayList<>();
+        for (Session session : sessions) {
+            DocumentSnapshot qrCodeDoc = qrCodesById.get(session.getQrCodeId());
+            if (qrCodeDoc == null) {
+                continue;
+            }
+
+            Map<String, String> qrInfo = new HashMap<>();
+            qrInfo.put("qrCodeId", qrCodeDoc.getId());
+            qrInfo.put("content", qrCodeDoc.getString("content"));
+            qrInfo.put("isActive", Boolean.TRUE.equals(qrCodeDoc.getBoolean("isActive")) ? "Active" : "Inactive");
+            qrInfo.put("sessionTitle", session.getTitle() != null ? session.getTitle() : "Unknown Session");
+
+            DocumentSnapshot courseDoc = coursesById.get(session.getCourseId());
+            if (courseDoc != null) {
+                String courseName = courseDoc.getString("courseName");
+                String courseCode = courseDoc.getString("courseCode");
+                qrInfo.put("courseInfo", (courseCode != null ? courseCode : "Unknown") +
+                        " - " + (courseName != null ? courseName : "Course"));
+            } else {
+                qrInfo.put("courseInfo", session.getCourseId() != null ? "Unknown Course" : "No Course ID");
+            }
+
+            qrInfoList.add(qrInfo);
+        }
+        return qrInfoList;
     }
 
     private void showQRSelectionDialog(AlertDialog.Builder builder, List<Map<String, String>> qrInfoList) {
-        // Filter out expired QR codes
-        Date now = new Date();
+        // Filter out expired QR codes, at server time as far as it is known
+        long now = ServerClock.getInstance().currentTimeMillis();
         List<Map<String, String>> activeQRs = new ArrayList<>();
 
         for (Map<String, String> qrInfo : qrInfoList) {
             // If there's an expiry time in the content
             String content = qrInfo.get("content");
             if (content != null) {
-                try {
-                    JSONObject jsonObject = new JSONObject(content);
-                    if (jsonObject.has("expiresAt")) {
-                        long expiryTime = jsonObject.getLong("expiresAt");
-                        if (expiryTime > now.getTime()) {
-                            // Only add if not expired
-                            activeQRs.add(qrInfo);
-                        }
-                    } else {
-                        // No expiry time, just add it
-                        activeQRs.add(qrInfo);
-                    }
-                } catch (Exception e) {
-                    // If parsing fails, just add it
+                AttendanceRepository.QRCodeData qrData = attendanceRepository.parseScannedContent(content);
+                if (qrData == null || !qrData.isExpiredAt(now)) {
+                    // Only skip codes known to be expired
                     activeQRs.add(qrInfo);
                 }
             } else {
@@ -535,7 +495,7 @@ public class QRScannerActivity extends AppCompatActivity {
             // Process the selected QR code
             String selectedQRContent = finalActiveQRs.get(which).get("content");
             if (selectedQRContent != null) {
-                processScanResult(selectedQRContent);
+                processScanResult(selectedQRContent, SystemClock.elapsedRealtime());
             } else {
                 UIHelper.showErrorToast(QRScannerActivity.this, "Error: QR content is null");
             }
@@ -7,6 +7,7 @@ import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -14,17 +15,32 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
 
 import com.example.qrattendance.R;
+import com.example.qrattendance.data.local.PendingScan;
+import com.example.qrattendance.data.local.ScanOutbox;
+import com.example.qrattendance.data.model.AttendanceSummary;
+import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.data.model.Session;
 import com.example.qrattendance.data.model.Student;
 import com.example.qrattendance.data.repository.AuthRepository;
+import com.example.qrattendance.data.repository.StudentDataRepository;
 import com.example.qrattendance.ui.common.ProfileActivity;
 import com.example.qrattendance.util.SessionManager;
 import com.example.qrattendance.util.UIHelper;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 public class StudentDashboardActivity extends AppCompatActivity {
 
     private TextView tvWelcome;
     private TextView tvStudentId;
+    private TextView tvAttendanceOverview;
+    private TextView tvUpcomingSessions;
     private CardView cardScanQr, cardMyAttendance, cardMyCourses, cardProfile, cardEnrollment;
     private FloatingActionButton fabScanQr;
     private SessionManager sessionManager;
@@ -45,9 +61,18 @@ public class StudentDashboardActivity extends AppCompatActivity {
         setupClickListeners();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showRejectedOfflineScans();
+        loadStudentData();
+    }
+
     private void initViews() {
         tvWelcome = findViewById(R.id.tvWelcomeStudent);
         tvStudentId = findViewById(R.id.tvStudentId);
+        tvAttendanceOverview = findViewById(R.id.tvAttendanceOverview);
+        tvUpcomingSessions = findViewById(R.id.tvUpcomingSessions);
 
         // Find all card views
         cardScanQr = findViewById(R.id.cardScanQr);
@@ -115,6 +140,123 @@ public class StudentDashboardActivity extends AppCompatActivity {
         }
     }
 
+    // Shows the stored overview right away, then again once it has been refreshed
+    private void loadStudentData() {
+        Student student = (Student) sessionManager.getUserData();
+        if (student == null) {
+            tvAttendanceOverview.setVisibility(View.GONE);
+            tvUpcomingSessions.setVisibility(View.GONE);
+            return;
+        }
+
+        StudentDataRepository.getInstance(this).load(student.getUserId(),
+                new StudentDataRepository.OnStudentDataListener() {
+                    @Override
+                    public void onData(StudentDataRepository.StudentData data) {
+                        if (isFinishing() || isDestroyed()) {
+                            return;
+                        }
+                        if (data.isFresh()) {
+                            updateEnrollments(student, data.getEnrolledCourseIds());
+                        }
+                        // Overall attendance from the per-course summaries, no attendance records are read
+                        showAttendanceOverview(data.getCourses(), data.getSummariesByCourse());
+                        showUpcomingSessions(data);
+                    }
+
+                    @Override
+                    public void onFailure(String errorMessage) {
+                        // The stored overview, if any, stays on screen
+                    }
+                });
+    }
+
+    // Enrollments changed on another device or by an admin, keep the session in step
+    private void updateEnrollments(Student student, List<String> enrolledCourseIds) {
+        if (enrolledCourseIds != null && !enrolledCourseIds.equals(student.getEnrolledCourseIds())) {
+            student.setEnrolledCourseIds(new ArrayList<>(enrolledCourseIds));
+            sessionManager.saveUserSession(student);
+        }
+    }
+
+    private void showAttendanceOverview(List<Course> courses, Map<String, AttendanceSummary> summariesByCourse) {
+        int totalHeld = 0;
+        int totalAttended = 0;
+        int coursesBelowThreshold = 0;
+
+        for (Course course : courses) {
+            int held = AttendanceSummary.sessionsHeld(course);
+            AttendanceSummary summary = summariesByCourse.get(course.getCourseId());
+            if (summary == null) {
+                summary = new AttendanceSummary(sessionManager.getUserId(), course.getCourseId());
+            }
+
+            totalHeld += held;
+            totalAttended += Math.min(summary.getAttendedCount(), held);
+            if (summary.isBelowThreshold(held, course.getAttendanceThreshold())) {
+                coursesBelowThreshold++;
+            }
+        }
+
+        if (totalHeld == 0) {
+            tvAttendanceOverview.setVisibility(View.GONE);
+            return;
+        }
+
+        String overview = String.format(Locale.getDefault(), "Overall attendance %d%%",
+                Math.round(totalAttended * 100f / totalHeld));
+        if (coursesBelowThreshold > 0) {
+            overview += " • " + coursesBelowThreshold
+                    + (coursesBelowThreshold == 1 ? " course" : " courses") + " below threshold";
+        }
+        tvAttendanceOverview.setText(overview);
+        tvAttendanceOverview.setVisibility(View.VISIBLE);
+    }
+
+    private void showUpcomingSessions(StudentDataRepository.StudentData data) {
+        List<Session> upcoming = data.getUpcomingSessions();
+        if (upcoming.isEmpty()) {
+            tvUpcomingSessions.setVisibility(View.GONE);
+            return;
+        }
+
+        Map<String, String> courseCodes = new HashMap<>();
+        for (Course course : data.getCourses()) {
+            courseCodes.put(course.getCourseId(), course.getCourseCode());
+        }
+
+        Session next = upcoming.get(0);
+        String courseCode = courseCodes.get(next.getCourseId());
+        String when = next.getStatus() == Session.SessionStatus.IN_PROGRESS ? "now"
+                : new SimpleDateFormat("EEE hh:mm a", Locale.getDefault()).format(next.getStartTime());
+        String text = "Next: " + (courseCode != null ? courseCode + " " : "") + next.getTitle() + " • " + when;
+        if (upcoming.size() > 1) {
+            text += " (+" + (upcoming.size() - 1) + " more)";
+        }
+        tvUpcomingSessions.setText(text);
+        tvUpcomingSessions.setVisibility(View.VISIBLE);
+    }
+
+    // Tell the student about offline scans that the server refused when they were synced
+    private void showRejectedOfflineScans() {
+        String studentId = sessionManager.getUserId();
+        if (studentId == null) {
+            return;
+        }
+
+        List<PendingScan> rejected = ScanOutbox.getInstance(this).takeRejected(studentId);
+        if (rejected.isEmpty()) {
+            return;
+        }
+
+        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, hh:mm a", Locale.getDefault());
+        StringBuilder message = new StringBuilder("These scans were saved offline but could not be recorded:\n");
+        for (PendingScan scan : rejected) {
+            message.append("\n").append(sdf.format(scan.getScannedAt())).append(" - ").append(scan.getLastError());
+        }
+        UIHelper.showInfoDialog(this, "Offline Scans Not Recorded", message.toString());
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_dashboard, menu);
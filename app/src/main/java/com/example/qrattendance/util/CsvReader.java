@@ -0,0 +1,151 @@
+package com.example.qrattendance.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for comma or tab separated files.
+ * Records are parsed one at a time from the underlying reader, so a file of any size is read with
+ * memory for a single record. Quoted fields may contain the delimiter, doubled quotes and line
+ * breaks (RFC 4180). The delimiter is taken from the first line: a tab there means TSV.
+ */
+public class CsvReader implements Closeable {
+    private static final char QUOTE = '"';
+    private static final int SNIFF_LIMIT = 8192;
+
+    private final BufferedReader reader;
+    private final char delimiter;
+    // Line the next record starts on, 1-based
+    private int line = 1;
+    private int recordLine;
+    private int pushedBack = -1;
+
+    public CsvReader(Reader reader) throws IOException {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.delimiter = sniffDelimiter(this.reader);
+    }
+
+    public CsvReader(Reader reader, char delimiter) throws IOException {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.delimiter = delimiter;
+        skipByteOrderMark(this.reader);
+    }
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    // Line the last record returned by readRecord() started on
+    public int getRecordLine() {
+        return recordLine;
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return Fields of the record, or null at the end of the input
+     * @throws IOException If reading fails or a quoted field is not closed
+     */
+    public List<String> readRecord() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+
+        recordLine = line;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStarted = false;
+
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unclosed quote in record starting on line " + recordLine);
+                }
+                if (c == QUOTE) {
+                    int next = read();
+                    if (next == QUOTE) {
+                        field.append(QUOTE);
+                    } else {
+                        quoted = false;
+                        c = next;
+                        continue;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == -1 || c == '\n' || c == '\r') {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n' && next != -1) {
+                        pushedBack = next;
+                    }
+                }
+                if (c != -1) {
+                    line++;
+                }
+                fields.add(field.toString());
+                return fields;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStarted = false;
+            } else if (c == QUOTE && !fieldStarted) {
+                quoted = true;
+                fieldStarted = true;
+            } else {
+                field.append((char) c);
+                fieldStarted = true;
+            }
+            c = read();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -1) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private static char sniffDelimiter(BufferedReader reader) throws IOException {
+        skipByteOrderMark(reader);
+        reader.mark(SNIFF_LIMIT);
+        char delimiter = ',';
+        for (int i = 0; i < SNIFF_LIMIT; i++) {
+            int c = reader.read();
+            if (c == -1 || c == '\n' || c == '\r') {
+                break;
+            }
+            if (c == '\t') {
+                delimiter = '\t';
+                break;
+            }
+        }
+        reader.reset();
+        return delimiter;
+    }
+
+    // Spreadsheet exports often start with a UTF-8 byte order mark
+    private static void skipByteOrderMark(BufferedReader reader) throws IOException {
+        reader.mark(1);
+        if (reader.read() != '\uFEFF') {
+            reader.reset();
+        }
+    }
+}
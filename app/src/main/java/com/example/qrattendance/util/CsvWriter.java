@@ -0,0 +1,94 @@
+package com.example.qrattendance.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes comma separated records, the counterpart of {@link CsvReader}.
+ * Fields are quoted only when they need it (RFC 4180). Fields that a spreadsheet would run as a
+ * formula are prefixed with an apostrophe so an exported name cannot execute on opening the file.
+ * Nothing is buffered here, wrap the writer in a BufferedWriter.
+ */
+public class CsvWriter implements Closeable, Flushable {
+    private static final char QUOTE = '"';
+    private static final String LINE_END = "\r\n";
+
+    private final Writer writer;
+    private final char delimiter;
+
+    public CsvWriter(Writer writer) {
+        this(writer, ',');
+    }
+
+    public CsvWriter(Writer writer, char delimiter) {
+        this.writer = writer;
+        this.delimiter = delimiter;
+    }
+
+    public void writeRecord(String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(delimiter);
+            }
+            writeField(fields[i]);
+        }
+        writer.write(LINE_END);
+    }
+
+    public void writeRecord(List<String> fields) throws IOException {
+        writeRecord(fields.toArray(new String[0]));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeField(String field) throws IOException {
+        if (field == null || field.isEmpty()) {
+            return;
+        }
+
+        char first = field.charAt(0);
+        if (first == '=' || first == '+' || first == '@' || (first == '-' && !isNumber(field))) {
+            field = "'" + field;
+        }
+
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == delimiter || c == QUOTE || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(field);
+            return;
+        }
+
+        writer.write(QUOTE);
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == QUOTE) {
+                writer.write(QUOTE);
+            }
+            writer.write(c);
+        }
+        writer.write(QUOTE);
+    }
+
+    private static boolean isNumber(String field) {
+        try {
+            Double.parseDouble(field);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.example.qrattendance.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * Compact signed QR code payload.
+ * The payload is a small binary record carrying the IDs and timing the scan needs, followed by an
+ * ECDSA P-256 signature, encoded as base45 (RFC 9285) so it fits QR alphanumeric mode.
+ * Every QR code gets its own key pair on the instructor's device: the private key stays in memory
+ * there and signs the code, the public key is stored with the qr_codes document and published on
+ * the session. Nothing secret ships with the app, so a student can't sign a code of their own. The
+ * scanner checks the signature against the session's key before committing, and the commit
+ * transaction checks it again.
+ *
+ * Layout of version 2, before base45 encoding:
+ * version(1) expiresAt(4) nonce(4) sessionStart(4) sessionEnd(4) lateThresholdMinutes(2)
+ * qrCodeId(1+n) sessionId(1+n) courseId(1+n) signature(1+n)
+ * Times are whole seconds since the epoch, strings are length-prefixed UTF-8 and the signature is
+ * length-prefixed DER.
+ */
+public final class QRPayloadCodec {
+    public static final String PREFIX = "QA2:";
+
+    private static final byte VERSION = 2;
+    private static final String KEY_ALGORITHM = "EC";
+    private static final String CURVE = "secp256r1";
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+    private static final int HEADER_LENGTH = 19;
+    private static final int MAX_ID_LENGTH = 255;
+    // P-256 signatures are around 70 bytes of DER, anything this short is malformed
+    private static final int MIN_SIGNATURE_LENGTH = 8;
+
+    private static final String BASE45_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    private QRPayloadCodec() {
+    }
+
+    // Check whether scanned content uses the signed format rather than the legacy JSON
+    public static boolean isSignedPayload(String content) {
+        return content != null && content.startsWith(PREFIX);
+    }
+
+    /**
+     * Key pair for a new QR code
+     */
+    public static KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+            generator.initialize(new ECGenParameterSpec(CURVE));
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("ECDSA P-256 is not available", e);
+        }
+    }
+
+    /**
+     * Public key as stored with the QR code document, X.509 encoded as base45
+     */
+    public static String encodePublicKey(PublicKey publicKey) {
+        return base45Encode(publicKey.getEncoded());
+    }
+
+    /**
+     * @throws InvalidPayloadException if the stored key is not a valid P-256 public key
+     */
+    public static PublicKey decodePublicKey(String encoded) throws InvalidPayloadException {
+        try {
+            byte[] bytes = base45Decode(encoded, 0);
+            return KeyFactory.getInstance(KEY_ALGORITHM).generatePublic(new X509EncodedKeySpec(bytes));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            throw new InvalidPayloadException("QR code key is invalid");
+        }
+    }
+
+    /**
+     * Encode a payload and sign it with the QR code's private key
+     */
+    public static String encode(Payload payload, PrivateKey privateKey) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(160);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(VERSION);
+        header.putInt(toSeconds(payload.expiresAt));
+        header.putInt(payload.nonce);
+        header.putInt(toSeconds(payload.sessionStart));
+        header.putInt(toSeconds(payload.sessionEnd));
+        header.putShort((short) payload.lateThresholdMinutes);
+        out.write(header.array(), 0, HEADER_LENGTH);
+
+        writeString(out, payload.qrCodeId);
+        writeString(out, payload.sessionId);
+        writeString(out, payload.courseId);
+
+        byte[] body = out.toByteArray();
+        byte[] signature;
+        try {
+            Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signer.initSign(privateKey);
+            signer.update(body);
+            signature = signer.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign QR payload", e);
+        }
+        out.write(signature.length);
+        out.write(signature, 0, signature.length);
+        return PREFIX + base45Encode(out.toByteArray());
+    }
+
+    /**
+     * Decode a payload without checking its signature, see {@link #verify}. Expiry is not checked
+     * here either, see {@link Payload#isExpiredAt}.
+     *
+     * @throws InvalidPayloadException if the content is malformed
+     */
+    public static Payload decode(String content) throws InvalidPayloadException {
+        if (!isSignedPayload(content)) {
+            throw new InvalidPayloadException("Not a signed QR code");
+        }
+
+        byte[] data = base45Decode(content, PREFIX.length());
+        if (data.length < HEADER_LENGTH + 4 + MIN_SIGNATURE_LENGTH) {
+            throw new InvalidPayloadException("QR code is too short");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.get() != VERSION) {
+            throw new InvalidPayloadException("Unsupported QR code version");
+        }
+
+        try {
+            Payload payload = new Payload();
+            payload.expiresAt = fromSeconds(buffer.getInt());
+            payload.nonce = buffer.getInt();
+            payload.sessionStart = fromSeconds(buffer.getInt());
+            payload.sessionEnd = fromSeconds(buffer.getInt());
+            payload.lateThresholdMinutes = buffer.getShort() & 0xFFFF;
+            payload.qrCodeId = readString(buffer);
+            payload.sessionId = readString(buffer);
+            payload.courseId = readString(buffer);
+
+            int bodyLength = buffer.position();
+            int signatureLength = buffer.get() & 0xFF;
+            if (payload.qrCodeId == null || payload.sessionId == null
+                    || signatureLength < MIN_SIGNATURE_LENGTH || buffer.remaining() != signatureLength) {
+                throw new InvalidPayloadException("QR code is malformed");
+            }
+            payload.body = Arrays.copyOf(data, bodyLength);
+            payload.signature = Arrays.copyOfRange(data, bodyLength + 1, data.length);
+            return payload;
+        } catch (RuntimeException e) {
+            throw new InvalidPayloadException("QR code is malformed");
+        }
+    }
+
+    /**
+     * Check a decoded payload's signature against the QR code's public key
+     */
+    public static boolean verify(Payload payload, PublicKey publicKey) {
+        if (payload.body == null || payload.signature == null) {
+            return false;
+        }
+        try {
+            Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+            verifier.initVerify(publicKey);
+            verifier.update(payload.body);
+            return verifier.verify(payload.signature);
+        } catch (GeneralSecurityException e) {
+            // Includes signatures that are not valid DER
+            return false;
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("ID length must be between 1 and " + MAX_ID_LENGTH + " bytes");
+        }
+        out.write(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.get() & 0xFF;
+        if (length == 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int toSeconds(long millis) {
+        return (int) (millis / 1000L);
+    }
+
+    private static long fromSeconds(int seconds) {
+        return (seconds & 0xFFFFFFFFL) * 1000L;
+    }
+
+    // Base45 as defined in RFC 9285
+    static String base45Encode(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length / 2) * 3 + 2);
+        int i = 0;
+        for (; i + 1 < data.length; i += 2) {
+            int n = ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+            sb.append(BASE45_ALPHABET.charAt(n % 45));
+            n /= 45;
+            sb.append(BASE45_ALPHABET.charAt(n % 45));
+            sb.append(BASE45_ALPHABET.charAt(n / 45));
+        }
+        if (i < data.length) {
+            int n = data[i] & 0xFF;
+            sb.append(BASE45_ALPHABET.charAt(n % 45));
+            sb.append(BASE45_ALPHABET.charAt(n / 45));
+        }
+        return sb.toString();
+    }
+
+    static byte[] base45Decode(String text, int offset) throws InvalidPayloadException {
+        int length = text.length() - offset;
+        if (length % 3 == 1) {
+            throw new InvalidPayloadException("QR code is malformed");
+        }
+
+        byte[] out = new byte[(length / 3) * 2 + (length % 3 == 2 ? 1 : 0)];
+        int o = 0;
+        int i = offset;
+        for (; i + 2 < text.length(); i += 3) {
+            int n = base45Value(text.charAt(i))
+                    + base45Value(text.charAt(i + 1)) * 45
+                    + base45Value(text.charAt(i + 2)) * 45 * 45;
+            if (n > 0xFFFF) {
+                throw new InvalidPayloadException("QR code is malformed");
+            }
+            out[o++] = (byte) (n >> 8);
+            out[o++] = (byte) n;
+        }
+        if (i < text.length()) {
+            int n = base45Value(text.charAt(i)) + base45Value(text.charAt(i + 1)) * 45;
+            if (n > 0xFF) {
+                throw new InvalidPayloadException("QR code is malformed");
+            }
+            out[o] = (byte) n;
+        }
+        return out;
+    }
+
+    private static int base45Value(char c) throws InvalidPayloadException {
+        int value = BASE45_ALPHABET.indexOf(c);
+        if (value < 0) {
+            throw new InvalidPayloadException("QR code is malformed");
+        }
+        return value;
+    }
+
+    /**
+     * Fields carried by a signed QR code
+     */
+    public static class Payload {
+        private String qrCodeId;
+        private String sessionId;
+        private String courseId;
+        private long expiresAt;
+        private int nonce;
+        private long sessionStart;
+        private long sessionEnd;
+        private int lateThresholdMinutes;
+        // Signed bytes and signature of a decoded payload
+        private byte[] body;
+        private byte[] signature;
+
+        public Payload() {
+        }
+
+        public Payload(String qrCodeId, String sessionId, String courseId, long expiresAt, int nonce,
+                       long sessionStart, long sessionEnd, int lateThresholdMinutes) {
+            this.qrCodeId = qrCodeId;
+            this.sessionId = sessionId;
+            this.courseId = courseId;
+            this.expiresAt = expiresAt;
+            this.nonce = nonce;
+            this.sessionStart = sessionStart;
+            this.sessionEnd = sessionEnd;
+            this.lateThresholdMinutes = lateThresholdMinutes;
+        }
+
+        public String getQrCodeId() {
+            return qrCodeId;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getCourseId() {
+            return courseId;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public int getNonce() {
+            return nonce;
+        }
+
+        public long getSessionStart() {
+            return sessionStart;
+        }
+
+        public long getSessionEnd() {
+            return sessionEnd;
+        }
+
+        public int getLateThresholdMinutes() {
+            return lateThresholdMinutes;
+        }
+
+        // Check if the code had expired at a given time
+        public boolean isExpiredAt(long timeMillis) {
+            return timeMillis >= expiresAt;
+        }
+
+        // Check if the session was running at a given time
+        public boolean isSessionActiveAt(long timeMillis) {
+            return timeMillis > sessionStart && timeMillis < sessionEnd;
+        }
+    }
+
+    /**
+     * Raised when scanned content or a stored key is not in the signed format
+     */
+    public static class InvalidPayloadException extends Exception {
+        public InvalidPayloadException(String message) {
+            super(message);
+        }
+    }
+}
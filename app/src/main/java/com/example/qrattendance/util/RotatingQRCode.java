@@ -0,0 +1,98 @@
+package com.example.qrattendance.util;
+
+import com.example.qrattendance.data.model.Session;
+
+import java.security.PrivateKey;
+
+/**
+ * TOTP-style rotating QR code for a session.
+ * Time is split into fixed steps; each step gets its own payload signed with the QR code's private
+ * key, with a short expiry and the step number as nonce. Everything is computed on the instructor's
+ * device, so rotating does not write to Firestore. The QR code document stores the period, and the
+ * commit checks the step against server time, so a photo of the screen stops working shortly after
+ * the step it was taken in.
+ */
+public class RotatingQRCode {
+    public static final int DEFAULT_PERIOD_SECONDS = 15;
+
+    // Extra validity around a step, covers clock skew and the time a scan takes to reach the server
+    private static final long GRACE_MILLIS = 30_000;
+
+    private final PrivateKey signingKey;
+    private final String qrCodeId;
+    private final String sessionId;
+    private final String courseId;
+    private final long sessionStart;
+    private final long sessionEnd;
+    private final int lateThresholdMinutes;
+    private final long expiresAt;
+    private final long periodMillis;
+    private final long clockOffsetMillis;
+
+    /**
+     * @param signingKey        Private key of the QR code, signs each step's payload
+     * @param qrCodeId          ID of the session's QR code document
+     * @param session           Session the code is for, must have start and end times
+     * @param expiresAt         Time after which no more codes are produced
+     * @param periodSeconds     Seconds between rotations
+     * @param clockOffsetMillis Server time minus device time, so steps line up with the server's
+     */
+    public RotatingQRCode(PrivateKey signingKey, String qrCodeId, Session session, long expiresAt, int periodSeconds,
+                          long clockOffsetMillis) {
+        this.signingKey = signingKey;
+        this.qrCodeId = qrCodeId;
+        this.sessionId = session.getSessionId();
+        this.courseId = session.getCourseId();
+        this.sessionStart = session.getStartTime().getTime();
+        this.sessionEnd = session.getEndTime().getTime();
+        this.lateThresholdMinutes = session.getLateThresholdMinutes();
+        this.expiresAt = expiresAt;
+        this.periodMillis = periodSeconds * 1000L;
+        this.clockOffsetMillis = clockOffsetMillis;
+    }
+
+    /**
+     * Check whether a step may still be scanned at a given server time
+     *
+     * @param step          Step from the nonce of a scanned payload
+     * @param periodSeconds Rotation period stored with the QR code
+     */
+    public static boolean isStepLiveAt(long step, int periodSeconds, long timeMillis) {
+        long periodMillis = periodSeconds * 1000L;
+        long stepStart = step * periodMillis;
+        return timeMillis >= stepStart - GRACE_MILLIS && timeMillis < stepStart + periodMillis + GRACE_MILLIS;
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    // Step that is current at the given device time
+    public long stepAt(long timeMillis) {
+        return (timeMillis + clockOffsetMillis) / periodMillis;
+    }
+
+    // Device time at which a step starts being shown
+    public long stepStart(long step) {
+        return step * periodMillis - clockOffsetMillis;
+    }
+
+    // Check if a step starts after the code has expired
+    public boolean isFinished(long step) {
+        return step * periodMillis >= expiresAt;
+    }
+
+    /**
+     * Signed QR content for a step
+     */
+    public String contentFor(long step) {
+        long stepExpiry = Math.min((step + 1) * periodMillis + GRACE_MILLIS, expiresAt);
+        QRPayloadCodec.Payload payload = new QRPayloadCodec.Payload(qrCodeId, sessionId, courseId,
+                stepExpiry, (int) step, sessionStart, sessionEnd, lateThresholdMinutes);
+        return QRPayloadCodec.encode(payload, signingKey);
+    }
+}
@@ -8,6 +8,7 @@ import com.example.qrattendance.data.model.Admin;
 import com.example.qrattendance.data.model.Instructor;
 import com.example.qrattendance.data.model.Student;
 import com.example.qrattendance.data.model.User;
+import com.example.qrattendance.data.repository.StudentDataRepository;
 import com.example.qrattendance.ui.auth.LoginActivity;
 import com.google.gson.Gson;
 
@@ -104,6 +105,8 @@ public class SessionManager {
 
     public void logout(Context context) {
         clearSession();
+        // Cached courses and attendance belong to the user logging out
+        StudentDataRepository.getInstance(context).clear();
 
         // Create a proper intent to restart the app flow
         Intent intent = new Intent(context, LoginActivity.class);
@@ -0,0 +1,461 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.data.model.QRCode;
+import com.example.qrattendance.data.model.Session;
+import com.example.qrattendance.util.QRPayloadCodec;
+
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lecture start: a whole class scans the same code at once. The commit runs {@link CommitAttempt},
+ * what AttendanceCommitEngine runs in its transaction, against a local stand-in for Firestore that
+ * versions every document like its optimistic transactions do and counts the round trips a scan
+ * waits for. The chain of reads and writes markAttendance ran before the engine is replayed against
+ * the same stand-in. Latency is estimated as round trips times {@link #ROUND_TRIP_MS}; it leaves out
+ * server time and contention, so it compares the two rather than predicting either.
+ */
+public class AttendanceCommitBenchmarkTest {
+    private static final String QR_CODE = "qr_codes/qr-1";
+    private static final String SESSION = "sessions/session-1";
+    private static final String COURSE = "courses/course-1";
+    private static final String RECORDS = "attendance_records/";
+    private static final String SUMMARIES = "attendance_summaries/";
+    private static final KeyPair KEYS = QRPayloadCodec.generateKeyPair();
+    private static final int STUDENTS = 300;
+    private static final int THREADS = 32;
+    private static final int MAX_ATTEMPTS = 5;
+    // Phone on lecture hall Wi-Fi to the Firestore region
+    private static final long ROUND_TRIP_MS = 80;
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void transaction_commitsBurstWithoutConflicts() throws Exception {
+        LocalFirestore store = lecture();
+        ConcurrentLinkedQueue<Integer> roundTrips = new ConcurrentLinkedQueue<>();
+        runConcurrently(STUDENTS, THREADS, i -> {
+            Client client = new Client(store);
+            commit(client, scan(student(i)));
+            roundTrips.add(client.roundTrips);
+        });
+
+        assertEquals(STUDENTS, store.count(RECORDS));
+        assertEquals(STUDENTS, store.counter(QR_CODE, ShardedCounter.SCAN_COUNT));
+        assertEquals(STUDENTS, store.counter(SESSION, ShardedCounter.PRESENT_COUNT));
+        assertEquals(STUDENTS, store.count(SUMMARIES));
+        // The QR code, session and course are read by every scan but written by none, so no transaction retried
+        assertEquals(0, store.conflicts.get());
+        // Record, session, QR code and course reads, then the commit
+        assertEquals(400, p95Millis(roundTrips));
+    }
+
+    @Test
+    public void signedScans_skipQRCodeRead() throws Exception {
+        LocalFirestore store = lecture();
+        store.update(SESSION, "qrPublicKey", QRPayloadCodec.encodePublicKey(KEYS.getPublic()));
+        // Nothing to read it from, every scan has to verify against the session
+        store.remove(QR_CODE);
+        String content = QRPayloadCodec.encode(new QRPayloadCodec.Payload("qr-1", "session-1", "course-1",
+                NOW + 60_000, -1, NOW - 5 * 60_000, NOW + 45 * 60_000, 10), KEYS.getPrivate());
+        QRPayloadCodec.Payload payload = QRPayloadCodec.decode(content);
+
+        ConcurrentLinkedQueue<Integer> roundTrips = new ConcurrentLinkedQueue<>();
+        runConcurrently(STUDENTS, THREADS, i -> {
+            Client client = new Client(store);
+            commit(client, new ScanValidator.Scan("qr-1", "session-1", "course-1", student(i), null, null, payload));
+            roundTrips.add(client.roundTrips);
+        });
+
+        assertEquals(STUDENTS, store.count(RECORDS));
+        assertEquals(STUDENTS, store.counter(QR_CODE, ShardedCounter.SCAN_COUNT));
+        // Record, session and course reads, then the commit
+        assertEquals(320, p95Millis(roundTrips));
+    }
+
+    @Test
+    public void oldChain_losesScanCountsAndWaitsLonger() throws Exception {
+        LocalFirestore store = lecture();
+        ConcurrentLinkedQueue<Integer> roundTrips = new ConcurrentLinkedQueue<>();
+        CountDownLatch allRead = new CountDownLatch(STUDENTS);
+        runConcurrently(STUDENTS, STUDENTS, i -> {
+            Client client = new Client(store);
+            oldChain(client, student(i), allRead);
+            roundTrips.add(client.roundTrips);
+        });
+
+        assertEquals(STUDENTS, store.count(RECORDS));
+        // Every student read the QR code and session before anyone wrote them back
+        assertEquals(1L, store.read(QR_CODE).data.get("scanCount"));
+        assertEquals(1, ((List<?>) store.read(SESSION).data.get("attendanceRecordIds")).size());
+        // Enrollment, duplicate query, QR code, session, record write and student read
+        assertEquals(480, p95Millis(roundTrips));
+    }
+
+    @Test
+    public void repeatedScans_leaveOneRecordPerStudent() throws Exception {
+        LocalFirestore store = lecture();
+        AtomicInteger rejected = new AtomicInteger();
+        // Every student scans twice, both scans race each other
+        runConcurrently(STUDENTS * 2, THREADS, i -> {
+            try {
+                commit(new Client(store), scan(student(i % STUDENTS)));
+            } catch (ScanValidator.ScanRejectedException e) {
+                assertEquals(ScanValidator.ScanRejectedException.Reason.ALREADY_MARKED, e.getReason());
+                rejected.incrementAndGet();
+            }
+        });
+
+        assertEquals(STUDENTS, store.count(RECORDS));
+        assertEquals(STUDENTS, rejected.get());
+        assertEquals(STUDENTS, store.counter(QR_CODE, ShardedCounter.SCAN_COUNT));
+        assertEquals(STUDENTS, store.counter(SESSION, ShardedCounter.PRESENT_COUNT));
+        // Only a second scan that read the record before the first committed has to retry
+        assertTrue(store.conflicts.get() <= STUDENTS);
+    }
+
+    // AttendanceCommitEngine.commit at server time NOW
+    private static AttendanceRecord commit(Client client, ScanValidator.Scan scan) throws Exception {
+        return client.runTransaction(transaction -> CommitAttempt.run(scan, new Date(NOW), transaction, transaction));
+    }
+
+    // markAttendance before the commit engine, behind the scanner's enrollment check. Writes the
+    // app did not wait for are applied straight away and cost no round trip.
+    @SuppressWarnings("unchecked")
+    private static void oldChain(Client client, String studentId, CountDownLatch allRead) throws Exception {
+        List<Object> enrolled = (List<Object>) client.get(COURSE).get("enrolledStudentIds");
+        assertTrue(enrolled.contains(studentId));
+        assertTrue(client.query(RECORDS, "studentId", studentId).isEmpty());
+        Map<String, Object> qrCode = client.get(QR_CODE);
+        Map<String, Object> session = client.get(SESSION);
+        assertTrue(toQRCode(qrCode).wasValidAt(new Date(NOW), new Date(NOW)));
+        assertTrue(toSession(session).wasActiveAt(new Date(NOW)));
+        allRead.countDown();
+        assertTrue(allRead.await(60, TimeUnit.SECONDS));
+
+        String recordId = UUID.randomUUID().toString();
+        Map<String, Object> recordData = new HashMap<>();
+        recordData.put("studentId", studentId);
+        client.set(RECORDS + recordId, recordData);
+        client.send(QR_CODE, "scanCount", (Long) qrCode.get("scanCount") + 1);
+        List<Object> recordIds = new ArrayList<>((List<Object>) session.get("attendanceRecordIds"));
+        recordIds.add(recordId);
+        client.send(SESSION, "attendanceRecordIds", recordIds);
+        client.get("users/" + studentId);
+    }
+
+    private static LocalFirestore lecture() {
+        LocalFirestore store = new LocalFirestore();
+        Map<String, Object> qrCode = new HashMap<>();
+        qrCode.put("isActive", true);
+        qrCode.put("expiresAt", new Date(NOW + 60_000));
+        qrCode.put("scanCount", 0L);
+        store.write(QR_CODE, qrCode);
+
+        Map<String, Object> session = new HashMap<>();
+        session.put("courseId", "course-1");
+        session.put("qrCodeId", "qr-1");
+        session.put("startTime", new Date(NOW - 5 * 60_000));
+        session.put("endTime", new Date(NOW + 45 * 60_000));
+        session.put("attendanceRecordIds", new ArrayList<>());
+        store.write(SESSION, session);
+
+        List<Object> enrolled = new ArrayList<>();
+        for (int i = 0; i < STUDENTS; i++) {
+            enrolled.add(student(i));
+            store.write("users/" + student(i), new HashMap<>());
+        }
+        store.write(COURSE, new HashMap<>(Collections.singletonMap("enrolledStudentIds", enrolled)));
+        return store;
+    }
+
+    private static ScanValidator.Scan scan(String studentId) {
+        return new ScanValidator.Scan("qr-1", "session-1", "course-1", studentId, null, new Date(NOW), null);
+    }
+
+    private static QRCode toQRCode(Map<String, Object> data) {
+        if (data == null) {
+            return null;
+        }
+        QRCode qrCode = new QRCode();
+        qrCode.setActive((Boolean) data.get("isActive"));
+        qrCode.setExpiresAt((Date) data.get("expiresAt"));
+        return qrCode;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Course toCourse(Map<String, Object> data) {
+        if (data == null) {
+            return null;
+        }
+        Course course = new Course();
+        course.setEnrolledStudentIds((List<String>) data.get("enrolledStudentIds"));
+        return course;
+    }
+
+    private static Session toSession(Map<String, Object> data) {
+        if (data == null) {
+            return null;
+        }
+        Session session = new Session((String) data.get("courseId"), "Lecture", (Date) data.get("startTime"),
+                (Date) data.get("endTime"), "Hall A", "instructor-1");
+        session.setQrCodeId((String) data.get("qrCodeId"));
+        session.setQrPublicKey((String) data.get("qrPublicKey"));
+        return session;
+    }
+
+    private static String student(int i) {
+        return "student-" + i;
+    }
+
+    // Nearest rank, like ScanTimings.History
+    private static long p95Millis(ConcurrentLinkedQueue<Integer> roundTrips) {
+        Integer[] sorted = roundTrips.toArray(new Integer[0]);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(0.95 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)] * ROUND_TRIP_MS;
+    }
+
+    private static void runConcurrently(int tasks, int threads, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    task.run(index);
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertNull(errors.peek());
+    }
+
+    private interface Task {
+        void run(int index) throws Exception;
+    }
+
+    private interface TransactionFunction<T> {
+        T apply(LocalTransaction transaction) throws Exception;
+    }
+
+    private static class Versioned {
+        final Map<String, Object> data;
+        final long version;
+
+        Versioned(Map<String, Object> data, long version) {
+            this.data = data;
+            this.version = version;
+        }
+    }
+
+    // Documents by path with a version bumped on every write. A commit goes through only if none
+    // of the documents its transaction read has changed since, like a Firestore transaction.
+    private static class LocalFirestore {
+        private final Map<String, Versioned> docs = new HashMap<>();
+        final AtomicInteger conflicts = new AtomicInteger();
+
+        synchronized Versioned read(String path) {
+            Versioned doc = docs.get(path);
+            return doc != null ? new Versioned(new HashMap<>(doc.data), doc.version) : new Versioned(null, 0);
+        }
+
+        synchronized void write(String path, Map<String, Object> data) {
+            docs.put(path, new Versioned(new HashMap<>(data), read(path).version + 1));
+        }
+
+        synchronized void remove(String path) {
+            docs.remove(path);
+        }
+
+        synchronized void update(String path, String field, Object value) {
+            Map<String, Object> data = read(path).data;
+            data.put(field, value);
+            write(path, data);
+        }
+
+        synchronized void merge(String path, Map<String, Object> fields) {
+            Map<String, Object> data = read(path).data;
+            if (data == null) {
+                data = new HashMap<>();
+            }
+            data.putAll(fields);
+            write(path, data);
+        }
+
+        synchronized void increment(String path) {
+            Map<String, Object> data = read(path).data;
+            if (data == null) {
+                data = new HashMap<>();
+            }
+            data.merge("count", 1L, (a, b) -> (Long) a + (Long) b);
+            write(path, data);
+        }
+
+        synchronized boolean commit(Map<String, Long> readVersions, List<Runnable> writes) {
+            for (Map.Entry<String, Long> read : readVersions.entrySet()) {
+                if (read(read.getKey()).version != read.getValue()) {
+                    conflicts.incrementAndGet();
+                    return false;
+                }
+            }
+            for (Runnable write : writes) {
+                write.run();
+            }
+            return true;
+        }
+
+        synchronized List<Map<String, Object>> query(String prefix, String field, Object value) {
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (Map.Entry<String, Versioned> doc : docs.entrySet()) {
+                if (doc.getKey().startsWith(prefix) && value.equals(doc.getValue().data.get(field))) {
+                    results.add(new HashMap<>(doc.getValue().data));
+                }
+            }
+            return results;
+        }
+
+        synchronized int count(String prefix) {
+            int count = 0;
+            for (String path : docs.keySet()) {
+                if (path.startsWith(prefix)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        synchronized long counter(String owner, String counterName) {
+            long total = 0;
+            for (String shard : ShardedCounter.shardIds(counterName)) {
+                Map<String, Object> data = read(owner + "/" + ShardedCounter.SHARDS_COLLECTION + "/" + shard).data;
+                total += data != null ? (Long) data.get("count") : 0;
+            }
+            return total;
+        }
+    }
+
+    // One device, counting the round trips it waits for
+    private static class Client {
+        private final LocalFirestore store;
+        int roundTrips;
+
+        Client(LocalFirestore store) {
+            this.store = store;
+        }
+
+        Map<String, Object> get(String path) {
+            roundTrips++;
+            return store.read(path).data;
+        }
+
+        List<Map<String, Object>> query(String prefix, String field, Object value) {
+            roundTrips++;
+            return store.query(prefix, field, value);
+        }
+
+        void set(String path, Map<String, Object> data) {
+            roundTrips++;
+            store.write(path, data);
+        }
+
+        // Fire and forget
+        void send(String path, String field, Object value) {
+            store.update(path, field, value);
+        }
+
+        // Retried on conflict; a rejection is not a FirebaseFirestoreException and fails at once
+        <T> T runTransaction(TransactionFunction<T> function) throws Exception {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                LocalTransaction transaction = new LocalTransaction(this);
+                T result = function.apply(transaction);
+                roundTrips++;
+                if (store.commit(transaction.readVersions, transaction.writes)) {
+                    return result;
+                }
+            }
+            throw new IllegalStateException("Transaction failed after " + MAX_ATTEMPTS + " attempts");
+        }
+    }
+
+    private static class LocalTransaction implements CommitAttempt.Reads, CommitAttempt.Writes {
+        private final Client client;
+        final Map<String, Long> readVersions = new HashMap<>();
+        final List<Runnable> writes = new ArrayList<>();
+
+        LocalTransaction(Client client) {
+            this.client = client;
+        }
+
+        private Map<String, Object> read(String path) {
+            client.roundTrips++;
+            Versioned doc = client.store.read(path);
+            readVersions.put(path, doc.version);
+            return doc.data;
+        }
+
+        @Override
+        public boolean exists(String collection, String id) {
+            return read(collection + "/" + id) != null;
+        }
+
+        @Override
+        public <T> T get(String collection, String id, Class<T> type) {
+            Map<String, Object> data = read(collection + "/" + id);
+            if (type == QRCode.class) {
+                return type.cast(toQRCode(data));
+            }
+            if (type == Session.class) {
+                return type.cast(toSession(data));
+            }
+            if (type == Course.class) {
+                return type.cast(toCourse(data));
+            }
+            throw new IllegalArgumentException("No stand-in for " + type);
+        }
+
+        @Override
+        public void set(String collection, String id, Map<String, Object> data) {
+            writes.add(() -> client.store.write(collection + "/" + id, data));
+        }
+
+        // Field values such as increments are stored as they are, the benchmark only counts documents
+        @Override
+        public void merge(String collection, String id, Map<String, Object> data) {
+            writes.add(() -> client.store.merge(collection + "/" + id, data));
+        }
+
+        @Override
+        public void increment(String collection, String ownerId, String counterName) {
+            String owner = collection + "/" + ownerId;
+            ShardedCounter.increment((shardId, name, delta) -> writes.add(() -> client.store.increment(
+                    owner + "/" + ShardedCounter.SHARDS_COLLECTION + "/" + shardId)), counterName, 1);
+        }
+    }
+}
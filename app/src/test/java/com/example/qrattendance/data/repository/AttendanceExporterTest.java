@@ -0,0 +1,326 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.qrattendance.util.CsvReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registrar export: 100,000 records of one course streamed to a sink that checks each row as it
+ * arrives and keeps nothing, against an in-memory store answering on its own thread
+ */
+public class AttendanceExporterTest {
+    private static final int RECORDS = 110_000;
+    private static final int STUDENTS = 3_000;
+    private static final int SESSIONS = 400;
+    private static final long START = 1_767_225_600_000L;
+    private static final long RECORD_SPACING = 10_000L;
+
+    @Test
+    public void largeCourse_streamsInConstantMemory() throws Exception {
+        InMemoryStore store = new InMemoryStore(RECORDS);
+        ExecutorService completions = Executors.newSingleThreadExecutor();
+        store.completions = completions;
+        CheckingSink sink = new CheckingSink();
+        store.sink = sink;
+
+        AttendanceExporter.Result result = new AttendanceExporter(store, null)
+                .run(AttendanceExporter.Filter.forCourse("A", null, null), sink);
+        completions.shutdown();
+        assertTrue(completions.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Every 11th record belongs to the other course
+        int expected = RECORDS - RECORDS / 11;
+        String stats = result + ", max " + store.maxIdsPerLookup + " IDs per lookup, "
+                + store.maxLookupsInFlight + " lookups in flight, " + sink.chars / 1024 + " KB written";
+        assertNull(sink.problem, sink.problem);
+        assertNull(result.getFatalError());
+        assertEquals(expected, result.getRows());
+        assertEquals(expected, sink.rows);
+        assertTrue(sink.closed);
+        assertTrue(stats, store.maxIdsPerLookup <= BatchDocumentLoader.MAX_IDS_PER_QUERY);
+        assertTrue(stats, store.maxLookupsInFlight <= BatchDocumentLoader.MAX_IN_FLIGHT);
+        // Three reads per record without batching and caching
+        assertTrue(stats, result.getLookupQueries() < expected / 20);
+        // Every row carries its date, student and course, not just a line break
+        assertTrue(stats, sink.chars > expected * 20L);
+
+        // Rows reach the file while records are still being read, not at the end
+        assertTrue(store.rowsWrittenAtLastPage + " of " + expected,
+                store.rowsWrittenAtLastPage > expected - 3 * AttendanceExporter.PAGE_SIZE - 1_000);
+    }
+
+    @Test
+    public void filters_selectDateRangeAndSession() {
+        InMemoryStore store = new InMemoryStore(5_000);
+        Date from = new Date(START + 1_000 * RECORD_SPACING);
+        Date to = new Date(START + 2_000 * RECORD_SPACING);
+
+        CheckingSink range = new CheckingSink();
+        AttendanceExporter.Result byRange = new AttendanceExporter(store, null)
+                .run(AttendanceExporter.Filter.forCourse("A", from, to), range);
+        CheckingSink session = new CheckingSink();
+        AttendanceExporter.Result bySession = new AttendanceExporter(store, null)
+                .run(AttendanceExporter.Filter.forSession("x3"), session);
+
+        int inRange = 0;
+        for (int i = 1_000; i < 2_000; i++) {
+            inRange += i % 11 == 10 ? 0 : 1;
+        }
+        assertNull(range.problem, range.problem);
+        assertEquals(inRange, byRange.getRows());
+        assertEquals("r1001", range.firstRecordId);
+        assertNull(session.problem, session.problem);
+        assertEquals(250, bySession.getRows());
+        assertEquals("r750", session.firstRecordId);
+    }
+
+    @Test
+    public void firstRows_spellOutStudentSessionAndCourse() {
+        InMemoryStore store = new InMemoryStore(20);
+        CheckingSink sink = new CheckingSink();
+        sink.keep = 3;
+
+        new AttendanceExporter(store, null).run(AttendanceExporter.Filter.forCourse("A", null, null), sink);
+
+        assertEquals(Arrays.asList(AttendanceExporter.HEADER), sink.kept.get(0));
+        List<String> first = sink.kept.get(1);
+        assertEquals(Arrays.asList("CS101", "Algorithms", "Lecture 0"), first.subList(2, 5));
+        // No such student, the row is still written
+        assertEquals(Arrays.asList("", "", "", "LATE", "No", "r0"), first.subList(6, 12));
+        // A name with a comma and quotes survives, one that looks like a formula is defused
+        assertEquals("O'Brien, \"Jr\"", sink.kept.get(2).get(6));
+        assertEquals("'=HYPERLINK(\"x\")", sink.kept.get(3).get(6));
+        assertEquals("Yes", sink.kept.get(3).get(10));
+    }
+
+    @Test
+    public void lookupFailure_stopsTheExport() {
+        InMemoryStore store = new InMemoryStore(2_000);
+        store.failCollection = AttendanceExporter.SESSIONS_COLLECTION;
+
+        AttendanceExporter.Result result = new AttendanceExporter(store, null)
+                .run(AttendanceExporter.Filter.forCourse("A", null, null), new CheckingSink());
+
+        assertTrue(result.getFatalError(), result.getFatalError().startsWith("Failed to load sessions"));
+        assertEquals(0, result.getRows());
+        assertTrue(!result.isComplete());
+    }
+
+    @Test
+    public void cancel_stopsAfterTheCurrentPage() {
+        InMemoryStore store = new InMemoryStore(5_000);
+        AttendanceExporter[] exporter = new AttendanceExporter[1];
+        exporter[0] = new AttendanceExporter(store, (rowsWritten, rowsPerSecond) -> exporter[0].cancel());
+
+        AttendanceExporter.Result result = exporter[0].run(AttendanceExporter.Filter.forCourse(null, null, null),
+                new CheckingSink());
+
+        assertTrue(result.isCancelled());
+        assertEquals(AttendanceExporter.PAGE_SIZE, result.getRows());
+    }
+
+    private static String studentOf(int record) {
+        return record == 0 ? "ghost" : "s" + (record * 7919 % STUDENTS);
+    }
+
+    // Parses every line as it is written and checks it against the record it came from
+    private static class CheckingSink extends Writer {
+        private final StringBuilder line = new StringBuilder();
+        final List<List<String>> kept = new ArrayList<>();
+        int keep;
+        volatile int rows;
+        long chars;
+        boolean header = true;
+        boolean closed;
+        int lastRecord = -1;
+        String firstRecordId;
+        String problem;
+
+        @Override
+        public void write(char[] buffer, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                chars++;
+                line.append(buffer[i]);
+                if (buffer[i] == '\n') {
+                    check(new CsvReader(new StringReader(line.toString()), ',').readRecord());
+                    line.setLength(0);
+                }
+            }
+        }
+
+        private void check(List<String> fields) {
+            if (kept.size() <= keep) {
+                kept.add(fields);
+            }
+            if (header) {
+                header = false;
+                return;
+            }
+            rows++;
+            if (firstRecordId == null) {
+                firstRecordId = fields.get(11);
+            }
+            int record = Integer.parseInt(fields.get(11).substring(1));
+            String expectedName = record == 0 ? "" : InMemoryStore.nameOf(studentOf(record));
+            if (expectedName.startsWith("=")) {
+                expectedName = "'" + expectedName;
+            }
+            if (problem != null) {
+                return;
+            } else if (fields.size() != AttendanceExporter.HEADER.length) {
+                problem = "Row " + rows + " has " + fields.size() + " fields";
+            } else if (record <= lastRecord) {
+                problem = "Record " + record + " after " + lastRecord;
+            } else if (!fields.get(6).equals(expectedName)) {
+                problem = "Record " + record + " has student " + fields.get(6) + ", expected " + expectedName;
+            } else if (!fields.get(4).equals("Lecture " + (record / 250 % SESSIONS))) {
+                problem = "Record " + record + " has session " + fields.get(4);
+            }
+            lastRecord = record;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    // Records in timestamp order with students, sessions and courses; cursors are list positions
+    private static class InMemoryStore implements AttendanceExporter.Store {
+        private final List<Map<String, Object>> records = new ArrayList<>();
+        private final Map<String, Map<String, Object>> docs = new HashMap<>();
+        ExecutorService completions;
+        CheckingSink sink;
+        String failCollection;
+        int rowsWrittenAtLastPage;
+        int lookupsInFlight;
+        int maxLookupsInFlight;
+        int maxIdsPerLookup;
+
+        InMemoryStore(int recordCount) {
+            for (int i = 0; i < STUDENTS; i++) {
+                Map<String, Object> student = new HashMap<>();
+                student.put("name", nameOf("s" + i));
+                student.put("rollNumber", "R" + i);
+                student.put("email", "s" + i + "@uni.edu");
+                docs.put("users/s" + i, student);
+            }
+            for (int k = 0; k < SESSIONS; k++) {
+                Map<String, Object> session = new HashMap<>();
+                session.put("title", "Lecture " + k);
+                session.put("startTime", new Date(START + k * 250 * RECORD_SPACING));
+                docs.put("sessions/x" + k, session);
+            }
+            docs.put("courses/A", course("CS101", "Algorithms"));
+            docs.put("courses/B", course("CS102", "Databases"));
+
+            for (int i = 0; i < recordCount; i++) {
+                Map<String, Object> record = new HashMap<>();
+                record.put("recordId", "r" + i);
+                record.put("courseId", i % 11 == 10 ? "B" : "A");
+                record.put("sessionId", "x" + (i / 250 % SESSIONS));
+                record.put("studentId", studentOf(i));
+                record.put("timestamp", new Date(START + i * RECORD_SPACING));
+                record.put("status", i % 13 == 0 ? "LATE" : "PRESENT");
+                record.put("verified", i % 3 == 2);
+                records.add(record);
+            }
+        }
+
+        // The students of records 1 and 2 have awkward names
+        static String nameOf(String studentId) {
+            if (studentId.equals(studentOf(1))) {
+                return "O'Brien, \"Jr\"";
+            } else if (studentId.equals(studentOf(2))) {
+                return "=HYPERLINK(\"x\")";
+            }
+            return "Student " + studentId.substring(1);
+        }
+
+        private static Map<String, Object> course(String code, String name) {
+            Map<String, Object> course = new HashMap<>();
+            course.put("courseCode", code);
+            course.put("courseName", name);
+            return course;
+        }
+
+        @Override
+        public void queryPage(AttendanceExporter.Filter filter, Object cursor, int limit,
+                              AttendanceExporter.Callback<AttendanceExporter.Page> callback) {
+            if (sink != null) {
+                rowsWrittenAtLastPage = sink.rows;
+            }
+            List<Map<String, Object>> page = new ArrayList<>();
+            int position = cursor != null ? (Integer) cursor + 1 : 0;
+            int last = position - 1;
+            for (; position < records.size() && page.size() < limit; position++) {
+                Map<String, Object> record = records.get(position);
+                long time = ((Date) record.get("timestamp")).getTime();
+                if ((filter.sessionId == null || filter.sessionId.equals(record.get("sessionId")))
+                        && (filter.courseId == null || filter.courseId.equals(record.get("courseId")))
+                        && (filter.from == null || time >= filter.from.getTime())
+                        && (filter.to == null || time < filter.to.getTime())) {
+                    page.add(new HashMap<>(record));
+                    last = position;
+                }
+            }
+            AttendanceExporter.Page result = new AttendanceExporter.Page(page, last);
+            complete(() -> callback.onComplete(result, null));
+        }
+
+        @Override
+        public void findByIds(String collection, List<String> ids,
+                              AttendanceExporter.Callback<Map<String, Map<String, Object>>> callback) {
+            synchronized (this) {
+                maxIdsPerLookup = Math.max(maxIdsPerLookup, ids.size());
+                maxLookupsInFlight = Math.max(maxLookupsInFlight, ++lookupsInFlight);
+            }
+            Map<String, Map<String, Object>> found = new HashMap<>();
+            for (String id : ids) {
+                Map<String, Object> document = docs.get(collection + "/" + id);
+                if (document != null) {
+                    found.put(id, new HashMap<>(document));
+                }
+            }
+            complete(() -> {
+                synchronized (this) {
+                    lookupsInFlight--;
+                }
+                if (collection.equals(failCollection)) {
+                    callback.onComplete(null, new IllegalStateException("Permission denied"));
+                } else {
+                    callback.onComplete(found, null);
+                }
+            });
+        }
+
+        private void complete(Runnable completion) {
+            if (completions != null) {
+                completions.execute(completion);
+            } else {
+                completion.run();
+            }
+        }
+    }
+}
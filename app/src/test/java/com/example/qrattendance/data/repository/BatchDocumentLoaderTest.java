@@ -0,0 +1,73 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Round trips needed to load a course roster, one get per student before and one whereIn query
+ * per chunk of IDs now
+ */
+public class BatchDocumentLoaderTest {
+
+    @Test
+    public void roundTrips_beforeAndAfter() {
+        int[] rosterSizes = {1, 30, 31, 60, 250, 1000};
+        int[] expectedQueries = {1, 1, 2, 2, 9, 34};
+        int[] expectedWaves = {1, 1, 1, 1, 3, 9};
+
+        for (int i = 0; i < rosterSizes.length; i++) {
+            List<String> ids = studentIds(rosterSizes[i]);
+            List<List<String>> chunks = BatchDocumentLoader.partition(ids, BatchDocumentLoader.MAX_IDS_PER_QUERY);
+            int waves = (chunks.size() + BatchDocumentLoader.MAX_IN_FLIGHT - 1) / BatchDocumentLoader.MAX_IN_FLIGHT;
+
+            // One query per chunk instead of one get per student
+            assertEquals(expectedQueries[i], chunks.size());
+            assertEquals(expectedWaves[i], waves);
+            assertTrue(chunks.size() <= ids.size());
+
+            int loaded = 0;
+            for (List<String> chunk : chunks) {
+                // whereIn takes at most 30 values
+                assertTrue(chunk.size() <= BatchDocumentLoader.MAX_IDS_PER_QUERY);
+                assertFalse(chunk.isEmpty());
+                loaded += chunk.size();
+            }
+            assertEquals(ids.size(), loaded);
+            // Only the last chunk may be short
+            for (int c = 0; c < chunks.size() - 1; c++) {
+                assertEquals(BatchDocumentLoader.MAX_IDS_PER_QUERY, chunks.get(c).size());
+            }
+        }
+    }
+
+    @Test
+    public void partition_keepsOrderAndDropsDuplicates() {
+        List<String> ids = Arrays.asList("c", "a", null, "b", "a", "", "d");
+        List<List<String>> chunks = BatchDocumentLoader.partition(ids, 2);
+
+        assertEquals(2, chunks.size());
+        assertEquals(Arrays.asList("c", "a"), chunks.get(0));
+        assertEquals(Arrays.asList("b", "d"), chunks.get(1));
+    }
+
+    @Test
+    public void partition_handlesEmptyInput() {
+        assertTrue(BatchDocumentLoader.partition(null, 30).isEmpty());
+        assertTrue(BatchDocumentLoader.partition(new ArrayList<>(), 30).isEmpty());
+    }
+
+    private static List<String> studentIds(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add("student" + i);
+        }
+        return ids;
+    }
+}
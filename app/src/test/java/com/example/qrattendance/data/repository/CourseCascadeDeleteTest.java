@@ -0,0 +1,327 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Cascade delete of a full-semester course against an in-memory store, checking that nothing
+ * pointing at the course survives, that batches stay within the Firestore limits and that an
+ * interrupted delete picks up where it stopped
+ */
+public class CourseCascadeDeleteTest {
+    private static final String COURSE = "course-1";
+    private static final String OTHER_COURSE = "course-2";
+    private static final int SESSIONS = 40;
+    private static final int STUDENTS = 60;
+
+    @Test
+    public void delete_leavesNoOrphans() {
+        InMemoryStore store = new InMemoryStore();
+        seedCourse(store, COURSE, SESSIONS, STUDENTS);
+        seedCourse(store, OTHER_COURSE, 2, 5);
+        int otherDocuments = store.countReferencing(OTHER_COURSE);
+
+        CourseCascadeDelete.Result result = runToEnd(store);
+
+        assertNotNull(result);
+        assertOrphanFree(store, COURSE);
+        assertEquals(otherDocuments, store.countReferencing(OTHER_COURSE));
+        assertTrue(store.getArray("users/instructor-" + OTHER_COURSE, "coursesIds").contains(OTHER_COURSE));
+        assertEquals(COURSE, result.getCourseId());
+        assertNull(result.getResumedFrom());
+        // Every record goes, in as few batches as the write limit allows
+        assertTrue(result.getWrites() >= SESSIONS * STUDENTS);
+        assertTrue(result.getBatches() * CourseCascadeDelete.MAX_BATCH_WRITES >= result.getWrites());
+    }
+
+    @Test
+    public void delete_leavesTombstonesOfSyncedDocuments() {
+        InMemoryStore store = new InMemoryStore();
+        seedCourse(store, COURSE, 3, 10);
+
+        assertNotNull(runToEnd(store));
+
+        assertTrue(store.tombstones.contains("courses/" + COURSE));
+        assertTrue(store.tombstones.contains("sessions/" + COURSE + "-session-2"));
+        assertTrue(store.tombstones.contains("attendance_summaries/student-" + COURSE + "-9_" + COURSE));
+        // Records and QR codes are not kept on devices, one course + 3 sessions + 10 summaries
+        assertEquals(14, store.tombstones.size());
+    }
+
+    @Test
+    public void delete_staysWithinBatchLimits() {
+        InMemoryStore store = new InMemoryStore();
+        seedCourse(store, COURSE, SESSIONS, STUDENTS);
+
+        CourseCascadeDelete.Result result = runToEnd(store);
+
+        // 40 sessions x 60 students = 2400 records alone, several batches running side by side
+        assertTrue(result.getBatches() > CourseCascadeDelete.MAX_IN_FLIGHT);
+        assertTrue(store.maxBatchSize <= CourseCascadeDelete.MAX_BATCH_WRITES);
+        assertTrue(store.maxInFlight > 1);
+        assertTrue(store.maxInFlight <= CourseCascadeDelete.MAX_IN_FLIGHT);
+        assertTrue(store.maxQueryValues <= BatchDocumentLoader.MAX_IDS_PER_QUERY);
+    }
+
+    @Test
+    public void interruptedDelete_resumesFromCheckpoint() {
+        InMemoryStore store = new InMemoryStore();
+        seedCourse(store, COURSE, SESSIONS, STUDENTS);
+
+        // Records take five batches and a checkpoint, fail the QR code batch that follows
+        store.failCommitNumber = 7;
+        Exception[] failure = new Exception[1];
+        CourseCascadeDelete.run(store, COURSE, (result, error) -> failure[0] = error);
+        store.drain();
+
+        assertNotNull(failure[0]);
+        assertNotNull(store.docs.get("courses/" + COURSE));
+        assertEquals("RECORDS", store.docs.get("course_deletions/" + COURSE).get("completedPhase"));
+        assertEquals(0, store.count("attendance_records/", "courseId", COURSE));
+
+        store.failCommitNumber = -1;
+        CourseCascadeDelete.Result result = runToEnd(store);
+
+        assertEquals(CourseCascadeDelete.Phase.QR_CODES, result.getResumedFrom());
+        assertOrphanFree(store, COURSE);
+    }
+
+    @Test
+    public void missingUsers_areSkipped() {
+        InMemoryStore store = new InMemoryStore();
+        seedCourse(store, COURSE, 3, 10);
+        store.docs.remove("users/student-" + COURSE + "-4");
+        store.docs.remove("users/instructor-" + COURSE);
+
+        assertNotNull(runToEnd(store));
+        assertOrphanFree(store, COURSE);
+        assertNull(store.docs.get("users/student-" + COURSE + "-4"));
+    }
+
+    @Test
+    public void missingCourse_fails() {
+        InMemoryStore store = new InMemoryStore();
+        Exception[] failure = new Exception[1];
+        CourseCascadeDelete.run(store, COURSE, (result, error) -> failure[0] = error);
+        store.drain();
+        assertNotNull(failure[0]);
+    }
+
+    private static CourseCascadeDelete.Result runToEnd(InMemoryStore store) {
+        CourseCascadeDelete.Result[] outcome = new CourseCascadeDelete.Result[1];
+        Exception[] failure = new Exception[1];
+        CourseCascadeDelete.run(store, COURSE, (result, error) -> {
+            outcome[0] = result;
+            failure[0] = error;
+        });
+        store.drain();
+        assertNull(failure[0]);
+        return outcome[0];
+    }
+
+    private static void assertOrphanFree(InMemoryStore store, String courseId) {
+        for (Map.Entry<String, Map<String, Object>> doc : store.docs.entrySet()) {
+            String path = doc.getKey();
+            assertFalse(path, path.startsWith("sessions/" + courseId));
+            assertFalse(path, path.startsWith("qr_codes/" + courseId));
+            assertFalse(path, path.startsWith("course_deletions/" + courseId));
+            assertFalse(path, path.startsWith("attendance_records/") && path.contains(courseId));
+            assertFalse(path, courseId.equals(doc.getValue().get("courseId")));
+            for (Object value : doc.getValue().values()) {
+                if (value instanceof List) {
+                    assertFalse(path, ((List<?>) value).contains(courseId));
+                }
+            }
+        }
+        assertNull(store.docs.get("courses/" + courseId));
+    }
+
+    // Course with sessions, one QR code and a full roster of records per session, counter shards
+    // and a summary per student; a legacy record without courseId is included too
+    private static void seedCourse(InMemoryStore store, String courseId, int sessions, int students) {
+        List<String> sessionIds = new ArrayList<>();
+        List<String> studentIds = new ArrayList<>();
+        for (int s = 0; s < students; s++) {
+            String studentId = "student-" + courseId + "-" + s;
+            studentIds.add(studentId);
+            store.put("users/" + studentId, "enrolledCourseIds", new ArrayList<>(Arrays.asList(courseId, "elective")));
+            store.put("attendance_summaries/" + studentId + "_" + courseId, "courseId", courseId);
+        }
+        for (int i = 0; i < sessions; i++) {
+            String sessionId = courseId + "-session-" + i;
+            sessionIds.add(sessionId);
+            store.put("sessions/" + sessionId, "courseId", courseId);
+            store.put("sessions/" + sessionId + "/counter_shards/presentCount_" + (i % 10), "count", 3L);
+            store.put("sessions/" + sessionId + "/counter_shards/lateCount_" + (i % 10), "count", 1L);
+            String qrId = courseId + "-qr-" + i;
+            store.put("qr_codes/" + qrId, "sessionId", sessionId);
+            store.put("qr_codes/" + qrId + "/counter_shards/scanCount_" + (i % 10), "count", 5L);
+            for (String studentId : studentIds) {
+                Map<String, Object> record = store.put("attendance_records/" + sessionId + "_" + studentId,
+                        "sessionId", sessionId);
+                record.put("courseId", courseId);
+            }
+        }
+        if (sessions > 0) {
+            store.put("attendance_records/legacy-" + courseId, "sessionId", sessionIds.get(0));
+        }
+
+        store.put("users/instructor-" + courseId, "coursesIds", new ArrayList<>(Arrays.asList(courseId, "other")));
+        Map<String, Object> course = store.put("courses/" + courseId, "instructorId", "instructor-" + courseId);
+        course.put("sessionIds", sessionIds);
+        course.put("enrolledStudentIds", studentIds);
+    }
+
+    // Document store keyed by path; reads answer at once, commits queue up until drained so
+    // several batches can be in flight like on the network
+    private static class InMemoryStore implements CourseCascadeDelete.Store {
+        final Map<String, Map<String, Object>> docs = new TreeMap<>();
+        final Set<String> tombstones = new HashSet<>();
+        private final Deque<Runnable> pending = new ArrayDeque<>();
+        int failCommitNumber = -1;
+        int commits;
+        int inFlight;
+        int maxInFlight;
+        int maxBatchSize;
+        int maxQueryValues;
+
+        Map<String, Object> put(String path, String field, Object value) {
+            Map<String, Object> doc = new HashMap<>();
+            doc.put(field, value);
+            docs.put(path, doc);
+            return doc;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object> getArray(String path, String field) {
+            return (List<Object>) docs.get(path).get(field);
+        }
+
+        int count(String prefix, String field, Object value) {
+            int count = 0;
+            for (Map.Entry<String, Map<String, Object>> doc : docs.entrySet()) {
+                if (doc.getKey().startsWith(prefix) && value.equals(doc.getValue().get(field))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        int countReferencing(String courseId) {
+            int count = 0;
+            for (Map.Entry<String, Map<String, Object>> doc : docs.entrySet()) {
+                if (doc.getKey().contains(courseId) || courseId.equals(doc.getValue().get("courseId"))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        void drain() {
+            while (!pending.isEmpty()) {
+                pending.poll().run();
+            }
+        }
+
+        @Override
+        public void read(String collection, String id, CourseCascadeDelete.Callback<Map<String, Object>> callback) {
+            Map<String, Object> doc = docs.get(collection + "/" + id);
+            callback.onComplete(doc != null ? new HashMap<>(doc) : null, null);
+        }
+
+        @Override
+        public void findIds(String collection, String field, List<String> values,
+                            CourseCascadeDelete.Callback<List<String>> callback) {
+            maxQueryValues = Math.max(maxQueryValues, values.size());
+            List<String> ids = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Object>> doc : docs.entrySet()) {
+                String id = topLevelId(collection, doc.getKey());
+                if (id != null && values.contains(doc.getValue().get(field))) {
+                    ids.add(id);
+                }
+            }
+            callback.onComplete(ids, null);
+        }
+
+        @Override
+        public void findExisting(String collection, List<String> ids,
+                                 CourseCascadeDelete.Callback<List<String>> callback) {
+            maxQueryValues = Math.max(maxQueryValues, ids.size());
+            List<String> existing = new ArrayList<>();
+            for (String id : ids) {
+                if (docs.containsKey(collection + "/" + id)) {
+                    existing.add(id);
+                }
+            }
+            callback.onComplete(existing, null);
+        }
+
+        @Override
+        public void commit(List<CourseCascadeDelete.Write> writes, CourseCascadeDelete.Callback<Void> callback) {
+            int commitNumber = ++commits;
+            maxBatchSize = Math.max(maxBatchSize, writes.size());
+            maxInFlight = Math.max(maxInFlight, ++inFlight);
+            pending.add(() -> {
+                inFlight--;
+                if (commitNumber == failCommitNumber) {
+                    callback.onComplete(null, new IllegalStateException("Connection lost"));
+                    return;
+                }
+                Exception error = apply(writes);
+                callback.onComplete(null, error);
+            });
+        }
+
+        // All or nothing, like a WriteBatch
+        private Exception apply(List<CourseCascadeDelete.Write> writes) {
+            for (CourseCascadeDelete.Write write : writes) {
+                if (write.type == CourseCascadeDelete.Write.Type.ARRAY_REMOVE && !docs.containsKey(write.path)) {
+                    return new IllegalStateException("No document to update: " + write.path);
+                }
+            }
+            for (CourseCascadeDelete.Write write : writes) {
+                switch (write.type) {
+                    case DELETE:
+                        docs.remove(write.path);
+                        break;
+                    case ARRAY_REMOVE:
+                        List<Object> array = new ArrayList<>(getArray(write.path, write.field));
+                        array.removeAll(Arrays.asList(write.value));
+                        docs.get(write.path).put(write.field, array);
+                        break;
+                    case SET:
+                        docs.put(write.path, new HashMap<>(write.data));
+                        break;
+                    case TOMBSTONE:
+                        tombstones.add(write.path);
+                        break;
+                }
+            }
+            return null;
+        }
+
+        private static String topLevelId(String collection, String path) {
+            if (!path.startsWith(collection + "/")) {
+                return null;
+            }
+            String id = path.substring(collection.length() + 1);
+            return id.contains("/") ? null : id;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DeltaSyncTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    private final MemoryLocal local = new MemoryLocal();
+    private final DeltaSync deltaSync = new DeltaSync(local, () -> NOW);
+
+    @Test
+    public void firstSync_readsWholeScopeAndKeepsHighestTimestamp() throws Exception {
+        List<Long> asked = new ArrayList<>();
+        DeltaSync.Result result = deltaSync.sync("courses", "s1", since -> {
+            asked.add(since);
+            return Arrays.asList(change("c1", "a", NOW - 5_000), change("c2", "b", NOW + 2_000));
+        });
+
+        assertNull(asked.get(0));
+        assertTrue(result.isFull());
+        assertEquals(2, result.getWritten());
+        assertEquals(NOW + 2_000, (long) local.getWatermark("courses", "s1"));
+        assertEquals("b", local.values.get("c2"));
+    }
+
+    @Test
+    public void deltaSync_asksFromBeforeWatermarkAndSkipsUnchanged() throws Exception {
+        local.watermark = NOW;
+        local.versions.put("c1", NOW - 30_000);
+        local.values.put("c1", "a");
+
+        List<Long> asked = new ArrayList<>();
+        DeltaSync.Result result = deltaSync.sync("courses", "s1", since -> {
+            asked.add(since);
+            // c1 is read again because of the overlap, c2 is new
+            return Arrays.asList(change("c1", "a", NOW - 30_000), change("c2", "b", NOW + 1_000));
+        });
+
+        assertEquals(NOW - DeltaSync.OVERLAP_MS, (long) asked.get(0));
+        assertFalse(result.isFull());
+        assertEquals(2, result.getRead());
+        assertEquals(1, result.getWritten());
+        assertEquals(Collections.singletonList("c2"), local.lastUpserts);
+        assertEquals(NOW + 1_000, (long) local.watermark);
+    }
+
+    @Test
+    public void deltaSync_keepsDocumentsItDoesNotSee() throws Exception {
+        local.watermark = NOW;
+        local.versions.put("c1", NOW - 30_000);
+
+        DeltaSync.Result result = deltaSync.sync("courses", "s1", since -> Collections.emptyList());
+
+        assertFalse(result.hasChanges());
+        assertTrue(local.versions.containsKey("c1"));
+        assertEquals(NOW, (long) local.watermark);
+    }
+
+    @Test
+    public void fullSync_removesDocumentsNoLongerInScope() throws Exception {
+        local.versions.put("gone", 5L);
+        local.versions.put("c1", 7L);
+
+        DeltaSync.Result result = deltaSync.sync("courses", "s1",
+                since -> Collections.singletonList(change("c1", "a", 7L)));
+
+        assertEquals(1, result.getRemoved());
+        assertEquals(0, result.getWritten());
+        assertFalse(local.versions.containsKey("gone"));
+    }
+
+    @Test
+    public void untimestampedDocuments_areAlwaysWrittenAndFallBackToClock() throws Exception {
+        local.versions.put("c1", 0L);
+
+        DeltaSync.Result result = deltaSync.sync("courses", "s1",
+                since -> Collections.singletonList(change("c1", "a", 0)));
+
+        assertEquals(1, result.getWritten());
+        assertEquals(NOW - DeltaSync.CLOCK_MARGIN_MS, result.getWatermark());
+    }
+
+    @Test
+    public void fullSync_withFastClock_keepsServerWatermark() throws Exception {
+        // Device clock an hour ahead of the server
+        DeltaSync fastSync = new DeltaSync(local, () -> NOW + 60 * 60_000);
+
+        DeltaSync.Result result = fastSync.sync("courses", "s1",
+                since -> Arrays.asList(change("c1", "a", NOW - 5_000), change("c2", "b", 0)));
+
+        assertTrue(result.isFull());
+        assertEquals(NOW - 5_000, result.getWatermark());
+
+        // The next delta still sees a write the server stamps now
+        List<Long> asked = new ArrayList<>();
+        fastSync.sync("courses", "s1", since -> {
+            asked.add(since);
+            return Collections.singletonList(change("c3", "c", NOW));
+        });
+        assertTrue(asked.get(0) <= NOW);
+        assertEquals("c", local.values.get("c3"));
+    }
+
+    @Test
+    public void deltaSync_appliesTombstonesAndScopeExits() throws Exception {
+        local.watermark = NOW;
+        local.versions.put("deleted", NOW - 30_000);
+        local.versions.put("deactivated", NOW - 30_000);
+        local.versions.put("kept", NOW - 30_000);
+
+        DeltaSync.Result result = deltaSync.sync("courses", "active", since -> Arrays.asList(
+                DeltaSync.Change.<String>removed("deleted", NOW + 1_000, 60),
+                DeltaSync.Change.<String>removed("deactivated", NOW + 2_000, 300),
+                // Deleted before it ever reached this device
+                DeltaSync.Change.<String>removed("unknown", NOW + 3_000, 60)));
+
+        assertEquals(2, result.getRemoved());
+        assertEquals(420, result.getBytes());
+        assertEquals(Collections.singleton("kept"), local.versions.keySet());
+        assertEquals(NOW + 3_000, (long) local.watermark);
+    }
+
+    @Test
+    public void oldWatermark_readsScopeInFullAgain() throws Exception {
+        // Tombstones older than this may be gone, a delta could miss deletes
+        local.watermark = NOW - DeltaSync.MAX_DELTA_AGE_MS - 1;
+        local.versions.put("gone", 5L);
+
+        List<Long> asked = new ArrayList<>();
+        DeltaSync.Result result = deltaSync.sync("courses", "s1", since -> {
+            asked.add(since);
+            return Collections.emptyList();
+        });
+
+        assertNull(asked.get(0));
+        assertTrue(result.isFull());
+        assertFalse(local.versions.containsKey("gone"));
+    }
+
+    private static DeltaSync.Change<String> change(String id, String value, long updatedAt) {
+        return new DeltaSync.Change<>(id, value, updatedAt);
+    }
+
+    // One scope kept in memory
+    private static class MemoryLocal implements DeltaSync.Local {
+        Long watermark;
+        final Map<String, Long> versions = new HashMap<>();
+        final Map<String, Object> values = new HashMap<>();
+        List<String> lastUpserts = new ArrayList<>();
+
+        @Override
+        public Long getWatermark(String collection, String scope) {
+            return watermark;
+        }
+
+        @Override
+        public Map<String, Long> getVersions(String collection, String scope) {
+            return new HashMap<>(versions);
+        }
+
+        @Override
+        public <T> void apply(String collection, String scope, List<DeltaSync.Change<T>> upserts,
+                              Collection<String> removedIds, long watermark) {
+            lastUpserts = new ArrayList<>();
+            for (DeltaSync.Change<T> change : upserts) {
+                versions.put(change.id, change.updatedAt);
+                values.put(change.id, change.value);
+                lastUpserts.add(change.id);
+            }
+            for (String id : removedIds) {
+                versions.remove(id);
+                values.remove(id);
+            }
+            this.watermark = watermark;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enrollment morning: hundreds of students enroll in one course at the same moment against a
+ * local stand-in for Firestore. Reading the roster and writing it back loses enrollments, array
+ * updates in one batch do not, even when batches are aborted or their acknowledgement is lost
+ */
+public class EnrollmentStressTest {
+    private static final String COURSE = "course-1";
+    private static final int STUDENTS = 400;
+    private static final int THREADS = 32;
+
+    @Test
+    public void readModifyWrite_losesEnrollments() throws Exception {
+        LocalStore store = new LocalStore(STUDENTS);
+        CountDownLatch allRead = new CountDownLatch(STUDENTS);
+
+        // Every student reads the roster before anyone writes, as in the old enrollStudent
+        runConcurrently(STUDENTS, STUDENTS, i -> {
+            List<Object> roster = store.read("courses/" + COURSE, EnrollmentWriter.COURSE_FIELD);
+            allRead.countDown();
+            allRead.await();
+            roster.add(student(i));
+            store.write("courses/" + COURSE, EnrollmentWriter.COURSE_FIELD, roster);
+        });
+
+        // Only the last writer's enrollment survives
+        assertEquals(1, store.read("courses/" + COURSE, EnrollmentWriter.COURSE_FIELD).size());
+    }
+
+    @Test
+    public void arrayUpdates_keepEveryEnrollment() throws Exception {
+        LocalStore store = new LocalStore(STUDENTS);
+        // The first attempt of every 7th student is aborted, of every 11th applied but not acknowledged
+        store.abortEvery = 7;
+        store.dropAckEvery = 11;
+        ConcurrentLinkedQueue<Exception> failures = new ConcurrentLinkedQueue<>();
+
+        runConcurrently(STUDENTS, THREADS, i -> {
+            CountDownLatch done = new CountDownLatch(1);
+            EnrollmentWriter.commit(store, EnrollmentWriter.enrollment(COURSE, student(i)), error -> {
+                if (error != null) {
+                    failures.add(error);
+                }
+                done.countDown();
+            });
+            done.await();
+        });
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEnrollment(store, true);
+
+        int retried = 0;
+        int appliedTwice = 0;
+        for (int i = 0; i < STUDENTS; i++) {
+            if (i % 7 == 0 || i % 11 == 0) {
+                retried++;
+            }
+            if (i % 7 != 0 && i % 11 == 0) {
+                appliedTwice++;
+            }
+        }
+        // One retry per failed batch, and a retried batch that was applied changes nothing again
+        assertEquals(STUDENTS + retried, store.commits.get());
+        assertEquals(2 * (STUDENTS + appliedTwice), store.writes.get());
+    }
+
+    @Test
+    public void unenrollment_isIdempotent() throws Exception {
+        LocalStore store = new LocalStore(STUDENTS);
+        runConcurrently(STUDENTS, THREADS, i ->
+                EnrollmentWriter.commit(store, EnrollmentWriter.enrollment(COURSE, student(i)), error -> assertNull(error)));
+
+        // Each student leaves twice, the second removal changes nothing
+        store.dropAckEvery = 5;
+        store.attempts.clear();
+        runConcurrently(STUDENTS * 2, THREADS, i ->
+                EnrollmentWriter.commit(store, EnrollmentWriter.unenrollment(COURSE, student(i % STUDENTS)), error -> assertNull(error)));
+
+        assertEnrollment(store, false);
+    }
+
+    @Test
+    public void missingDocument_failsWithoutRetry() {
+        LocalStore store = new LocalStore(0);
+        Exception[] failure = new Exception[1];
+        EnrollmentWriter.commit(store, EnrollmentWriter.enrollment(COURSE, "ghost"), error -> failure[0] = error);
+
+        assertTrue(failure[0] instanceof IllegalStateException);
+        assertEquals(1, store.commits.get());
+        assertTrue(store.read("courses/" + COURSE, EnrollmentWriter.COURSE_FIELD).isEmpty());
+    }
+
+    private static void assertEnrollment(LocalStore store, boolean enrolled) {
+        List<Object> roster = store.read("courses/" + COURSE, EnrollmentWriter.COURSE_FIELD);
+        assertEquals(enrolled ? STUDENTS : 0, roster.size());
+        assertEquals(roster.size(), new HashSet<>(roster).size());
+        for (int i = 0; i < STUDENTS; i++) {
+            List<Object> courses = store.read("users/" + student(i), EnrollmentWriter.STUDENT_FIELD);
+            assertEquals(enrolled, courses.contains(COURSE));
+            assertTrue(courses.contains("elective"));
+        }
+    }
+
+    private static String student(int i) {
+        return "student-" + i;
+    }
+
+    private static void runConcurrently(int tasks, int threads, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    task.run(index);
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertNull(errors.peek());
+    }
+
+    private interface Task {
+        void run(int index) throws Exception;
+    }
+
+    // Array fields of a course and its students; a batch is applied under one lock like a
+    // server-side commit, retries run straight away on the calling thread. Failures are injected
+    // on the first attempt of a student's batch only, so every batch eventually goes through
+    private static class LocalStore implements EnrollmentWriter.Store {
+        private final Map<String, Map<String, List<Object>>> docs = new HashMap<>();
+        final AtomicInteger commits = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+        final Map<String, Integer> attempts = new HashMap<>();
+        int abortEvery;
+        int dropAckEvery;
+
+        LocalStore(int students) {
+            put("courses/" + COURSE, EnrollmentWriter.COURSE_FIELD);
+            for (int i = 0; i < students; i++) {
+                put("users/" + student(i), EnrollmentWriter.STUDENT_FIELD, "elective");
+            }
+        }
+
+        private void put(String path, String field, Object... values) {
+            Map<String, List<Object>> doc = new HashMap<>();
+            List<Object> array = new ArrayList<>();
+            for (Object value : values) {
+                array.add(value);
+            }
+            doc.put(field, array);
+            docs.put(path, doc);
+        }
+
+        synchronized List<Object> read(String path, String field) {
+            Map<String, List<Object>> doc = docs.get(path);
+            return doc != null ? new ArrayList<>(doc.get(field)) : new ArrayList<>();
+        }
+
+        synchronized void write(String path, String field, List<Object> values) {
+            docs.get(path).put(field, new ArrayList<>(values));
+        }
+
+        @Override
+        public void commit(List<EnrollmentWriter.ArrayUpdate> updates, EnrollmentWriter.Callback callback) {
+            commits.incrementAndGet();
+            Exception error = apply(updates);
+            callback.onComplete(error);
+        }
+
+        private synchronized Exception apply(List<EnrollmentWriter.ArrayUpdate> updates) {
+            String studentId = updates.get(1).path;
+            int student = studentId.startsWith("users/student-") ? Integer.parseInt(studentId.substring(14)) : -1;
+            boolean firstAttempt = attempts.merge(studentId, 1, Integer::sum) == 1;
+            if (firstAttempt && abortEvery > 0 && student % abortEvery == 0) {
+                return new TransientException("Too much contention");
+            }
+            for (EnrollmentWriter.ArrayUpdate update : updates) {
+                if (!docs.containsKey(update.path)) {
+                    return new IllegalStateException("No document to update: " + update.path);
+                }
+            }
+            for (EnrollmentWriter.ArrayUpdate update : updates) {
+                List<Object> array = docs.get(update.path).get(update.field);
+                if (update.add && !array.contains(update.value)) {
+                    array.add(update.value);
+                } else if (!update.add) {
+                    array.remove(update.value);
+                }
+                writes.incrementAndGet();
+            }
+            if (firstAttempt && dropAckEvery > 0 && student % dropAckEvery == 0) {
+                return new TransientException("Deadline exceeded");
+            }
+            return null;
+        }
+
+        @Override
+        public boolean isRetryable(Exception error) {
+            return error instanceof TransientException;
+        }
+
+        @Override
+        public void schedule(Runnable retry, long delayMs) {
+            retry.run();
+        }
+    }
+
+    private static class TransientException extends Exception {
+        TransientException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ExpirySweepTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    private final MemoryTarget target = new MemoryTarget();
+    private final ExpirySweep sweep = new ExpirySweep(() -> NOW);
+
+    @Test
+    public void sweep_closesOnlyOpenExpiredDocumentsInFullBatches() throws Exception {
+        for (int i = 0; i < 1_200; i++) {
+            target.put("expired" + i, NOW - 1_000_000 + i, true);
+        }
+        for (int i = 0; i < 50; i++) {
+            target.put("closed" + i, NOW - 2_000_000 + i, false);
+        }
+        target.put("running", NOW + 60_000, true);
+
+        ExpirySweep.Result result = sweep.sweep(target, () -> false);
+
+        assertEquals(1_200, result.getClosed());
+        assertEquals(3, result.getBatches());
+        assertTrue(target.batchSizes.stream().allMatch(size -> size <= ExpirySweep.PAGE_SIZE));
+        assertTrue(target.open.contains("running"));
+        assertEquals(1, target.open.size());
+        // Codes closed before are never written again
+        assertEquals(1_200, target.writes);
+        assertEquals(NOW - 1_000_000 + 1_199, (long) target.checkpoint);
+    }
+
+    @Test
+    public void lease_letsOneDeviceSweepAtATime() {
+        // Never taken, or taken by this device
+        assertTrue(ExpirySweep.mayTakeLease(null, null, "phone", NOW));
+        assertTrue(ExpirySweep.mayTakeLease("phone", NOW - 60_000, "phone", NOW));
+        // Another device swept a minute ago
+        assertFalse(ExpirySweep.mayTakeLease("tablet", NOW - 60_000, "phone", NOW));
+        // It stopped sweeping, its lease has gone stale
+        assertTrue(ExpirySweep.mayTakeLease("tablet", NOW - ExpirySweep.LEASE_MS, "phone", NOW));
+    }
+
+    @Test
+    public void nextSweep_startsBeforeCheckpoint() throws Exception {
+        target.put("old", NOW - 10 * ExpirySweep.CHECKPOINT_OVERLAP_MS, true);
+        target.put("late", NOW - 60_000, true);
+        target.checkpoint = NOW - 30_000;
+
+        ExpirySweep.Result result = sweep.sweep(target, () -> false);
+
+        assertEquals(NOW - 30_000 - ExpirySweep.CHECKPOINT_OVERLAP_MS, (long) target.askedFrom.get(0));
+        // Written by a device that was offline, still inside the overlap
+        assertEquals(1, result.getClosed());
+        assertTrue(target.open.contains("old"));
+    }
+
+    @Test
+    public void stoppedSweep_resumesFromCheckpoint() throws Exception {
+        for (int i = 0; i < 700; i++) {
+            target.put("code" + i, NOW - 100_000 + i, true);
+        }
+        int[] batches = {0};
+
+        ExpirySweep.Result first = sweep.sweep(target, () -> batches[0]++ >= 1);
+        assertEquals(ExpirySweep.PAGE_SIZE, first.getClosed());
+        assertNull(target.askedFrom.get(0));
+
+        ExpirySweep.Result second = sweep.sweep(target, () -> false);
+        assertEquals(200, second.getClosed());
+        assertTrue(target.open.isEmpty());
+    }
+
+    @Test
+    public void documentsThatStayOpen_doNotStallTheSweep() throws Exception {
+        for (int i = 0; i < 600; i++) {
+            target.put("code" + i, NOW - 100_000 + i, true);
+        }
+        // E.g. rejected by security rules, the query keeps returning them
+        target.ignoreWrites = true;
+
+        ExpirySweep.Result result = sweep.sweep(target, () -> false);
+
+        assertEquals(600, result.getClosed());
+        assertEquals(2, result.getBatches());
+    }
+
+    // Documents with an expiry and an open flag, ordered like the Firestore query
+    private static class MemoryTarget implements ExpirySweep.Target {
+        final Map<String, Long> expiry = new HashMap<>();
+        final Set<String> open = new HashSet<>();
+        final List<Long> askedFrom = new ArrayList<>();
+        final List<Integer> batchSizes = new ArrayList<>();
+        Long checkpoint;
+        boolean ignoreWrites;
+        int writes;
+
+        void put(String id, long expiresAt, boolean isOpen) {
+            expiry.put(id, expiresAt);
+            if (isOpen) {
+                open.add(id);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "qr_codes";
+        }
+
+        @Override
+        public Long getCheckpoint() {
+            return checkpoint;
+        }
+
+        @Override
+        public void saveCheckpoint(long expiresAt) {
+            checkpoint = expiresAt;
+        }
+
+        @Override
+        public List<ExpirySweep.Expired> findExpired(Long fromMillis, long untilMillis, ExpirySweep.Expired after,
+                                                     int limit) {
+            askedFrom.add(fromMillis);
+            List<ExpirySweep.Expired> matching = new ArrayList<>();
+            for (String id : open) {
+                long expiresAt = expiry.get(id);
+                boolean afterCursor = after == null || expiresAt > after.expiresAt
+                        || (expiresAt == after.expiresAt && id.compareTo(after.id) > 0);
+                if (expiresAt < untilMillis && (fromMillis == null || expiresAt >= fromMillis) && afterCursor) {
+                    matching.add(new ExpirySweep.Expired(id, expiresAt));
+                }
+            }
+            matching.sort((a, b) -> a.expiresAt != b.expiresAt
+                    ? Long.compare(a.expiresAt, b.expiresAt) : a.id.compareTo(b.id));
+            return new ArrayList<>(matching.subList(0, Math.min(limit, matching.size())));
+        }
+
+        @Override
+        public void close(List<ExpirySweep.Expired> documents) {
+            batchSizes.add(documents.size());
+            for (ExpirySweep.Expired document : documents) {
+                writes++;
+                if (!ignoreWrites) {
+                    open.remove(document.id);
+                }
+            }
+        }
+    }
+}
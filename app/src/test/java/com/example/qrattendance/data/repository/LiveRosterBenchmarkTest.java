@@ -0,0 +1,175 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays the scans of a 500-student session through the old full rebuild and through
+ * {@link LiveRoster}, and compares deserializations, CPU time and allocated bytes
+ */
+public class LiveRosterBenchmarkTest {
+    private static final int SCANS = 500;
+
+    private int deserializations;
+
+    @Test
+    public void replayScans_incrementalBeatsFullRebuild() {
+        List<Map<String, Object>> documents = scanDocuments();
+
+        // Warm up both paths so the JIT does not favour the second one
+        rebuildOnEveryScan(documents);
+        applyDeltas(documents);
+
+        deserializations = 0;
+        Measurement rebuild = measure(() -> rebuildOnEveryScan(documents));
+        int rebuildDeserializations = deserializations;
+
+        deserializations = 0;
+        Measurement incremental = measure(() -> applyDeltas(documents));
+        int incrementalDeserializations = deserializations;
+
+        String report = "full rebuild " + rebuild + ", live roster " + incremental;
+
+        // One toObject per scan instead of one per student present at every scan
+        assertEquals(SCANS * (SCANS + 1) / 2, rebuildDeserializations);
+        assertEquals(SCANS, incrementalDeserializations);
+        assertTrue(report, incremental.cpuNanos < rebuild.cpuNanos);
+        if (rebuild.allocatedBytes >= 0) {
+            assertTrue(report, incremental.allocatedBytes < rebuild.allocatedBytes);
+        }
+    }
+
+    @Test
+    public void apply_patchesRosterInPlace() {
+        LiveRoster roster = new LiveRoster();
+        roster.apply(Collections.singletonList(added("a", 0)));
+        roster.apply(Collections.singletonList(added("c", 1)));
+        roster.apply(Collections.singletonList(added("b", 1)));
+
+        AttendanceRecord lateB = record("b");
+        lateB.setStatus(AttendanceRecord.AttendanceStatus.LATE);
+        LiveRoster.Update update = roster.apply(Collections.singletonList(
+                new LiveRoster.Change(LiveRoster.Change.Type.MODIFIED, "b", 1, 2, lateB)));
+        assertEquals("a", update.getRecords().get(0).getRecordId());
+        assertEquals("c", update.getRecords().get(1).getRecordId());
+        assertEquals(AttendanceRecord.AttendanceStatus.LATE, update.getRecords().get(2).getStatus());
+
+        update = roster.apply(Collections.singletonList(
+                new LiveRoster.Change(LiveRoster.Change.Type.REMOVED, "a", 0, -1, null)));
+        assertEquals(2, update.getRecords().size());
+        assertNull(roster.get("a"));
+
+        // Metadata-only snapshots carry no changes and publish nothing
+        assertNull(roster.apply(new ArrayList<>()));
+    }
+
+    // Old behaviour: every snapshot deserializes every document and builds a new list
+    private void rebuildOnEveryScan(List<Map<String, Object>> documents) {
+        for (int scan = 1; scan <= documents.size(); scan++) {
+            List<AttendanceRecord> records = new ArrayList<>();
+            for (int i = 0; i < scan; i++) {
+                records.add(toObject(documents.get(i)));
+            }
+        }
+    }
+
+    // New behaviour: every snapshot carries one added document
+    private void applyDeltas(List<Map<String, Object>> documents) {
+        LiveRoster roster = new LiveRoster();
+        for (int i = 0; i < documents.size(); i++) {
+            AttendanceRecord record = toObject(documents.get(i));
+            roster.apply(Collections.singletonList(
+                    new LiveRoster.Change(LiveRoster.Change.Type.ADDED, record.getRecordId(), -1, i, record)));
+        }
+    }
+
+    // Stands in for DocumentSnapshot.toObject, which maps every field of the document
+    private AttendanceRecord toObject(Map<String, Object> data) {
+        deserializations++;
+        AttendanceRecord record = new AttendanceRecord((String) data.get("sessionId"), (String) data.get("courseId"),
+                (String) data.get("studentId"), (String) data.get("qrCodeId"));
+        record.setRecordId((String) data.get("id"));
+        record.setTimestamp(new Date((Long) data.get("timestamp")));
+        record.setStatus(AttendanceRecord.AttendanceStatus.valueOf((String) data.get("status")));
+        record.setLocation(new AttendanceRecord.LocationData((Double) data.get("latitude"),
+                (Double) data.get("longitude"), (String) data.get("locationName")));
+        return record;
+    }
+
+    private static List<Map<String, Object>> scanDocuments() {
+        List<Map<String, Object>> documents = new ArrayList<>(SCANS);
+        for (int i = 0; i < SCANS; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("id", "session1_student" + i);
+            data.put("sessionId", "session1");
+            data.put("courseId", "course1");
+            data.put("studentId", "student" + i);
+            data.put("qrCodeId", "qr1");
+            data.put("timestamp", 1700000000000L + i * 1000L);
+            data.put("status", "PRESENT");
+            data.put("latitude", 12.97);
+            data.put("longitude", 77.59);
+            data.put("locationName", "Hall A");
+            documents.add(data);
+        }
+        return documents;
+    }
+
+    private static LiveRoster.Change added(String id, int index) {
+        return new LiveRoster.Change(LiveRoster.Change.Type.ADDED, id, -1, index, record(id));
+    }
+
+    private static AttendanceRecord record(String id) {
+        AttendanceRecord record = new AttendanceRecord("session1", "course1", id, "qr1");
+        record.setRecordId(id);
+        return record;
+    }
+
+    private static Measurement measure(Runnable work) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        long bytesBefore = allocatedBytes(threads, threadId);
+
+        work.run();
+
+        long bytesAfter = allocatedBytes(threads, threadId);
+        Measurement measurement = new Measurement();
+        measurement.cpuNanos = threads.getCurrentThreadCpuTime() - cpuBefore;
+        measurement.allocatedBytes = bytesBefore < 0 ? -1 : bytesAfter - bytesBefore;
+        return measurement;
+    }
+
+    // Per-thread allocation counter of HotSpot JVMs, -1 where it is not available
+    private static long allocatedBytes(ThreadMXBean threads, long threadId) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+        }
+        return -1;
+    }
+
+    private static class Measurement {
+        private long cpuNanos;
+        private long allocatedBytes;
+
+        @Override
+        public String toString() {
+            return (cpuNanos / 1_000_000.0) + " ms CPU, "
+                    + (allocatedBytes >= 0 ? (allocatedBytes / 1024) + " KiB allocated" : "allocations not available");
+        }
+    }
+}
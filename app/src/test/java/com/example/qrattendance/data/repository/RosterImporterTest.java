@@ -0,0 +1,432 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Semester onboarding: a 50,000-row roster generated on the fly, so the file never exists in
+ * memory, imported against an in-memory store holding 2,000 existing students and 200 courses
+ */
+public class RosterImporterTest {
+    private static final String HEADER = "Name,Email,Roll No,Department,Semester,Batch,Phone,Courses\n";
+    private static final int ROWS = 50_000;
+    private static final int EXISTING_STUDENTS = 2_000;
+    private static final int COURSES = 200;
+
+    @Test
+    public void largeRoster_importsWithinLimits() throws Exception {
+        InMemoryStore store = seededStore();
+        ExecutorService completions = Executors.newSingleThreadExecutor();
+        store.completions = completions;
+
+        RosterImporter.Report report = new RosterImporter(store, null).run(new RosterGenerator(ROWS));
+        completions.shutdown();
+        assertTrue(completions.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Expected outcome from the same rules the generator uses
+        int created = 0;
+        int enrolledExisting = 0;
+        int enrollments = 0;
+        Map<String, Integer> expectedRoster = new HashMap<>();
+        for (int i = 0; i < ROWS; i++) {
+            if (RosterGenerator.kind(i) != RosterGenerator.VALID) {
+                continue;
+            }
+            if (i < EXISTING_STUDENTS) {
+                enrolledExisting++;
+            } else {
+                created++;
+            }
+            for (String code : RosterGenerator.courses(i)) {
+                enrollments++;
+                expectedRoster.merge(code, 1, Integer::sum);
+            }
+        }
+
+        String stats = report + ", " + store.commits + " batches, max " + store.maxBatchSize
+                + " writes per batch, max " + store.maxInFlight + " in flight";
+        assertNull(report.getFatalError());
+        assertEquals(ROWS, report.getRowsRead());
+        assertEquals(created, report.getCreated());
+        assertEquals(enrolledExisting, report.getEnrolledExisting());
+        assertEquals(enrollments, report.getEnrollments());
+        assertEquals(ROWS / 1000 * 2, report.getInvalid());
+        assertEquals(ROWS / 1000, report.getDuplicates());
+        assertEquals(0, report.getFailed());
+        assertEquals(ROWS, report.getRowsDone());
+        // Chunks are cut at the row limit, so every accepted row costs at most its share of a batch
+        assertTrue(stats, store.commits >= (created + enrolledExisting) / RosterImporter.MAX_CHUNK_ROWS);
+        assertTrue(stats, store.maxBatchSize > 0 && store.maxBatchSize <= RosterImporter.MAX_BATCH_WRITES);
+        assertTrue(stats, store.maxInFlight > 0 && store.maxInFlight <= RosterImporter.MAX_IN_FLIGHT);
+        assertTrue(store.maxQueryValues <= BatchDocumentLoader.MAX_IDS_PER_QUERY);
+
+        // No lost or doubled students, every roster complete
+        assertEquals(EXISTING_STUDENTS + created, store.count("users/"));
+        assertEquals(EXISTING_STUDENTS + created, store.distinctValues("users/", "email"));
+        for (int c = 0; c < COURSES; c++) {
+            String code = courseCode(c);
+            List<?> roster = (List<?>) store.docs.get("courses/course-" + c).get("enrolledStudentIds");
+            int expected = expectedRoster.containsKey(code) ? expectedRoster.get(code) : 0;
+            assertEquals(code, expected, roster.size());
+            assertEquals(code, expected, new HashSet<>(roster).size());
+        }
+
+        // Rejected rows carry their line, header is line 1
+        int firstUnknownCourse = Integer.MAX_VALUE;
+        for (RosterImporter.RowError error : report.getErrors()) {
+            if (error.getMessage().equals("Unknown course code XX999")) {
+                firstUnknownCourse = Math.min(firstUnknownCourse, error.getLine());
+            }
+        }
+        assertEquals(RosterGenerator.UNKNOWN_COURSE + 2, firstUnknownCourse);
+    }
+
+    @Test
+    public void readerStaysAFewChunksAhead() throws Exception {
+        InMemoryStore store = seededStore();
+        store.holdCommits = true;
+        RosterGenerator roster = new RosterGenerator(ROWS);
+        RosterImporter importer = new RosterImporter(store, null);
+
+        RosterImporter.Report[] report = new RosterImporter.Report[1];
+        Thread reader = new Thread(() -> report[0] = importer.run(roster));
+        reader.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (store.heldCommits() < RosterImporter.MAX_IN_FLIGHT || reader.getState() != Thread.State.WAITING) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        // Three chunks waiting on the network, the fourth parsed, plus the reader's read-ahead buffer
+        int bound = (RosterImporter.MAX_IN_FLIGHT + 1) * RosterImporter.MAX_CHUNK_ROWS + 200;
+        assertTrue("rows generated while commits are held: " + roster.rowsGenerated + " of " + ROWS,
+                roster.rowsGenerated < bound);
+
+        importer.cancel();
+        store.releaseCommits();
+        reader.join(10_000);
+        assertNotNull(report[0]);
+        assertTrue(report[0].isCancelled());
+    }
+
+    @Test
+    public void secondImport_createsNothing() {
+        InMemoryStore store = seededStore();
+        String file = HEADER
+                + "Ana Diaz,ana@uni.edu,N1,CS,1,2026,555,CS100;CS101\n"
+                + "Bo Chen,bo@uni.edu,N2,CS,1,2026,,\n"
+                // Existing student, matched by roll number
+                + "Someone,new-address@uni.edu,R7,CS,1,2026,,CS102\n";
+
+        RosterImporter.Report first = new RosterImporter(store, null).run(new StringReader(file));
+        RosterImporter.Report second = new RosterImporter(store, null).run(new StringReader(file));
+
+        assertEquals(2, first.getCreated());
+        assertEquals(1, first.getEnrolledExisting());
+        assertEquals(0, second.getCreated());
+        assertEquals(2, second.getEnrolledExisting());
+        assertEquals(1, second.getUnchanged());
+        assertEquals(EXISTING_STUDENTS + 2, store.count("users/"));
+        assertEquals(1, ((List<?>) store.docs.get("courses/course-0").get("enrolledStudentIds")).size());
+    }
+
+    @Test
+    public void rowErrors_areReportedByLine() {
+        InMemoryStore store = seededStore();
+        store.put("users/teacher", "email", "prof@uni.edu", "role", "INSTRUCTOR");
+        String file = HEADER
+                + "No Email,,N1,CS,1,2026,,\n"
+                + "Short,row\n"
+                + "Prof,PROF@uni.edu,N3,CS,1,2026,,\n"
+                + "Mixed,user3@uni.edu,R4,CS,1,2026,,\n"
+                + "\n"
+                + "Fine,fine@uni.edu,N5,CS,1,2026,,\n"
+                + "Again,FINE@uni.edu,N6,CS,1,2026,,\n";
+
+        RosterImporter.Report report = new RosterImporter(store, null).run(new StringReader(file));
+
+        List<String> errors = new ArrayList<>();
+        for (RosterImporter.RowError error : report.getErrors()) {
+            errors.add(error.toString());
+        }
+        Collections.sort(errors);
+        assertEquals(Arrays.asList(
+                "Line 2: Invalid email \"\"",
+                "Line 3: Expected 8 fields, found 2",
+                "Line 4: Email or roll number belongs to a user who is not a student",
+                "Line 5: Email and roll number belong to different users",
+                "Line 8: Email already on line 7"), errors);
+        assertEquals(1, report.getCreated());
+    }
+
+    @Test
+    public void failedCommit_reportsEveryRowOfTheBatch() {
+        InMemoryStore store = seededStore();
+        store.failCommits = true;
+        String file = HEADER + "A,a@uni.edu,N1,CS,1,2026,,CS100\n" + "B,b@uni.edu,N2,CS,1,2026,,\n";
+
+        RosterImporter.Report report = new RosterImporter(store, null).run(new StringReader(file));
+
+        assertEquals(2, report.getFailed());
+        assertEquals(3, report.getErrors().get(1).getLine());
+        assertEquals(EXISTING_STUDENTS, store.count("users/"));
+    }
+
+    @Test
+    public void missingColumns_stopTheImport() {
+        RosterImporter.Report report = new RosterImporter(seededStore(), null)
+                .run(new StringReader("Name,Phone\nA,555\n"));
+        assertEquals("Missing column(s): [email, rollnumber]", report.getFatalError());
+        assertEquals(0, report.getRowsRead());
+    }
+
+    private static InMemoryStore seededStore() {
+        InMemoryStore store = new InMemoryStore();
+        for (int i = 0; i < EXISTING_STUDENTS; i++) {
+            store.put("users/existing-" + i, "email", "user" + i + "@uni.edu",
+                    "rollNumber", "R" + i, "role", "STUDENT", "enrolledCourseIds", new ArrayList<>());
+        }
+        for (int c = 0; c < COURSES; c++) {
+            store.put("courses/course-" + c, "courseCode", courseCode(c), "enrolledStudentIds", new ArrayList<>());
+        }
+        return store;
+    }
+
+    private static String courseCode(int c) {
+        return "CS" + (100 + c);
+    }
+
+    // Produces the CSV text row by row as it is read
+    private static class RosterGenerator extends Reader {
+        static final int VALID = 0;
+        static final int UNKNOWN_COURSE = 250;
+        static final int DUPLICATE = 500;
+        static final int BAD_EMAIL = 999;
+
+        private final int rows;
+        private String pending = HEADER;
+        private int offset;
+        volatile int rowsGenerated;
+
+        RosterGenerator(int rows) {
+            this.rows = rows;
+        }
+
+        static int kind(int i) {
+            int r = i % 1000;
+            return r == UNKNOWN_COURSE || r == DUPLICATE || r == BAD_EMAIL ? r : VALID;
+        }
+
+        static Set<String> courses(int i) {
+            Set<String> codes = new LinkedHashSet<>();
+            codes.add(courseCode(i % COURSES));
+            codes.add(courseCode(i * 7 % COURSES));
+            return codes;
+        }
+
+        private static String row(int i) {
+            String email;
+            switch (kind(i)) {
+                case BAD_EMAIL:
+                    email = "not-an-email";
+                    break;
+                case DUPLICATE:
+                    email = "USER" + (i - 1) + "@uni.edu";
+                    break;
+                default:
+                    email = "user" + i + "@uni.edu";
+            }
+            String courses = kind(i) == UNKNOWN_COURSE ? "CS100;XX999" : String.join(";", courses(i));
+            String roll = kind(i) == DUPLICATE ? "D" + i : "R" + i;
+            return "\"Student, " + i + "\"," + email + "," + roll + ",CS," + (1 + i % 8) + ",2026,555-" + i
+                    + "," + courses.toLowerCase(Locale.ROOT) + "\n";
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) {
+            if (offset == pending.length()) {
+                if (rowsGenerated == rows) {
+                    return -1;
+                }
+                pending = row(rowsGenerated++);
+                offset = 0;
+            }
+            int count = Math.min(len, pending.length() - offset);
+            pending.getChars(offset, offset + count, buffer, off);
+            offset += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Documents keyed by path with an index per queried field; batches apply atomically
+    private static class InMemoryStore implements RosterImporter.Store {
+        private static final List<String> INDEXED = Arrays.asList("email", "rollNumber", "courseCode");
+
+        final Map<String, Map<String, Object>> docs = new HashMap<>();
+        private final Map<String, Set<String>> index = new HashMap<>();
+        private final Deque<Runnable> held = new ArrayDeque<>();
+        ExecutorService completions;
+        boolean holdCommits;
+        boolean failCommits;
+        int commits;
+        int inFlight;
+        int maxInFlight;
+        int maxBatchSize;
+        int maxQueryValues;
+        private int nextId;
+
+        synchronized void put(String path, Object... fields) {
+            Map<String, Object> doc = new HashMap<>();
+            for (int i = 0; i < fields.length; i += 2) {
+                doc.put((String) fields[i], fields[i + 1]);
+            }
+            docs.put(path, doc);
+            for (String field : INDEXED) {
+                if (doc.get(field) != null) {
+                    index.computeIfAbsent(indexKey(path.substring(0, path.indexOf('/')), field, doc.get(field)),
+                            key -> new HashSet<>()).add(path);
+                }
+            }
+        }
+
+        synchronized int count(String prefix) {
+            int count = 0;
+            for (String path : docs.keySet()) {
+                if (path.startsWith(prefix)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        synchronized int distinctValues(String prefix, String field) {
+            Set<Object> values = new HashSet<>();
+            for (Map.Entry<String, Map<String, Object>> doc : docs.entrySet()) {
+                if (doc.getKey().startsWith(prefix)) {
+                    values.add(String.valueOf(doc.getValue().get(field)).toLowerCase(Locale.ROOT));
+                }
+            }
+            return values.size();
+        }
+
+        synchronized int heldCommits() {
+            return held.size();
+        }
+
+        void releaseCommits() {
+            List<Runnable> release;
+            synchronized (this) {
+                holdCommits = false;
+                release = new ArrayList<>(held);
+                held.clear();
+            }
+            for (Runnable commit : release) {
+                commit.run();
+            }
+        }
+
+        @Override
+        public synchronized void find(String collection, String field, List<String> values,
+                                      RosterImporter.Callback<Map<String, Map<String, Object>>> callback) {
+            maxQueryValues = Math.max(maxQueryValues, values.size());
+            Map<String, Map<String, Object>> found = new HashMap<>();
+            for (String value : values) {
+                Set<String> paths = index.get(indexKey(collection, field, value));
+                if (paths != null) {
+                    for (String path : paths) {
+                        found.put(path.substring(collection.length() + 1), new HashMap<>(docs.get(path)));
+                    }
+                }
+            }
+            callback.onComplete(found, null);
+        }
+
+        @Override
+        public synchronized String newDocumentId(String collection) {
+            return "imported-" + nextId++;
+        }
+
+        @Override
+        public void commit(List<RosterImporter.Write> writes, RosterImporter.Callback<Void> callback) {
+            Runnable commit = () -> {
+                Exception error = apply(writes);
+                callback.onComplete(null, error);
+            };
+            synchronized (this) {
+                commits++;
+                maxBatchSize = Math.max(maxBatchSize, writes.size());
+                maxInFlight = Math.max(maxInFlight, ++inFlight);
+                if (holdCommits) {
+                    held.add(commit);
+                    return;
+                }
+            }
+            if (completions != null) {
+                completions.execute(commit);
+            } else {
+                commit.run();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized Exception apply(List<RosterImporter.Write> writes) {
+            inFlight--;
+            if (failCommits) {
+                return new IllegalStateException("Permission denied");
+            }
+            for (RosterImporter.Write write : writes) {
+                if (write.type == RosterImporter.Write.Type.ARRAY_UNION && !docs.containsKey(write.path)) {
+                    return new IllegalStateException("No document to update: " + write.path);
+                }
+            }
+            for (RosterImporter.Write write : writes) {
+                if (write.type == RosterImporter.Write.Type.CREATE) {
+                    List<Object> fields = new ArrayList<>();
+                    for (Map.Entry<String, Object> field : write.data.entrySet()) {
+                        fields.add(field.getKey());
+                        fields.add(field.getValue());
+                    }
+                    put(write.path, fields.toArray());
+                } else {
+                    List<Object> array = (List<Object>) docs.get(write.path).get(write.field);
+                    for (String value : write.values) {
+                        if (!array.contains(value)) {
+                            array.add(value);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static String indexKey(String collection, String field, Object value) {
+            return collection + "|" + field + "|" + value;
+        }
+    }
+}
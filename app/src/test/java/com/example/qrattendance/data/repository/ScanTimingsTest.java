@@ -0,0 +1,61 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ScanTimingsTest {
+    private final long[] clock = {10_000};
+
+    private ScanTimings scan(long parse, long commit, long total) {
+        ScanTimings timings = new ScanTimings(() -> clock[0], clock[0]);
+        long start = timings.now();
+        clock[0] += parse;
+        timings.record(ScanTimings.Stage.PARSE, start);
+        start = timings.now();
+        clock[0] += commit;
+        timings.record(ScanTimings.Stage.COMMIT, start);
+        clock[0] += total - parse - commit;
+        timings.finish();
+        return timings;
+    }
+
+    @Test
+    public void stages_areTimedFromTheirStartAndTotalFromTheScan() {
+        ScanTimings timings = scan(3, 120, 180);
+
+        assertEquals(3, timings.get(ScanTimings.Stage.PARSE));
+        assertEquals(120, timings.get(ScanTimings.Stage.COMMIT));
+        assertEquals(180, timings.get(ScanTimings.Stage.TOTAL));
+        // Never reached, e.g. the enrollment came from the device
+        assertEquals(-1, timings.get(ScanTimings.Stage.ENROLLMENT));
+        assertEquals("scan-to-result 180 ms (parse 3, commit 120)", timings.toString());
+    }
+
+    @Test
+    public void history_reportsNearestRankPercentiles() {
+        ScanTimings.History history = new ScanTimings.History(100);
+        assertEquals(-1, history.percentile(ScanTimings.Stage.TOTAL, 95));
+
+        for (int i = 1; i <= 20; i++) {
+            history.add(scan(1, i * 5, i * 10));
+        }
+
+        assertEquals(100, history.percentile(ScanTimings.Stage.TOTAL, 50));
+        assertEquals(190, history.percentile(ScanTimings.Stage.TOTAL, 95));
+        assertEquals(10, history.percentile(ScanTimings.Stage.TOTAL, 0));
+        assertEquals("last 20 scans: p50 100 ms, p95 190 ms, commit p95 95 ms", history.toString());
+    }
+
+    @Test
+    public void history_keepsOnlyTheMostRecentScans() {
+        ScanTimings.History history = new ScanTimings.History(3);
+        history.add(scan(1, 1, 900));
+        for (int i = 0; i < 3; i++) {
+            history.add(scan(1, 1, 50));
+        }
+
+        assertEquals(3, history.size());
+        assertEquals(50, history.percentile(ScanTimings.Stage.TOTAL, 100));
+    }
+}
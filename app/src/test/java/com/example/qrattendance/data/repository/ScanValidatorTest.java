@@ -0,0 +1,305 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.qrattendance.data.model.AttendanceRecord;
+import com.example.qrattendance.data.model.Course;
+import com.example.qrattendance.data.model.QRCode;
+import com.example.qrattendance.data.model.Session;
+import com.example.qrattendance.util.QRPayloadCodec;
+
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Date;
+
+public class ScanValidatorTest {
+    private static final long MINUTE = 60_000;
+    // Session from 10:00 to 11:00, late after 10:10; the code is valid until 10:15
+    private static final long START = 1_700_000_000_000L;
+    private static final long EXPIRES = START + 15 * MINUTE;
+    private static final KeyPair KEYS = QRPayloadCodec.generateKeyPair();
+    private static final int ROTATION_SECONDS = 15;
+
+    private static QRCode qrCode(boolean active) {
+        QRCode qrCode = new QRCode();
+        qrCode.setActive(active);
+        qrCode.setExpiresAt(new Date(EXPIRES));
+        return qrCode;
+    }
+
+    private static QRCode signedQRCode() {
+        QRCode qrCode = qrCode(true);
+        qrCode.setSessionId("session-1");
+        qrCode.setPublicKey(QRPayloadCodec.encodePublicKey(KEYS.getPublic()));
+        return qrCode;
+    }
+
+    private static QRCode rotatingQRCode() {
+        QRCode qrCode = signedQRCode();
+        qrCode.setRotationSeconds(ROTATION_SECONDS);
+        return qrCode;
+    }
+
+    // Scanned signed content as parseScannedContent hands it to the commit
+    private static ScanValidator.Scan signedScan(KeyPair keys, long expiresAt) throws Exception {
+        return signedScan(keys, expiresAt, 7, null);
+    }
+
+    private static ScanValidator.Scan signedScan(KeyPair keys, long expiresAt, int nonce, Long queuedAt)
+            throws Exception {
+        String content = QRPayloadCodec.encode(new QRPayloadCodec.Payload("qr-1", "session-1", "course-1",
+                expiresAt, nonce, START, START + 60 * MINUTE, 10), keys.getPrivate());
+        return new ScanValidator.Scan("qr-1", "session-1", "course-1", "student-1", null,
+                queuedAt != null ? new Date(queuedAt) : null, QRPayloadCodec.decode(content));
+    }
+
+    // Step of a rotating code shown at the given time
+    private static int stepAt(long time) {
+        return (int) (time / (ROTATION_SECONDS * 1000L));
+    }
+
+    private static Session session() {
+        return new Session("course-1", "Lecture", new Date(START), new Date(START + 60 * MINUTE), "Hall A", "instructor-1");
+    }
+
+    // Session that publishes the key of the signed code qr-1, as saveQRCode writes it
+    private static Session publishingSession(int rotationSeconds) {
+        Session session = session();
+        session.setQrCodeId("qr-1");
+        session.setQrPublicKey(QRPayloadCodec.encodePublicKey(KEYS.getPublic()));
+        session.setQrRotationSeconds(rotationSeconds);
+        return session;
+    }
+
+    private static Course course() {
+        Course course = new Course();
+        course.setCourseId("course-1");
+        course.setEnrolledStudentIds(Arrays.asList("student-0", "student-1"));
+        return course;
+    }
+
+    private static ScanValidator.Scan scan(Long queuedAt) {
+        return new ScanValidator.Scan("qr-1", "session-1", null, "student-1", null,
+                queuedAt != null ? new Date(queuedAt) : null, null);
+    }
+
+    private static AttendanceRecord validate(ScanValidator.Scan scan, QRCode qrCode, long serverNow) {
+        return ScanValidator.validate(scan, false, qrCode, session(), course(), new Date(serverNow));
+    }
+
+    private static void assertRejected(ScanValidator.ScanRejectedException.Reason reason, Runnable validation) {
+        try {
+            validation.run();
+            fail("Expected " + reason);
+        } catch (ScanValidator.ScanRejectedException e) {
+            assertEquals(reason, e.getReason());
+        }
+    }
+
+    @Test
+    public void liveScan_isJudgedAtServerTime() {
+        AttendanceRecord record = validate(scan(null), qrCode(true), START + 5 * MINUTE);
+
+        assertEquals(new Date(START + 5 * MINUTE), record.getTimestamp());
+        assertEquals(AttendanceRecord.AttendanceStatus.PRESENT, record.getStatus());
+        assertEquals("session-1_student-1", record.getRecordId());
+        assertEquals("course-1", record.getCourseId());
+    }
+
+    @Test
+    public void queuedScan_withinWindow_isJudgedWhenQueued() {
+        // Queued at 10:05, synced an hour later after the code expired and was switched off
+        AttendanceRecord record = validate(scan(START + 5 * MINUTE), qrCode(false), START + 65 * MINUTE);
+
+        assertEquals(new Date(START + 5 * MINUTE), record.getTimestamp());
+        assertEquals(AttendanceRecord.AttendanceStatus.PRESENT, record.getStatus());
+    }
+
+    @Test
+    public void queuedScan_outsideWindow_isJudgedAtServerTime() {
+        long serverNow = START + 5 * MINUTE + ScanValidator.OFFLINE_WINDOW_MS + 1;
+        assertRejected(ScanValidator.ScanRejectedException.Reason.EXPIRED,
+                () -> validate(scan(START + 5 * MINUTE), qrCode(false), serverNow));
+    }
+
+    @Test
+    public void queuedScan_inTheFuture_isJudgedAtServerTime() {
+        // Claims 10:14 while the server says 10:12
+        AttendanceRecord record = validate(scan(START + 14 * MINUTE), qrCode(true), START + 12 * MINUTE);
+
+        assertEquals(new Date(START + 12 * MINUTE), record.getTimestamp());
+        assertEquals(AttendanceRecord.AttendanceStatus.LATE, record.getStatus());
+    }
+
+    @Test
+    public void deactivatedCode_isRejectedBeforeItExpires() {
+        // Switched off by the instructor at 10:08, not by the expiry cleanup
+        assertRejected(ScanValidator.ScanRejectedException.Reason.EXPIRED,
+                () -> validate(scan(START + 5 * MINUTE), qrCode(false), START + 8 * MINUTE));
+    }
+
+    @Test
+    public void cancelledSession_isRejected() {
+        Session session = session();
+        session.setStatus(Session.SessionStatus.CANCELLED);
+
+        assertRejected(ScanValidator.ScanRejectedException.Reason.SESSION_INACTIVE,
+                () -> ScanValidator.validate(scan(null), false, qrCode(true), session, course(),
+                        new Date(START + 5 * MINUTE)));
+    }
+
+    @Test
+    public void repeatedScan_isRejected() {
+        assertRejected(ScanValidator.ScanRejectedException.Reason.ALREADY_MARKED,
+                () -> ScanValidator.validate(scan(null), true, qrCode(true), session(), course(),
+                        new Date(START + 5 * MINUTE)));
+    }
+
+    @Test
+    public void studentNotOnRoster_isRejected() {
+        // Dropped the course after the scanner's cached enrollments were last refreshed
+        Course course = course();
+        course.setEnrolledStudentIds(Arrays.asList("student-0"));
+
+        assertRejected(ScanValidator.ScanRejectedException.Reason.NOT_ENROLLED,
+                () -> ScanValidator.validate(scan(null), false, qrCode(true), session(), course,
+                        new Date(START + 5 * MINUTE)));
+    }
+
+    @Test
+    public void missingCourse_isRejected() {
+        assertRejected(ScanValidator.ScanRejectedException.Reason.NOT_FOUND,
+                () -> ScanValidator.validate(scan(null), false, qrCode(true), session(), null,
+                        new Date(START + 5 * MINUTE)));
+    }
+
+    @Test
+    public void sessionCourse_winsOverCodeCourse() {
+        ScanValidator.Scan scan = new ScanValidator.Scan("qr-1", "session-1", "course-2", "student-1", null, null, null);
+
+        assertEquals("course-1", ScanValidator.courseIdFor(scan, session()));
+        assertEquals("course-2", ScanValidator.courseIdFor(scan, null));
+    }
+
+    @Test
+    public void signedScan_isVerifiedAgainstStoredKey() throws Exception {
+        AttendanceRecord record = validate(signedScan(KEYS, EXPIRES), signedQRCode(), START + 5 * MINUTE);
+
+        assertEquals(new Date(START + 5 * MINUTE), record.getTimestamp());
+        assertEquals("course-1", record.getCourseId());
+    }
+
+    @Test
+    public void signedScan_withAnotherKey_isRejected() throws Exception {
+        ScanValidator.Scan forged = signedScan(QRPayloadCodec.generateKeyPair(), EXPIRES);
+        assertRejected(ScanValidator.ScanRejectedException.Reason.INVALID,
+                () -> validate(forged, signedQRCode(), START + 5 * MINUTE));
+    }
+
+    @Test
+    public void legacyContent_forSignedCode_isRejected() {
+        assertRejected(ScanValidator.ScanRejectedException.Reason.INVALID,
+                () -> validate(scan(null), signedQRCode(), START + 5 * MINUTE));
+    }
+
+    @Test
+    public void signedScan_pastSignedExpiry_isRejected() throws Exception {
+        // Signed to expire at 10:03, before the QR code document does
+        ScanValidator.Scan scan = signedScan(KEYS, START + 3 * MINUTE);
+        assertRejected(ScanValidator.ScanRejectedException.Reason.EXPIRED,
+                () -> validate(scan, signedQRCode(), START + 5 * MINUTE));
+    }
+
+    @Test
+    public void codeOfAnotherSession_isRejected() {
+        QRCode qrCode = qrCode(true);
+        qrCode.setSessionId("session-2");
+        assertRejected(ScanValidator.ScanRejectedException.Reason.INVALID,
+                () -> validate(scan(null), qrCode, START + 5 * MINUTE));
+    }
+
+    @Test
+    public void rotatingCode_currentStep_isAccepted() throws Exception {
+        long serverNow = START + 5 * MINUTE;
+        ScanValidator.Scan scan = signedScan(KEYS, EXPIRES, stepAt(serverNow), null);
+
+        assertEquals(new Date(serverNow), validate(scan, rotatingQRCode(), serverNow).getTimestamp());
+        // Shown a few seconds ahead on the instructor's screen, or scanned just after it rotated
+        validate(signedScan(KEYS, EXPIRES, stepAt(serverNow) + 1, null), rotatingQRCode(), serverNow);
+        validate(signedScan(KEYS, EXPIRES, stepAt(serverNow) - 1, null), rotatingQRCode(), serverNow);
+    }
+
+    @Test
+    public void rotatingCode_oldStep_isRejected() throws Exception {
+        // Photographed at 10:01 and scanned at 10:05
+        ScanValidator.Scan replayed = signedScan(KEYS, EXPIRES, stepAt(START + MINUTE), null);
+        assertRejected(ScanValidator.ScanRejectedException.Reason.EXPIRED,
+                () -> validate(replayed, rotatingQRCode(), START + 5 * MINUTE));
+    }
+
+    @Test
+    public void rotatingCode_oldStep_isRejectedWhenQueued() throws Exception {
+        // Replayed with a queue time faked to when the photo was taken
+        ScanValidator.Scan replayed = signedScan(KEYS, EXPIRES, stepAt(START + MINUTE), START + MINUTE);
+        assertRejected(ScanValidator.ScanRejectedException.Reason.EXPIRED,
+                () -> validate(replayed, rotatingQRCode(), START + 5 * MINUTE));
+    }
+
+    @Test
+    public void rotatingCode_staticContent_isRejected() throws Exception {
+        // The content stored with the document carries no step
+        ScanValidator.Scan scan = signedScan(KEYS, EXPIRES, -1, null);
+        assertRejected(ScanValidator.ScanRejectedException.Reason.EXPIRED,
+                () -> validate(scan, rotatingQRCode(), START + 5 * MINUTE));
+    }
+
+    @Test
+    public void signedScan_isVerifiedAgainstSessionKey_withoutQRCode() throws Exception {
+        AttendanceRecord record = ScanValidator.validate(signedScan(KEYS, EXPIRES), false, null,
+                publishingSession(0), course(), new Date(START + 5 * MINUTE));
+
+        assertEquals(new Date(START + 5 * MINUTE), record.getTimestamp());
+    }
+
+    @Test
+    public void signedScan_withAnotherKey_isRejectedBySessionKey() throws Exception {
+        ScanValidator.Scan forged = signedScan(QRPayloadCodec.generateKeyPair(), EXPIRES);
+        assertRejected(ScanValidator.ScanRejectedException.Reason.INVALID,
+                () -> ScanValidator.validate(forged, false, null, publishingSession(0), course(),
+                        new Date(START + 5 * MINUTE)));
+    }
+
+    @Test
+    public void rotatingCode_oldStep_isRejectedBySessionKey() throws Exception {
+        ScanValidator.Scan replayed = signedScan(KEYS, EXPIRES, stepAt(START + MINUTE), null);
+        assertRejected(ScanValidator.ScanRejectedException.Reason.EXPIRED,
+                () -> ScanValidator.validate(replayed, false, null, publishingSession(ROTATION_SECONDS), course(),
+                        new Date(START + 5 * MINUTE)));
+    }
+
+    @Test
+    public void codeTheSessionNoLongerLists_needsQRCode() throws Exception {
+        // The session moved on to a newer code, qr-1 is checked against its own document
+        Session session = publishingSession(0);
+        session.setQrCodeId("qr-2");
+        assertRejected(ScanValidator.ScanRejectedException.Reason.NOT_FOUND,
+                () -> ScanValidator.validate(scan(null), false, null, session, course(), new Date(START + 5 * MINUTE)));
+        ScanValidator.validate(signedScan(KEYS, EXPIRES), false, signedQRCode(), session, course(),
+                new Date(START + 5 * MINUTE));
+    }
+
+    @Test
+    public void scannerCheck_flagsOnlyCodesThatFailThePublishedKey() throws Exception {
+        assertFalse(ScanValidator.isForgedFor(signedScan(KEYS, EXPIRES).payload, publishingSession(0)));
+        assertTrue(ScanValidator.isForgedFor(signedScan(QRPayloadCodec.generateKeyPair(), EXPIRES).payload,
+                publishingSession(0)));
+        // Nothing published to check against, left to the commit
+        assertFalse(ScanValidator.isForgedFor(signedScan(QRPayloadCodec.generateKeyPair(), EXPIRES).payload,
+                session()));
+    }
+}
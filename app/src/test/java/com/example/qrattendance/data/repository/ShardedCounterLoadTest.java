@@ -0,0 +1,131 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thousands of scans incrementing the counters of one QR code and session at once through
+ * ShardedCounter, against a local stand-in for the shard documents. Each document applies its
+ * increments one at a time like FieldValue.increment on the server.
+ */
+public class ShardedCounterLoadTest {
+    private static final int INCREMENTS = 5000;
+    private static final int THREADS = 64;
+
+    @Test
+    public void concurrentIncrements_totalIsExact() throws Exception {
+        LocalShards shards = new LocalShards();
+        runConcurrently(INCREMENTS, THREADS, i -> {
+            ShardedCounter.increment(shards, ShardedCounter.SCAN_COUNT, 1);
+            // Every fifth scan is late
+            ShardedCounter.increment(shards, ShardedCounter.PRESENT_COUNT, 1);
+            if (i % 5 == 0) {
+                ShardedCounter.increment(shards, ShardedCounter.LATE_COUNT, 1);
+            }
+        });
+
+        Map<String, Long> totals = ShardedCounter.totals(shards.documents());
+        assertEquals(INCREMENTS, (long) totals.get(ShardedCounter.SCAN_COUNT));
+        assertEquals(INCREMENTS, (long) totals.get(ShardedCounter.PRESENT_COUNT));
+        assertEquals(INCREMENTS / 5, (long) totals.get(ShardedCounter.LATE_COUNT));
+        assertEquals(3, totals.size());
+    }
+
+    @Test
+    public void increments_spreadOverEveryShard() throws Exception {
+        LocalShards shards = new LocalShards();
+        runConcurrently(INCREMENTS, THREADS, i -> ShardedCounter.increment(shards, ShardedCounter.SCAN_COUNT, 1));
+
+        List<String> ids = ShardedCounter.shardIds(ShardedCounter.SCAN_COUNT);
+        long even = INCREMENTS / ids.size();
+        for (String id : ids) {
+            // Each shard takes its share of the writes, give or take far more than chance allows
+            long count = shards.get(id);
+            assertTrue(id + " took " + count, count > even * 7 / 10 && count < even * 13 / 10);
+        }
+        assertEquals(ids.size(), shards.documents().size());
+    }
+
+    @Test
+    public void decrements_cancelOut() throws Exception {
+        LocalShards shards = new LocalShards();
+        // A correction undoes every other scan, on whatever shard it lands
+        runConcurrently(INCREMENTS, THREADS, i ->
+                ShardedCounter.increment(shards, ShardedCounter.PRESENT_COUNT, i % 2 == 0 ? 1 : -1));
+
+        assertEquals(0, (long) ShardedCounter.totals(shards.documents()).get(ShardedCounter.PRESENT_COUNT));
+    }
+
+    @Test
+    public void totals_skipIncompleteShards() {
+        List<ShardedCounter.ShardCount> documents = Arrays.asList(
+                new ShardedCounter.ShardCount(ShardedCounter.SCAN_COUNT, 3L),
+                new ShardedCounter.ShardCount(ShardedCounter.SCAN_COUNT, null),
+                new ShardedCounter.ShardCount(null, 7L),
+                new ShardedCounter.ShardCount(ShardedCounter.SCAN_COUNT, 4L));
+
+        assertEquals(Collections.singletonMap(ShardedCounter.SCAN_COUNT, 7L), ShardedCounter.totals(documents));
+    }
+
+    private static void runConcurrently(int tasks, int threads, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    task.run(index);
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertNull(errors.peek());
+    }
+
+    private interface Task {
+        void run(int index) throws Exception;
+    }
+
+    // Shard documents under one owner
+    private static class LocalShards implements ShardedCounter.ShardWriter {
+        private final Map<String, ShardedCounter.ShardCount> shards = new HashMap<>();
+
+        @Override
+        public synchronized void add(String shardId, String counterName, long delta) {
+            ShardedCounter.ShardCount shard = shards.get(shardId);
+            long count = shard != null ? shard.count : 0;
+            shards.put(shardId, new ShardedCounter.ShardCount(counterName, count + delta));
+        }
+
+        synchronized long get(String shardId) {
+            ShardedCounter.ShardCount shard = shards.get(shardId);
+            return shard != null ? shard.count : 0;
+        }
+
+        // What getCounts reads back
+        synchronized List<ShardedCounter.ShardCount> documents() {
+            return new ArrayList<>(shards.values());
+        }
+    }
+}
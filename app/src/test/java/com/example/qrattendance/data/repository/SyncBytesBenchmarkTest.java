@@ -0,0 +1,164 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens the course list of a catalogue of 300 courses cold and warm, and compares the bytes the
+ * reads transfer with and without {@link DeltaSync}
+ */
+public class SyncBytesBenchmarkTest {
+    private static final int COURSES = 300;
+    private static final long DAY = 24 * 60 * 60_000L;
+
+    private long now = 1_700_000_000_000L;
+    private final Server server = new Server();
+    private final MemoryLocal local = new MemoryLocal();
+    private final DeltaSync deltaSync = new DeltaSync(local, () -> now);
+
+    @Test
+    public void warmReopen_transfersOnlyWhatChanged() throws Exception {
+        for (int i = 0; i < COURSES; i++) {
+            server.put("course" + i, course(i), now - (COURSES - i) * 60_000L);
+        }
+
+        DeltaSync.Result cold = sync();
+        long fullRead = server.fullReadBytes();
+
+        // Reopened the next day with nothing changed
+        now += DAY;
+        DeltaSync.Result unchanged = sync();
+
+        // Reopened a day later after three edits and one delete
+        now += DAY;
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> edited = course(i);
+            edited.put("description", "Moved to Hall B");
+            server.put("course" + i, edited, now - 1_000);
+        }
+        server.delete("course10", now - 500);
+        DeltaSync.Result edited = sync();
+
+        assertTrue(cold.isFull());
+        assertEquals(COURSES, cold.getWritten());
+        assertEquals(fullRead, cold.getBytes());
+        assertFalse(unchanged.isFull());
+        assertFalse(unchanged.hasChanges());
+        // Only the documents inside the overlap before the watermark are read again
+        assertTrue("Unchanged reopen read " + unchanged.getBytes() + " B of " + fullRead,
+                unchanged.getBytes() * 100 < fullRead);
+        assertFalse(edited.isFull());
+        assertEquals(3, edited.getWritten());
+        assertEquals(1, edited.getRemoved());
+        assertEquals(COURSES - 1, local.versions.size());
+        assertTrue("Warm reopen read " + edited.getBytes() + " B of " + fullRead,
+                edited.getBytes() * 20 < fullRead);
+    }
+
+    private DeltaSync.Result sync() throws Exception {
+        return deltaSync.sync("courses", "active", server::fetch);
+    }
+
+    private static Map<String, Object> course(int i) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("courseCode", "CS" + (100 + i));
+        data.put("courseName", "Course number " + i);
+        data.put("description", "Lectures, labs and a final project");
+        data.put("instructorId", "instructor" + (i % 20));
+        data.put("department", "Computer Science");
+        data.put("semester", "Fall");
+        data.put("academicYear", "2024-2025");
+        data.put("isActive", true);
+        List<Object> students = new ArrayList<>();
+        for (int s = 0; s < 40; s++) {
+            students.add("student" + (i * 7 + s));
+        }
+        data.put("enrolledStudentIds", students);
+        return data;
+    }
+
+    // Courses and tombstones as the server holds them, sized like CollectionSync sizes snapshots
+    private static class Server {
+        final Map<String, Map<String, Object>> documents = new HashMap<>();
+        final Map<String, Long> updatedAt = new HashMap<>();
+        final Map<String, Long> deletedAt = new HashMap<>();
+
+        void put(String id, Map<String, Object> data, long time) {
+            documents.put(id, data);
+            updatedAt.put(id, time);
+        }
+
+        void delete(String id, long time) {
+            documents.remove(id);
+            updatedAt.remove(id);
+            deletedAt.put(id, time);
+        }
+
+        List<DeltaSync.Change<Map<String, Object>>> fetch(Long since) {
+            List<DeltaSync.Change<Map<String, Object>>> changes = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Object>> document : documents.entrySet()) {
+                long time = updatedAt.get(document.getKey());
+                if (since == null || time >= since) {
+                    changes.add(new DeltaSync.Change<>(document.getKey(), document.getValue(), time,
+                            DocumentSize.of("courses/" + document.getKey(), document.getValue())));
+                }
+            }
+            if (since != null) {
+                for (Map.Entry<String, Long> tombstone : deletedAt.entrySet()) {
+                    if (tombstone.getValue() >= since) {
+                        Map<String, Object> data = new HashMap<>();
+                        data.put(SyncFields.TOMBSTONE_COLLECTION, "courses");
+                        data.put(SyncFields.TOMBSTONE_DOCUMENT_ID, tombstone.getKey());
+                        data.put(SyncFields.DELETED_AT, tombstone.getValue());
+                        changes.add(DeltaSync.Change.removed(tombstone.getKey(), tombstone.getValue(),
+                                DocumentSize.of("tombstones/courses_" + tombstone.getKey(), data)));
+                    }
+                }
+            }
+            return changes;
+        }
+
+        // What reading the whole query again would transfer
+        long fullReadBytes() {
+            long bytes = 0;
+            for (DeltaSync.Change<Map<String, Object>> change : fetch(null)) {
+                bytes += change.bytes;
+            }
+            return bytes;
+        }
+    }
+
+    private static class MemoryLocal implements DeltaSync.Local {
+        Long watermark;
+        final Map<String, Long> versions = new HashMap<>();
+
+        @Override
+        public Long getWatermark(String collection, String scope) {
+            return watermark;
+        }
+
+        @Override
+        public Map<String, Long> getVersions(String collection, String scope) {
+            return new HashMap<>(versions);
+        }
+
+        @Override
+        public <T> void apply(String collection, String scope, List<DeltaSync.Change<T>> upserts,
+                              Collection<String> removedIds, long watermark) {
+            for (DeltaSync.Change<T> change : upserts) {
+                versions.put(change.id, change.updatedAt);
+            }
+            versions.keySet().removeAll(removedIds);
+            this.watermark = watermark;
+        }
+    }
+}
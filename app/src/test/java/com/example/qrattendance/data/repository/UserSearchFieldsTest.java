@@ -0,0 +1,67 @@
+package com.example.qrattendance.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class UserSearchFieldsTest {
+
+    @Test
+    public void normalize_lowercasesStripsAccentsAndCollapsesSpaces() {
+        assertEquals("jose alvarez", UserSearchFields.normalize("  Jos\u00e9   \tA\u0301lvarez "));
+        assertEquals("cs2021-001", UserSearchFields.normalize("CS2021-001"));
+        assertEquals("", UserSearchFields.normalize(null));
+    }
+
+    @Test
+    public void prefixRange_containsOnlyValuesWithThePrefix() {
+        String prefix = UserSearchFields.normalize("Ann");
+        String end = UserSearchFields.prefixEnd(prefix);
+        for (String name : new String[]{"ann", "anna smith", "annz"}) {
+            String value = UserSearchFields.normalize(name);
+            assertTrue(name, value.compareTo(prefix) >= 0 && value.compareTo(end) < 0);
+        }
+        for (String name : new String[]{"amy", "ano", "bob"}) {
+            String value = UserSearchFields.normalize(name);
+            assertFalse(name, value.compareTo(prefix) >= 0 && value.compareTo(end) < 0);
+        }
+    }
+
+    @Test
+    public void addTo_onlyCoversFieldsInTheWrite() {
+        Map<String, Object> update = new HashMap<>();
+        update.put("name", "\u00c9mile Zola");
+        update.put("isActive", false);
+        UserSearchFields.addTo(update);
+
+        assertEquals("emile zola", update.get(UserSearchFields.NAME));
+        assertFalse(update.containsKey(UserSearchFields.EMAIL));
+        assertFalse(update.containsKey(UserSearchFields.ROLL_NUMBER));
+
+        update.put("email", null);
+        UserSearchFields.addTo(update);
+        assertTrue(update.containsKey(UserSearchFields.EMAIL));
+        assertNull(update.get(UserSearchFields.EMAIL));
+    }
+
+    @Test
+    public void isCurrent_detectsMissingAndStaleFields() {
+        Map<String, Object> user = new HashMap<>();
+        user.put("name", "Ada Lovelace");
+        user.put("email", "Ada@Example.com");
+        assertFalse(UserSearchFields.isCurrent(user));
+
+        UserSearchFields.addTo(user);
+        assertTrue(UserSearchFields.isCurrent(user));
+
+        // Renamed outside the app
+        user.put("name", "Ada King");
+        assertFalse(UserSearchFields.isCurrent(user));
+    }
+}
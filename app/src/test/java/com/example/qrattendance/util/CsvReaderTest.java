@@ -0,0 +1,53 @@
+package com.example.qrattendance.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+public class CsvReaderTest {
+
+    @Test
+    public void readRecord_handlesQuotesAndLineEndings() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader(
+                "\uFEFFname,email\r\n\"Doe, Jane\",\"say \"\"hi\"\"\"\r\n\"two\nlines\",x\nlast,"));
+
+        assertEquals(',', csv.getDelimiter());
+        assertEquals(Arrays.asList("name", "email"), csv.readRecord());
+        assertEquals(1, csv.getRecordLine());
+        assertEquals(Arrays.asList("Doe, Jane", "say \"hi\""), csv.readRecord());
+        assertEquals(2, csv.getRecordLine());
+        assertEquals(Arrays.asList("two\nlines", "x"), csv.readRecord());
+        assertEquals(3, csv.getRecordLine());
+        assertEquals(Arrays.asList("last", ""), csv.readRecord());
+        assertEquals(5, csv.getRecordLine());
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void delimiter_tabInFirstLineMeansTsv() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("name\temail\nA, B\ta@b.c\n"));
+
+        assertEquals('\t', csv.getDelimiter());
+        csv.readRecord();
+        assertEquals(Arrays.asList("A, B", "a@b.c"), csv.readRecord());
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void unclosedQuote_fails() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,\"b\nc"));
+        try {
+            csv.readRecord();
+            fail();
+        } catch (IOException expected) {
+            // Reported with the line the record started on
+            assertEquals("Unclosed quote in record starting on line 1", expected.getMessage());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.qrattendance.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+public class CsvWriterTest {
+
+    @Test
+    public void writeRecord_quotesOnlyWhenNeeded() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvWriter csv = new CsvWriter(out);
+        csv.writeRecord("plain", "a,b", "say \"hi\"", "two\nlines", null, "");
+        assertEquals("plain,\"a,b\",\"say \"\"hi\"\"\",\"two\nlines\",,\r\n", out.toString());
+    }
+
+    @Test
+    public void writeRecord_defusesFormulas() throws Exception {
+        StringWriter out = new StringWriter();
+        new CsvWriter(out).writeRecord("=SUM(A1)", "+1", "@cmd", "-2.5", "-x");
+        assertEquals("'=SUM(A1),'+1,'@cmd,-2.5,'-x\r\n", out.toString());
+    }
+
+    @Test
+    public void writtenRecords_readBackUnchanged() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvWriter csv = new CsvWriter(out, '\t');
+        csv.writeRecord("Name", "Note");
+        csv.writeRecord("Tab\there", "multi\r\nline \"quoted\"");
+
+        CsvReader reader = new CsvReader(new StringReader(out.toString()));
+        assertEquals(Arrays.asList("Name", "Note"), reader.readRecord());
+        assertEquals(Arrays.asList("Tab\there", "multi\r\nline \"quoted\""), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.qrattendance.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+/**
+ * JMH-style microbenchmark of reading a scanned code: warm-up rounds, then measured rounds of a
+ * fixed duration, reporting the median ns/op. The legacy JSON content parsed with org.json the way
+ * AttendanceRepository.parseScannedContent does is compared with decoding the signed format, which
+ * the scanner does, and verifying its signature, which the commit does.
+ */
+public class QRPayloadCodecBenchmarkTest {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final long ROUND_NANOS = 100_000_000L;
+
+    private static final String LEGACY_CONTENT = "{\"qrCodeId\":\"Xk2fP9qLm3RtV7wYz1Ab\","
+            + "\"sessionId\":\"Hc8dN4sJt6UvW0xQe5Gi\",\"courseId\":\"Lp3oK7rMn9SbT2yZa4Fd\","
+            + "\"generatedAt\":1700000000000,\"expiresAt\":1700003600000,\"instructorId\":\"Qw5eR8tYu1IoP4aS6dFg\"}";
+
+    // Keeps results alive so the JIT can't drop the work
+    private long sink;
+
+    @Test
+    public void signedDecode_keepsUpWithOrgJson() throws Exception {
+        KeyPair keyPair = QRPayloadCodec.generateKeyPair();
+        String signed = QRPayloadCodec.encode(new QRPayloadCodec.Payload("Xk2fP9qLm3RtV7wYz1Ab",
+                "Hc8dN4sJt6UvW0xQe5Gi", "Lp3oK7rMn9SbT2yZa4Fd", 1700003600000L, 42,
+                1700000000000L, 1700003600000L, 10), keyPair.getPrivate());
+        PublicKey publicKey = QRPayloadCodec.decodePublicKey(QRPayloadCodec.encodePublicKey(keyPair.getPublic()));
+        QRPayloadCodec.Payload decoded = QRPayloadCodec.decode(signed);
+
+        long json = measure(() -> {
+            JSONObject content = new JSONObject(LEGACY_CONTENT);
+            if (!content.has("qrCodeId") || !content.has("sessionId")) {
+                return 0;
+            }
+            return content.getString("qrCodeId").length() + content.getString("sessionId").length()
+                    + content.getString("courseId").length() + content.getLong("expiresAt");
+        });
+        long decode = measure(() -> {
+            QRPayloadCodec.Payload payload = QRPayloadCodec.decode(signed);
+            return payload.getQrCodeId().length() + payload.getSessionId().length()
+                    + payload.getCourseId().length() + payload.getExpiresAt();
+        });
+        long verify = measure(() -> QRPayloadCodec.verify(decoded, publicKey) ? 1 : 0);
+
+        String report = "ns/op: org.json " + json + ", decode " + decode + ", verify " + verify;
+        // The scanner's local check costs about what parsing JSON did
+        assertTrue(report, decode < json * 10);
+        assertTrue(report, decode < 50_000);
+        // One signature check per commit, small next to the transaction's round trips
+        assertTrue(report, verify < 20_000_000);
+        assertEquals(decoded.getExpiresAt(), QRPayloadCodec.decode(signed).getExpiresAt());
+        assertTrue(sink != 0);
+    }
+
+    // Median ns/op over the measured rounds
+    private long measure(Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round(operation);
+        }
+        long[] rounds = new long[MEASURED_ROUNDS];
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            rounds[i] = round(operation);
+        }
+        Arrays.sort(rounds);
+        return rounds[MEASURED_ROUNDS / 2];
+    }
+
+    private long round(Operation operation) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += operation.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ROUND_NANOS);
+        return elapsed / ops;
+    }
+
+    private interface Operation {
+        long run() throws Exception;
+    }
+}
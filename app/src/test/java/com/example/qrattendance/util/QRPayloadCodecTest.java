@@ -0,0 +1,136 @@
+package com.example.qrattendance.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PublicKey;
+
+/**
+ * Test vectors for the signed QR payload format. ECDSA signatures are randomised, so the vectors
+ * were signed once with the key pair whose public half is {@link #PUBLIC_KEY}.
+ */
+public class QRPayloadCodecTest {
+    private static final String PUBLIC_KEY =
+            "256M36DY0-G58993W7$50K11-/GC3Q4H0+*0LF8 O0T.FJ.EU%5MF1$5708WWV6/DWYMD7YN2R15XIY-VIYJ5-EZ16QFOXGC5ZU*%6R2VE+0+NFBBN2OJC7PN%FBYLBJANVF$9F$2";
+
+    private static final String VECTOR_WITH_COURSE =
+            "QA2:SD0RRA.UG0008G5ORAB20%RA112K+1HFE*96GK6LQEZQE ED.-DWW6I8134E4LE ZC%47::8QW8X746%NP3DJM5KCDLXQ%OJFBL6U02$C6QLNTEJ0L8%R93N8S9U9L4C0YK2W3L.DOJ46ZOBUOS 4LZLG7/Q6PTNGRE2LUXJL/61EK7FJ";
+    private static final String VECTOR_WITHOUT_COURSE =
+            "QA2:SD0RRAR GFGW-CWORAB20%RA112500HFE*96GK6LQEZQE ED.-DWW6R10S465C0J30-41FC9GB7Q*S%BA3CSUU82VTF-I/BI9GJFG0WDQI2DOPDGESX74YRHYKK4NI35S8QIU.ASJMWSDAW7/PU9-F2*AQD3Q-P8B47E9";
+
+    @Test
+    public void decode_vectorRoundTrips() throws Exception {
+        QRPayloadCodec.Payload payload = QRPayloadCodec.decode(VECTOR_WITH_COURSE);
+        assertEquals("qr123", payload.getQrCodeId());
+        assertEquals("session456", payload.getSessionId());
+        assertEquals("course789", payload.getCourseId());
+        assertEquals(1700000900000L, payload.getExpiresAt());
+        assertEquals(42, payload.getNonce());
+        assertEquals(1700000000000L, payload.getSessionStart());
+        assertEquals(1700003600000L, payload.getSessionEnd());
+        assertEquals(15, payload.getLateThresholdMinutes());
+
+        QRPayloadCodec.Payload withoutCourse = QRPayloadCodec.decode(VECTOR_WITHOUT_COURSE);
+        assertNull(withoutCourse.getCourseId());
+        assertEquals(-1, withoutCourse.getNonce());
+    }
+
+    @Test
+    public void verify_acceptsVectorsWithTheirKey() throws Exception {
+        PublicKey publicKey = QRPayloadCodec.decodePublicKey(PUBLIC_KEY);
+        assertTrue(QRPayloadCodec.verify(QRPayloadCodec.decode(VECTOR_WITH_COURSE), publicKey));
+        assertTrue(QRPayloadCodec.verify(QRPayloadCodec.decode(VECTOR_WITHOUT_COURSE), publicKey));
+    }
+
+    @Test
+    public void encode_roundTripsWithFreshKey() throws Exception {
+        KeyPair keyPair = QRPayloadCodec.generateKeyPair();
+        QRPayloadCodec.Payload payload = new QRPayloadCodec.Payload("qr123", "session456", "course789",
+                1700000900000L, 42, 1700000000000L, 1700003600000L, 15);
+
+        String content = QRPayloadCodec.encode(payload, keyPair.getPrivate());
+        PublicKey stored = QRPayloadCodec.decodePublicKey(QRPayloadCodec.encodePublicKey(keyPair.getPublic()));
+
+        assertTrue(QRPayloadCodec.isSignedPayload(content));
+        QRPayloadCodec.Payload decoded = QRPayloadCodec.decode(content);
+        assertEquals("course789", decoded.getCourseId());
+        assertTrue(QRPayloadCodec.verify(decoded, stored));
+    }
+
+    @Test
+    public void verify_rejectsTamperedPayload() throws Exception {
+        // Points the code at another QR code ID, still well-formed
+        char[] chars = VECTOR_WITH_COURSE.toCharArray();
+        chars[34] = '0';
+        QRPayloadCodec.Payload tampered = QRPayloadCodec.decode(new String(chars));
+
+        assertEquals("qa123", tampered.getQrCodeId());
+        assertFalse(QRPayloadCodec.verify(tampered, QRPayloadCodec.decodePublicKey(PUBLIC_KEY)));
+    }
+
+    @Test
+    public void verify_rejectsOtherKey() throws Exception {
+        // A student signing a code of their own
+        KeyPair other = QRPayloadCodec.generateKeyPair();
+        QRPayloadCodec.Payload vector = QRPayloadCodec.decode(VECTOR_WITH_COURSE);
+        String forged = QRPayloadCodec.encode(new QRPayloadCodec.Payload(vector.getQrCodeId(),
+                vector.getSessionId(), vector.getCourseId(), vector.getExpiresAt() + 3_600_000L, vector.getNonce(),
+                vector.getSessionStart(), vector.getSessionEnd(), vector.getLateThresholdMinutes()), other.getPrivate());
+
+        assertFalse(QRPayloadCodec.verify(QRPayloadCodec.decode(forged), QRPayloadCodec.decodePublicKey(PUBLIC_KEY)));
+        assertFalse(QRPayloadCodec.verify(vector, other.getPublic()));
+    }
+
+    @Test
+    public void decode_rejectsMalformedContent() {
+        assertInvalid("QA2:");
+        assertInvalid("QA2:ABCD");
+        assertInvalid("QA2:abc");
+        // The HMAC format this one replaced
+        assertInvalid("QA1:.70RRA.UG0008G5ORAB20%RA112K+1HFE*96GK6LQEZQE ED.-DWW6I8134E4LE ZC%47CA3/2KP5OGNKW/R%4C9TP8XH");
+        assertInvalid(VECTOR_WITH_COURSE.substring(0, VECTOR_WITH_COURSE.length() - 3));
+        assertInvalid("{\"qrCodeId\":\"qr123\",\"sessionId\":\"session456\"}");
+    }
+
+    @Test
+    public void decodePublicKey_rejectsGarbage() {
+        try {
+            QRPayloadCodec.decodePublicKey("ABCDEF");
+            fail("Expected key to be rejected");
+        } catch (QRPayloadCodec.InvalidPayloadException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void payload_timeChecks() throws Exception {
+        QRPayloadCodec.Payload payload = QRPayloadCodec.decode(VECTOR_WITH_COURSE);
+        assertFalse(payload.isExpiredAt(1700000899999L));
+        assertTrue(payload.isExpiredAt(1700000900000L));
+        assertTrue(payload.isSessionActiveAt(1700000000001L));
+        assertFalse(payload.isSessionActiveAt(1700003600000L));
+    }
+
+    @Test
+    public void base45_matchesRfc9285() {
+        assertEquals("BB8", QRPayloadCodec.base45Encode("AB".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("%69 VD92EX0", QRPayloadCodec.base45Encode("Hello!!".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("UJCLQE7W581", QRPayloadCodec.base45Encode("base-45".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertInvalid(String content) {
+        try {
+            QRPayloadCodec.decode(content);
+            fail("Expected payload to be rejected: " + content);
+        } catch (QRPayloadCodec.InvalidPayloadException expected) {
+            // Expected
+        }
+    }
+}